@@ -0,0 +1,142 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.ms.frontend.subtools.similarity;
+
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.JobManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Compares exact top-k similarity (blocked engine) with MinHash/LSH candidate generation plus exact scoring of the
+ * candidates on a synthetic data set of clustered fingerprints (compound families). The recall of the LSH index
+ * against the exact top-k neighbours is estimated on a sample of queries during setup and printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ApproximateSimilarityBenchmark {
+    private static final int TOP_K = 10;
+    private static final int RECALL_QUERIES = 200;
+
+    @Param({"1000", "10000", "30000"})
+    public int n;
+
+    @Param({"8", "24", "48"})
+    public int bands;
+
+    @Param({"4"})
+    public int rows;
+
+    private PackedFingerprints packed;
+    private int[][] tokens;
+    private JobManager jobManager;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getDefault();
+        final Random r = new Random(42);
+        final int families = Math.max(1, n / 20);
+        final double[][] centers = new double[families][version.size()];
+        for (double[] center : centers)
+            for (int i = 0; i < center.length; i++)
+                center[i] = r.nextDouble() < 0.05 ? 0.9 : 0.02;
+
+        final ProbabilityFingerprint[] fps = new ProbabilityFingerprint[n];
+        for (int k = 0; k < n; k++) {
+            final double[] center = centers[r.nextInt(families)];
+            final double[] probs = new double[center.length];
+            for (int i = 0; i < probs.length; i++) {
+                // flip some properties of the family center
+                final boolean flip = r.nextDouble() < 0.02;
+                final double p = flip ? 1d - center[i] : center[i];
+                probs[i] = Math.min(1d, Math.max(0d, p + (r.nextDouble() - 0.5) * 0.1));
+            }
+            fps[k] = new ProbabilityFingerprint(version, probs);
+        }
+        packed = PackedFingerprints.of(fps);
+        tokens = new int[n][];
+        for (int i = 0; i < n; i++)
+            tokens[i] = packed.setBits(i);
+        jobManager = SiriusJobs.getGlobalJobManager();
+        output = File.createTempFile("similarity-benchmark", ".edges.bin");
+        output.deleteOnExit();
+
+        System.out.printf("%nn=%d bands=%d rows=%d estimated recall@%d: %.3f%n", n, bands, rows, TOP_K, estimateRecall());
+    }
+
+    private double estimateRecall() {
+        final int[][] candidates = new MinHashLSHIndex(bands, rows, 2000, 42).candidates(tokens, jobManager);
+        final Random r = new Random(7);
+        int found = 0, total = 0;
+        for (int q = 0; q < Math.min(RECALL_QUERIES, n); q++) {
+            final int query = r.nextInt(n);
+            final Integer[] order = new Integer[n];
+            for (int j = 0; j < n; j++) order[j] = j;
+            final double[] scores = new double[n];
+            for (int j = 0; j < n; j++) scores[j] = j == query ? Double.NEGATIVE_INFINITY : packed.tanimoto(query, j);
+            Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+            for (int k = 0; k < TOP_K && k < n - 1; k++) {
+                total++;
+                if (Arrays.binarySearch(candidates[query], order[k]) >= 0)
+                    found++;
+            }
+        }
+        return total == 0 ? 1d : (double) found / total;
+    }
+
+    @Benchmark
+    public long exact() throws IOException {
+        final String[] names = new String[n];
+        Arrays.fill(names, "");
+        try (SparseSimilarityWriter writer = new SparseSimilarityWriter(output, names, BlockedSimilarityEngine.DEFAULT_TILE_SIZE, TOP_K, Double.NEGATIVE_INFINITY, SparseSimilarityWriter.Format.BINARY, -1)) {
+            new BlockedSimilarityEngine(BlockedSimilarityEngine.DEFAULT_TILE_SIZE, 2 * jobManager.getCPUThreads())
+                    .compute(n, packed.tanimotoKernel(), writer, jobManager);
+            return writer.getNumberOfEdges();
+        }
+    }
+
+    @Benchmark
+    public long lsh() throws IOException {
+        final String[] names = new String[n];
+        Arrays.fill(names, "");
+        final int[][] candidates = new MinHashLSHIndex(bands, rows, 2000, 42).candidates(tokens, jobManager);
+        try (SparseSimilarityWriter writer = new SparseSimilarityWriter(output, names, BlockedSimilarityEngine.DEFAULT_TILE_SIZE, TOP_K, Double.NEGATIVE_INFINITY, SparseSimilarityWriter.Format.BINARY, -1)) {
+            IntStream.range(0, n).parallel().forEach(i -> {
+                final int[] neighbours = candidates[i];
+                final double[] scores = new double[neighbours.length];
+                for (int k = 0; k < neighbours.length; k++)
+                    scores[k] = packed.tanimoto(i, neighbours[k]);
+                writer.acceptNeighbours(i, neighbours, scores, neighbours.length);
+            });
+            return writer.getNumberOfEdges();
+        }
+    }
+}
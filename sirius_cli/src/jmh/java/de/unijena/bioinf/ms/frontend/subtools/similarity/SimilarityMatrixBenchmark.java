@@ -0,0 +1,88 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.ms.frontend.subtools.similarity;
+
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.math.MatrixUtils;
+import de.unijena.bioinf.jjobs.JobManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former row wise matrix computation with the tiled {@link BlockedSimilarityEngine}
+ * on synthetic fingerprints. Run with {@code ./gradlew :sirius_cli:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SimilarityMatrixBenchmark {
+
+    @Param({"1000", "10000", "30000"})
+    public int n;
+
+    private ProbabilityFingerprint[] fingerprints;
+    private PackedFingerprints packed;
+    private JobManager jobManager;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getDefault();
+        final Random r = new Random(42);
+        fingerprints = new ProbabilityFingerprint[n];
+        for (int k = 0; k < n; ++k) {
+            final double[] probs = new double[version.size()];
+            for (int i = 0; i < probs.length; ++i) {
+                // sparse like real predictions: most properties are close to zero
+                probs[i] = r.nextDouble() < 0.1 ? 0.5 + r.nextDouble() / 2d : r.nextDouble() * 0.1;
+            }
+            fingerprints[k] = new ProbabilityFingerprint(version, probs);
+        }
+        packed = PackedFingerprints.of(fingerprints);
+        jobManager = SiriusJobs.getGlobalJobManager();
+    }
+
+    @Benchmark
+    public double[][] rowWise() throws Exception {
+        final double[][] M = new double[n][n];
+        jobManager.submitJob(MatrixUtils.parallelizeSymmetricMatrixComputation(M, (i, j) -> SimilarityMatrixWorkflow.fpcos(fingerprints[i], fingerprints[j]))).takeResult();
+        return M;
+    }
+
+    @Benchmark
+    public BlockedSimilarityEngine.SimilarityMatrix blocked() {
+        final BlockedSimilarityEngine.SimilarityMatrix M = BlockedSimilarityEngine.newMatrix(n, false);
+        new BlockedSimilarityEngine(BlockedSimilarityEngine.DEFAULT_TILE_SIZE, 2 * jobManager.getCPUThreads())
+                .compute(n, packed.fpcosKernel(), M, jobManager);
+        return M;
+    }
+
+    @Benchmark
+    public BlockedSimilarityEngine.SimilarityMatrix blockedSinglePrecision() {
+        final BlockedSimilarityEngine.SimilarityMatrix M = BlockedSimilarityEngine.newMatrix(n, true);
+        new BlockedSimilarityEngine(BlockedSimilarityEngine.DEFAULT_TILE_SIZE, 2 * jobManager.getCPUThreads())
+                .compute(n, packed.fpcosKernel(), M, jobManager);
+        return M;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.workflow;
+
+import de.unijena.bioinf.ms.frontend.DefaultParameter;
+import de.unijena.bioinf.ms.frontend.subtools.CLIRootOptions;
+import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.projectspace.ProjectSpaceManagerFactory;
+import org.openjdk.jmh.annotations.*;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of building the picocli model and parsing a typical toolchain command line
+ * ({@code sirius -i x.ms formula fingerprint structure}), with the full model (all tools and one option per default
+ * config key) vs. the model restricted to the subcommands that occur in the command line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArgumentParsingBenchmark {
+
+    private Path input;
+    private String[] args;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        input = Files.createTempFile("parse-benchmark", ".ms");
+        Files.writeString(input, ">compound benchmark\n>parentmass 195.0877\n>ionization [M+H]+\n\n>ms2\n138.0662 100\n110.0713 20\n");
+        args = new String[]{"-i", input.toString(), "formula", "fingerprint", "structure"};
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+    }
+
+    @Benchmark
+    public CommandLine.ParseResult fullModel() throws IOException {
+        final WorkflowBuilder<?> builder = makeBuilder();
+        builder.initRootSpec();
+        return parse(builder);
+    }
+
+    @Benchmark
+    public CommandLine.ParseResult argsModel() throws IOException {
+        final WorkflowBuilder<?> builder = makeBuilder();
+        builder.initRootSpec(args);
+        return parse(builder);
+    }
+
+    private WorkflowBuilder<?> makeBuilder() throws IOException {
+        final DefaultParameterConfigLoader configOptionLoader = new DefaultParameterConfigLoader(PropertyManager.DEFAULTS.newIndependentInstance("PARSE_BENCHMARK"));
+        return new WorkflowBuilder<>(new CLIRootOptions<>(configOptionLoader, new ProjectSpaceManagerFactory.Default()), configOptionLoader, new SimpleInstanceBuffer.Factory());
+    }
+
+    private CommandLine.ParseResult parse(WorkflowBuilder<?> builder) {
+        final CommandLine commandline = new CommandLine(builder.getRootSpec());
+        commandline.setCaseInsensitiveEnumValuesAllowed(true);
+        commandline.registerConverter(DefaultParameter.class, new DefaultParameter.Converter());
+        return commandline.parseArgs(args);
+    }
+}
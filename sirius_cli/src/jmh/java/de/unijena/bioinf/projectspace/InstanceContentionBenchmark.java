@@ -0,0 +1,131 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Spectrum;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 15 threads accessing the same compound, each through its own {@link Instance} object like the REST API, the GUI
+ * and compute jobs do: readers of the experiment and of the formula results (cache hits in the compound and the
+ * shared formula result cache) while a single thread keeps writing to it.
+ * With method level synchronization all readers serialize behind each other and behind the writer.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InstanceContentionBenchmark {
+
+    private static final String[] FORMULAS = {"C6H12O6", "C7H16O5", "C5H12N2O5", "C8H8N2O3", "C4H12N4O4", "C6H14NO4P", "C9H8O4", "C3H16N2O6S", "C7H12N2O4", "C5H8N4O3"};
+
+    private ProjectSpaceManager<Instance> psm;
+    private Instance instance;
+
+    /**
+     * Separate {@link Instance} of the benchmarked compound per thread. All of them share the compound locks and the
+     * cached formula results of the project-space manager.
+     */
+    @State(Scope.Thread)
+    public static class ThreadInstance {
+        private Instance instance;
+
+        @Setup(Level.Trial)
+        public void setup(InstanceContentionBenchmark shared) throws IOException {
+            instance = new Instance(shared.psm.projectSpace().getCompound(shared.instance.getID(), Ms2Experiment.class), shared.psm);
+            instance.loadCompoundContainer(Ms2Experiment.class);
+            instance.loadFormulaResults();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        psm = new ProjectSpaceManagerFactory.Default().create(new ProjectSpaceIO(ProjectSpaceManager.newDefaultConfig()).createTemporaryProjectSpace());
+
+        final MutableMs2Experiment exp = new MutableMs2Experiment();
+        exp.setName("contention");
+        exp.setPrecursorIonType(PrecursorIonType.getPrecursorIonType("[M+H]+"));
+        exp.setIonMass(181.0707);
+        exp.setMs2Spectra(List.of(new MutableMs2Spectrum(new SimpleSpectrum(
+                new double[]{85.0284, 97.0284, 127.0390, 145.0495, 163.0601},
+                new double[]{0.3, 0.2, 0.5, 0.8, 1.0}), 181.0707, CollisionEnergy.none(), 2)));
+        instance = psm.newCompoundWithUniqueId(exp);
+        final PrecursorIonType ionType = exp.getPrecursorIonType();
+        for (int i = 0; i < FORMULAS.length; i++) {
+            final FTree tree = new FTree(MolecularFormula.parseOrThrow(FORMULAS[i]), ionType.getIonization());
+            tree.setTreeWeight(-i);
+            instance.newFormulaResultWithUniqueId(tree);
+        }
+        // warm the caches, all reads in the benchmark are cache hits
+        instance.loadCompoundContainer(Ms2Experiment.class);
+        if (instance.loadFormulaResults().size() != FORMULAS.length)
+            throw new IllegalStateException("Formula results have not been created.");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        psm.close();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(7)
+    public Ms2Experiment reader(ThreadInstance t) {
+        return t.instance.getExperiment();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(7)
+    public int readerResults(ThreadInstance t) {
+        return t.instance.loadFormulaResults().size();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer(ThreadInstance t) {
+        t.instance.updateExperiment();
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(8)
+    public Ms2Experiment readerOnly(ThreadInstance t) {
+        return t.instance.getExperiment();
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(7)
+    public int readerResultsOnly(ThreadInstance t) {
+        return t.instance.loadFormulaResults().size();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Throughput of collecting project wide summary rows from 1 to 64 threads that write compound summaries
+ * concurrently. Compares the {@link ShardedRowBuffer} used by the summary writers with collecting into a single
+ * map guarded by a lock (as the writers did before). Each invocation adds {@link #ROWS} rows and merges them once,
+ * as done when the project wide summary is written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SummaryRowCollectionBenchmark {
+    private static final int ROWS = 100_000;
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    public int threads;
+
+    // simulated per compound work (e.g. formatting a row) in between two adds
+    @Param({"0", "200"})
+    public int rowWorkNanos;
+
+    private ExecutorService executor;
+    private String[] dirNames;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = Executors.newFixedThreadPool(threads);
+        dirNames = new String[ROWS];
+        for (int i = 0; i < ROWS; i++)
+            dirNames[i] = i + "_compound";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int sharded() throws Exception {
+        final ShardedRowBuffer<String[]> buffer = new ShardedRowBuffer<>();
+        run(i -> buffer.put(dirNames[i], row(i)));
+        return buffer.merge().size();
+    }
+
+    @Benchmark
+    public int locked() throws Exception {
+        final Lock lock = new ReentrantLock();
+        final Map<String, String[]> rows = new HashMap<>();
+        run(i -> {
+            final String[] row = row(i);
+            lock.lock();
+            try {
+                rows.put(dirNames[i], row);
+            } finally {
+                lock.unlock();
+            }
+        });
+        return rows.size();
+    }
+
+    private String[] row(int i) {
+        if (rowWorkNanos > 0) {
+            final long end = System.nanoTime() + rowWorkNanos;
+            while (System.nanoTime() < end)
+                Thread.onSpinWait();
+        }
+        return new String[]{dirNames[i], String.valueOf(i)};
+    }
+
+    private void run(IntConsumer add) throws Exception {
+        final List<Future<?>> futures = new ArrayList<>(threads);
+        final int chunk = (ROWS + threads - 1) / threads;
+        for (int t = 0; t < threads; t++) {
+            final int from = t * chunk;
+            final int to = Math.min(ROWS, from + chunk);
+            futures.add(executor.submit(() -> {
+                for (int i = from; i < to; i++)
+                    add.accept(i);
+            }));
+        }
+        for (Future<?> f : futures)
+            f.get();
+    }
+}
@@ -54,7 +54,15 @@ public final class BackgroundRuns {
     private static final AtomicInteger RUN_COUNTER = new AtomicInteger(0);
 
     public static final String ACTIVE_RUNS_PROPERTY = "ACTIVE_RUNS";
-    private static InstanceBufferFactory<?> BUFFER_FACTORY = new SimpleInstanceBuffer.Factory();
+    private static InstanceBufferFactory<?> BUFFER_FACTORY = makeDefaultBufferFactory();
+
+    private static InstanceBufferFactory<?> makeDefaultBufferFactory() {
+        if (PropertyManager.getBoolean(PipelinedInstanceBuffer.ENABLED_KEY, false))
+            return new PipelinedInstanceBuffer.Factory();
+        if (PropertyManager.getBoolean(AdaptiveInstanceBuffer.ENABLED_KEY, false))
+            return new AdaptiveInstanceBuffer.Factory();
+        return new SimpleInstanceBuffer.Factory();
+    }
 
     public static InstanceBufferFactory<?> getBufferFactory() {
         return BUFFER_FACTORY;
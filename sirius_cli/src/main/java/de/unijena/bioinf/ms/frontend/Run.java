@@ -22,10 +22,13 @@ package de.unijena.bioinf.ms.frontend;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
 import de.unijena.bioinf.ms.frontend.workflow.Workflow;
 import de.unijena.bioinf.ms.frontend.workflow.WorkflowBuilder;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 
+import java.io.File;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 
@@ -48,10 +51,20 @@ public class Run extends ApplicationCore {
     protected final static Logger logger = LoggerFactory.getLogger(Run.class);
     protected Workflow flow;
     private final WorkflowBuilder<?> builder;
+    @Nullable
+    private final Path workingDirectory;
 
     public Run(WorkflowBuilder<?> builder) {
+        this(builder, null);
+    }
+
+    /**
+     * @param workingDirectory directory that relative file arguments are resolved against, e.g. the one of a daemon
+     *                         client. Null for the working directory of this JVM.
+     */
+    public Run(WorkflowBuilder<?> builder, @Nullable Path workingDirectory) {
         this.builder = builder;
-        this.builder.initRootSpec();
+        this.workingDirectory = workingDirectory;
     }
 
 
@@ -72,15 +85,29 @@ public class Run extends ApplicationCore {
 
         if (!List.of(args).contains("login") && !List.of(args).contains("password") && !List.of(args).contains("pwd"))
             logger.info("Running with following arguments: " + Arrays.toString(args));
+        // only the specs of the tools that occur in the args are built, see WorkflowBuilder#initRootSpec(String[])
+        if (builder.getRootSpec() == null)
+            builder.initRootSpec(args);
         final CommandLine commandline = new CommandLine(builder.getRootSpec());
         commandline.setCaseInsensitiveEnumValuesAllowed(true);
         commandline.registerConverter(DefaultParameter.class, new DefaultParameter.Converter());
+        if (workingDirectory != null)
+            registerPathConverters(commandline, workingDirectory);
         flow = commandline.parseWithHandler(builder.makeParseResultHandler(), args);
         List<Exception> l = commandline.getParseResult().errors();
         CommandLine.ParseResult r = commandline.getParseResult();
         return flow != null; //todo maybe workflow validation would be nice here???
     }
 
+    /**
+     * Resolves relative {@link Path} and {@link File} values of all options and parameters against the given
+     * directory. Must be called after all sub-commands have been added.
+     */
+    public static void registerPathConverters(CommandLine commandline, Path workingDirectory) {
+        commandline.registerConverter(Path.class, workingDirectory::resolve);
+        commandline.registerConverter(File.class, value -> workingDirectory.resolve(value).toFile());
+    }
+
     public void cancel() {
         if (flow != null)
             flow.cancel();
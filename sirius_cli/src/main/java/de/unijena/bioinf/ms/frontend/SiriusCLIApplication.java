@@ -25,10 +25,11 @@ import de.unijena.bioinf.auth.AuthServices;
 import de.unijena.bioinf.jjobs.JobManager;
 import de.unijena.bioinf.ms.annotations.PrintCitations;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
+import de.unijena.bioinf.ms.frontend.core.StartupMetrics;
 import de.unijena.bioinf.ms.frontend.subtools.CLIRootOptions;
 import de.unijena.bioinf.ms.frontend.subtools.StandaloneTool;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
-import de.unijena.bioinf.ms.frontend.workflow.SimpleInstanceBuffer;
+import de.unijena.bioinf.ms.frontend.subtools.daemon.DaemonClient;
 import de.unijena.bioinf.ms.frontend.workflow.WorkFlowSupplier;
 import de.unijena.bioinf.ms.frontend.workflow.WorkflowBuilder;
 import de.unijena.bioinf.ms.properties.PropertyManager;
@@ -39,6 +40,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -49,10 +51,10 @@ public class SiriusCLIApplication {
     protected static Run RUN = null;
     protected static boolean successfulParsed;
 
-    protected static final boolean TIME = false;
-    protected static long t1;
-
     public static void main(String[] args) {
+        // thin client mode, must not touch the application core to start fast.
+        if (args.length > 0 && args[0].equals(DaemonClient.CLIENT_FLAG))
+            System.exit(DaemonClient.run(Arrays.copyOfRange(args, 1, args.length)));
         runMain(args, List.of());
     }
     public static void runMain(String[] args, List<StandaloneTool<?>> injectTools) {
@@ -62,9 +64,9 @@ public class SiriusCLIApplication {
             int i = argsl.indexOf("--workspace");
             if (i >= 0)
                 System.setProperty("de.unijena.bioinf.sirius.ws.location", args[i+1].replace("'","").replace("\"",""));
+            if (argsl.contains(StartupMetrics.FLAG))
+                System.setProperty(StartupMetrics.PROPERTY_KEY, "true");
         }
-        if (TIME)
-            t1 = System.currentTimeMillis();
         try {
             // The spring app classloader seems not to be correctly inherited to sub thread
             // So we need to ensure that the apache.configuration2 libs gets access otherwise.
@@ -75,19 +77,16 @@ public class SiriusCLIApplication {
             measureTime("Start Run method");
             run(args, () -> {
                 final DefaultParameterConfigLoader configOptionLoader = new DefaultParameterConfigLoader();
-                return new WorkflowBuilder<>(new CLIRootOptions<>(configOptionLoader, new ProjectSpaceManagerFactory.Default()), configOptionLoader, new SimpleInstanceBuffer.Factory(), injectTools);
+                return new WorkflowBuilder<>(new CLIRootOptions<>(configOptionLoader, new ProjectSpaceManagerFactory.Default()), configOptionLoader, BackgroundRuns.getBufferFactory(), injectTools);
             });
         } finally {
+            StartupMetrics.report();
             System.exit(0);
         }
     }
 
     public static void measureTime(String message) {
-        if (TIME) {
-            long t2 = System.currentTimeMillis();
-            System.err.println("==> " + message + " - " + (t2 - t1) / 1000d);
-            t1 = t2;
-        }
+        StartupMetrics.mark(message);
     }
 
     public static void configureShutDownHook(@NotNull final Runnable... additionalActions) {
@@ -103,11 +102,14 @@ public class SiriusCLIApplication {
                 e.printStackTrace();
             } finally {
                 try {
-                    AuthService as = ApplicationCore.WEB_API.getAuthService();
-                    if (as.isLoggedIn())
-                        AuthServices.writeRefreshToken(ApplicationCore.WEB_API.getAuthService(), ApplicationCore.TOKEN_FILE, true);
-                    else
-                        Files.deleteIfExists(ApplicationCore.TOKEN_FILE);
+                    // web api has not been used by this run -> nothing to persist.
+                    if (ApplicationCore.isWebAPIInitialized()) {
+                        AuthService as = ApplicationCore.webAPI().getAuthService();
+                        if (as.isLoggedIn())
+                            AuthServices.writeRefreshToken(ApplicationCore.webAPI().getAuthService(), ApplicationCore.TOKEN_FILE, true);
+                        else
+                            Files.deleteIfExists(ApplicationCore.TOKEN_FILE);
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();
                 }finally {
@@ -123,7 +125,8 @@ public class SiriusCLIApplication {
     public static Runnable shutdownWebservice() {
         return () -> {
             try {
-                ApplicationCore.WEB_API.shutdown();
+                if (ApplicationCore.isWebAPIInitialized())
+                    ApplicationCore.webAPI().shutdown();
             } catch (IOException e) {
                 LoggerFactory.getLogger(SiriusCLIApplication.class).warn("Could not clean up Server data! " + e.getMessage());
                 LoggerFactory.getLogger(SiriusCLIApplication.class).debug("Could not clean up Server data!", e);
@@ -73,26 +73,17 @@ public abstract class ApplicationCore {
     public static final Path TOKEN_FILE;
 
     public static final SiriusFactory SIRIUS_PROVIDER = new SiriusCachedFactory();
-    public static final WebAPI<?> WEB_API;
+    private static volatile WebAPI<?> webAPI;
     @NotNull
     public static final BibtexManager BIBTEX;
 
-    private static final boolean TIME = false;
-    private static long t1;
-
     public static void measureTime(String message) {
-        if (TIME) {
-            long t2 = System.currentTimeMillis();
-            System.err.println("===> " + message + " - " + (t2 - t1) / 1000d);
-            t1 = t2;
-        }
+        StartupMetrics.mark(message);
     }
 
 
     //creating
     static {
-        if (TIME)
-            t1 = System.currentTimeMillis();
         measureTime("Start AppCore");
         try {
             //init static block (does not work via static import Oo)
@@ -255,25 +246,7 @@ public abstract class ApplicationCore {
 
 
             TOKEN_FILE = WORKSPACE.resolve(PropertyManager.getProperty("de.unijena.bioinf.sirius.security.tokenFile", null, ".rtoken"));
-
-            AuthService service = ProxyManager.applyClient(c -> AuthServices.createDefault(PropertyManager.getProperty("de.unijena.bioinf.sirius.security.audience"), TOKEN_FILE, c));
-            Subscription sub = null; //web connection
-            try {
-                sub = NetUtils.tryAndWait(() -> service.getToken().map(Tokens::getActiveSubscription).orElse(null),
-                        () -> NetUtils.checkThreadInterrupt(Thread.currentThread()), 30000) ;
-            } catch (Exception e) {
-                LoggerFactory.getLogger(ApplicationCore.class).debug("Error when refreshing token", e);
-                if (APP_TYPE == AppType.CLI){
-                    LoggerFactory.getLogger(ApplicationCore.class).error("Error when refreshing token: " + e.getMessage() + " Your refresh token might be corrupted or invalid. Please clear login and re-login!", e);
-                    throw e; // fail CLI execution, since a run without login is likely to mak no sense.
-                }else {
-                    LoggerFactory.getLogger(ApplicationCore.class).warn("Error when refreshing token: " + e.getMessage() + " Cleaning login information. Please re-login!");
-                    AuthServices.clearRefreshToken(service, TOKEN_FILE); // in case token is corrupted or the account has been deleted
-                }
-            }
-            WEB_API = new RestAPI(service, sub);
-            DEFAULT_LOGGER.info("Web API initialized.");
-            measureTime("DONE init WebAPI");
+            measureTime("DONE init AppCore");
 
         } catch (Throwable e) {
             System.err.println("Application Core STATIC Block Error!");
@@ -282,6 +255,53 @@ public abstract class ApplicationCore {
         }
     }
 
+    /**
+     * The web API (and the login token refresh it needs) is initialized on first access, so that commands that
+     * do not need web services (e.g. decomp) do not pay for it at startup.
+     */
+    public static WebAPI<?> webAPI() {
+        WebAPI<?> api = webAPI;
+        if (api == null) {
+            synchronized (ApplicationCore.class) {
+                api = webAPI;
+                if (api == null) {
+                    try {
+                        api = initWebAPI();
+                    } catch (Exception e) {
+                        throw new RuntimeException("Could not initialize Web API!", e);
+                    }
+                    webAPI = api;
+                    DEFAULT_LOGGER.info("Web API initialized.");
+                    measureTime("DONE init WebAPI");
+                }
+            }
+        }
+        return api;
+    }
+
+    public static boolean isWebAPIInitialized() {
+        return webAPI != null;
+    }
+
+    private static WebAPI<?> initWebAPI() throws Exception {
+        AuthService service = ProxyManager.applyClient(c -> AuthServices.createDefault(PropertyManager.getProperty("de.unijena.bioinf.sirius.security.audience"), TOKEN_FILE, c));
+        Subscription sub = null; //web connection
+        try {
+            sub = NetUtils.tryAndWait(() -> service.getToken().map(Tokens::getActiveSubscription).orElse(null),
+                    () -> NetUtils.checkThreadInterrupt(Thread.currentThread()), 30000) ;
+        } catch (Exception e) {
+            LoggerFactory.getLogger(ApplicationCore.class).debug("Error when refreshing token", e);
+            if (APP_TYPE == AppType.CLI){
+                LoggerFactory.getLogger(ApplicationCore.class).error("Error when refreshing token: " + e.getMessage() + " Your refresh token might be corrupted or invalid. Please clear login and re-login!", e);
+                throw e; // fail CLI execution, since a run without login is likely to mak no sense.
+            }else {
+                LoggerFactory.getLogger(ApplicationCore.class).warn("Error when refreshing token: " + e.getMessage() + " Cleaning login information. Please re-login!");
+                AuthServices.clearRefreshToken(service, TOKEN_FILE); // in case token is corrupted or the account has been deleted
+            }
+        }
+        return new RestAPI(service, sub);
+    }
+
     private static void deleteFromWorkspace(final Path... files) {
         for (Path file : files) {
             try {
@@ -0,0 +1,86 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.core;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the duration of named startup phases (application core initialization, argument parsing, compute, ...)
+ * and reports them as tab separated lines ({@code startup-metrics <phase> <start_ms> <duration_ms>}) on stderr.
+ * <p>
+ * Metrics are only recorded if the system property {@link #PROPERTY_KEY} is {@code true}. It has to be set
+ * before the first phase is marked, the CLI does this for the {@code --startup-metrics} flag.
+ * Phase start times are relative to the JVM start, so the first phase includes JVM boot and class loading.
+ */
+public final class StartupMetrics {
+    public static final String PROPERTY_KEY = "de.unijena.bioinf.sirius.startupMetrics";
+    public static final String FLAG = "--startup-metrics";
+
+    private static final boolean ENABLED = Boolean.getBoolean(PROPERTY_KEY);
+
+    private static final List<String> phases = new ArrayList<>();
+    private static final List<long[]> times = new ArrayList<>();
+    private static long last = -1;
+
+    private StartupMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Ends the current phase. The time since the previous mark (or JVM start) is recorded under the given name.
+     */
+    public static void mark(String phase) {
+        if (!ENABLED)
+            return;
+        final long now = uptimeMillis();
+        synchronized (phases) {
+            final long start = last < 0 ? 0 : last;
+            phases.add(phase);
+            times.add(new long[]{start, now - start});
+            last = now;
+        }
+    }
+
+    public static void report() {
+        report(System.err);
+    }
+
+    public static void report(PrintStream out) {
+        if (!ENABLED)
+            return;
+        synchronized (phases) {
+            for (int i = 0; i < phases.size(); i++)
+                out.println("startup-metrics\t" + phases.get(i) + "\t" + times.get(i)[0] + "\t" + times.get(i)[1]);
+            out.println("startup-metrics\ttotal\t0\t" + uptimeMillis());
+            phases.clear();
+            times.clear();
+        }
+    }
+
+    private static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
@@ -23,6 +23,7 @@ import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.rest.NetUtils;
 import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
+import de.unijena.bioinf.ms.frontend.core.StartupMetrics;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.properties.PropertyManager;
 import de.unijena.bioinf.projectspace.*;
@@ -114,6 +115,10 @@ public class CLIRootOptions<I extends Instance, M extends ProjectSpaceManager<I>
 
     public Files workspace; //todo change in application core
 
+    // evaluated before parsing (see SiriusCLIApplication), since the application core is initialized before.
+    @Option(names = {StartupMetrics.FLAG}, description = "Print the duration of the startup phases (tab separated) to stderr when SIRIUS exits.", order = 31)
+    public boolean startupMetrics;
+
     @Option(names = "--recompute", descriptionKey = "RecomputeResults", description = "Recompute results of ALL tools where results are already present. Per default already present results will be preserved and the instance will be skipped for the corresponding Task/Tool", order = 100)
     public void setRecompute(boolean para) throws Exception {
         defaultConfigOptions.changeOption("RecomputeResults", para);
@@ -206,7 +211,7 @@ public class CLIRootOptions<I extends Instance, M extends ProjectSpaceManager<I>
             });
 
 
-            if (ApplicationCore.WEB_API.getAuthService().isLoggedIn() && ApplicationCore.WEB_API.getActiveSubscription() != null) {
+            if (ApplicationCore.webAPI().getAuthService().isLoggedIn() && ApplicationCore.webAPI().getActiveSubscription() != null) {
                 try {
                     space.checkAndFixDataFiles(NetUtils.checkThreadInterrupt(Thread.currentThread()));
                 } catch (TimeoutException | InterruptedException e) {
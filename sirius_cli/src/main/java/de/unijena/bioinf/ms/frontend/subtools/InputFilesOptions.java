@@ -117,16 +117,16 @@ public class InputFilesOptions {
     public List<CsvInput> csvInputs;
 
     public static class CsvInput {
-        @CommandLine.Option(names = {"-1", "--ms1"}, description = "MS1 spectra files", paramLabel = "<ms1File>[,<ms1File>...]", order = 331)
-        protected void setMs1(String ms1Files) {
-            this.ms1 = Arrays.stream(ms1Files.split(",")).map(File::new).collect(Collectors.toList());
+        @CommandLine.Option(names = {"-1", "--ms1"}, description = "MS1 spectra files", paramLabel = "<ms1File>[,<ms1File>...]", split = ",", order = 331)
+        protected void setMs1(List<File> ms1Files) {
+            this.ms1 = ms1Files;
         }
 
         public List<File> ms1;
 
-        @CommandLine.Option(names = {"-2", "--ms2"}, description = "MS2 spectra files", required = true, paramLabel = "<ms2File>[,<ms2File>...]", order = 332)
-        protected void setMs2(String ms2Files) {
-            this.ms2 = Arrays.stream(ms2Files.split(",")).map(File::new).collect(Collectors.toList());
+        @CommandLine.Option(names = {"-2", "--ms2"}, description = "MS2 spectra files", required = true, paramLabel = "<ms2File>[,<ms2File>...]", split = ",", order = 332)
+        protected void setMs2(List<File> ms2Files) {
+            this.ms2 = ms2Files;
         }
 
         public List<File> ms2;
@@ -29,6 +29,9 @@ import de.unijena.bioinf.projectspace.Instance;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -156,4 +159,24 @@ public abstract class InstanceJob extends ToolChainJobImpl<Instance> implements
     }
 
     protected boolean needsMs2(){return true;};
+
+    /**
+     * Waits for the response of a request that has been submitted to a
+     * {@link de.unijena.bioinf.ms.frontend.webapi.WebRequestBatcher} while checking for interruption.
+     */
+    protected <O> O awaitBatched(@NotNull Future<O> response) throws InterruptedException, ExecutionException {
+        while (true) {
+            try {
+                return response.get(500, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                try {
+                    checkForInterruption();
+                } catch (InterruptedException ie) {
+                    // skips the request if its batch has not been dispatched yet
+                    response.cancel(false);
+                    throw ie;
+                }
+            }
+        }
+    }
 }
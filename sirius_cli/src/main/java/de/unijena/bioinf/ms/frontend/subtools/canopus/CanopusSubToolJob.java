@@ -30,6 +30,8 @@ import de.unijena.bioinf.ms.annotations.DataAnnotation;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
+import de.unijena.bioinf.ms.frontend.webapi.PredictionBackend;
+import de.unijena.bioinf.ms.frontend.webapi.WebBatching;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusCfData;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusJobInput;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
@@ -45,6 +47,7 @@ import org.jetbrains.annotations.NotNull;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class CanopusSubToolJob extends InstanceJob {
@@ -84,15 +87,15 @@ public class CanopusSubToolJob extends InstanceJob {
 
         // write ClassyFire client data
         if (inst.getProjectSpaceManager().getProjectSpaceProperty(CanopusCfDataProperty.class).isEmpty()) {
-            final CanopusCfData pos = NetUtils.tryAndWait(() -> ApplicationCore.WEB_API.getCanopusCfData(PredictorType.CSI_FINGERID_POSITIVE), this::checkForInterruption);
-            final CanopusCfData neg = NetUtils.tryAndWait(() -> ApplicationCore.WEB_API.getCanopusCfData(PredictorType.CSI_FINGERID_NEGATIVE), this::checkForInterruption);
+            final CanopusCfData pos = NetUtils.tryAndWait(() -> ApplicationCore.webAPI().getCanopusCfData(PredictorType.CSI_FINGERID_POSITIVE), this::checkForInterruption);
+            final CanopusCfData neg = NetUtils.tryAndWait(() -> ApplicationCore.webAPI().getCanopusCfData(PredictorType.CSI_FINGERID_NEGATIVE), this::checkForInterruption);
             inst.getProjectSpaceManager().setProjectSpaceProperty(new CanopusCfDataProperty(pos, neg));
         }
 
         // write NPC client data
         if (inst.getProjectSpaceManager().getProjectSpaceProperty(CanopusNpcDataProperty.class).isEmpty()) {
-            final CanopusNpcData pos = NetUtils.tryAndWait(() -> ApplicationCore.WEB_API.getCanopusNpcData(PredictorType.CSI_FINGERID_POSITIVE), this::checkForInterruption);
-            final CanopusNpcData neg = NetUtils.tryAndWait(() -> ApplicationCore.WEB_API.getCanopusNpcData(PredictorType.CSI_FINGERID_NEGATIVE), this::checkForInterruption);
+            final CanopusNpcData pos = NetUtils.tryAndWait(() -> ApplicationCore.webAPI().getCanopusNpcData(PredictorType.CSI_FINGERID_POSITIVE), this::checkForInterruption);
+            final CanopusNpcData neg = NetUtils.tryAndWait(() -> ApplicationCore.webAPI().getCanopusNpcData(PredictorType.CSI_FINGERID_NEGATIVE), this::checkForInterruption);
             inst.getProjectSpaceManager().setProjectSpaceProperty(new CanopusNpcDataProperty(pos, neg));
         }
 
@@ -103,12 +106,22 @@ public class CanopusSubToolJob extends InstanceJob {
         updateProgress(25);
 
         // submit canopus jobs for Identification results that contain CSI:FingerID results
-        jobs = res.stream().collect(Collectors.toMap(r -> r, ir -> buildAndSubmitRemote(ir, specHash)));
-        updateProgress(30);
-
-
-        checkForInterruption();
-        jobs.forEach((k, v) -> k.setAnnotation(CanopusResult.class, v.takeResult()));
+        if (WebBatching.isEnabled()) {
+            final Map<FormulaResult, Future<CanopusResult>> responses = res.stream().collect(Collectors.toMap(r -> r, ir ->
+                    WebBatching.get().canopus().submit(new PredictionBackend.CanopusRequest(ir.getId().getMolecularFormula(),
+                            ir.getId().getIonType().getCharge(), ir.getAnnotationOrThrow(FingerprintResult.class).fingerprint, specHash))));
+            updateProgress(30);
+
+            checkForInterruption();
+            for (Map.Entry<FormulaResult, Future<CanopusResult>> e : responses.entrySet())
+                e.getKey().setAnnotation(CanopusResult.class, awaitBatched(e.getValue()));
+        } else {
+            jobs = res.stream().collect(Collectors.toMap(r -> r, ir -> buildAndSubmitRemote(ir, specHash)));
+            updateProgress(30);
+
+            checkForInterruption();
+            jobs.forEach((k, v) -> k.setAnnotation(CanopusResult.class, v.takeResult()));
+        }
         updateProgress(80);
 
         // write canopus results
@@ -119,7 +132,7 @@ public class CanopusSubToolJob extends InstanceJob {
 
     private WebJJob<CanopusJobInput, ?, CanopusResult, ?> buildAndSubmitRemote(@NotNull final FormulaResult ir, int specHash)  {
         try {
-            return ApplicationCore.WEB_API.submitCanopusJob(
+            return ApplicationCore.webAPI().submitCanopusJob(
                     ir.getId().getMolecularFormula(), ir.getId().getIonType().getCharge(),
                     ir.getAnnotationOrThrow(FingerprintResult.class).fingerprint, specHash
             );
@@ -30,17 +30,26 @@ import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Spliterator;
-import java.util.Spliterators;
+import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
+/**
+ * Provides the keys of the given {@link ParameterConfig} as picocli options (config subtool) and allows
+ * changing them programmatically.
+ * <p>
+ * Option specs are materialized lazily: changing a single option only builds the spec for this option and
+ * all specs are only built if the complete option model is requested (e.g. for the config subtool).
+ */
 public class DefaultParameterConfigLoader {
     public static final String CLI_CONFIG_NAME = "CLI_CONFIG";
     private static final Logger LOG = LoggerFactory.getLogger(DefaultParameterConfigLoader.class);
-    private final Map<String, CommandLine.Model.OptionSpec> options;
+    private final Map<String, CommandLine.Model.OptionSpec> options = new LinkedHashMap<>();
+    private Set<String> shortKeys = null;
+    private boolean allOptionsLoaded = false;
     private CommandLine.Model.CommandSpec commandSpec = null;
     public final ParameterConfig config;
 
@@ -57,42 +66,68 @@ public class DefaultParameterConfigLoader {
         this.config = baseConfig;
         if (modificationLayerName != null)
             this.config.addNewConfig(modificationLayerName, SiriusConfigUtils.newConfiguration());
-        options = loadDefaultParameterOptions();
     }
 
+    private String toShortKey(String key) {
+        return key.replace(config.configRoot + ".", "");
+    }
+
+    private synchronized Set<String> shortKeys() {
+        if (shortKeys == null) {
+            final Set<String> keys = new LinkedHashSet<>();
+            config.getConfigKeys().forEachRemaining(key -> keys.add(toShortKey(key)));
+            shortKeys = keys;
+        }
+        return shortKeys;
+    }
 
-    private Map<String, CommandLine.Model.OptionSpec> loadDefaultParameterOptions() throws IOException {
-        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(config.getConfigKeys(), Spliterator.ORDERED), false)
-                .map((key) -> {
-                    final String shortKey = key.replace(config.configRoot + ".", "");
-                    final String[] descr = config.getConfigDescription(key).orElse(new String[]{});
-                    CommandLine.Model.OptionSpec.Builder pSpec = CommandLine.Model.OptionSpec
-                            .builder("--" + shortKey)
-                            .description(descr)
-                            .paramLabel(PropertyManager.DEFAULTS.getConfigValue(shortKey))
-                            .hasInitialValue(false);
-
-                    pSpec.type(String.class)
-                            .setter(new CommandLine.Model.ISetter() {
-                                @Override
-                                public <T> T set(T value) throws Exception {
-                                    LOG.debug("Changing DEFAULT:" + key + " -> " + value);
-                                    config.changeConfig(key, String.valueOf(value));
-                                    return value;
-                                }
-                            });
-            return pSpec.build();
-        }).collect(Collectors.toMap(it -> it.names()[0].replaceFirst("--", ""), it -> it));
+    private CommandLine.Model.OptionSpec makeOptionSpec(String key) {
+        final String shortKey = toShortKey(key);
+        final String[] descr = config.getConfigDescription(key).orElse(new String[]{});
+        CommandLine.Model.OptionSpec.Builder pSpec = CommandLine.Model.OptionSpec
+                .builder("--" + shortKey)
+                .description(descr)
+                .paramLabel(PropertyManager.DEFAULTS.getConfigValue(shortKey))
+                .hasInitialValue(false);
+
+        pSpec.type(String.class)
+                .setter(new CommandLine.Model.ISetter() {
+                    @Override
+                    public <T> T set(T value) throws Exception {
+                        LOG.debug("Changing DEFAULT:" + key + " -> " + value);
+                        config.changeConfig(key, String.valueOf(value));
+                        return value;
+                    }
+                });
+        return pSpec.build();
     }
 
-    public Map<String, CommandLine.Model.OptionSpec> getOptions() {
+    /**
+     * @return option spec for the given config key (without config root) or null if the key does not exist.
+     */
+    @Nullable
+    public synchronized CommandLine.Model.OptionSpec getOption(String optionName) {
+        CommandLine.Model.OptionSpec spec = options.get(optionName);
+        if (spec == null && !allOptionsLoaded && shortKeys().contains(optionName)) {
+            spec = makeOptionSpec(config.configRoot + "." + optionName);
+            options.put(optionName, spec);
+        }
+        return spec;
+    }
+
+    public synchronized Map<String, CommandLine.Model.OptionSpec> getOptions() {
+        if (!allOptionsLoaded) {
+            config.getConfigKeys().forEachRemaining(key ->
+                    options.computeIfAbsent(toShortKey(key), k -> makeOptionSpec(key)));
+            allOptionsLoaded = true;
+        }
         return options;
     }
 
-    public CommandLine.Model.CommandSpec asCommandSpec() {
+    public synchronized CommandLine.Model.CommandSpec asCommandSpec() {
         if (commandSpec == null) {
             CommandLine.Model.CommandSpec spec = CommandLine.Model.CommandSpec.forAnnotatedObject(new ConfigOptions());
-            for (CommandLine.Model.OptionSpec option : options.values()) {
+            for (CommandLine.Model.OptionSpec option : getOptions().values()) {
                 spec.addOption(option);
             }
             commandSpec = spec;
@@ -109,11 +144,18 @@ public class DefaultParameterConfigLoader {
     }
 
     public void changeOption(String optionName, String value) throws Exception {
-        options.get(optionName).setter().set(value);
+        requireOption(optionName).setter().set(value);
     }
 
     public void changeOption(String optionName, List<String> value) throws Exception {
-        options.get(optionName).setter().set(value.stream().collect(Collectors.joining(",")));
+        requireOption(optionName).setter().set(value.stream().collect(Collectors.joining(",")));
+    }
+
+    private CommandLine.Model.OptionSpec requireOption(String optionName) {
+        final CommandLine.Model.OptionSpec spec = getOption(optionName);
+        if (spec == null)
+            throw new IllegalArgumentException("Unknown configuration option: " + optionName);
+        return spec;
     }
 
     @CommandLine.Command(name = "config", description = "<CONFIGURATION> Override all possible default configurations of this toolbox from the command line.", versionProvider = Provide.Versions.class, mixinStandardHelpOptions = true)
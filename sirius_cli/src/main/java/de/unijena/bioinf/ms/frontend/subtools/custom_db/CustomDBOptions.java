@@ -158,7 +158,7 @@ public class CustomDBOptions implements StandaloneTool<Workflow> {
                 checkForInterruption();
 
                 CustomDatabaseSettings settings = new CustomDatabaseSettings(!mode.importParas.parentDBs.isEmpty(), DataSources.getDBFlag(mode.importParas.parentDBs),
-                        List.of(ApplicationCore.WEB_API.getCDKChemDBFingerprintVersion().getUsedFingerprints()), VersionsInfo.CUSTOM_DATABASE_SCHEMA, null);
+                        List.of(ApplicationCore.webAPI().getCDKChemDBFingerprintVersion().getUsedFingerprints()), VersionsInfo.CUSTOM_DATABASE_SCHEMA, null);
 
                 final CustomDatabase<?> db = CustomDatabase.createOrOpen(mode.importParas.location, mode.importParas.compression, settings);
                 addDBToPropertiesIfNotExist(db);
@@ -178,7 +178,7 @@ public class CustomDBOptions implements StandaloneTool<Workflow> {
                     dbjob = db.importToDatabaseJob(
                             unknown.stream().map(Path::toFile).collect(Collectors.toList()),
                             inChI -> updateProgress(0, Math.max(lines.intValue(), count.incrementAndGet() + 1), count.get(), "Importing '" + inChI.key2D() + "'"),
-                            ApplicationCore.WEB_API, mode.importParas.writeBuffer
+                            ApplicationCore.webAPI(), mode.importParas.writeBuffer
 
                     );
                     checkForInterruption();
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Thin client that forwards a SIRIUS command line to a running daemon (see {@link DaemonOptions}) and prints
+ * its output. Started via {@code sirius --daemon-client [--socket <path>] [--stop] <sirius args>}.
+ * <p>
+ * The daemon runs with its own working directory, so the working directory of the client is sent with the command
+ * and relative file arguments are resolved against it by the daemon.
+ */
+public final class DaemonClient {
+    public static final String CLIENT_FLAG = "--daemon-client";
+
+    private DaemonClient() {
+    }
+
+    public static int run(String[] args) {
+        Path socket = DaemonProtocol.defaultSocket();
+        boolean stop = false;
+        int i = 0;
+        for (; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length)
+                socket = Path.of(args[++i]);
+            else if (args[i].equals("--stop"))
+                stop = true;
+            else
+                break;
+        }
+        final List<String> command = List.of(args).subList(i, args.length);
+
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if (stop) {
+                out.writeByte(DaemonProtocol.OP_STOP);
+                out.flush();
+            } else {
+                DaemonProtocol.writeRun(out, Path.of(""), command.toArray(String[]::new));
+            }
+            return readResponse(in);
+        } catch (IOException e) {
+            System.err.println("Could not communicate with SIRIUS daemon at '" + socket + "': " + e.getMessage());
+            return DaemonProtocol.EXIT_ERROR;
+        }
+    }
+
+    private static int readResponse(DataInputStream in) throws IOException {
+        try {
+            while (true) {
+                final byte type = in.readByte();
+                if (type == DaemonProtocol.FRAME_EXIT)
+                    return in.readInt();
+                final byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                final PrintStream target = type == DaemonProtocol.FRAME_STDERR ? System.err : System.out;
+                target.write(payload, 0, payload.length);
+                target.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("SIRIUS daemon closed the connection unexpectedly.");
+            return DaemonProtocol.EXIT_ERROR;
+        }
+    }
+}
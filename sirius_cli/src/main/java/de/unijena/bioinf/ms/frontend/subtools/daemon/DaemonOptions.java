@@ -0,0 +1,57 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.daemon;
+
+import de.unijena.bioinf.ms.frontend.subtools.Provide;
+import de.unijena.bioinf.ms.frontend.subtools.RootOptions;
+import de.unijena.bioinf.ms.frontend.subtools.StandaloneTool;
+import de.unijena.bioinf.ms.properties.ParameterConfig;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+
+/**
+ * Options for the daemon sub-tool.
+ * Keeps a SIRIUS JVM (with warmed up JIT, loaded profiles and web service data) alive and executes
+ * CLI-equivalent command lines that are sent by {@link DaemonClient} over a local unix domain socket.
+ */
+@CommandLine.Command(name = "daemon", description = {"<STANDALONE> Run SIRIUS as long-lived worker that executes command lines received over a local unix domain socket.",
+        "Commands are sent with 'sirius " + DaemonClient.CLIENT_FLAG + " [--socket <path>] <sirius args>' and are executed one after another.",
+        "Stop the daemon with 'sirius " + DaemonClient.CLIENT_FLAG + " --stop'."},
+        versionProvider = Provide.Versions.class, mixinStandardHelpOptions = true, showDefaultValues = true)
+public class DaemonOptions implements StandaloneTool<DaemonWorkflow> {
+
+    @CommandLine.Option(names = "--socket", description = {"Location of the unix domain socket to listen on.",
+            "Default: $" + DaemonProtocol.SOCKET_ENV + " or <tmp-dir>/sirius-daemon-<user>.sock"})
+    public void setSocket(Path socket) {
+        this.socket = socket;
+    }
+
+    protected Path socket = null;
+
+    public Path getSocket() {
+        return socket != null ? socket : DaemonProtocol.defaultSocket();
+    }
+
+    @Override
+    public DaemonWorkflow makeWorkflow(RootOptions<?, ?, ?, ?> rootOptions, ParameterConfig config) {
+        return new DaemonWorkflow(getSocket());
+    }
+}
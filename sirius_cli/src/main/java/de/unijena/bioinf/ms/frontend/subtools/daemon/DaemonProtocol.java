@@ -0,0 +1,139 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Wire format between {@link DaemonClient} and {@link DaemonWorkflow}.
+ * <p>
+ * Request: one op byte ({@link #OP_RUN} followed by the working directory of the client and the number of arguments
+ * and the arguments, all strings as length prefixed UTF-8, or {@link #OP_STOP}). Response: a sequence of frames (type byte, length, payload) with the stdout/stderr
+ * output of the command, terminated by an {@link #FRAME_EXIT} frame that carries the exit status.
+ * This class must not depend on the application core, the client has to start fast.
+ */
+public final class DaemonProtocol {
+    public static final String SOCKET_ENV = "SIRIUS_DAEMON_SOCKET";
+
+    public static final byte OP_RUN = 'R';
+    public static final byte OP_STOP = 'S';
+
+    public static final byte FRAME_STDOUT = 'O';
+    public static final byte FRAME_STDERR = 'E';
+    public static final byte FRAME_EXIT = 'X';
+
+    public static final int EXIT_SUCCESS = 0;
+    public static final int EXIT_PARSE_ERROR = 1;
+    public static final int EXIT_ERROR = 2;
+
+    private DaemonProtocol() {
+    }
+
+    public static Path defaultSocket() {
+        final String env = System.getenv(SOCKET_ENV);
+        if (env != null && !env.isBlank())
+            return Path.of(env);
+        return Path.of(System.getProperty("java.io.tmpdir"), "sirius-daemon-" + System.getProperty("user.name") + ".sock");
+    }
+
+    /**
+     * Writes a run request. Relative paths in args are resolved against the given working directory by the daemon.
+     */
+    public static void writeRun(DataOutputStream out, Path workingDirectory, String[] args) throws IOException {
+        out.writeByte(OP_RUN);
+        writeString(out, workingDirectory.toAbsolutePath().toString());
+        out.writeInt(args.length);
+        for (String arg : args)
+            writeString(out, arg);
+        out.flush();
+    }
+
+    public static Path readWorkingDirectory(DataInputStream in) throws IOException {
+        return Path.of(readString(in));
+    }
+
+    public static String[] readArgs(DataInputStream in) throws IOException {
+        final String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++)
+            args[i] = readString(in);
+        return args;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeExit(DataOutputStream out, int status) throws IOException {
+        synchronized (out) {
+            out.writeByte(FRAME_EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    /**
+     * Output stream that sends everything written to it as frames of the given type.
+     */
+    public static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        public FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
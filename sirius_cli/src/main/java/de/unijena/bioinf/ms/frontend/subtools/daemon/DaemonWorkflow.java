@@ -0,0 +1,327 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.daemon;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobManager;
+import de.unijena.bioinf.ms.frontend.BackgroundRuns;
+import de.unijena.bioinf.ms.frontend.Run;
+import de.unijena.bioinf.ms.frontend.subtools.CLIRootOptions;
+import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
+import de.unijena.bioinf.ms.frontend.workflow.Workflow;
+import de.unijena.bioinf.ms.frontend.workflow.WorkflowBuilder;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.projectspace.ProjectSpaceManager;
+import de.unijena.bioinf.projectspace.ProjectSpaceManagerFactory;
+import jdk.net.ExtendedSocketOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainPrincipal;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Filter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * Accepts command lines on a unix domain socket and executes them one after another with the same
+ * {@link WorkflowBuilder}/{@link Run} machinery as the CLI. Every command gets its own config layer, so
+ * parameters do not leak between commands. Everything that is cached statically (profiles of the
+ * {@link de.unijena.bioinf.ms.frontend.core.ApplicationCore#SIRIUS_PROVIDER}, web API and predictor data, fingerprint
+ * data used for the project-space compatibility check) stays warm between commands.
+ * <p>
+ * Commands are executed sequentially because runs change global properties. Root options that would change state
+ * of the whole daemon (e.g. number of cores, workspace) are rejected, the remaining global state that root options
+ * change (instance buffer, log level) is restored after every command. Since workflows log errors instead of
+ * throwing them, a command fails if anything has been logged as error while it was running.
+ * System.out/System.err of the daemon are forwarded to the client while a command is running. The socket is only
+ * accessible by the user that started the daemon.
+ */
+public class DaemonWorkflow implements Workflow {
+    private static final Logger LOG = LoggerFactory.getLogger(DaemonWorkflow.class);
+
+    /**
+     * Root options that change global state of the JVM (job manager, workspace, global properties) that would
+     * outlive the command. They are rejected for single commands and have to be given when the daemon is started.
+     */
+    static final Set<String> GLOBAL_OPTIONS = Set.of("--cores", "--processors", "--workspace", "--no-project-check",
+            "--zip-provider", "--no-citations", "--noCitations", "--noCite");
+
+    private final Path socket;
+    private volatile ServerSocketChannel server;
+    private volatile Run currentRun;
+    private volatile boolean stopped = false;
+
+    public DaemonWorkflow(Path socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+        try {
+            prepareSocketFile();
+            PropertyManager.setProperty(ProjectSpaceManager.CACHE_SERVER_DATA_KEY, "true");
+            try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                this.server = server;
+                server.bind(UnixDomainSocketAddress.of(socket));
+                restrictToOwner();
+                LOG.info("SIRIUS daemon listening on '" + socket + "'.");
+                while (!stopped) {
+                    try (SocketChannel client = server.accept()) {
+                        if (isOwner(client))
+                            handle(client);
+                        else
+                            LOG.warn("Rejected connection of a different user.");
+                    } catch (AsynchronousCloseException e) {
+                        break;
+                    } catch (IOException e) {
+                        LOG.warn("Error when communicating with client: " + e.getMessage(), e);
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(socket);
+            }
+            LOG.info("SIRIUS daemon stopped.");
+        } catch (IOException e) {
+            LOG.error("Could not run SIRIUS daemon on socket '" + socket + "'.", e);
+        }
+    }
+
+    // commands run with the permissions of the daemon, so only its owner may connect
+    private void restrictToOwner() throws IOException {
+        try {
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            LOG.warn("Could not restrict permissions of daemon socket '" + socket + "' to its owner.");
+        }
+    }
+
+    private boolean isOwner(SocketChannel client) {
+        try {
+            final UnixDomainPrincipal peer = client.getOption(ExtendedSocketOptions.SO_PEERCRED);
+            return peer.user().equals(Files.getOwner(socket));
+        } catch (UnsupportedOperationException | IOException e) {
+            // peer credentials not available, rely on the file permissions of the socket
+            return true;
+        }
+    }
+
+    private void prepareSocketFile() throws IOException {
+        if (Files.notExists(socket))
+            return;
+        // check whether socket file is stale
+        boolean alive;
+        try (SocketChannel probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            alive = probe.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            alive = false;
+        }
+        if (alive)
+            throw new IOException("Another SIRIUS daemon is already listening on '" + socket + "'.");
+        Files.delete(socket);
+    }
+
+    private void handle(SocketChannel client) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+        final byte op = in.readByte();
+        if (op == DaemonProtocol.OP_STOP) {
+            LOG.info("Stop request received.");
+            stopped = true;
+            DaemonProtocol.writeExit(out, DaemonProtocol.EXIT_SUCCESS);
+            return;
+        }
+        if (op != DaemonProtocol.OP_RUN) {
+            DaemonProtocol.writeExit(out, DaemonProtocol.EXIT_ERROR);
+            return;
+        }
+
+        final Path workingDirectory = DaemonProtocol.readWorkingDirectory(in);
+        final String[] args = DaemonProtocol.readArgs(in);
+        final PrintStream sysOut = System.out;
+        final PrintStream sysErr = System.err;
+        final PrintStream clientOut = new PrintStream(new BufferedOutputStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.FRAME_STDOUT)), true, StandardCharsets.UTF_8);
+        final PrintStream clientErr = new PrintStream(new BufferedOutputStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.FRAME_STDERR)), true, StandardCharsets.UTF_8);
+        int status;
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        try {
+            status = execute(workingDirectory, args);
+        } finally {
+            System.setOut(sysOut);
+            System.setErr(sysErr);
+            clientOut.flush();
+            clientErr.flush();
+        }
+        DaemonProtocol.writeExit(out, status);
+    }
+
+    private int execute(Path workingDirectory, String[] args) {
+        if (Arrays.asList(args).contains("daemon")) {
+            System.err.println("Cannot start a daemon from within a daemon.");
+            return DaemonProtocol.EXIT_PARSE_ERROR;
+        }
+        final String globalOption = findGlobalOption(args);
+        if (globalOption != null) {
+            System.err.println("Option '" + globalOption + "' changes the state of the whole daemon and is not supported for single commands. Specify it when starting the daemon instead.");
+            return DaemonProtocol.EXIT_PARSE_ERROR;
+        }
+
+        final long start = System.currentTimeMillis();
+        final GlobalState state = GlobalState.snapshot();
+        final FailureRecorder failures = new FailureRecorder();
+        final java.util.logging.Logger rootLogger = java.util.logging.Logger.getLogger("");
+        rootLogger.addHandler(failures);
+        try {
+            final DefaultParameterConfigLoader configOptionLoader = new DefaultParameterConfigLoader(PropertyManager.DEFAULTS.newIndependentInstance("DAEMON_RUN"));
+            final Run run = new Run(new WorkflowBuilder<>(new CLIRootOptions<>(configOptionLoader, new ProjectSpaceManagerFactory.Default()), configOptionLoader, BackgroundRuns.getBufferFactory()), workingDirectory);
+            currentRun = run;
+            if (!run.parseArgs(args))
+                return DaemonProtocol.EXIT_PARSE_ERROR;
+            if (stopped)
+                return DaemonProtocol.EXIT_ERROR;
+            run.compute();
+            // workflows log errors instead of throwing them
+            return failures.failed ? DaemonProtocol.EXIT_ERROR : DaemonProtocol.EXIT_SUCCESS;
+        } catch (Throwable e) {
+            LOG.error("Error when executing command: " + String.join(" ", args), e);
+            e.printStackTrace(System.err);
+            return DaemonProtocol.EXIT_ERROR;
+        } finally {
+            rootLogger.removeHandler(failures);
+            state.restore();
+            currentRun = null;
+            LOG.info("Command finished after " + (System.currentTimeMillis() - start) / 1000d + "s: " + String.join(" ", args));
+        }
+    }
+
+    /**
+     * @return the first root option in args that changes global state that outlives the command, or null.
+     */
+    static String findGlobalOption(String[] args) {
+        for (String arg : args) {
+            final String name = arg.startsWith("-") && arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+            if (GLOBAL_OPTIONS.contains(name))
+                return name;
+        }
+        return null;
+    }
+
+    /**
+     * Global state that is changed by root options that are allowed for single commands.
+     */
+    private static final class GlobalState {
+        private static final String INSTANCE_BUFFER_KEY = "de.unijena.bioinf.sirius.instanceBuffer";
+
+        private final JobManager jobManager;
+        private final String instanceBuffer;
+        private final Handler consoleHandler;
+        private final Filter consoleFilter;
+
+        private GlobalState(JobManager jobManager, String instanceBuffer, Handler consoleHandler, Filter consoleFilter) {
+            this.jobManager = jobManager;
+            this.instanceBuffer = instanceBuffer;
+            this.consoleHandler = consoleHandler;
+            this.consoleFilter = consoleFilter;
+        }
+
+        private static GlobalState snapshot() {
+            // same handler lookup as CLIRootOptions#setLogLevel
+            final Handler console = Optional.ofNullable(LoggerFactory.getLogger(JJob.DEFAULT_LOGGER_KEY)).map(Logger::getName)
+                    .map(LogManager.getLogManager()::getLogger).map(java.util.logging.Logger::getHandlers)
+                    .flatMap(h -> Arrays.stream(h).filter(it -> it instanceof ConsoleHandler).findFirst())
+                    .orElse(null);
+            return new GlobalState(SiriusJobs.getGlobalJobManager(), PropertyManager.getProperty(INSTANCE_BUFFER_KEY),
+                    console, console == null ? null : console.getFilter());
+        }
+
+        private void restore() {
+            if (instanceBuffer != null)
+                PropertyManager.setProperty(INSTANCE_BUFFER_KEY, instanceBuffer);
+            if (consoleHandler != null)
+                consoleHandler.setFilter(consoleFilter);
+            if (SiriusJobs.getGlobalJobManager() != jobManager)
+                LOG.warn("Global JobManager has been replaced by a command. Restart the daemon to restore the initial configuration.");
+        }
+    }
+
+    /**
+     * Remembers whether anything has been logged as error while a command was running.
+     */
+    private static final class FailureRecorder extends Handler {
+        private volatile boolean failed = false;
+
+        private FailureRecorder() {
+            setLevel(Level.SEVERE);
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            if (isLoggable(record))
+                failed = true;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Override
+    public void cancel() {
+        stopped = true;
+        final Run run = currentRun;
+        if (run != null)
+            run.cancel();
+        final ServerSocketChannel server = this.server;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                LOG.warn("Error when closing daemon socket.", e);
+            }
+        }
+    }
+}
@@ -70,6 +70,14 @@ public class DecompOptions implements StandaloneTool<DecompWorkflow> {
     @CommandLine.Option(names = {"--mass", "-m"}, split = ",", description = {"Masses that will be decomposed."})
     double[] masses;
 
+    @CommandLine.Option(names = {"--parallel"}, negatable = true, defaultValue = "true", fallbackValue = "true",
+            description = {"Decompose masses in parallel. The output order is the same as the input order."})
+    boolean parallel;
+
+    @CommandLine.Option(names = {"--batch-size"}, defaultValue = "1000", hidden = true,
+            description = {"Number of masses decomposed by a single job in parallel mode."})
+    int batchSize;
+
     @CommandLine.Option(names = {"--output", "-o"}, description = {"File to with output to."})
     Path out;
 
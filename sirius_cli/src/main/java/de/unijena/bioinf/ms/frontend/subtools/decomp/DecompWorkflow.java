@@ -20,13 +20,18 @@
 package de.unijena.bioinf.ms.frontend.subtools.decomp;
 
 import de.unijena.bioinf.ChemistryBase.chem.*;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.Deviation;
 import de.unijena.bioinf.MassDecomposer.*;
 import de.unijena.bioinf.MassDecomposer.Chemistry.MassToFormulaDecomposer;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobManager;
 import de.unijena.bioinf.ms.frontend.subtools.InputFilesOptions;
 import de.unijena.bioinf.ms.frontend.workflow.Workflow;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -36,6 +41,7 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 public class DecompWorkflow implements Workflow {
     DecompOptions options;
@@ -81,7 +87,6 @@ public class DecompWorkflow implements Workflow {
         }
         final Deviation dev = new Deviation(options.ppm, options.absDeviation);
         final ChemicalAlphabet alphabet = options.alphabet.getAlphabet();
-        final MassToFormulaDecomposer decomposer = new MassToFormulaDecomposer(alphabet);
 
         Map<Element, Interval> boundary = options.alphabet.getBoundary();
         final String parentFormula = options.parentFormula;
@@ -98,68 +103,186 @@ public class DecompWorkflow implements Workflow {
             }
         }
 
-        // parse input massed
-        List<Double> masses = options.masses != null ? Arrays.stream(options.masses).boxed().collect(Collectors.toList()) : new ArrayList<>();
-        if (input != null && input.msInput != null && input.msInput.unknownFiles != null) {
-            for (Path path : input.msInput.unknownFiles.keySet().stream().sorted().collect(Collectors.toList())) {
-                try {
-                    masses.addAll(Files.readAllLines(path).stream().map(Double::valueOf).collect(Collectors.toList()));
-                } catch (IOException e) {
-                    LoggerFactory.getLogger(getClass()).error("Error when parsing masses from input file: '" + path.toString() + "'. Skipping this file!", e);
-                }
-            }
-        }
+        final String ion = options.ionization;
+        final PrecursorIonType ionization = ion == null ? null : PeriodicTable.getInstance().ionByNameOrNull(ion);
+        final Decomposer decomposer = new Decomposer(alphabet, boundary, dev, validator, ionization,
+                options.maxDecomps == null || options.maxDecomps <= 0 ? Integer.MAX_VALUE : options.maxDecomps, options.massErrors);
 
-        final boolean printErrors = options.massErrors;
         try (Writer ow = options.out != null ? Files.newBufferedWriter(options.out) : new OutputStreamWriter(System.out)) {
             //write header
             ow.write("m/z\tdecompositions");
-            if (printErrors)
+            if (options.massErrors)
                 ow.write("\tabsMassDev\trelMassDev");
             ow.write(System.lineSeparator());
 
-            for (double mz : masses) {
-                final double mass;
-                final String ion = options.ionization;
-                final PrecursorIonType ionization = ion == null ? null : PeriodicTable.getInstance().ionByNameOrNull(ion);
-                mass = ionization == null ? mz : ionization.precursorMassToNeutralMass(mz);
+            final Iterator<Double> masses = massIterator();
+            final JobManager jobManager = SiriusJobs.getGlobalJobManager();
+            if (options.parallel && jobManager.getCPUThreads() > 1) {
+                decomposeParallel(masses, decomposer, ow, jobManager);
+            } else {
+                final StringBuilder line = new StringBuilder();
+                while (masses.hasNext()) {
+                    line.setLength(0);
+                    decomposer.decompose(masses.next(), line);
+                    ow.append(line);
+                }
+            }
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass()).error("could not write output! Canceling...", e);
+        }
+    }
 
-                final List<int[]> compomers;
-                if (options.maxDecomps == null || options.maxDecomps <= 0) {
-                    compomers = decomposer.decompose(mass, dev, boundary);
-                } else {
-                    compomers = new ArrayList<>(options.maxDecomps);
-                    int count = options.maxDecomps;
-                    DecompIterator<Element> it = decomposer.decomposeIterator(mass, dev, boundary);
-                    while (it.next() && count > 0) {
-                        compomers.add(it.getCurrentCompomere().clone());
-                        count--;
+    /**
+     * Decomposes batches of masses in CPU jobs and writes the results in input order. Finished batches wait in a
+     * bounded reorder buffer (the queue of submitted jobs) until all previous batches have been written.
+     */
+    private void decomposeParallel(Iterator<Double> masses, Decomposer decomposer, Writer ow, JobManager jobManager) throws IOException {
+        final int batchSize = Math.max(1, options.batchSize);
+        final int maxInFlight = 4 * jobManager.getCPUThreads();
+        final ArrayDeque<BasicJJob<StringBuilder>> inFlight = new ArrayDeque<>(maxInFlight);
+        while (masses.hasNext()) {
+            final double[] batch = new double[batchSize];
+            int size = 0;
+            while (size < batchSize && masses.hasNext())
+                batch[size++] = masses.next();
+            final int batchLength = size;
+            inFlight.add(jobManager.submitJob(new BasicJJob<StringBuilder>(JJob.JobType.CPU) {
+                @Override
+                protected StringBuilder compute() throws Exception {
+                    final StringBuilder lines = new StringBuilder(batchLength * 64);
+                    for (int i = 0; i < batchLength; i++) {
+                        checkForInterruption();
+                        decomposer.decompose(batch[i], lines);
                     }
+                    return lines;
                 }
+            }));
+            if (inFlight.size() >= maxInFlight)
+                ow.append(inFlight.poll().takeResult());
+        }
+        while (!inFlight.isEmpty())
+            ow.append(inFlight.poll().takeResult());
+    }
+
+    /**
+     * Masses given on the command line followed by the masses of the input files. Files are read lazily line by line.
+     */
+    private Iterator<Double> massIterator() {
+        final List<Iterator<Double>> sources = new ArrayList<>();
+        if (options.masses != null)
+            sources.add(Arrays.stream(options.masses).boxed().iterator());
+        if (input != null && input.msInput != null && input.msInput.unknownFiles != null) {
+            for (Path path : input.msInput.unknownFiles.keySet().stream().sorted().collect(Collectors.toList())) {
+                sources.add(new Iterator<>() {
+                    BufferedReader reader;
+                    String next;
+                    boolean done = false;
+
+                    private void fetch() {
+                        if (next != null || done) return;
+                        try {
+                            if (reader == null)
+                                reader = Files.newBufferedReader(path);
+                            String l;
+                            while ((l = reader.readLine()) != null && l.isBlank()) ;
+                            next = l;
+                            if (l == null) {
+                                done = true;
+                                reader.close();
+                            }
+                        } catch (IOException e) {
+                            LoggerFactory.getLogger(DecompWorkflow.class).error("Error when parsing masses from input file: '" + path.toString() + "'. Skipping rest of this file!", e);
+                            done = true;
+                            next = null;
+                        }
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        fetch();
+                        return next != null;
+                    }
+
+                    @Override
+                    public Double next() {
+                        fetch();
+                        if (next == null) throw new NoSuchElementException();
+                        final String l = next;
+                        next = null;
+                        return Double.valueOf(l.strip());
+                    }
+                });
+            }
+        }
+        return sources.stream().flatMap(it -> StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false)).iterator();
+    }
+
+    /**
+     * Decomposes single masses and formats the result line. Decomposer and formatting state are kept per thread,
+     * everything else is immutable and shared.
+     */
+    private static class Decomposer {
+        private final ChemicalAlphabet alphabet;
+        private final Map<Element, Interval> boundary;
+        private final Deviation dev;
+        private final DecompositionValidator<Element> validator;
+        private final PrecursorIonType ionization;
+        private final int maxDecomps;
+        private final boolean printErrors;
 
-                final List<MolecularFormula> formulas = new ArrayList<>(compomers.size());
-                for (int[] c : compomers) {
-                    if (validator == null || validator.validate(c, decomposer.getOrderedCharacterIds(), decomposer.getAlphabet()))
-                        formulas.add(alphabet.decompositionToFormula(c));
+        private final ThreadLocal<MassToFormulaDecomposer> decomposers;
+        private final ThreadLocal<DecimalFormat> formatters = ThreadLocal.withInitial(() -> {
+            final DecimalFormat formater = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
+            formater.applyPattern("#.####");
+            return formater;
+        });
+
+        private Decomposer(ChemicalAlphabet alphabet, Map<Element, Interval> boundary, Deviation dev, DecompositionValidator<Element> validator, PrecursorIonType ionization, int maxDecomps, boolean printErrors) {
+            this.alphabet = alphabet;
+            this.boundary = boundary;
+            this.dev = dev;
+            this.validator = validator;
+            this.ionization = ionization;
+            this.maxDecomps = maxDecomps;
+            this.printErrors = printErrors;
+            this.decomposers = ThreadLocal.withInitial(() -> new MassToFormulaDecomposer(alphabet));
+        }
+
+        void decompose(double mz, StringBuilder line) {
+            final MassToFormulaDecomposer decomposer = decomposers.get();
+            final double mass = ionization == null ? mz : ionization.precursorMassToNeutralMass(mz);
+
+            // iterate instead of collecting all compomers, at most maxDecomps are computed
+            final List<MolecularFormula> formulas = new ArrayList<>();
+            final DecompIterator<Element> it = decomposer.decomposeIterator(mass, dev, boundary);
+            int count = maxDecomps;
+            while (count > 0 && it.next()) {
+                final int[] c = it.getCurrentCompomere();
+                if (validator == null || validator.validate(c, decomposer.getOrderedCharacterIds(), decomposer.getAlphabet()))
+                    formulas.add(alphabet.decompositionToFormula(c));
+                count--;
+            }
+            formulas.sort(Comparator.comparingDouble(o -> Math.abs(o.getMass() - mass)));
+
+            final DecimalFormat formater = formatters.get();
+            line.append(formater.format(mz)).append('\t');
+            for (int i = 0; i < formulas.size(); i++) {
+                if (i > 0) line.append(',');
+                line.append(formulas.get(i).toString());
+            }
+            if (printErrors) {
+                line.append('\t');
+                for (int i = 0; i < formulas.size(); i++) {
+                    if (i > 0) line.append(',');
+                    line.append(formater.format(mass - formulas.get(i).getMass()));
                 }
-                formulas.sort(Comparator.comparingDouble(o -> Math.abs(o.getMass() - mass)));
-
-
-                final DecimalFormat formater = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
-                formater.applyPattern("#.####");
-                ow.write(formater.format(mz));
-                ow.write("\t");
-                ow.write(formulas.stream().map(MolecularFormula::toString).collect(Collectors.joining(",")));
-                if (printErrors) {
-                    ow.write("\t");
-                    ow.write(formulas.stream().map(f -> formater.format(mass - f.getMass())).collect(Collectors.joining(",")));
-                    ow.write("\t");
-                    ow.write(formulas.stream().map(f -> formater.format(((mass - f.getMass()) / mass) * 1e6)).collect(Collectors.joining(",")));
+                line.append('\t');
+                for (int i = 0; i < formulas.size(); i++) {
+                    if (i > 0) line.append(',');
+                    line.append(formater.format(((mass - formulas.get(i).getMass()) / mass) * 1e6));
                 }
-                ow.write(System.lineSeparator());
             }
-        } catch (IOException e) {
-            LoggerFactory.getLogger(getClass()).error("could not write output! Canceling...", e);
+            line.append(System.lineSeparator());
         }
     }
 }
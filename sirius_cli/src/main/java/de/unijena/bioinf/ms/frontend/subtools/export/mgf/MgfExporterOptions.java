@@ -30,7 +30,6 @@ import picocli.CommandLine;
 
 import java.io.File;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 
 /**
  * Options for the mgf exporter sub-tool.
@@ -68,8 +67,8 @@ public class MgfExporterOptions implements StandaloneTool<MgfExporterWorkflow> {
 
 
     @CommandLine.Option(names = {"--output", "-o"}, description = "Specify the mgf file destination.")
-    public void setOutput(String outputPath) {
-        output = Paths.get(outputPath);
+    public void setOutput(Path outputPath) {
+        output = outputPath;
     }
 
 
@@ -30,6 +30,8 @@ import de.unijena.bioinf.ChemistryBase.ms.lcms.QuantificationTable;
 import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
 import de.unijena.bioinf.ChemistryBase.utils.Utils;
 import de.unijena.bioinf.babelms.mgf.MgfWriter;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.subtools.PreprocessingJob;
 import de.unijena.bioinf.ms.frontend.workflow.Workflow;
 import de.unijena.bioinf.ms.properties.ParameterConfig;
@@ -42,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -55,7 +58,9 @@ import java.util.function.Consumer;
  */
 public class MgfExporterWorkflow implements Workflow {
     private final Path outputPath;
-    private final MgfWriter mgfWriter;
+    private final boolean writeMs1;
+    private final boolean mergeMs2;
+    private final Deviation mergeMs2Deviation;
     private final PreprocessingJob<? extends Iterable<Instance>> ppj;
     private final Optional<Path> quantPath;
 
@@ -64,8 +69,9 @@ public class MgfExporterWorkflow implements Workflow {
 
     public MgfExporterWorkflow(PreprocessingJob<? extends Iterable<Instance>> ppj, MgfExporterOptions options, ParameterConfig config) {
         outputPath = options.output;
-        Deviation mergeMs2Deviation = new Deviation(options.ppmDev);
-        mgfWriter = new MgfWriter(options.writeMs1, options.mergeMs2, mergeMs2Deviation, true);
+        writeMs1 = options.writeMs1;
+        mergeMs2 = options.mergeMs2;
+        mergeMs2Deviation = new Deviation(options.ppmDev);
         this.ppj = ppj;
         this.quantPath = Optional.ofNullable(options.quantTable).map(File::toPath);
         this.useFeatureId = new AtomicBoolean(options.featureId);
@@ -106,26 +112,25 @@ public class MgfExporterWorkflow implements Workflow {
             }
 
 
+            final Map<String, QuantInfo> quantInfos = new HashMap<>();
             try (final BufferedWriter writer = Files.newBufferedWriter(outputPath)) {
-                for (Instance inst : ps) {
-                    try {
-                        final String fid = useFeatureId.get() && inst.getID().getFeatureId().isPresent()
-                                ? inst.getID().getFeatureId().get()
-                                : extractFid(inst, zeroIndex);
-                        mgfWriter.write(writer, inst.getExperiment(), fid);
-                    } catch (IOException e) {
-                        throw e;
-                    } catch (Exception e) {
-                        LoggerFactory.getLogger(getClass()).warn("Invalid instance '" + inst.getID() + "'. Skipping this instance!", e);
-                    } finally {
-                        inst.clearCompoundCache();
-                        inst.clearFormulaResultsCache();
+                final int window = Math.max(1, 2 * SiriusJobs.getCPUThreads());
+                final ArrayDeque<JJob<ExportEntry>> pending = new ArrayDeque<>(window);
+                try {
+                    for (Instance inst : ps) {
+                        pending.add(SiriusJobs.getGlobalJobManager().submitJob(makeExportJob(inst, zeroIndex)));
+                        if (pending.size() >= window)
+                            write(writer, awaitEntry(pending.poll()), quantInfos);
                     }
+                    while (!pending.isEmpty())
+                        write(writer, awaitEntry(pending.poll()), quantInfos);
+                } finally {
+                    pending.forEach(j -> j.cancel(false));
                 }
             }
             quantPath.ifPresent(path -> {
                 try {
-                    writeQuantifiactionTable(ps, path, zeroIndex);
+                    writeQuantifiactionTable(quantInfos, path);
                 } catch (IOException e) {
                     LoggerFactory.getLogger(MgfExporterWorkflow.class).error(e.getMessage(), e);
                 }
@@ -141,27 +146,83 @@ public class MgfExporterWorkflow implements Workflow {
         return String.valueOf(zeroIndex ? inst.getID().getCompoundIndex() + 1 : inst.getID().getCompoundIndex());
     }
 
-    private void writeQuantifiactionTable(Iterable<Instance> ps, Path path, boolean zeroIndex) throws IOException {
-        final HashMap<String, QuantInfo> compounds = new HashMap<>();
-        final Set<String> sampleNames = new HashSet<>();
+    /**
+     * @throws IOException if the export job failed with an IOException, so that it aborts the export like an
+     *                     error when writing the MGF file.
+     */
+    private ExportEntry awaitEntry(JJob<ExportEntry> job) throws IOException, ExecutionException {
+        try {
+            return job.awaitResult();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        }
+    }
 
-        try (BufferedWriter bw = FileUtils.getWriter(path.toFile())) {
-            for (Instance i : ps) {
-                final Ms2Experiment experiment = i.getExperiment();
-                getQuantificationTable(i, experiment).ifPresent(quant -> {
-                    for (int j = 0; j < quant.length(); ++j) sampleNames.add(quant.getName(j));
-                    final String fid = useFeatureId.get() && i.getID().getFeatureId().isPresent()
-                            ? i.getID().getFeatureId().get()
-                            : extractFid(i, zeroIndex);
-
-                    compounds.put(fid, new QuantInfo(
+    private void write(BufferedWriter writer, ExportEntry entry, Map<String, QuantInfo> quantInfos) throws IOException {
+        if (entry.mgf != null)
+            writer.write(entry.mgf);
+        if (entry.quantInfo != null)
+            quantInfos.put(entry.fid, entry.quantInfo);
+    }
+
+    /**
+     * Loads the experiment of the given instance and renders its MGF entry and quantification row on a worker
+     * thread. Results are written in input order by the caller.
+     */
+    private BasicJJob<ExportEntry> makeExportJob(Instance inst, boolean zeroIndex) {
+        return new BasicJJob<>(JJob.JobType.CPU) {
+            @Override
+            protected ExportEntry compute() throws IOException {
+                // MgfWriter is not thread safe, so every job uses its own.
+                final MgfWriter mgfWriter = new MgfWriter(writeMs1, mergeMs2, mergeMs2Deviation, true);
+                try {
+                    final String fid = useFeatureId.get() && inst.getID().getFeatureId().isPresent()
+                            ? inst.getID().getFeatureId().get()
+                            : extractFid(inst, zeroIndex);
+                    final Ms2Experiment experiment = inst.getExperiment();
+
+                    String mgf = null;
+                    try {
+                        final StringWriter w = new StringWriter();
+                        try (BufferedWriter bw = new BufferedWriter(w)) {
+                            mgfWriter.write(bw, experiment, fid);
+                        }
+                        mgf = w.toString();
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        LoggerFactory.getLogger(MgfExporterWorkflow.class).warn("Invalid instance '" + inst.getID() + "'. Skipping this instance!", e);
+                    }
+
+                    final QuantInfo quantInfo = quantPath.isPresent()
+                            ? getQuantificationTable(inst, experiment).map(quant -> new QuantInfo(
                             experiment.getIonMass(),
                             experiment.getAnnotation(RetentionTime.class).orElse(new RetentionTime(0d)).getRetentionTimeInSeconds() / 60d, //use min
                             quant
-                    ));
-                });
+                    )).orElse(null)
+                            : null;
+                    return new ExportEntry(fid, mgf, quantInfo);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    LoggerFactory.getLogger(MgfExporterWorkflow.class).warn("Invalid instance '" + inst.getID() + "'. Skipping this instance!", e);
+                    return new ExportEntry(null, null, null);
+                } finally {
+                    inst.clearCompoundCache();
+                    inst.clearFormulaResultsCache();
+                }
             }
+        };
+    }
+
+    private void writeQuantifiactionTable(Map<String, QuantInfo> compounds, Path path) throws IOException {
+        final Set<String> sampleNames = new HashSet<>();
+        for (QuantInfo info : compounds.values())
+            for (int j = 0; j < info.quants.length(); ++j) sampleNames.add(info.quants.getName(j));
 
+        try (BufferedWriter bw = FileUtils.getWriter(path.toFile())) {
             final String quatTypeSuffix = compounds.values().stream().findAny().map(QuantInfo::quants)
                     .map(QuantificationTable::getMeasure).map(this::toQuantSuffix).orElse("");
 
@@ -212,6 +273,18 @@ public class MgfExporterWorkflow implements Workflow {
         };
     }
 
+    private static class ExportEntry {
+        final String fid;
+        final String mgf;
+        final QuantInfo quantInfo;
+
+        private ExportEntry(String fid, String mgf, QuantInfo quantInfo) {
+            this.fid = fid;
+            this.mgf = mgf;
+            this.quantInfo = quantInfo;
+        }
+    }
+
     private static class QuantInfo {
         final double ionMass;
         final double rt;
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.export.tables;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes predictions as headerless row-major float32 matrix (little endian) that can be memory mapped by downstream
+ * tools. Row and column names are written to two tab separated index files next to the matrix
+ * ({@code <matrix>.rows.tsv} and {@code <matrix>.columns.tsv}). Both index files start with a header line, so line
+ * {@code n + 1} describes row (column) {@code n} of the matrix. Missing predictions are stored as NaN.
+ */
+public class BinaryPredictionSink implements PredictionSink<BinaryPredictionSink.Row> {
+    public static final String ROWS_SUFFIX = ".rows.tsv";
+    public static final String COLUMNS_SUFFIX = ".columns.tsv";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path matrixFile;
+    private FileChannel matrix;
+    private ByteBuffer buffer;
+    private BufferedWriter rows;
+
+    public BinaryPredictionSink(Path matrixFile) {
+        this.matrixFile = matrixFile;
+    }
+
+    public static Path rowIndexFile(Path matrixFile) {
+        return matrixFile.resolveSibling(matrixFile.getFileName().toString() + ROWS_SUFFIX);
+    }
+
+    public static Path columnIndexFile(Path matrixFile) {
+        return matrixFile.resolveSibling(matrixFile.getFileName().toString() + COLUMNS_SUFFIX);
+    }
+
+    @Override
+    public Row encode(String[] key, double[] probabilities) {
+        final ByteBuffer values = ByteBuffer.allocate(probabilities.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double p : probabilities)
+            values.putFloat((float) p);
+        return new Row(String.join("\t", key), values.array());
+    }
+
+    @Override
+    public void open(List<String> keyColumns, List<String> valueColumns) throws IOException {
+        try (BufferedWriter columns = Files.newBufferedWriter(columnIndexFile(matrixFile))) {
+            columns.write("name");
+            columns.newLine();
+            for (String col : valueColumns) {
+                columns.write(col);
+                columns.newLine();
+            }
+        }
+        rows = Files.newBufferedWriter(rowIndexFile(matrixFile));
+        rows.write(String.join("\t", keyColumns));
+        rows.newLine();
+        matrix = FileChannel.open(matrixFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(Row row) throws IOException {
+        if (buffer.remaining() < row.values.length)
+            flush();
+        if (row.values.length > buffer.capacity()) {
+            final ByteBuffer direct = ByteBuffer.wrap(row.values);
+            while (direct.hasRemaining())
+                matrix.write(direct);
+        } else {
+            buffer.put(row.values);
+        }
+        rows.write(row.key);
+        rows.newLine();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            matrix.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (matrix != null) {
+                try {
+                    flush();
+                } finally {
+                    matrix.close();
+                }
+            }
+        } finally {
+            if (rows != null)
+                rows.close();
+        }
+    }
+
+    public static class Row {
+        private final String key;
+        private final byte[] values;
+
+        private Row(String key, byte[] values) {
+            this.key = key;
+            this.values = values;
+        }
+    }
+}
@@ -21,11 +21,11 @@ package de.unijena.bioinf.ms.frontend.subtools.export.tables;
 
 import de.unijena.bioinf.ChemistryBase.fp.*;
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
-import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
 import de.unijena.bioinf.canopus.CanopusResult;
 import de.unijena.bioinf.fingerid.FingerprintResult;
 import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.annotations.DataAnnotation;
 import de.unijena.bioinf.ms.frontend.subtools.PreprocessingJob;
 import de.unijena.bioinf.ms.frontend.subtools.Provide;
@@ -41,6 +41,7 @@ import de.unijena.bioinf.projectspace.Instance;
 import de.unijena.bioinf.projectspace.canopus.CanopusCfDataProperty;
 import de.unijena.bioinf.projectspace.canopus.CanopusNpcDataProperty;
 import de.unijena.bioinf.projectspace.fingerid.FingerIdDataProperty;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 
@@ -48,8 +49,10 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
@@ -63,10 +66,14 @@ public class ExportPredictionsOptions implements StandaloneTool<ExportPrediction
     protected int polarity;
 
     @CommandLine.Option(names = {"--output", "-o"}, description = "Specify the table file destination.")
-    public void setOutput(String outputPath) {
-        output = Paths.get(outputPath);
+    public void setOutput(Path outputPath) {
+        output = outputPath;
     }
 
+    @CommandLine.Option(names = {"--binary"}, description = {"Write probabilities as memory-mappable float32 matrix (row-major, little endian) to the output file instead of a table.",
+            "Row and column names are written to '<output>" + BinaryPredictionSink.ROWS_SUFFIX + "' and '<output>" + BinaryPredictionSink.COLUMNS_SUFFIX + "'. Missing predictions are stored as NaN."})
+    protected boolean binary;
+
     @CommandLine.ArgGroup(exclusive = false)
     protected PredictionsOptions predictionsOptions;
 
@@ -80,20 +87,28 @@ public class ExportPredictionsOptions implements StandaloneTool<ExportPrediction
             CLASSYFIRE, NPC, FP, PUBCHEM, MACCS;
         }
 
-        private final IOFunctions.IOSupplier<BufferedWriter> outputProvider;
+        private static final List<String> KEY_COLUMNS = List.of("id", "name", "molecularFormula", "adduct");
+
+        private final PredictionSink<?> sink;
         private int polarity = 0;
         private final PredictionsOptions options;
         private final Iterable<? extends Instance> instances;
 
         Class[] components;
         MaskedFingerprintVersion[] versions;
+        private List<String> valueColumns;
+        private boolean sinkOpened = false;
 
         public ExportPredictionJJob(PredictionsOptions options, int polarity, Iterable<? extends Instance> inputInstances, IOFunctions.IOSupplier<BufferedWriter> outputProvider) {
+            this(options, polarity, inputInstances, new TsvPredictionSink(outputProvider, options));
+        }
+
+        public ExportPredictionJJob(PredictionsOptions options, int polarity, Iterable<? extends Instance> inputInstances, PredictionSink<?> sink) {
             super(JobType.SCHEDULER);
             this.options = options;
             this.polarity = polarity;
             this.instances = inputInstances;
-            this.outputProvider = outputProvider;
+            this.sink = sink;
 
 
             ArrayList<Class<? extends DataAnnotation>> comps = new ArrayList<>();
@@ -106,48 +121,86 @@ public class ExportPredictionsOptions implements StandaloneTool<ExportPrediction
         @Override
         protected Boolean compute() throws Exception {
             updateProgress(0, -1, -1, "Collecting instances for prediction export...");
-            boolean headerWritten = false;
-            List<Instance> filtered = new ArrayList<>();
-            for (Instance inst : instances) {
-                final int pol = inst.getExperiment().getPrecursorIonType().getCharge();
-                if (polarity==0) {
-                    polarity = pol;
-                }
-                if (polarity == pol) {
-                    filtered.add(inst);
+            return export(sink);
+        }
+
+        /**
+         * Reads the instances in a single pass. Loading and encoding of the rows runs in parallel sub jobs, a bounded
+         * window of these jobs is consumed in input order, so the output order is the same as the input order.
+         */
+        private <E> Boolean export(PredictionSink<E> sink) throws Exception {
+            final int window = Math.max(1, 2 * SiriusJobs.getCPUThreads());
+            final int total = instances instanceof Collection<?> c ? c.size() : -1;
+            final ArrayDeque<JJob<EncodedRow<E>>> pending = new ArrayDeque<>(window);
+            String message = null;
+            int progress = 0;
+
+            try (sink) {
+                try {
+                    for (Instance inst : instances) {
+                        checkForInterruption();
+                        if (polarity == 0)
+                            polarity = inst.getExperiment().getPrecursorIonType().getCharge();
+                        if (valueColumns == null) {
+                            loadVersions(inst, polarity);
+                            valueColumns = makeValueColumns();
+                            message = "Writing " + (polarity < 0 ? "negative" : "positive") + " ion mode data predictions...";
+                        }
+
+                        pending.add(submitSubJob(makeEncodeJob(inst, polarity, sink)));
+                        if (pending.size() >= window) {
+                            writeNext(pending.poll(), sink);
+                            updateProgress(0, total, ++progress, message);
+                        }
+                    }
+
+                    while (!pending.isEmpty()) {
+                        writeNext(pending.poll(), sink);
+                        updateProgress(0, total, ++progress, message);
+                    }
+                } finally {
+                    pending.forEach(j -> j.cancel(false));
                 }
             }
-            if (filtered.isEmpty()) {
+
+            if (!sinkOpened) {
                 updateProgress(0, 1, 1, "No instances to export!");
                 return Boolean.FALSE;
             }
+            return Boolean.TRUE;
+        }
+
+        private <E> void writeNext(JJob<EncodedRow<E>> job, PredictionSink<E> sink) throws ExecutionException, IOException {
+            final EncodedRow<E> encoded = job.awaitResult();
+            if (!encoded.matchesPolarity)
+                return;
+            if (!sinkOpened) {
+                sink.open(KEY_COLUMNS, valueColumns);
+                sinkOpened = true;
+            }
+            if (encoded.row != null)
+                sink.write(encoded.row);
+        }
 
-            try (final BufferedWriter writer = outputProvider.get()) {
-                String message = "Writing " + (polarity < 0 ? "negative" : "positive") + " ion mode data predictions...";
-                int progress = 0;
-                updateProgress(0, filtered.size(), progress, message);
-                for (Instance inst : filtered) {
-
-                    loadVersions(inst, polarity);
-                    if (!headerWritten) {
-                        writeHeader(writer, versions);
-                        writer.newLine();
-                        headerWritten = true;
-                    }
+        private <E> BasicJJob<EncodedRow<E>> makeEncodeJob(Instance inst, int polarity, PredictionSink<E> sink) {
+            return new BasicJJob<>(JobType.CPU) {
+                @Override
+                protected EncodedRow<E> compute() throws Exception {
                     try {
-                        write(writer, inst, inst.getExperiment());
+                        if (inst.getExperiment().getPrecursorIonType().getCharge() != polarity)
+                            return new EncodedRow<>(false, null);
+                        return new EncodedRow<>(true, encode(inst, sink).orElse(null));
                     } catch (IOException e) {
                         throw e;
                     } catch (Exception e) {
-                        LoggerFactory.getLogger(getClass()).warn("Invalid instance '" + inst.getID() + "'. Skipping this instance!", e);
+                        LoggerFactory.getLogger(ExportPredictionJJob.class).warn("Invalid instance '" + inst.getID() + "'. Skipping this instance!", e);
+                        return new EncodedRow<>(true, null);
                     } finally {
                         inst.clearCompoundCache();
                         inst.clearFormulaResultsCache();
                     }
-                    updateProgress(0, filtered.size(), ++progress, message);
                 }
-            }
-            return Boolean.TRUE;
+            };
         }
 
         private void loadVersions(Instance inst, int polarity) {
@@ -176,47 +229,47 @@ public class ExportPredictionsOptions implements StandaloneTool<ExportPrediction
             }
         }
 
-        private void write(BufferedWriter writer, Instance inst, Ms2Experiment experiment) throws IOException {
+        private <E> Optional<E> encode(Instance inst, PredictionSink<E> sink) throws IOException {
             Optional<FormulaResult> fid = inst.loadTopFormulaResult(components);
-            if (fid.isPresent()) {
-                final FormulaResult formulaResult = fid.get();
-                writer.write(inst.getID().getDirectoryName());
-                writer.write('\t');
-                writer.write(inst.getID().getCompoundName());
-                writer.write('\t');
-                writer.write(formulaResult.getId().getMolecularFormula().toString());
-                writer.write('\t');
-                writer.write(formulaResult.getId().getIonType().toString());
-                if (options.classyfire) {
-                    write(writer, versions[X.CLASSYFIRE.ordinal()], formulaResult.getAnnotation(CanopusResult.class).map(CanopusResult::getCanopusFingerprint));
-                }
-                if (options.npc) {
-                    write(writer, versions[X.NPC.ordinal()], formulaResult.getAnnotation(CanopusResult.class).flatMap(CanopusResult::getNpcFingerprint));
-                }
-                if (options.fingerprints) {
-                    write(writer, versions[X.FP.ordinal()], formulaResult.getAnnotation(FingerprintResult.class).map(x -> x.fingerprint));
-                }
-                if (options.pubchem) {
-                    write(writer, versions[X.PUBCHEM.ordinal()], formulaResult.getAnnotation(FingerprintResult.class).map(x -> versions[X.PUBCHEM.ordinal()].mask(x.fingerprint)));
-                }
-                if (options.maccs) {
-                    write(writer, versions[X.MACCS.ordinal()], formulaResult.getAnnotation(FingerprintResult.class).map(x -> versions[X.MACCS.ordinal()].mask(x.fingerprint)));
-                }
+            if (fid.isEmpty())
+                return Optional.empty();
 
+            final FormulaResult formulaResult = fid.get();
+            final String[] key = new String[]{
+                    inst.getID().getDirectoryName(),
+                    inst.getID().getCompoundName(),
+                    formulaResult.getId().getMolecularFormula().toString(),
+                    formulaResult.getId().getIonType().toString()
+            };
 
-                writer.newLine();
+            final double[] values = new double[valueColumns.size()];
+            int offset = 0;
+            if (options.classyfire) {
+                offset = fill(values, offset, versions[X.CLASSYFIRE.ordinal()], formulaResult.getAnnotation(CanopusResult.class).map(CanopusResult::getCanopusFingerprint));
+            }
+            if (options.npc) {
+                offset = fill(values, offset, versions[X.NPC.ordinal()], formulaResult.getAnnotation(CanopusResult.class).flatMap(CanopusResult::getNpcFingerprint));
+            }
+            if (options.fingerprints) {
+                offset = fill(values, offset, versions[X.FP.ordinal()], formulaResult.getAnnotation(FingerprintResult.class).map(x -> x.fingerprint));
             }
+            if (options.pubchem) {
+                offset = fill(values, offset, versions[X.PUBCHEM.ordinal()], formulaResult.getAnnotation(FingerprintResult.class).map(x -> versions[X.PUBCHEM.ordinal()].mask(x.fingerprint)));
+            }
+            if (options.maccs) {
+                fill(values, offset, versions[X.MACCS.ordinal()], formulaResult.getAnnotation(FingerprintResult.class).map(x -> versions[X.MACCS.ordinal()].mask(x.fingerprint)));
+            }
+
+            return Optional.of(sink.encode(key, values));
         }
 
-        private void writeHeader(BufferedWriter writer, MaskedFingerprintVersion[] versions) throws IOException {
-            writer.write("id\tname\tmolecularFormula\tadduct");
+        private List<String> makeValueColumns() {
+            final List<String> columns = new ArrayList<>();
             if (options.classyfire) {
                 final MaskedFingerprintVersion version = versions[X.CLASSYFIRE.ordinal()];
                 for (int absi : version.allowedIndizes()) {
                     MolecularProperty prop = version.getMolecularProperty(absi);
-                    writer.write('\t');
-                    writer.write("ClassyFire#");
-                    writer.write(((ClassyfireProperty) prop).getName());
+                    columns.add("ClassyFire#" + ((ClassyfireProperty) prop).getName());
                 }
             }
 
@@ -224,17 +277,14 @@ public class ExportPredictionsOptions implements StandaloneTool<ExportPrediction
                 final MaskedFingerprintVersion version = versions[X.NPC.ordinal()];
                 for (int absi : version.allowedIndizes()) {
                     MolecularProperty prop = version.getMolecularProperty(absi);
-                    writer.write('\t');
-                    writer.write("NPC#");
-                    writer.write(((NPCFingerprintVersion.NPCProperty) prop).getName());
+                    columns.add("NPC#" + ((NPCFingerprintVersion.NPCProperty) prop).getName());
                 }
             }
 
             if (options.fingerprints) {
                 final MaskedFingerprintVersion version = versions[X.FP.ordinal()];
                 for (int absi : version.allowedIndizes()) {
-                    writer.write('\t');
-                    writer.write(String.valueOf(absi));
+                    columns.add(String.valueOf(absi));
                 }
             }
 
@@ -242,33 +292,40 @@ public class ExportPredictionsOptions implements StandaloneTool<ExportPrediction
                 final MaskedFingerprintVersion version = versions[X.PUBCHEM.ordinal()];
                 int pubchemOffset = CdkFingerprintVersion.getComplete().getOffsetFor(CdkFingerprintVersion.USED_FINGERPRINTS.PUBCHEM);
                 for (int absi : version.allowedIndizes()) {
-                    writer.write('\t');
-                    writer.write("PubChem#");
-                    writer.write(String.valueOf(absi-pubchemOffset));
+                    columns.add("PubChem#" + (absi - pubchemOffset));
                 }
             }
             if (options.maccs) {
                 final MaskedFingerprintVersion version = versions[X.MACCS.ordinal()];
                 int pubchemOffset = CdkFingerprintVersion.getComplete().getOffsetFor(CdkFingerprintVersion.USED_FINGERPRINTS.MACCS);
                 for (int absi : version.allowedIndizes()) {
-                    writer.write('\t');
-                    writer.write("MACCS#");
-                    writer.write(String.valueOf(absi-pubchemOffset));
+                    columns.add("MACCS#" + (absi - pubchemOffset));
                 }
             }
+            return columns;
         }
 
-        private void write(BufferedWriter writer, MaskedFingerprintVersion version, Optional<ProbabilityFingerprint> fp) throws IOException {
+        private static int fill(double[] values, int offset, MaskedFingerprintVersion version, Optional<ProbabilityFingerprint> fp) {
+            final int end = offset + version.size();
             if (fp.isPresent()) {
                 for (FPIter x : fp.get()) {
-                    writer.write('\t');
-                    writer.write(options.float2string(x.getProbability()));
-                }
-            } else {
-                for (int i = 0; i < version.size(); ++i) {
-                    writer.write("\tN/A");
+                    if (offset >= end) break;
+                    values[offset++] = x.getProbability();
                 }
             }
+            Arrays.fill(values, offset, end, Double.NaN);
+            return end;
+        }
+
+        private static class EncodedRow<E> {
+            private final boolean matchesPolarity;
+            @Nullable
+            private final E row;
+
+            private EncodedRow(boolean matchesPolarity, @Nullable E row) {
+                this.matchesPolarity = matchesPolarity;
+                this.row = row;
+            }
         }
     }
 
@@ -287,7 +344,10 @@ public class ExportPredictionsOptions implements StandaloneTool<ExportPrediction
             try {
                 final Iterable<Instance> ps = SiriusJobs.getGlobalJobManager().submitJob(job).awaitResult();
                 try {
-                    SiriusJobs.getGlobalJobManager().submitJob(new ExportPredictionJJob(options.predictionsOptions, options.polarity, ps, () -> Files.newBufferedWriter(options.output))).awaitResult();
+                    final ExportPredictionJJob exportJob = options.binary
+                            ? new ExportPredictionJJob(options.predictionsOptions, options.polarity, ps, new BinaryPredictionSink(options.output))
+                            : new ExportPredictionJJob(options.predictionsOptions, options.polarity, ps, () -> Files.newBufferedWriter(options.output));
+                    SiriusJobs.getGlobalJobManager().submitJob(exportJob).awaitResult();
                 } catch (ExecutionException e) {
                     LoggerFactory.getLogger(getClass()).error("Error when writing the table file to: " + options.output.toString(), e);
                 }
@@ -0,0 +1,52 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.export.tables;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination of a prediction export. Rows are encoded concurrently by the worker jobs of the export and handed
+ * to the sink in input order afterwards.
+ *
+ * @param <E> encoded representation of a single row
+ */
+public interface PredictionSink<E> extends Closeable {
+
+    /**
+     * Encodes a single row. Called concurrently, so it must not depend on the mutable state of the sink.
+     *
+     * @param key           id, name, molecular formula and adduct of the row
+     * @param probabilities probabilities of all exported columns, NaN for predictions that are not available
+     */
+    E encode(String[] key, double[] probabilities);
+
+    /**
+     * Opens the output and writes the column names. Called once before the first row is written and only if there
+     * is anything to export.
+     *
+     * @param keyColumns   names of the key columns
+     * @param valueColumns names of the probability columns
+     */
+    void open(List<String> keyColumns, List<String> valueColumns) throws IOException;
+
+    void write(E row) throws IOException;
+}
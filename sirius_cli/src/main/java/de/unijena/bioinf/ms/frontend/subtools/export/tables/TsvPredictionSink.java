@@ -0,0 +1,78 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.export.tables;
+
+import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes predictions as tab separated table, one row per compound. Rows are rendered to strings in
+ * {@link #encode(String[], double[])} so that number formatting runs in parallel.
+ */
+public class TsvPredictionSink implements PredictionSink<String> {
+    private final IOFunctions.IOSupplier<BufferedWriter> outputProvider;
+    private final PredictionsOptions options;
+    private BufferedWriter writer;
+
+    public TsvPredictionSink(IOFunctions.IOSupplier<BufferedWriter> outputProvider, PredictionsOptions options) {
+        this.outputProvider = outputProvider;
+        this.options = options;
+    }
+
+    @Override
+    public String encode(String[] key, double[] probabilities) {
+        final StringBuilder line = new StringBuilder(key.length * 16 + probabilities.length * 8);
+        for (int i = 0; i < key.length; i++) {
+            if (i > 0) line.append('\t');
+            line.append(key[i]);
+        }
+        for (double p : probabilities) {
+            line.append('\t');
+            line.append(Double.isNaN(p) ? "N/A" : options.float2string(p));
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void open(List<String> keyColumns, List<String> valueColumns) throws IOException {
+        writer = outputProvider.get();
+        writer.write(String.join("\t", keyColumns));
+        for (String col : valueColumns) {
+            writer.write('\t');
+            writer.write(col);
+        }
+        writer.newLine();
+    }
+
+    @Override
+    public void write(String row) throws IOException {
+        writer.write(row);
+        writer.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null)
+            writer.close();
+    }
+}
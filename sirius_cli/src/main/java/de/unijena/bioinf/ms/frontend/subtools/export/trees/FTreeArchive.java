@@ -0,0 +1,151 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.export.trees;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Single file output for many fragmentation trees, to avoid creating one small file per tree and format.
+ * Entries have to be added from a single thread.
+ */
+public abstract class FTreeArchive implements Closeable {
+
+    public enum Format {
+        /**
+         * One zip file with one entry per tree and format.
+         */
+        ZIP(".zip"),
+        /**
+         * One newline-delimited JSON file with one line per tree ({@code name}, {@code tree} and {@code dot} fields)
+         * and a tab separated offset index ({@code name}, byte offset, byte length) next to it.
+         */
+        NDJSON(".ndjson");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    public static final String INDEX_SUFFIX = ".index.tsv";
+
+    public static FTreeArchive open(@NotNull Format format, @NotNull Path file) throws IOException {
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        switch (format) {
+            case ZIP:
+                return new Zip(file);
+            case NDJSON:
+                return new NdJson(file);
+            default:
+                throw new IllegalArgumentException("Unknown archive format: " + format);
+        }
+    }
+
+    /**
+     * @param name unique name of the tree (without file extension)
+     * @param json json representation of the tree or null if not exported
+     * @param dot  dot representation of the tree or null if not exported
+     */
+    public abstract void add(@NotNull String name, @Nullable String json, @Nullable String dot) throws IOException;
+
+    private static class Zip extends FTreeArchive {
+        private final ZipOutputStream zip;
+
+        private Zip(Path file) throws IOException {
+            zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        }
+
+        @Override
+        public void add(@NotNull String name, @Nullable String json, @Nullable String dot) throws IOException {
+            if (json != null)
+                addEntry(name + ".json", json);
+            if (dot != null)
+                addEntry(name + ".dot", dot);
+        }
+
+        private void addEntry(String entryName, String content) throws IOException {
+            zip.putNextEntry(new ZipEntry(entryName));
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static class NdJson extends FTreeArchive {
+        private final OutputStream out;
+        private final BufferedWriter index;
+        private long offset = 0;
+
+        private NdJson(Path file) throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+            try {
+                index = Files.newBufferedWriter(file.resolveSibling(file.getFileName() + INDEX_SUFFIX));
+                index.write("name\toffset\tlength");
+                index.newLine();
+            } catch (IOException e) {
+                out.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void add(@NotNull String name, @Nullable String json, @Nullable String dot) throws IOException {
+            final StringBuilder line = new StringBuilder();
+            line.append("{\"name\":\"").append(StringEscapeUtils.escapeJson(name)).append('"');
+            if (json != null) // line breaks in valid json can only be whitespace
+                line.append(",\"tree\":").append(json.replace('\n', ' ').replace('\r', ' '));
+            if (dot != null)
+                line.append(",\"dot\":\"").append(StringEscapeUtils.escapeJson(dot)).append('"');
+            line.append("}\n");
+
+            final byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            index.write(name + "\t" + offset + "\t" + bytes.length);
+            index.newLine();
+            offset += bytes.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (index) {
+                out.close();
+            }
+        }
+    }
+}
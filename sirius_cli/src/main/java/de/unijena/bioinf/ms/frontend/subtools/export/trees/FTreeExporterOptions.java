@@ -49,7 +49,12 @@ public class FTreeExporterOptions implements StandaloneTool<FTreeExporterWorkflo
     @CommandLine.Option(names = "--all", description = "Export all trees instead of only the top ranked trees.")
     public boolean exportAllTrees;
 
-    @CommandLine.Option(names = {"--output", "-o"}, description = "Specify the output destination directory.")
+    @CommandLine.Option(names = "--archive", description = {"Write all trees into a single archive file instead of one file per tree and format.",
+            "ZIP: one zip file. NDJSON: one newline-delimited json file with an offset index (<file>" + FTreeArchive.INDEX_SUFFIX + ").",
+            "If the output is an existing directory, the archive is created inside of it."})
+    public FTreeArchive.Format archive = null;
+
+    @CommandLine.Option(names = {"--output", "-o"}, description = "Specify the output destination directory (or archive file if --archive is given).")
     public void setOutput(File outputFile) {
         output = outputFile.toPath();
     }
@@ -24,16 +24,22 @@ import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.babelms.dot.FTDotWriter;
 import de.unijena.bioinf.babelms.json.FTJsonWriter;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.subtools.PreprocessingJob;
 import de.unijena.bioinf.ms.frontend.workflow.Workflow;
 import de.unijena.bioinf.ms.properties.ParameterConfig;
 import de.unijena.bioinf.projectspace.Instance;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
@@ -58,14 +64,56 @@ public class FTreeExporterWorkflow implements Workflow {
         final Path outputPath = options.output;
         try {
             final Iterable<Instance> ps = SiriusJobs.getGlobalJobManager().submitJob(ppj).awaitResult();
-            if (Files.notExists(outputPath))
-                Files.createDirectories(outputPath);
-            if (!Files.isDirectory(outputPath))
-                throw new IOException("The output path needs to be a directory.");
+            if (options.archive != null) {
+                final Path archivePath = Files.isDirectory(outputPath) ? outputPath.resolve("trees" + options.archive.extension) : outputPath;
+                try (FTreeArchive archive = FTreeArchive.open(options.archive, archivePath)) {
+                    export(ps, null, archive);
+                }
+            } else {
+                if (Files.notExists(outputPath))
+                    Files.createDirectories(outputPath);
+                if (!Files.isDirectory(outputPath))
+                    throw new IOException("The output path needs to be a directory.");
+                export(ps, outputPath, null);
+            }
+        } catch (ExecutionException e) {
+            LoggerFactory.getLogger(getClass()).error("Error when reading input project!", e);
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass()).error("Error when writing tree output file to: " + outputPath.toString(), e);
+        }
+    }
 
-            FTDotWriter dotWriter = new FTDotWriter();
-            FTJsonWriter jsonWriter = new FTJsonWriter();
+    /**
+     * Trees are loaded and rendered by parallel jobs with a bounded number of instances in flight. In directory mode
+     * each job writes its own files, in archive mode the rendered trees are added to the archive in input order.
+     */
+    private void export(Iterable<Instance> ps, @Nullable Path outputDir, @Nullable FTreeArchive archive) throws ExecutionException, IOException {
+        final int window = Math.max(1, 2 * SiriusJobs.getCPUThreads());
+        final ArrayDeque<JJob<List<RenderedFTree>>> pending = new ArrayDeque<>(window);
+        try {
             for (Instance inst : ps) {
+                pending.add(SiriusJobs.getGlobalJobManager().submitJob(makeExportJob(inst, outputDir)));
+                if (pending.size() >= window)
+                    addToArchive(archive, pending.poll().awaitResult());
+            }
+            while (!pending.isEmpty())
+                addToArchive(archive, pending.poll().awaitResult());
+        } finally {
+            pending.forEach(j -> j.cancel(false));
+        }
+    }
+
+    private static void addToArchive(@Nullable FTreeArchive archive, List<RenderedFTree> trees) throws IOException {
+        if (archive == null)
+            return;
+        for (RenderedFTree tree : trees)
+            archive.add(tree.name, tree.json, tree.dot);
+    }
+
+    private BasicJJob<List<RenderedFTree>> makeExportJob(Instance inst, @Nullable Path outputDir) {
+        return new BasicJJob<>(JJob.JobType.CPU) {
+            @Override
+            protected List<RenderedFTree> compute() {
                 try {
                     List<NamedFTree> trees =  options.exportAllTrees
                             ? inst.loadFormulaResults(FTree.class).stream().map(SScored::getCandidate).map(res ->  res.getAnnotation(FTree.class).map(t -> NamedFTree.of(t, res.getId().fileName())))
@@ -73,35 +121,65 @@ public class FTreeExporterWorkflow implements Workflow {
                             : inst.loadTopFormulaResult(FTree.class).flatMap(res ->  res.getAnnotation(FTree.class).map(t -> NamedFTree.of(t, res.getId().fileName()))).map(List::of).orElse(List.of());
 
                     if (trees.isEmpty())
-                        continue;
-
+                        return List.of();
 
+                    // writers are created per job since they are not guaranteed to be thread safe.
+                    final FTJsonWriter jsonWriter = options.exportJson ? new FTJsonWriter() : null;
+                    final FTDotWriter dotWriter = options.exportDot ? new FTDotWriter() : null;
+                    final List<RenderedFTree> rendered = new ArrayList<>(trees.size());
                     for (NamedFTree nTree : trees) {
-                        if (options.exportJson){
-                            try (final BufferedWriter writer = Files.newBufferedWriter(outputPath.resolve(inst.getID().getDirectoryName() + "_" + nTree.name + ".json"))) {
-                                jsonWriter.writeTree(writer, nTree.tree);
+                        final String name = inst.getID().getDirectoryName() + "_" + nTree.name;
+                        if (outputDir != null) {
+                            if (jsonWriter != null) {
+                                try (final BufferedWriter writer = Files.newBufferedWriter(outputDir.resolve(name + ".json"))) {
+                                    jsonWriter.writeTree(writer, nTree.tree);
+                                }
                             }
-                        }
-
-                        if (options.exportDot) {
-                            try (final BufferedWriter writer = Files.newBufferedWriter(outputPath.resolve(inst.getID().getDirectoryName() + "_" + nTree.name + ".dot"))) {
-                                dotWriter.writeTree(writer, nTree.tree);
+                            if (dotWriter != null) {
+                                try (final BufferedWriter writer = Files.newBufferedWriter(outputDir.resolve(name + ".dot"))) {
+                                    dotWriter.writeTree(writer, nTree.tree);
+                                }
                             }
+                        } else {
+                            rendered.add(new RenderedFTree(name,
+                                    jsonWriter != null ? render(jsonWriter::writeTree, nTree.tree) : null,
+                                    dotWriter != null ? render(dotWriter::writeTree, nTree.tree) : null));
                         }
                     }
-
+                    return rendered;
                 } catch (Exception e) {
-                    LoggerFactory.getLogger(getClass()).warn("Invalid instance '" + inst.getID() + "'. Skipping this instance!", e);
+                    LoggerFactory.getLogger(FTreeExporterWorkflow.class).warn("Invalid instance '" + inst.getID() + "'. Skipping this instance!", e);
+                    return List.of();
                 } finally {
                     inst.clearCompoundCache();
                     inst.clearFormulaResultsCache();
                 }
-
             }
-        } catch (ExecutionException e) {
-            LoggerFactory.getLogger(getClass()).error("Error when reading input project!", e);
-        } catch (IOException e) {
-            LoggerFactory.getLogger(getClass()).error("Error when writing tree output file to: " + outputPath.toString(), e);
+        };
+    }
+
+    private static String render(TreeWriter treeWriter, FTree tree) throws IOException {
+        final StringWriter w = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(w)) {
+            treeWriter.writeTree(writer, tree);
+        }
+        return w.toString();
+    }
+
+    @FunctionalInterface
+    private interface TreeWriter {
+        void writeTree(BufferedWriter writer, FTree tree) throws IOException;
+    }
+
+    private static class RenderedFTree {
+        private final String name;
+        private final String json;
+        private final String dot;
+
+        private RenderedFTree(String name, String json, String dot) {
+            this.name = name;
+            this.json = json;
+            this.dot = dot;
         }
     }
 
@@ -0,0 +1,247 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.fingerblast;
+
+import de.unijena.bioinf.ChemistryBase.fp.Fingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Size bounded off-heap store of candidate fingerprints as packed bit sets, keyed by the 2D InChIKey of the
+ * candidate. Shared by all {@link FingerblastSubToolJob}s, since the same database candidates are retrieved for
+ * many formulas and compounds.
+ * <p>
+ * All fingerprints in the store must have the same {@link FingerprintVersion}. If a fingerprint with a different
+ * version is added (e.g. after the fingerprint version of the project has changed) the store is cleared.
+ * The direct buffer is allocated on first use and grows by doubling until the maximum size is reached. Then
+ * eviction is FIFO over its fixed size slots. Tanimoto scores are computed directly on the packed words (popcount)
+ * without allocating per candidate.
+ */
+public final class CandidateFingerprintCache {
+    public static final String MAX_SIZE_KEY = "de.unijena.bioinf.sirius.fingerblast.fingerprintCache.maxMB";
+    private static final int INITIAL_SLOTS = 4096;
+
+    private static CandidateFingerprintCache INSTANCE = null;
+
+    public static synchronized CandidateFingerprintCache get() {
+        if (INSTANCE == null)
+            INSTANCE = new CandidateFingerprintCache(PropertyManager.getInteger(MAX_SIZE_KEY, 256) * 1024L * 1024L);
+        return INSTANCE;
+    }
+
+    private final long maxBytes;
+    private final StampedLock lock = new StampedLock();
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+
+    // guarded by lock
+    private LongBuffer store = null;
+    private String[] slotOwners = null;
+    private int wordsPerSlot = -1;
+    private FingerprintVersion version = null;
+    private int maxSlots = 0;
+    private int nextSlot = 0;
+
+    //stats
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    public CandidateFingerprintCache(long maxBytes) {
+        this.maxBytes = Math.max(1024, maxBytes);
+    }
+
+    /**
+     * Packs a fingerprint into words (deterministic, probability fingerprints have to be converted before).
+     */
+    public static long[] pack(@NotNull Fingerprint fp) {
+        final boolean[] bits = fp.toBooleanArray();
+        final long[] words = new long[(bits.length + 63) >>> 6];
+        for (int i = 0; i < bits.length; i++)
+            if (bits[i])
+                words[i >>> 6] |= 1L << (i & 63);
+        return words;
+    }
+
+    /**
+     * Tanimoto between the packed query and the candidate fingerprint. The candidate fingerprint is taken from the
+     * store if present, otherwise it is packed and added to the store.
+     *
+     * @param inchiKey2D  key of the candidate
+     * @param query       packed query fingerprint, see {@link #pack(Fingerprint)}. Needs to have the same
+     *                    fingerprint version as the candidate.
+     * @param candidateFp fingerprint of the candidate, only used if it is not already in the store
+     */
+    public double tanimoto(@NotNull String inchiKey2D, @NotNull long[] query, @NotNull Fingerprint candidateFp) {
+        final FingerprintVersion fpVersion = candidateFp.getFingerprintVersion();
+        double score = tryTanimoto(inchiKey2D, query, fpVersion);
+        if (!Double.isNaN(score)) {
+            hits.incrementAndGet();
+            return score;
+        }
+        misses.incrementAndGet();
+        final long[] packed = pack(candidateFp);
+        put(inchiKey2D, packed, fpVersion);
+        return tanimoto(query, packed);
+    }
+
+    private static boolean sameVersion(FingerprintVersion stored, FingerprintVersion fpVersion) {
+        return stored == fpVersion || (stored != null && stored.identical(fpVersion));
+    }
+
+    // returns NaN on cache miss
+    private double tryTanimoto(String key, long[] query, FingerprintVersion fpVersion) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            final double score = scoreIfPresent(key, query, fpVersion);
+            if (lock.validate(stamp))
+                return score;
+        } catch (IndexOutOfBoundsException e) {
+            // store has been replaced concurrently -> retry with read lock
+        }
+
+        stamp = lock.readLock();
+        try {
+            return scoreIfPresent(key, query, fpVersion);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private double scoreIfPresent(String key, long[] query, FingerprintVersion fpVersion) {
+        final LongBuffer store = this.store;
+        if (store == null || query.length != wordsPerSlot || !sameVersion(version, fpVersion))
+            return Double.NaN;
+        final Integer slot = slots.get(key);
+        if (slot == null)
+            return Double.NaN;
+        final int offset = slot * wordsPerSlot;
+        int intersection = 0, union = 0;
+        for (int i = 0; i < wordsPerSlot; i++) {
+            final long w = store.get(offset + i);
+            intersection += Long.bitCount(w & query[i]);
+            union += Long.bitCount(w | query[i]);
+        }
+        return union == 0 ? 0d : (double) intersection / union;
+    }
+
+    private void put(String key, long[] packed, FingerprintVersion fpVersion) {
+        if (packed.length == 0)
+            return;
+        final long stamp = lock.writeLock();
+        try {
+            if (store == null || !sameVersion(version, fpVersion)) {
+                wordsPerSlot = packed.length;
+                version = fpVersion;
+                maxSlots = (int) Math.max(1, Math.min(Integer.MAX_VALUE / (8L * wordsPerSlot), maxBytes / (8L * wordsPerSlot)));
+                store = null;
+                slotOwners = null;
+                slots.clear();
+                resize(Math.min(INITIAL_SLOTS, maxSlots));
+                nextSlot = 0;
+            }
+            if (slots.containsKey(key))
+                return;
+
+            if (nextSlot == slotOwners.length) {
+                if (slotOwners.length < maxSlots)
+                    resize((int) Math.min(maxSlots, 2L * slotOwners.length));
+                else
+                    nextSlot = 0;
+            }
+            final int slot = nextSlot++;
+            if (slotOwners[slot] != null) {
+                slots.remove(slotOwners[slot]);
+                evictions.incrementAndGet();
+            }
+            final int offset = slot * wordsPerSlot;
+            for (int i = 0; i < wordsPerSlot; i++)
+                store.put(offset + i, packed[i]);
+            slotOwners[slot] = key;
+            slots.put(key, slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // guarded by write lock, keeps the content of the current store
+    private void resize(int numSlots) {
+        final LongBuffer resized = ByteBuffer.allocateDirect(numSlots * wordsPerSlot * 8).asLongBuffer();
+        if (store != null)
+            resized.put(0, store, 0, store.capacity());
+        store = resized;
+        slotOwners = slotOwners == null ? new String[numSlots] : Arrays.copyOf(slotOwners, numSlots);
+    }
+
+    public static double tanimoto(@NotNull long[] left, @NotNull long[] right) {
+        int intersection = 0, union = 0;
+        for (int i = 0; i < left.length; i++) {
+            intersection += Long.bitCount(left[i] & right[i]);
+            union += Long.bitCount(left[i] | right[i]);
+        }
+        return union == 0 ? 0d : (double) intersection / union;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        final long h = hits.get(), all = h + misses.get();
+        return all == 0 ? 0d : (double) h / all;
+    }
+
+    /**
+     * @return number of fingerprints currently in the store.
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return off-heap bytes reserved by the store.
+     */
+    public long getReservedBytes() {
+        final LongBuffer s = store;
+        return s == null ? 0 : s.capacity() * 8L;
+    }
+
+    @Override
+    public String toString() {
+        return "CandidateFingerprintCache{size=" + size() + ", hitRate=" + String.format("%.3f", getHitRate())
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                + ", offHeapMB=" + String.format("%.1f", getReservedBytes() / 1024d / 1024d) + "}";
+    }
+}
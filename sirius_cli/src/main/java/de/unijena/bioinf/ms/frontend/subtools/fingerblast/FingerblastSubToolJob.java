@@ -21,6 +21,7 @@ package de.unijena.bioinf.ms.frontend.subtools.fingerblast;
 
 import de.unijena.bioinf.ChemistryBase.algorithm.scoring.FormulaScore;
 import de.unijena.bioinf.ChemistryBase.algorithm.scoring.SScored;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
 import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
 import de.unijena.bioinf.ChemistryBase.fp.Tanimoto;
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
@@ -36,11 +37,12 @@ import de.unijena.bioinf.fingerid.predictor_types.PredictorTypeAnnotation;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.jjobs.JobSubmitter;
-import de.unijena.bioinf.jjobs.Partition;
 import de.unijena.bioinf.ms.annotations.DataAnnotation;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
+import de.unijena.bioinf.ms.frontend.webapi.PredictionBackend;
+import de.unijena.bioinf.ms.frontend.webapi.WebBatching;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
 import de.unijena.bioinf.projectspace.FormulaResult;
 import de.unijena.bioinf.projectspace.FormulaScoring;
@@ -48,7 +50,6 @@ import de.unijena.bioinf.projectspace.Instance;
 import de.unijena.bioinf.projectspace.fingerid.FingerIdDataProperty;
 import de.unijena.bioinf.rest.NetUtils;
 import de.unijena.bioinf.sirius.scores.SiriusScore;
-import org.apache.commons.math3.util.Pair;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
@@ -92,8 +93,8 @@ public class FingerblastSubToolJob extends InstanceJob {
 
         // add CSIClientData to PS if it is not already there
         if (inst.getProjectSpaceManager().getProjectSpaceProperty(FingerIdDataProperty.class).isEmpty()) {
-            final FingerIdData pos = NetUtils.tryAndWait(() -> ApplicationCore.WEB_API.getFingerIdData(PredictorType.CSI_FINGERID_POSITIVE), this::checkForInterruption);
-            final FingerIdData neg = NetUtils.tryAndWait(() -> ApplicationCore.WEB_API.getFingerIdData(PredictorType.CSI_FINGERID_NEGATIVE), this::checkForInterruption);
+            final FingerIdData pos = NetUtils.tryAndWait(() -> ApplicationCore.webAPI().getFingerIdData(PredictorType.CSI_FINGERID_POSITIVE), this::checkForInterruption);
+            final FingerIdData neg = NetUtils.tryAndWait(() -> ApplicationCore.webAPI().getFingerIdData(PredictorType.CSI_FINGERID_NEGATIVE), this::checkForInterruption);
             inst.getProjectSpaceManager().setProjectSpaceProperty(FingerIdDataProperty.class, new FingerIdDataProperty(pos, neg));
         }
 
@@ -101,7 +102,7 @@ public class FingerblastSubToolJob extends InstanceJob {
         checkForInterruption();
 
         final @NotNull CSIPredictor csi = NetUtils.tryAndWait(() -> (CSIPredictor)
-                        ApplicationCore.WEB_API.getStructurePredictor(
+                        ApplicationCore.webAPI().getStructurePredictor(
                                 inst.getExperiment().getAnnotationOrThrow(PredictorTypeAnnotation.class)
                                         .toPredictors(inst.getExperiment().getPrecursorIonType().getCharge()).iterator().next()),
                 this::checkForInterruption);
@@ -118,8 +119,12 @@ public class FingerblastSubToolJob extends InstanceJob {
                 }));
 
         updateProgress(20);
-        {
-            final FingerblastJJob job = new FingerblastJJob(csi, ApplicationCore.WEB_API, inst.getExperiment(), new ArrayList<>(formulaResultsMap.values()));
+        if (WebBatching.isEnabled()) {
+            // do computation and await results -> objects are already in formulaResultsMap
+            awaitBatched(WebBatching.get().fingerblast().submit(
+                    new PredictionBackend.FingerblastRequest(this::submitSubJob, csi, inst.getExperiment(), new ArrayList<>(formulaResultsMap.values()))));
+        } else {
+            final FingerblastJJob job = new FingerblastJJob(csi, ApplicationCore.webAPI(), inst.getExperiment(), new ArrayList<>(formulaResultsMap.values()));
 
             checkForInterruption();
             // do computation and await results -> objects are already in formulaResultsMap
@@ -131,27 +136,49 @@ public class FingerblastSubToolJob extends InstanceJob {
 
         {
             //calculate and annotate tanimoto scores
-            List<Pair<ProbabilityFingerprint, FingerprintCandidate>> tanimotoJobs = new ArrayList<>();
+            // flat arrays instead of pairs: one packed query per formula result and one entry per candidate
+            final List<ProbabilityFingerprint> predicted = new ArrayList<>();
+            final List<long[]> queries = new ArrayList<>();
+            final List<FingerprintCandidate> candidates = new ArrayList<>();
+            final List<Integer> offsets = new ArrayList<>();
             updateProgress(55);
             formulaResultsMap.values().stream().filter(it -> it.hasAnnotation(FingerprintResult.class) && it.hasAnnotation(FingerblastResult.class)).forEach(it -> {
-                final ProbabilityFingerprint fp = it.getPredictedFingerprint();
-                it.getFingerprintCandidates().stream().map(SScored::getCandidate).forEach(candidate ->
-                        tanimotoJobs.add(Pair.create(fp, candidate))
-                );
+                offsets.add(candidates.size());
+                predicted.add(it.getPredictedFingerprint());
+                queries.add(CandidateFingerprintCache.pack(it.getPredictedFingerprint().asDeterministic()));
+                it.getFingerprintCandidates().stream().map(SScored::getCandidate).forEach(candidates::add);
             });
+            offsets.add(candidates.size());
+            final int[] queryOffsets = offsets.stream().mapToInt(Integer::intValue).toArray();
 
             updateProgress(60);
             checkForInterruption();
 
-            List<BasicJJob<Boolean>> jobs = Partition.ofNumber(tanimotoJobs, 2 * SiriusJobs.getCPUThreads())
-                    .stream().map(l -> new BasicJJob<Boolean>(JobType.CPU) {
-                        @Override
-                        protected Boolean compute() {
-                            l.forEach(p -> p.getSecond().setTanimoto(
-                                    Tanimoto.nonProbabilisticTanimoto(p.getSecond().getFingerprint(), p.getFirst())));
-                            return Boolean.TRUE;
+            final CandidateFingerprintCache cache = CandidateFingerprintCache.get();
+            final int numOfJobs = Math.max(1, Math.min(candidates.size(), 2 * SiriusJobs.getCPUThreads()));
+            final int chunkSize = (candidates.size() + numOfJobs - 1) / Math.max(1, numOfJobs);
+            List<BasicJJob<Boolean>> jobs = new ArrayList<>(numOfJobs);
+            for (int start = 0; start < candidates.size(); start += chunkSize) {
+                final int from = start, to = Math.min(candidates.size(), start + chunkSize);
+                jobs.add(new BasicJJob<Boolean>(JobType.CPU) {
+                    @Override
+                    protected Boolean compute() {
+                        int q = 0;
+                        for (int i = from; i < to; i++) {
+                            while (queryOffsets[q + 1] <= i) q++;
+                            final FingerprintCandidate c = candidates.get(i);
+                            final FingerprintVersion fpVersion = predicted.get(q).getFingerprintVersion();
+                            final FingerprintVersion candidateVersion = c.getFingerprint().getFingerprintVersion();
+                            // packed layouts are only comparable if both fingerprints have the same version
+                            if (c.getInchiKey2D() == null || (candidateVersion != fpVersion && !candidateVersion.identical(fpVersion)))
+                                c.setTanimoto(Tanimoto.nonProbabilisticTanimoto(c.getFingerprint(), predicted.get(q)));
+                            else
+                                c.setTanimoto(cache.tanimoto(c.getInchiKey2D(), queries.get(q), c.getFingerprint()));
                         }
-                    }).collect(Collectors.toList());
+                        return Boolean.TRUE;
+                    }
+                });
+            }
 
             updateProgress(65);
             jobs.forEach(this::submitJob);
@@ -159,6 +186,7 @@ public class FingerblastSubToolJob extends InstanceJob {
             updateProgress(70);
             jobs.forEach(JJob::getResult);
 
+            logDebug("Candidate fingerprint cache: " + cache);
             updateProgress(80);
             checkForInterruption();
         }
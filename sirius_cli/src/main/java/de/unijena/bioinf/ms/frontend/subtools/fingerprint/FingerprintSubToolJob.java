@@ -31,6 +31,8 @@ import de.unijena.bioinf.ms.annotations.DataAnnotation;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
+import de.unijena.bioinf.ms.frontend.webapi.PredictionBackend;
+import de.unijena.bioinf.ms.frontend.webapi.WebBatching;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
 import de.unijena.bioinf.projectspace.FormulaScoring;
 import de.unijena.bioinf.projectspace.Instance;
@@ -43,6 +45,7 @@ import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -80,8 +83,8 @@ public class FingerprintSubToolJob extends InstanceJob {
 
         // add CSIClientData to PS if it is not already there
         if (inst.getProjectSpaceManager().getProjectSpaceProperty(FingerIdDataProperty.class).isEmpty()) {
-            final FingerIdData pos = NetUtils.tryAndWait(() -> ApplicationCore.WEB_API.getFingerIdData(PredictorType.CSI_FINGERID_POSITIVE), this::checkForInterruption);
-            final FingerIdData neg = NetUtils.tryAndWait(() -> ApplicationCore.WEB_API.getFingerIdData(PredictorType.CSI_FINGERID_NEGATIVE), this::checkForInterruption);
+            final FingerIdData pos = NetUtils.tryAndWait(() -> ApplicationCore.webAPI().getFingerIdData(PredictorType.CSI_FINGERID_POSITIVE), this::checkForInterruption);
+            final FingerIdData neg = NetUtils.tryAndWait(() -> ApplicationCore.webAPI().getFingerIdData(PredictorType.CSI_FINGERID_NEGATIVE), this::checkForInterruption);
             inst.getProjectSpaceManager().setProjectSpaceProperty(FingerIdDataProperty.class, new FingerIdDataProperty(pos, neg));
         }
 
@@ -89,7 +92,7 @@ public class FingerprintSubToolJob extends InstanceJob {
         checkForInterruption();
 
         final EnumSet<PredictorType> predictors = inst.getExperiment().getAnnotationOrThrow(PredictorTypeAnnotation.class).toPredictors(inst.getExperiment().getPrecursorIonType().getCharge());
-        final @NotNull CSIPredictor csi = NetUtils.tryAndWait(() -> (CSIPredictor) ApplicationCore.WEB_API.getStructurePredictor(predictors.iterator().next()), this::checkForInterruption);
+        final @NotNull CSIPredictor csi = NetUtils.tryAndWait(() -> (CSIPredictor) ApplicationCore.webAPI().getStructurePredictor(predictors.iterator().next()), this::checkForInterruption);
 
         checkForInterruption();
 
@@ -108,10 +111,17 @@ public class FingerprintSubToolJob extends InstanceJob {
         checkForInterruption();
 
         // prediction jobs: predict fingerprints via webservice
-        final FingerprintJJob fpPredictJob = submitSubJob(FingerprintJJob.of(csi, ApplicationCore.WEB_API, inst.getExperiment(), filteredResults));
-
-        updateProgress(35);
-        List<FingerIdResult> result = fpPredictJob.awaitResult();
+        final List<FingerIdResult> result;
+        if (WebBatching.isEnabled()) {
+            final Future<List<FingerIdResult>> response = WebBatching.get().fingerprints()
+                    .submit(new PredictionBackend.FingerprintRequest(this::submitSubJob, csi, inst.getExperiment(), filteredResults));
+            updateProgress(35);
+            result = awaitBatched(response);
+        } else {
+            final FingerprintJJob fpPredictJob = submitSubJob(FingerprintJJob.of(csi, ApplicationCore.webAPI(), inst.getExperiment(), filteredResults));
+            updateProgress(35);
+            result = fpPredictJob.awaitResult();
+        }
 
         updateProgress(70);
         checkForInterruption();
@@ -42,6 +42,20 @@ public class LcmsAlignOptions implements PreprocessingTool<LcmsAlignSubToolJob>
 
     protected Optional<LCMSWorkflow> workflow = Optional.empty();
 
+    @CommandLine.Option(names = "--memory-budget", defaultValue = "0",
+            description = {"Heap memory in MiB that LC/MS runs may use while they are parsed and processed concurrently. Runs are scheduled by their estimated size and their scans are spilled to disk directly after parsing.",
+                    "0 processes all runs at once, negative values use half of the maximum heap size."})
+    protected long memoryBudget;
+
+    /**
+     * @return memory budget for parsing and processing runs or null if runs are not limited by memory
+     */
+    LcmsMemoryBudget makeMemoryBudget() {
+        if (memoryBudget == 0)
+            return null;
+        return new LcmsMemoryBudget(memoryBudget < 0 ? Runtime.getRuntime().maxMemory() / 2 : memoryBudget * 1024 * 1024);
+    }
+
     public Optional<LCMSWorkflow> getWorkflow() {
         return workflow;
     }
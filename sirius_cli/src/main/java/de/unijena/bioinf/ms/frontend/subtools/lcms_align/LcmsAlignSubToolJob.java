@@ -94,17 +94,21 @@ public class LcmsAlignSubToolJob extends PreprocessingJob<ProjectSpaceManager<?>
         final List<Path> files = input.msInput.msParserfiles.keySet().stream().sorted().collect(Collectors.toList());
         updateProgress(0, files.size(), 1, "Parse LC/MS runs");
         AtomicInteger counter = new AtomicInteger(0);
+        final LcmsMemoryBudget budget = options.makeMemoryBudget();
         for (Path f : files) {
+            final long reserved = budget != null ? budget.acquire(budget.estimate(f)) : 0;
             jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<>() {
                 @Override
                 protected Object compute() {
                     try {
                         MemoryFileStorage storage = new MemoryFileStorage();
                         final LCMSRun parse = LCMSParsing.parseRun(f.toFile(), storage);
+                        if (budget != null) //spill scans before feature detection to keep only one buffer per run in flight
+                            spillToDisk(storage);
                         final ProcessedSample sample = i.addSample(parse, storage);
                         i.detectFeatures(sample);
-                        storage.backOnDisc();
-                        storage.dropBuffer();
+                        if (budget == null)
+                            spillToDisk(storage);
                         final int c = counter.incrementAndGet();
                         LcmsAlignSubToolJob.this.updateProgress(0, files.size(), c, "Parse LC/MS runs");
                     } catch (Throwable e) {
@@ -114,6 +118,9 @@ public class LcmsAlignSubToolJob extends PreprocessingJob<ProjectSpaceManager<?>
                             e.printStackTrace();
                             throw new RuntimeException(e);
                         }
+                    } finally {
+                        if (budget != null)
+                            budget.release(reserved);
                     }
                     return "";
                 }
@@ -137,7 +144,27 @@ public class LcmsAlignSubToolJob extends PreprocessingJob<ProjectSpaceManager<?>
         return importIntoProjectSpace(i,alignment,sourcelocation);
     }
 
-    private ProjectSpaceManager<?> computeWorkflow(LCMSWorkflow lcmsWorkflow) {
+    private static void spillToDisk(MemoryFileStorage storage) throws IOException {
+        storage.backOnDisc();
+        storage.dropBuffer();
+    }
+
+    /**
+     * Parses and processes the given runs. If a memory budget is set, runs are only submitted if their estimated
+     * size fits into the budget.
+     */
+    private ProcessedSample[] processRuns(LCMSProccessingInstance instance, String[] filenames) throws InterruptedException {
+        final JobManager jm = SiriusJobs.getGlobalJobManager();
+        final LcmsMemoryBudget budget = options.makeMemoryBudget();
+        final List<BasicJJob<ProcessedSample>> jobs = new ArrayList<>(filenames.length);
+        for (String filename : filenames) {
+            final long reserved = budget != null ? budget.acquire(budget.estimate(Path.of(filename))) : 0;
+            jobs.add(jm.submitJob(processRunJob(instance, filename, budget, reserved)));
+        }
+        return jobs.stream().map(JJob::takeResult).toArray(ProcessedSample[]::new);
+    }
+
+    private ProjectSpaceManager<?> computeWorkflow(LCMSWorkflow lcmsWorkflow) throws InterruptedException {
         if (lcmsWorkflow instanceof PooledMs2Workflow) {
             return computePooledWorkflow((PooledMs2Workflow) lcmsWorkflow);
         } else if (lcmsWorkflow instanceof MixedWorkflow) {
@@ -151,14 +178,14 @@ public class LcmsAlignSubToolJob extends PreprocessingJob<ProjectSpaceManager<?>
         return null;
     }
 
-    private ProjectSpaceManager<?> computePooledWorkflow(PooledMs2Workflow lcmsWorkflow) {
+    private ProjectSpaceManager<?> computePooledWorkflow(PooledMs2Workflow lcmsWorkflow) throws InterruptedException {
         final LCMSProccessingInstance instance = new LCMSProccessingInstance();
         // read all files
         final JobManager jm = SiriusJobs.getGlobalJobManager();
-        final ProcessedSample[] ms2Samples = Arrays.stream(lcmsWorkflow.getPooledMs2()).map(filename->jm.submitJob(processRunJob(instance,filename))).collect(Collectors.toList()).stream().map(JJob::takeResult).toArray(ProcessedSample[]::new);
+        final ProcessedSample[] ms2Samples = processRuns(instance, lcmsWorkflow.getPooledMs2());
         System.out.println("MS2 DONE");
-        final ProcessedSample[] ms1Samples = Arrays.stream(lcmsWorkflow.getPooledMs1()).map(filename->jm.submitJob(processRunJob(instance,filename))).collect(Collectors.toList()).stream().map(JJob::takeResult).toArray(ProcessedSample[]::new);
-        final ProcessedSample[] remainingSamples = Arrays.stream(lcmsWorkflow.getRemainingMs1()).map(filename->jm.submitJob(processRunJob(instance,filename))).collect(Collectors.toList()).stream().map(JJob::takeResult).toArray(ProcessedSample[]::new);
+        final ProcessedSample[] ms1Samples = processRuns(instance, lcmsWorkflow.getPooledMs1());
+        final ProcessedSample[] remainingSamples = processRuns(instance, lcmsWorkflow.getRemainingMs1());
         if (ms1Samples.length>1) {
             LoggerFactory.getLogger(LcmsAlignSubToolJob.class).warn("Multiple pooled MS1 samples are not supported yet. We will just process the first one.");
         }
@@ -177,11 +204,10 @@ public class LcmsAlignSubToolJob extends PreprocessingJob<ProjectSpaceManager<?>
     }
 
 
-    private ProjectSpaceManager<?> computeRemappingWorkflow(RemappingWorkflow lcmsWorkflow) {
+    private ProjectSpaceManager<?> computeRemappingWorkflow(RemappingWorkflow lcmsWorkflow) throws InterruptedException {
         final LCMSProccessingInstance instance = new LCMSProccessingInstance();
         // read all files
-        final JobManager jm = SiriusJobs.getGlobalJobManager();
-        final ProcessedSample[] ms1Samples = Arrays.stream(lcmsWorkflow.getFiles()).map(filename->jm.submitJob(processRunJob(instance,filename))).collect(Collectors.toList()).stream().map(JJob::takeResult).toArray(ProcessedSample[]::new);
+        final ProcessedSample[] ms1Samples = processRuns(instance, lcmsWorkflow.getFiles());
         final Iterator<CompoundContainer> compoundContainerIterator = space.projectSpace().compoundIterator(LCMSPeakInformation.class, Ms2Experiment.class);
         final List<Ms2Experiment> exps = new ArrayList<>();
         final List<LCMSPeakInformation> peaks = new ArrayList<>();
@@ -310,7 +336,7 @@ public class LcmsAlignSubToolJob extends PreprocessingJob<ProjectSpaceManager<?>
         return space;
     }
 
-    private BasicJJob<ProcessedSample> processRunJob(LCMSProccessingInstance instance, String filename) {
+    private BasicJJob<ProcessedSample> processRunJob(LCMSProccessingInstance instance, String filename, LcmsMemoryBudget budget, long reserved) {
         return new BasicJJob<ProcessedSample>() {
             @Override
             protected ProcessedSample compute() throws Exception {
@@ -318,15 +344,20 @@ public class LcmsAlignSubToolJob extends PreprocessingJob<ProjectSpaceManager<?>
                     final MemoryFileStorage storage = new MemoryFileStorage();
                     System.out.println("parse file " + filename);
                     LCMSRun run = LCMSParsing.parseRun(new File(filename), storage);
+                    if (budget != null)
+                        spillToDisk(storage);
                     System.out.println("Start processing");
                     final ProcessedSample pr = instance.addSample(run, storage, false);
                     System.out.println("Finish processing");
-                    storage.backOnDisc();
-                    storage.dropBuffer();
+                    if (budget == null)
+                        spillToDisk(storage);
                     return pr;
                 } catch (IOException | InvalidInputData e) {
                     LoggerFactory.getLogger(LcmsAlignSubToolJob.class).error(e.getMessage(),e);
                     throw new RuntimeException("Stop processing");
+                } finally {
+                    if (budget != null)
+                        budget.release(reserved);
                 }
             }
         };
@@ -0,0 +1,76 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.lcms_align;
+
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Limits the LC/MS runs that are parsed and processed concurrently by their estimated heap usage. The estimate is
+ * the file size multiplied with a configurable factor. A run that is larger than the whole budget is processed
+ * alone, so every run can be processed.
+ */
+class LcmsMemoryBudget {
+    public static final String BYTES_PER_FILE_BYTE_KEY = "de.unijena.bioinf.sirius.lcms.memoryBudget.bytesPerFileByte";
+
+    private final long capacity;
+    private final double bytesPerFileByte;
+    private long available;
+
+    LcmsMemoryBudget(long capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.available = this.capacity;
+        this.bytesPerFileByte = Math.max(0.01, PropertyManager.getDouble(BYTES_PER_FILE_BYTE_KEY, 3d));
+    }
+
+    /**
+     * @return estimated heap usage of parsing and feature detection of the given run.
+     */
+    long estimate(Path run) {
+        try {
+            return (long) Math.min(Long.MAX_VALUE, Files.size(run) * bytesPerFileByte);
+        } catch (IOException e) {
+            LoggerFactory.getLogger(LcmsMemoryBudget.class).warn("Could not estimate size of '" + run + "'. Reserving the whole memory budget.");
+            return capacity;
+        }
+    }
+
+    /**
+     * Blocks until the given amount of memory is available and reserves it.
+     *
+     * @return the reserved amount that has to be handed to {@link #release(long)}
+     */
+    synchronized long acquire(long bytes) throws InterruptedException {
+        final long reserved = Math.max(0, Math.min(bytes, capacity));
+        while (available < reserved)
+            wait();
+        available -= reserved;
+        return reserved;
+    }
+
+    synchronized void release(long reserved) {
+        available += reserved;
+        notifyAll();
+    }
+}
@@ -175,7 +175,7 @@ public class LoginOptions implements StandaloneTool<LoginOptions.LoginWorkflow>
             PropertyManager.DEFAULTS.changeConfig("PrintCitations", "FALSE");
             if (clearLogin) {
                 try {
-                    AuthServices.clearRefreshToken(ApplicationCore.WEB_API.getAuthService(), ApplicationCore.TOKEN_FILE);
+                    AuthServices.clearRefreshToken(ApplicationCore.webAPI().getAuthService(), ApplicationCore.TOKEN_FILE);
                     System.out.println("Token successfully removed. You are now logged out!");
                 } catch (IOException e) {
                     LoggerFactory.getLogger(getClass()).error("Error when clearing refresh token.", e);
@@ -184,7 +184,7 @@ public class LoginOptions implements StandaloneTool<LoginOptions.LoginWorkflow>
             }
 
             if (login != null) {
-                AuthService service = ApplicationCore.WEB_API.getAuthService();
+                AuthService service = ApplicationCore.webAPI().getAuthService();
                 try {
                     if (login.isTokenAuth())
                         service.login(login.getRefreshToken());
@@ -269,7 +269,7 @@ public class LoginOptions implements StandaloneTool<LoginOptions.LoginWorkflow>
         }
 
         private void showLicense() throws IOException {
-            WebAPI<?> api = ApplicationCore.WEB_API;
+            WebAPI<?> api = ApplicationCore.webAPI();
             @Nullable Subscription subs = Tokens.getActiveSubscription(api.getAuthService().getToken().orElse(null));
 
             System.out.println();
@@ -310,10 +310,10 @@ public class LoginOptions implements StandaloneTool<LoginOptions.LoginWorkflow>
                 sub = Tokens.getActiveSubscription(subs, Tokens.getDefaultSubscriptionID(token));
             }
             SiriusProperties.SIRIUS_PROPERTIES_FILE().setProperty(Tokens.ACTIVE_SUBSCRIPTION_KEY, sub.getSid());
-            ApplicationCore.WEB_API.changeActiveSubscription(sub);
+            ApplicationCore.webAPI().changeActiveSubscription(sub);
 
             //check connection
-            Multimap<ConnectionError.Klass, ConnectionError> errors = ApplicationCore.WEB_API.checkConnection();
+            Multimap<ConnectionError.Klass, ConnectionError> errors = ApplicationCore.webAPI().checkConnection();
             LoggerFactory.getLogger(getClass()).debug("Connection check after login returned errors: " +
                     errors.values().stream().sorted(Comparator.comparing(ConnectionError::getSiriusErrorCode))
                             .map(ConnectionError::toString).collect(Collectors.joining(",\n")));
@@ -330,9 +330,9 @@ public class LoginOptions implements StandaloneTool<LoginOptions.LoginWorkflow>
                 String answer = scanner.next();
                 System.out.println("##########################################################");
                 if (answer.equalsIgnoreCase("Y") || answer.equalsIgnoreCase("YES")) {
-                    ApplicationCore.WEB_API.acceptTermsAndRefreshToken();
+                    ApplicationCore.webAPI().acceptTermsAndRefreshToken();
                     System.out.println("Terms accepted! Checking web service permissions...");
-                    errors = ApplicationCore.WEB_API.checkConnection();
+                    errors = ApplicationCore.webAPI().checkConnection();
                 } else { //not accepted clear account data
                     System.out.println("Terms NOT Accepted! Removing login information. Please re-login and accept terms to use web service based features.");
                     AuthServices.clearRefreshToken(ApplicationCore.TOKEN_FILE);
@@ -343,7 +343,7 @@ public class LoginOptions implements StandaloneTool<LoginOptions.LoginWorkflow>
             }
 
             if (errors.isEmpty()) {
-                Subscription subUsed = ApplicationCore.WEB_API.getActiveSubscription();
+                Subscription subUsed = ApplicationCore.webAPI().getActiveSubscription();
                 System.out.println();
                 if (sid != null && sid.equals(subUsed.getSid())) { //make host change persistent because connection was successful
                     String old = SiriusProperties.getProperty(Tokens.ACTIVE_SUBSCRIPTION_KEY);
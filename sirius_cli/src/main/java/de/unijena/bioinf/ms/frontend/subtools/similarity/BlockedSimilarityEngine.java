@@ -0,0 +1,207 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.similarity;
+
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes symmetric N x N similarity matrices in cache sized tiles. Only tiles on and above the diagonal are
+ * computed, the {@link TileSink} is responsible for mirroring. Tiles are distributed round-robin over a fixed
+ * number of CPU jobs, each job reuses one tile buffer.
+ * <p>
+ * Kernels are plain loops over contiguous primitive arrays (see {@link PackedFingerprints}) that can be
+ * auto-vectorized by the JIT.
+ */
+public final class BlockedSimilarityEngine {
+    public static final int DEFAULT_TILE_SIZE = 128;
+
+    @FunctionalInterface
+    public interface PairScorer {
+        double score(int i, int j);
+    }
+
+    @FunctionalInterface
+    public interface TileKernel {
+        /**
+         * Writes the scores of rows [rowFrom, rowTo) x cols [colFrom, colTo) row major into out.
+         */
+        void computeTile(int rowFrom, int rowTo, int colFrom, int colTo, double[] out);
+
+        static TileKernel of(@NotNull PairScorer scorer) {
+            return (rowFrom, rowTo, colFrom, colTo, out) -> {
+                int c = 0;
+                for (int i = rowFrom; i < rowTo; i++)
+                    for (int j = colFrom; j < colTo; j++)
+                        out[c++] = scorer.score(i, j);
+            };
+        }
+    }
+
+    @FunctionalInterface
+    public interface TileSink {
+        /**
+         * Called concurrently for every computed tile (rowFrom <= colFrom). The tile buffer is reused after the call
+         * returns.
+         */
+        void accept(int rowFrom, int rowTo, int colFrom, int colTo, double[] tile);
+    }
+
+    /**
+     * Random access to a computed similarity matrix.
+     */
+    public interface SimilarityMatrix extends TileSink {
+        int size();
+
+        double get(int i, int j);
+
+        /**
+         * @return row i of the matrix, might be backed by the matrix and must not be modified
+         */
+        default double[] getRow(int i) {
+            final double[] row = new double[size()];
+            for (int j = 0; j < row.length; j++)
+                row[j] = get(i, j);
+            return row;
+        }
+    }
+
+    private final int tileSize;
+    private final int numOfJobs;
+
+    public BlockedSimilarityEngine(int tileSize, int numOfJobs) {
+        this.tileSize = Math.max(1, tileSize);
+        this.numOfJobs = Math.max(1, numOfJobs);
+    }
+
+    public void compute(int n, @NotNull TileKernel kernel, @NotNull TileSink sink, @NotNull JobManager jobManager) {
+        final int blocks = (n + tileSize - 1) / tileSize;
+        final List<int[]> tiles = new ArrayList<>();
+        for (int bi = 0; bi < blocks; bi++)
+            for (int bj = bi; bj < blocks; bj++)
+                tiles.add(new int[]{bi, bj});
+
+        final int jobs = Math.min(numOfJobs, Math.max(1, tiles.size()));
+        final List<BasicJJob<Integer>> submitted = new ArrayList<>(jobs);
+        for (int k = 0; k < jobs; k++) {
+            final int offset = k;
+            submitted.add(jobManager.submitJob(new BasicJJob<Integer>(JJob.JobType.CPU) {
+                @Override
+                protected Integer compute() throws Exception {
+                    final double[] buffer = new double[tileSize * tileSize];
+                    int computed = 0;
+                    for (int t = offset; t < tiles.size(); t += jobs) {
+                        checkForInterruption();
+                        final int[] tile = tiles.get(t);
+                        final int rowFrom = tile[0] * tileSize, rowTo = Math.min(n, rowFrom + tileSize);
+                        final int colFrom = tile[1] * tileSize, colTo = Math.min(n, colFrom + tileSize);
+                        kernel.computeTile(rowFrom, rowTo, colFrom, colTo, buffer);
+                        sink.accept(rowFrom, rowTo, colFrom, colTo, buffer);
+                        computed++;
+                    }
+                    return computed;
+                }
+            }));
+        }
+        submitted.forEach(JJob::takeResult);
+    }
+
+    public static SimilarityMatrix newMatrix(int n, boolean singlePrecision) {
+        return singlePrecision ? new FloatMatrix(n) : new DoubleMatrix(n);
+    }
+
+    public static SimilarityMatrix wrap(@NotNull double[][] matrix) {
+        return new DoubleMatrix(matrix);
+    }
+
+    private static class DoubleMatrix implements SimilarityMatrix {
+        private final double[][] M;
+
+        private DoubleMatrix(int n) {
+            this(new double[n][n]);
+        }
+
+        private DoubleMatrix(double[][] m) {
+            M = m;
+        }
+
+        @Override
+        public int size() {
+            return M.length;
+        }
+
+        @Override
+        public double get(int i, int j) {
+            return M[i][j];
+        }
+
+        @Override
+        public double[] getRow(int i) {
+            return M[i];
+        }
+
+        @Override
+        public void accept(int rowFrom, int rowTo, int colFrom, int colTo, double[] tile) {
+            final int width = colTo - colFrom;
+            for (int i = rowFrom; i < rowTo; i++) {
+                final int o = (i - rowFrom) * width;
+                for (int j = colFrom; j < colTo; j++) {
+                    M[i][j] = tile[o + j - colFrom];
+                    M[j][i] = tile[o + j - colFrom];
+                }
+            }
+        }
+    }
+
+    private static class FloatMatrix implements SimilarityMatrix {
+        private final float[][] M;
+
+        private FloatMatrix(int n) {
+            M = new float[n][n];
+        }
+
+        @Override
+        public int size() {
+            return M.length;
+        }
+
+        @Override
+        public double get(int i, int j) {
+            return M[i][j];
+        }
+
+        @Override
+        public void accept(int rowFrom, int rowTo, int colFrom, int colTo, double[] tile) {
+            final int width = colTo - colFrom;
+            for (int i = rowFrom; i < rowTo; i++) {
+                final int o = (i - rowFrom) * width;
+                for (int j = colFrom; j < colTo; j++) {
+                    M[i][j] = (float) tile[o + j - colFrom];
+                    M[j][i] = (float) tile[o + j - colFrom];
+                }
+            }
+        }
+    }
+}
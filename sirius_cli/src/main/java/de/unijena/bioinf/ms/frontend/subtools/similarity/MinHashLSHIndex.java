@@ -0,0 +1,216 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.ms.frontend.subtools.similarity;
+
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobManager;
+import gnu.trove.set.hash.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * MinHash locality sensitive hashing over sets of integer tokens (e.g. set bits of a thresholded fingerprint or
+ * binned peaks of a spectrum). Generates candidate pairs in sub-quadratic time, which then have to be scored
+ * exactly.
+ * <p>
+ * The signature of each compound consists of {@code bands * rows} min hashes. Two compounds become candidates if
+ * all min hashes of at least one band are equal. For two sets with Jaccard similarity s the probability of being
+ * a candidate is {@code 1 - (1 - s^rows)^bands}, so more bands increase recall (and runtime) while more rows per
+ * band increase precision.
+ */
+public class MinHashLSHIndex {
+    private final int bands;
+    private final int rows;
+    private final int maxBucketSize;
+    private final long[] multipliers;
+    private final long[] offsets;
+
+    /**
+     * @param bands         number of bands. Higher values increase recall.
+     * @param rows          number of min hashes per band. Higher values reduce the number of false candidates.
+     * @param maxBucketSize buckets larger than this are split into chunks of this size to avoid quadratic blow up
+     *                      for degenerated (e.g. nearly empty) token sets.
+     */
+    public MinHashLSHIndex(int bands, int rows, int maxBucketSize, long seed) {
+        this.bands = Math.max(1, bands);
+        this.rows = Math.max(1, rows);
+        this.maxBucketSize = Math.max(2, maxBucketSize);
+        final Random r = new Random(seed);
+        final int numHashes = this.bands * this.rows;
+        multipliers = new long[numHashes];
+        offsets = new long[numHashes];
+        for (int h = 0; h < numHashes; h++) {
+            multipliers[h] = r.nextLong() | 1L;
+            offsets[h] = r.nextLong();
+        }
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Probability that two sets with the given Jaccard similarity become candidates.
+     */
+    public double candidateProbability(double jaccard) {
+        return 1d - Math.pow(1d - Math.pow(jaccard, rows), bands);
+    }
+
+    /**
+     * @param tokenSets token set per compound. Compounds with empty sets never get candidates.
+     * @return sorted candidate neighbours per compound (symmetric, without the compound itself).
+     */
+    public int[][] candidates(@NotNull int[][] tokenSets, @NotNull JobManager jobManager) {
+        final int n = tokenSets.length;
+        final int numHashes = bands * rows;
+        final int[] signatures = new int[n * numHashes];
+
+        final int chunks = Math.max(1, Math.min(n, 4 * jobManager.getCPUThreads()));
+        final List<BasicJJob<Boolean>> jobs = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final int from = (int) ((long) n * c / chunks), to = (int) ((long) n * (c + 1) / chunks);
+            jobs.add(jobManager.submitJob(new BasicJJob<Boolean>(JJob.JobType.CPU) {
+                @Override
+                protected Boolean compute() throws Exception {
+                    for (int i = from; i < to; i++) {
+                        checkForInterruption();
+                        signature(tokenSets[i], signatures, i * numHashes);
+                    }
+                    return true;
+                }
+            }));
+        }
+        jobs.forEach(JJob::takeResult);
+
+        // sort compounds by band key, one job per band
+        final List<BasicJJob<long[]>> bandJobs = new ArrayList<>(bands);
+        for (int b = 0; b < bands; b++) {
+            final int band = b;
+            bandJobs.add(jobManager.submitJob(new BasicJJob<long[]>(JJob.JobType.CPU) {
+                @Override
+                protected long[] compute() {
+                    // upper 32 bit: band hash, lower 32 bit: compound index
+                    final long[] keys = new long[n];
+                    int k = 0;
+                    for (int i = 0; i < n; i++) {
+                        if (tokenSets[i].length == 0) continue;
+                        int h = 17;
+                        final int o = i * numHashes + band * rows;
+                        for (int r = 0; r < rows; r++)
+                            h = 31 * h + signatures[o + r];
+                        keys[k++] = ((long) mix(h) << 32) | i;
+                    }
+                    final long[] sorted = Arrays.copyOf(keys, k);
+                    Arrays.sort(sorted);
+                    return sorted;
+                }
+            }));
+        }
+
+        final TIntHashSet[] neighbours = new TIntHashSet[n];
+        for (BasicJJob<long[]> job : bandJobs) {
+            final long[] keys = job.takeResult();
+            int start = 0;
+            while (start < keys.length) {
+                int end = start + 1;
+                while (end < keys.length && (keys[end] >>> 32) == (keys[start] >>> 32)) end++;
+                for (int chunk = start; chunk < end; chunk += maxBucketSize)
+                    addBucket(keys, chunk, Math.min(end, chunk + maxBucketSize), neighbours);
+                start = end;
+            }
+        }
+
+        final int[][] result = new int[n][];
+        for (int i = 0; i < n; i++) {
+            if (neighbours[i] == null) {
+                result[i] = new int[0];
+            } else {
+                result[i] = neighbours[i].toArray();
+                neighbours[i] = null;
+                Arrays.sort(result[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tokens for spectra: binned masses of the most intense peaks and of their losses to the ion mass.
+     */
+    public static int[] spectrumTokens(@NotNull SimpleSpectrum spectrum, double ionMass, double binWidth, int maxPeaks) {
+        final Integer[] byIntensity = new Integer[spectrum.size()];
+        for (int k = 0; k < byIntensity.length; k++) byIntensity[k] = k;
+        Arrays.sort(byIntensity, (a, b) -> Double.compare(spectrum.getIntensityAt(b), spectrum.getIntensityAt(a)));
+        final TIntHashSet tokens = new TIntHashSet();
+        for (int k = 0; k < Math.min(maxPeaks, byIntensity.length); k++) {
+            final double mz = spectrum.getMzAt(byIntensity[k]);
+            tokens.add(2 * (int) Math.round(mz / binWidth));
+            final double loss = ionMass - mz;
+            if (loss > 0.5)
+                tokens.add(2 * (int) Math.round(loss / binWidth) + 1);
+        }
+        return tokens.toArray();
+    }
+
+    private static void addBucket(long[] keys, int from, int to, TIntHashSet[] neighbours) {
+        for (int a = from; a < to; a++) {
+            final int i = (int) keys[a];
+            for (int b = a + 1; b < to; b++) {
+                final int j = (int) keys[b];
+                if (neighbours[i] == null) neighbours[i] = new TIntHashSet();
+                if (neighbours[j] == null) neighbours[j] = new TIntHashSet();
+                neighbours[i].add(j);
+                neighbours[j].add(i);
+            }
+        }
+    }
+
+    private void signature(int[] tokens, int[] signatures, int offset) {
+        for (int h = 0; h < multipliers.length; h++) {
+            final long m = multipliers[h], a = offsets[h];
+            int min = Integer.MAX_VALUE;
+            for (int t : tokens) {
+                final int v = mix((int) ((t * m + a) >>> 32));
+                if (v < min) min = v;
+            }
+            signatures[offset + h] = min;
+        }
+    }
+
+    // murmur3 finalizer
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
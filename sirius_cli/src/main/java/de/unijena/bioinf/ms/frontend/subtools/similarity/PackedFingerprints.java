@@ -0,0 +1,184 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.similarity;
+
+import de.unijena.bioinf.ChemistryBase.fp.FPIter;
+import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Probability fingerprints of N compounds packed into contiguous primitive arrays (row major), so that similarity
+ * kernels can run over plain arrays instead of iterating fingerprint objects pair by pair.
+ * All fingerprints need to have the same fingerprint version.
+ */
+public final class PackedFingerprints {
+    private final int size;
+    private final int dim;
+    private final int words;
+    // source fingerprints, only needed to build the probabilities on first use
+    private final ProbabilityFingerprint[] fps;
+    // unsmoothed probabilities and their norms, built lazily since tanimoto only needs the bit sets
+    private volatile Probabilities probabilities;
+    // deterministic fingerprint (probability >= 0.5), size * words
+    private final long[] bits;
+    // number of set bits per row
+    private final int[] cardinalities;
+
+    private static final class Probabilities {
+        // unsmoothed probabilities, size * dim
+        private final double[] values;
+        // squared norm of the unsmoothed probabilities per row
+        private final double[] norms;
+
+        private Probabilities(int size, int dim) {
+            this.values = new double[size * dim];
+            this.norms = new double[size];
+        }
+    }
+
+    private PackedFingerprints(ProbabilityFingerprint[] fps, int dim) {
+        this.fps = fps;
+        this.size = fps.length;
+        this.dim = dim;
+        this.words = (dim + 63) >>> 6;
+        this.bits = new long[size * words];
+        this.cardinalities = new int[size];
+    }
+
+    public static PackedFingerprints of(@NotNull ProbabilityFingerprint[] fps) {
+        final int dim = fps.length == 0 ? 0 : fps[0].getFingerprintVersion().size();
+        final PackedFingerprints packed = new PackedFingerprints(fps.clone(), dim);
+        for (int i = 0; i < fps.length; i++) {
+            if (fps[i].getFingerprintVersion().size() != dim)
+                throw new IllegalArgumentException("All fingerprints need to have the same fingerprint version.");
+            int k = 0;
+            for (FPIter it : fps[i]) {
+                if (it.isSet()) {
+                    packed.bits[i * packed.words + (k >>> 6)] |= 1L << (k & 63);
+                    packed.cardinalities[i]++;
+                }
+                ++k;
+            }
+        }
+        return packed;
+    }
+
+    private Probabilities probabilities() {
+        Probabilities p = probabilities;
+        if (p == null) {
+            synchronized (this) {
+                p = probabilities;
+                if (p == null) {
+                    p = new Probabilities(size, dim);
+                    for (int i = 0; i < size; i++) {
+                        int k = 0;
+                        double norm = 0d;
+                        for (FPIter it : fps[i]) {
+                            final double v = SimilarityMatrixWorkflow.unsmooth(it.getProbability());
+                            p.values[i * dim + k++] = v;
+                            norm += v * v;
+                        }
+                        p.norms[i] = norm;
+                    }
+                    probabilities = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dim;
+    }
+
+    private int intersection(int i, int j) {
+        final int oi = i * words, oj = j * words;
+        int intersection = 0;
+        for (int w = 0; w < words; w++)
+            intersection += Long.bitCount(bits[oi + w] & bits[oj + w]);
+        return intersection;
+    }
+
+    /**
+     * Same as the fingerprint cosine of {@link SimilarityMatrixWorkflow}, computed on the packed arrays.
+     */
+    public double fpcos(int i, int j) {
+        return fpcos(probabilities(), i, j);
+    }
+
+    private double fpcos(Probabilities p, int i, int j) {
+        if (intersection(i, j) < 60) return 0d;
+        final double[] values = p.values, norms = p.norms;
+        if (norms[i] == 0 || norms[j] == 0) return 0d;
+        final int oi = i * dim, oj = j * dim;
+        double vxy = 0d;
+        for (int k = 0; k < dim; k++)
+            vxy += values[oi + k] * values[oj + k];
+        return vxy / Math.sqrt(norms[i] * norms[j]);
+    }
+
+    /**
+     * Tanimoto of the deterministic (rounded) fingerprints.
+     */
+    public double tanimoto(int i, int j) {
+        final int intersection = intersection(i, j);
+        return (double) intersection / (cardinalities[i] + cardinalities[j] - intersection);
+    }
+
+    /**
+     * @return indices of the set bits of the deterministic fingerprint of row i, e.g. as tokens for
+     * {@link MinHashLSHIndex}.
+     */
+    public int[] setBits(int i) {
+        final int[] set = new int[cardinalities[i]];
+        int c = 0;
+        for (int w = 0; w < words; w++) {
+            long word = bits[i * words + w];
+            while (word != 0) {
+                set[c++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return set;
+    }
+
+    public BlockedSimilarityEngine.TileKernel fpcosKernel() {
+        final Probabilities p = probabilities();
+        return (rowFrom, rowTo, colFrom, colTo, out) -> {
+            int c = 0;
+            for (int i = rowFrom; i < rowTo; i++)
+                for (int j = colFrom; j < colTo; j++)
+                    out[c++] = fpcos(p, i, j);
+        };
+    }
+
+    public BlockedSimilarityEngine.TileKernel tanimotoKernel() {
+        return (rowFrom, rowTo, colFrom, colTo, out) -> {
+            int c = 0;
+            for (int i = rowFrom; i < rowTo; i++)
+                for (int j = colFrom; j < colTo; j++)
+                    out[c++] = tanimoto(i, j);
+        };
+    }
+}
@@ -62,6 +62,42 @@ public class SimilarityMatrixOptions implements StandaloneTool<SimilarityMatrixW
 
 
 
+    @CommandLine.Option(names = {"--float", "--single-precision"},
+            description = "Keep the matrix in single precision (float) to halve the memory consumption.")
+    protected boolean singlePrecision;
+
+    @CommandLine.Option(names = "--tile-size", defaultValue = "128", hidden = true,
+            description = "Number of compounds per row/column of the tiles the matrix is computed in.")
+    protected int tileSize;
+
+    @CommandLine.Option(names = {"--top-k", "-k"}, defaultValue = "0",
+            description = {"Only keep the k most similar compounds of each compound and write them as edge list instead of a dense matrix. 0 -> no top-k filtering."})
+    protected int topK;
+
+    @CommandLine.Option(names = {"--min-similarity", "--threshold"},
+            description = {"Only keep pairs with a similarity of at least this value and write them as edge list instead of a dense matrix."})
+    protected Double minSimilarity;
+
+    @CommandLine.Option(names = "--edge-format", defaultValue = "TSV",
+            description = {"Output format of the edge list (if --top-k or --min-similarity is given). Valid values: ${COMPLETION-CANDIDATES}"})
+    protected SparseSimilarityWriter.Format edgeFormat;
+
+    @CommandLine.Option(names = "--approximate",
+            description = {"Use a MinHash/LSH index to only score candidate pairs instead of all pairs (tanimoto, tanimoto-canopus and cosine). Output is written as edge list."})
+    protected boolean approximate;
+
+    @CommandLine.Option(names = "--lsh-bands", defaultValue = "24",
+            description = {"Number of LSH bands. More bands -> higher recall but slower."})
+    protected int lshBands;
+
+    @CommandLine.Option(names = "--lsh-rows", defaultValue = "4",
+            description = {"Number of min hashes per LSH band. More rows -> fewer false candidates but lower recall."})
+    protected int lshRows;
+
+    @CommandLine.Option(names = "--lsh-max-bucket", defaultValue = "2000", hidden = true,
+            description = {"LSH buckets larger than this are split to avoid quadratic runtime."})
+    protected int lshMaxBucketSize;
+
     @CommandLine.Option(names = {"--directory", "-d"}, defaultValue = ".", description = "Directory to store the matrices.")
     protected File outputDirectory;
 
@@ -70,6 +106,10 @@ public class SimilarityMatrixOptions implements StandaloneTool<SimilarityMatrixW
     public boolean numpy;
 
 
+    protected boolean isSparse() {
+        return approximate || topK > 0 || minSimilarity != null;
+    }
+
     @Override
     public SimilarityMatrixWorkflow makeWorkflow(RootOptions<?,?,?,?> rootOptions, ParameterConfig config) {
         return new SimilarityMatrixWorkflow((PreprocessingJob<ProjectSpaceManager<?>>) rootOptions.makeDefaultPreprocessingJob(), this, config);
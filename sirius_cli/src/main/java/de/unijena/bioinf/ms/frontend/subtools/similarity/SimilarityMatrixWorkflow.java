@@ -22,7 +22,6 @@ package de.unijena.bioinf.ms.frontend.subtools.similarity;
 import de.unijena.bioinf.ChemistryBase.algorithm.scoring.FormulaScore;
 import de.unijena.bioinf.ChemistryBase.algorithm.scoring.SScored;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
-import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
 import de.unijena.bioinf.ChemistryBase.fp.FPIter2;
 import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
@@ -31,6 +30,7 @@ import de.unijena.bioinf.ChemistryBase.ms.MS2MassDeviation;
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
 import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
 import de.unijena.bioinf.GibbsSampling.ZodiacScore;
@@ -63,19 +63,21 @@ import de.unijena.bionf.spectral_alignment.CosineQueryUtils;
 import de.unijena.bionf.spectral_alignment.IntensityWeightedSpectralAlignment;
 import de.unijena.bionf.spectral_alignment.SpectralSimilarity;
 import gnu.trove.set.hash.TIntHashSet;
-import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class SimilarityMatrixWorkflow implements Workflow {
@@ -138,15 +140,13 @@ public class SimilarityMatrixWorkflow implements Workflow {
                     .map(it -> it.getAnnotationOrThrow(FingerprintResult.class).fingerprint).orElseThrow());
         }
 
-        final ProbabilityFingerprint[] fps = fingerprintValues.toArray(ProbabilityFingerprint[]::new);
-        final double[][] M = new double[xs.size()][xs.size()];
-        final TIntHashSet pubchemMaccs = new TIntHashSet();
-        for (int index : CdkFingerprintVersion.getDefault().getMaskFor(CdkFingerprintVersion.USED_FINGERPRINTS.PUBCHEM, CdkFingerprintVersion.USED_FINGERPRINTS.MACCS).allowedIndizes()) {
-            pubchemMaccs.add(index);
-        }
-        jobManager.submitJob(MatrixUtils.parallelizeSymmetricMatrixComputation(M, (i, j) -> fpcos(fps[i],fps[j]))).takeResult();
+        final PackedFingerprints fps = PackedFingerprints.of(fingerprintValues.toArray(ProbabilityFingerprint[]::new));
         //MatrixUtils.normalize(M);
-        writeMatrix("tanimoto", M, xs.stream().map(y -> y.getID().getCompoundName()).toArray(String[]::new), options.digits);
+        final String[] header = xs.stream().map(y -> y.getID().getCompoundName()).toArray(String[]::new);
+        if (options.approximate)
+            computeApproximateAndWrite("tanimoto", fingerprintTokens(fps), fps::fpcos, header, jobManager);
+        else
+            computeAndWrite("tanimoto", fps.fpcosKernel(), header, jobManager);
     }
 
 
@@ -164,15 +164,13 @@ public class SimilarityMatrixWorkflow implements Workflow {
                     .map(it -> it.getAnnotationOrThrow(CanopusResult.class).getCanopusFingerprint()).orElseThrow());
         }
 
-        final ProbabilityFingerprint[] fps = fingerprintValues.toArray(ProbabilityFingerprint[]::new);
-        final double[][] M = new double[xs.size()][xs.size()];
-        final TIntHashSet pubchemMaccs = new TIntHashSet();
-        for (int index : CdkFingerprintVersion.getDefault().getMaskFor(CdkFingerprintVersion.USED_FINGERPRINTS.PUBCHEM, CdkFingerprintVersion.USED_FINGERPRINTS.MACCS).allowedIndizes()) {
-            pubchemMaccs.add(index);
-        }
-        jobManager.submitJob(MatrixUtils.parallelizeSymmetricMatrixComputation(M, (i, j) -> fps[i].asDeterministic().tanimoto(fps[j].asDeterministic()))).takeResult();
+        final PackedFingerprints fps = PackedFingerprints.of(fingerprintValues.toArray(ProbabilityFingerprint[]::new));
         //MatrixUtils.normalize(M);
-        writeMatrix("canopus", M, xs.stream().map(y -> y.getID().getCompoundName()).toArray(String[]::new), options.digits);
+        final String[] header = xs.stream().map(y -> y.getID().getCompoundName()).toArray(String[]::new);
+        if (options.approximate)
+            computeApproximateAndWrite("canopus", fingerprintTokens(fps), fps::tanimoto, header, jobManager);
+        else
+            computeAndWrite("canopus", fps.tanimotoKernel(), header, jobManager);
     }
 
     private static double specialTanimoto(ProbabilityFingerprint left, ProbabilityFingerprint right, double varianceLeft, double varianceRight) {
@@ -185,7 +183,94 @@ public class SimilarityMatrixWorkflow implements Workflow {
         return intersection/union;
     }
 
+    private BlockedSimilarityEngine makeEngine() {
+        return new BlockedSimilarityEngine(options.tileSize, 2 * SiriusJobs.getGlobalJobManager().getCPUThreads());
+    }
+
+    /**
+     * Computes the matrix tile by tile and either keeps it dense or streams the tiles into a sparse edge list,
+     * so that the full matrix is never materialized.
+     */
+    private void computeAndWrite(String name, BlockedSimilarityEngine.TileKernel kernel, String[] header, JobManager jobManager) {
+        if (options.isSparse()) {
+            writeEdges(name, kernel, header, jobManager);
+        } else {
+            final BlockedSimilarityEngine.SimilarityMatrix M = BlockedSimilarityEngine.newMatrix(header.length, options.singlePrecision);
+            makeEngine().compute(header.length, kernel, M, jobManager);
+            writeMatrix(name, M, header, options.digits);
+        }
+    }
+
+    private void writeEdges(String name, BlockedSimilarityEngine.TileKernel kernel, String[] header, JobManager jobManager) {
+        final BlockedSimilarityEngine engine = makeEngine();
+        writeEdges(name, header, writer -> engine.compute(header.length, kernel, writer, jobManager));
+    }
+
+    /**
+     * Only scores the candidate pairs of a MinHash/LSH index over the given token sets and writes them as edge list.
+     */
+    private void computeApproximateAndWrite(String name, int[][] tokens, BlockedSimilarityEngine.PairScorer scorer, String[] header, JobManager jobManager) {
+        final MinHashLSHIndex index = new MinHashLSHIndex(options.lshBands, options.lshRows, options.lshMaxBucketSize, 42);
+        final int[][] candidates = index.candidates(tokens, jobManager);
+        final long numberOfPairs = Arrays.stream(candidates).mapToLong(c -> c.length).sum() / 2;
+        LoggerFactory.getLogger(SimilarityMatrixWorkflow.class).info("LSH index (" + index.getBands() + " bands x " + index.getRows() + " rows) generated "
+                + numberOfPairs + " candidate pairs of " + ((long) header.length * (header.length - 1) / 2) + " for '" + name + "'.");
+
+        writeEdges(name, header, writer -> {
+            final int chunks = Math.max(1, Math.min(header.length, 4 * jobManager.getCPUThreads()));
+            final List<BasicJJob<Boolean>> jobs = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                final int from = (int) ((long) header.length * c / chunks), to = (int) ((long) header.length * (c + 1) / chunks);
+                jobs.add(jobManager.submitJob(new BasicJJob<Boolean>(JJob.JobType.CPU) {
+                    @Override
+                    protected Boolean compute() throws Exception {
+                        for (int i = from; i < to; i++) {
+                            checkForInterruption();
+                            final int[] neighbours = candidates[i];
+                            final double[] scores = new double[neighbours.length];
+                            for (int k = 0; k < neighbours.length; k++)
+                                // without top-k only one direction of each pair is written
+                                scores[k] = (options.topK > 0 || neighbours[k] > i) ? scorer.score(i, neighbours[k]) : Double.NaN;
+                            writer.acceptNeighbours(i, neighbours, scores, neighbours.length);
+                        }
+                        return true;
+                    }
+                }));
+            }
+            jobs.forEach(JJob::takeResult);
+        });
+    }
+
+    private static int[][] fingerprintTokens(PackedFingerprints fps) {
+        final int[][] tokens = new int[fps.size()][];
+        for (int i = 0; i < tokens.length; i++)
+            tokens[i] = fps.setBits(i);
+        return tokens;
+    }
+
+    private void writeEdges(String name, String[] header, Consumer<SparseSimilarityWriter> computation) {
+        final File file = new File(options.outputDirectory, name + (options.edgeFormat == SparseSimilarityWriter.Format.BINARY ? ".edges.bin" : ".edges.tsv"));
+        try {
+            Files.createDirectories(options.outputDirectory.toPath());
+            try (SparseSimilarityWriter writer = new SparseSimilarityWriter(file, header, options.tileSize, options.topK,
+                    options.minSimilarity != null ? options.minSimilarity : Double.NEGATIVE_INFINITY, options.edgeFormat, options.digits)) {
+                computation.accept(writer);
+                LoggerFactory.getLogger(SimilarityMatrixWorkflow.class).info("Wrote " + writer.getNumberOfEdges() + " edges to '" + file + "'.");
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LoggerFactory.getLogger(SimilarityMatrixWorkflow.class).error(file.getAbsolutePath() + " cannot be written due to: " + e.getMessage(), e);
+            System.err.println("Cannot write file '" + file + "' due to IO error: " + e.getMessage());
+        }
+    }
+
     private void writeMatrix(String name, double[][] M, String[] header, int digits) {
+        if (options.isSparse())
+            writeEdges(name, BlockedSimilarityEngine.TileKernel.of((i, j) -> M[i][j]), header, SiriusJobs.getGlobalJobManager());
+        else
+            writeMatrix(name, BlockedSimilarityEngine.wrap(M), header, digits);
+    }
+
+    private void writeMatrix(String name, BlockedSimilarityEngine.SimilarityMatrix M, String[] header, int digits) {
         final File file = new File(options.outputDirectory, name + (options.numpy ? ".txt" : ".tsv"));
 
         try {
@@ -199,7 +284,9 @@ public class SimilarityMatrixWorkflow implements Workflow {
                         bw.write(header[i]);
                     }
                     bw.newLine();
-                    FileUtils.writeDoubleMatrix(bw, M);
+                    // row wise, so that single precision matrices are not copied into a full double matrix
+                    for (int i = 0; i < M.size(); ++i)
+                        FileUtils.writeDoubleMatrix(bw, new double[][]{M.getRow(i)});
                 } else {
                     bw.write("FeatureName");
                     for (String h : header) {
@@ -207,15 +294,15 @@ public class SimilarityMatrixWorkflow implements Workflow {
                         bw.write(h);
                     }
                     bw.newLine();
-                    for (int i = 0; i < M.length; ++i) {
+                    for (int i = 0; i < M.size(); ++i) {
                         bw.write(header[i]);
-                        for (int j = 0; j < M.length; ++j) {
+                        for (int j = 0; j < M.size(); ++j) {
                             bw.write('\t');
                             if (options.digits >= 0) {
-                                BigDecimal v = BigDecimal.valueOf(M[i][j]).setScale(digits, RoundingMode.HALF_UP);
+                                BigDecimal v = BigDecimal.valueOf(M.get(i, j)).setScale(digits, RoundingMode.HALF_UP);
                                 bw.write(v.toString());
                             }else {
-                                bw.write(String.valueOf(M[i][j]));
+                                bw.write(String.valueOf(M.get(i, j)));
                             }
                         }
                         bw.newLine();
@@ -320,13 +407,16 @@ public class SimilarityMatrixWorkflow implements Workflow {
     private void cosine(List<Instance> xs, int minPeaks) {
         final JobManager J = SiriusJobs.getGlobalJobManager();
 
-        List<Pair<Instance, CosineQuerySpectrum>> pairs = J.submitJobsInBatches(xs.stream().map(this::getSpectrum).collect(Collectors.toList())).stream().map(JJob::getResult).filter(Objects::nonNull).filter(c -> c.getRight().getSelfSimilarity() > 0 && c.getRight().getSelfSimilarityLosses() > 0).collect(Collectors.toList());
-        xs = pairs.stream().map(Pair::getLeft).collect(Collectors.toList());
-        final CosineQuerySpectrum[] cosineQuerySpectrums = pairs.stream().map(Pair::getRight).toArray(CosineQuerySpectrum[]::new);
+        List<Triple<Instance, CosineQuerySpectrum, int[]>> pairs = J.submitJobsInBatches(xs.stream().map(this::getSpectrum).collect(Collectors.toList())).stream().map(JJob::getResult).filter(Objects::nonNull).filter(c -> c.getMiddle().getSelfSimilarity() > 0 && c.getMiddle().getSelfSimilarityLosses() > 0).collect(Collectors.toList());
+        xs = pairs.stream().map(Triple::getLeft).collect(Collectors.toList());
+        final CosineQuerySpectrum[] cosineQuerySpectrums = pairs.stream().map(Triple::getMiddle).toArray(CosineQuerySpectrum[]::new);
         final CosineQueryUtils cosineQueryUtils = new CosineQueryUtils(new IntensityWeightedSpectralAlignment(config.createInstanceWithDefaults(MS2MassDeviation.class).allowedMassDeviation.multiply(2)));
-        final double[][] M = new double[xs.size()][xs.size()];
-        J.submitJob(MatrixUtils.parallelizeSymmetricMatrixComputation(M, (i,j)-> withAtLeast(cosineQueryUtils.cosineProductWithLosses(cosineQuerySpectrums[i],cosineQuerySpectrums[j]), minPeaks))).takeResult();
-        writeMatrix("cosine", M, xs.stream().map(x->x.getID().getCompoundName()).toArray(String[]::new), options.digits);
+        final BlockedSimilarityEngine.PairScorer scorer = (i, j) -> withAtLeast(cosineQueryUtils.cosineProductWithLosses(cosineQuerySpectrums[i], cosineQuerySpectrums[j]), minPeaks);
+        final String[] header = xs.stream().map(x->x.getID().getCompoundName()).toArray(String[]::new);
+        if (options.approximate)
+            computeApproximateAndWrite("cosine", pairs.stream().map(Triple::getRight).toArray(int[][]::new), scorer, header, J);
+        else
+            computeAndWrite("cosine", BlockedSimilarityEngine.TileKernel.of(scorer), header, J);
     }
 
     private static double withAtLeast(SpectralSimilarity similarity, int minPeaks) {
@@ -334,10 +424,10 @@ public class SimilarityMatrixWorkflow implements Workflow {
         else return similarity.similarity;
     }
 
-    private BasicJJob<Pair<Instance,CosineQuerySpectrum>> getSpectrum(Instance i) {
+    private BasicJJob<Triple<Instance, CosineQuerySpectrum, int[]>> getSpectrum(Instance i) {
         return new BasicMasterJJob<>(JJob.JobType.CPU) {
             @Override
-            protected Pair<Instance,CosineQuerySpectrum> compute() throws Exception {
+            protected Triple<Instance, CosineQuerySpectrum, int[]> compute() throws Exception {
                 final AddConfigsJob addConfigsJob = new AddConfigsJob(config);
                 submitSubJob(addConfigsJob.addRequiredJob((Callable<Instance>) () -> i)).takeResult();
                 submitSubJob(addConfigsJob).takeResult();
@@ -346,12 +436,15 @@ public class SimilarityMatrixWorkflow implements Workflow {
                 final Sirius sirius = ApplicationCore.SIRIUS_PROVIDER.sirius(config.getConfigValue("AlgorithmProfile"));
                 final CosineQueryUtils cosineQueryUtils = new CosineQueryUtils(new IntensityWeightedSpectralAlignment(config.createInstanceWithDefaults(MS2MassDeviation.class).allowedMassDeviation.multiply(2)));
                 ProcessedInput processedInput = sirius.preprocessForMs2Analysis(exp);
-                return Pair.of(i,cosineQueryUtils.createQueryWithIntensityTransformation(Spectrums.from(processedInput.getMergedPeaks()), processedInput.getExperimentInformation().getIonMass(), true));
+                final SimpleSpectrum merged = Spectrums.from(processedInput.getMergedPeaks());
+                final double ionMass = processedInput.getExperimentInformation().getIonMass();
+                return Triple.of(i, cosineQueryUtils.createQueryWithIntensityTransformation(merged, ionMass, true),
+                        MinHashLSHIndex.spectrumTokens(merged, ionMass, 0.02, 40));
             }
         };
     }
 
-    private static double fpcos(ProbabilityFingerprint left, ProbabilityFingerprint right) {
+    static double fpcos(ProbabilityFingerprint left, ProbabilityFingerprint right) {
         int count=0, intersection=0;
         double vx=0d, vy=0d, vxy=0d;
         for (FPIter2 x : left.foreachPair(right)) {
@@ -449,7 +542,7 @@ public class SimilarityMatrixWorkflow implements Workflow {
         if (val < clip) return 0d;
         return val;
     }
-    private static double unsmooth(double val) {
+    static double unsmooth(double val) {
         return unsmooth(val, 0.01);
     }
 
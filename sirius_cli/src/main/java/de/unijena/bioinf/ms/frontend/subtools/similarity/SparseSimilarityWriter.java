@@ -0,0 +1,303 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.ms.frontend.subtools.similarity;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link BlockedSimilarityEngine.TileSink} that never materializes the full matrix but streams edges to disk while
+ * the tiles are computed.
+ * <p>
+ * Without top-k every pair (i &lt; j) with a score of at least {@code minScore} is written as soon as its tile is
+ * finished. With top-k the k best neighbours (score &gt;= minScore) of every compound are kept in a fixed size
+ * min-heap (N x k memory) and the edges of a block of rows are written as soon as all tiles touching this block are
+ * finished. Top-k edges are directed (source -&gt; neighbour).
+ * <p>
+ * Formats: {@link Format#TSV} writes {@code source target score} lines with compound names,
+ * {@link Format#BINARY} writes a big endian header (magic, number of compounds, compound names as UTF) followed by
+ * {@code int source, int target, float score} records and terminates with source index -1.
+ */
+public class SparseSimilarityWriter implements BlockedSimilarityEngine.TileSink, Closeable {
+    public static final int BINARY_MAGIC = 0x53494D45; // "SIME"
+
+    public enum Format {TSV, BINARY}
+
+    private final String[] names;
+    private final int tileSize;
+    private final int topK;
+    private final double minScore;
+    private final Format format;
+    private final int digits;
+
+    private final DataOutputStream out;
+    private long numberOfEdges = 0;
+
+    // top-k state
+    private final int[] heapIdx;
+    private final double[] heapScore;
+    private final int[] heapSize;
+    private final Object[] blockLocks;
+    private final AtomicInteger[] remainingTiles;
+
+    /**
+     * @param topK     number of neighbours to keep per compound. {@code <= 0} keeps all pairs above minScore.
+     * @param minScore pairs below this score are never written.
+     * @param digits   number of digits for TSV output, -1 for full length.
+     */
+    public SparseSimilarityWriter(@NotNull File file, @NotNull String[] names, int tileSize, int topK, double minScore, @NotNull Format format, int digits) throws IOException {
+        this.names = names;
+        this.tileSize = Math.max(1, tileSize);
+        this.topK = Math.min(topK, Math.max(0, names.length - 1));
+        this.minScore = minScore;
+        this.format = format;
+        this.digits = digits;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+        if (this.topK > 0) {
+            final int n = names.length;
+            heapIdx = new int[n * this.topK];
+            heapScore = new double[n * this.topK];
+            heapSize = new int[n];
+            final int blocks = (n + this.tileSize - 1) / this.tileSize;
+            blockLocks = new Object[blocks];
+            remainingTiles = new AtomicInteger[blocks];
+            for (int b = 0; b < blocks; b++) {
+                blockLocks[b] = new Object();
+                // every block is part of one tile with each other block (incl. the diagonal tile)
+                remainingTiles[b] = new AtomicInteger(blocks);
+            }
+        } else {
+            heapIdx = null;
+            heapScore = null;
+            heapSize = null;
+            blockLocks = null;
+            remainingTiles = null;
+        }
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        if (format == Format.BINARY) {
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(names.length);
+            for (String name : names)
+                out.writeUTF(name);
+        } else {
+            out.write("source\ttarget\tscore\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public void accept(int rowFrom, int rowTo, int colFrom, int colTo, double[] tile) {
+        try {
+            if (topK > 0)
+                acceptTopK(rowFrom, rowTo, colFrom, colTo, tile);
+            else
+                acceptThreshold(rowFrom, rowTo, colFrom, colTo, tile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void acceptThreshold(int rowFrom, int rowTo, int colFrom, int colTo, double[] tile) throws IOException {
+        final int width = colTo - colFrom;
+        // collect locally to keep the time holding the stream short
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream local = new DataOutputStream(bytes);
+        int edges = 0;
+        for (int i = rowFrom; i < rowTo; i++) {
+            final int o = (i - rowFrom) * width;
+            for (int j = Math.max(colFrom, i + 1); j < colTo; j++) {
+                final double score = tile[o + j - colFrom];
+                if (score >= minScore) {
+                    writeEdge(local, i, j, score);
+                    edges++;
+                }
+            }
+        }
+        if (edges > 0) {
+            synchronized (out) {
+                bytes.writeTo(out);
+                numberOfEdges += edges;
+            }
+        }
+    }
+
+    private void acceptTopK(int rowFrom, int rowTo, int colFrom, int colTo, double[] tile) throws IOException {
+        final int width = colTo - colFrom;
+        final int rowBlock = rowFrom / tileSize, colBlock = colFrom / tileSize;
+
+        synchronized (blockLocks[rowBlock]) {
+            for (int i = rowFrom; i < rowTo; i++) {
+                final int o = (i - rowFrom) * width;
+                for (int j = colFrom; j < colTo; j++)
+                    if (i != j) offer(i, j, tile[o + j - colFrom]);
+            }
+        }
+        if (colBlock != rowBlock) {
+            // mirrored part of the tile
+            synchronized (blockLocks[colBlock]) {
+                for (int j = colFrom; j < colTo; j++)
+                    for (int i = rowFrom; i < rowTo; i++)
+                        offer(j, i, tile[(i - rowFrom) * width + j - colFrom]);
+            }
+        }
+
+        if (remainingTiles[rowBlock].decrementAndGet() == 0)
+            flushBlock(rowBlock);
+        if (colBlock != rowBlock && remainingTiles[colBlock].decrementAndGet() == 0)
+            flushBlock(colBlock);
+    }
+
+    /**
+     * Writes the (exactly scored) neighbours of a single compound, e.g. candidates of an approximate index.
+     * The neighbour relation has to be symmetric. Without top-k each pair is written once (from the smaller index),
+     * with top-k the best k neighbours are written as directed edges. May be called concurrently for different rows.
+     */
+    public void acceptNeighbours(int row, int[] neighbours, double[] scores, int count) {
+        final Integer[] order = new Integer[count];
+        int size = 0;
+        for (int k = 0; k < count; k++) {
+            if (neighbours[k] == row || scores[k] < minScore || Double.isNaN(scores[k]))
+                continue;
+            if (topK <= 0 && neighbours[k] < row)
+                continue;
+            order[size++] = k;
+        }
+        if (size == 0)
+            return;
+        Arrays.sort(order, 0, size, (a, b) -> Double.compare(scores[b], scores[a]));
+        if (topK > 0)
+            size = Math.min(size, topK);
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream local = new DataOutputStream(bytes);
+            for (int k = 0; k < size; k++)
+                writeEdge(local, row, neighbours[order[k]], scores[order[k]]);
+            synchronized (out) {
+                bytes.writeTo(out);
+                numberOfEdges += size;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void offer(int row, int neighbour, double score) {
+        if (score < minScore || Double.isNaN(score))
+            return;
+        final int base = row * topK;
+        final int size = heapSize[row];
+        final double s = score;
+        if (size < topK) {
+            // sift up
+            int c = size;
+            while (c > 0) {
+                final int p = (c - 1) >>> 1;
+                if (heapScore[base + p] <= s) break;
+                heapScore[base + c] = heapScore[base + p];
+                heapIdx[base + c] = heapIdx[base + p];
+                c = p;
+            }
+            heapScore[base + c] = s;
+            heapIdx[base + c] = neighbour;
+            heapSize[row] = size + 1;
+        } else if (s > heapScore[base]) {
+            // replace min and sift down
+            int c = 0;
+            while (true) {
+                int child = 2 * c + 1;
+                if (child >= size) break;
+                if (child + 1 < size && heapScore[base + child + 1] < heapScore[base + child]) child++;
+                if (heapScore[base + child] >= s) break;
+                heapScore[base + c] = heapScore[base + child];
+                heapIdx[base + c] = heapIdx[base + child];
+                c = child;
+            }
+            heapScore[base + c] = s;
+            heapIdx[base + c] = neighbour;
+        }
+    }
+
+    private void flushBlock(int block) throws IOException {
+        final int rowFrom = block * tileSize, rowTo = Math.min(names.length, rowFrom + tileSize);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream local = new DataOutputStream(bytes);
+        int edges = 0;
+        synchronized (blockLocks[block]) {
+            for (int i = rowFrom; i < rowTo; i++) {
+                final int base = i * topK;
+                final int size = heapSize[i];
+                // heap order is sufficient for an edge list, sort by score descending for readability
+                final Integer[] order = new Integer[size];
+                for (int k = 0; k < size; k++) order[k] = k;
+                Arrays.sort(order, (a, b) -> Double.compare(heapScore[base + b], heapScore[base + a]));
+                for (int k : order)
+                    writeEdge(local, i, heapIdx[base + k], heapScore[base + k]);
+                edges += size;
+            }
+        }
+        synchronized (out) {
+            bytes.writeTo(out);
+            numberOfEdges += edges;
+        }
+    }
+
+    private void writeEdge(DataOutputStream o, int source, int target, double score) throws IOException {
+        if (format == Format.BINARY) {
+            o.writeInt(source);
+            o.writeInt(target);
+            o.writeFloat((float) score);
+        } else {
+            o.write(names[source].getBytes(StandardCharsets.UTF_8));
+            o.write('\t');
+            o.write(names[target].getBytes(StandardCharsets.UTF_8));
+            o.write('\t');
+            o.write((digits >= 0
+                    ? BigDecimal.valueOf(score).setScale(digits, RoundingMode.HALF_UP).toString()
+                    : String.valueOf(score)).getBytes(StandardCharsets.UTF_8));
+            o.write('\n');
+        }
+    }
+
+    public long getNumberOfEdges() {
+        synchronized (out) {
+            return numberOfEdges;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            if (format == Format.BINARY)
+                out.writeInt(-1);
+            out.close();
+        }
+    }
+}
@@ -70,7 +70,7 @@ public class SiriusSubToolJob extends InstanceJob {
             //todo do we really want to restrict to organic even if the db is user selected
             final Optional<FormulaSearchDB> searchDB = exp.getAnnotation(FormulaSearchDB.class);
             if (searchDB.isPresent() && searchDB.get().containsDBs())
-                wSet = submitSubJob(new FormulaWhiteListJob(ApplicationCore.WEB_API.getChemDB(), searchDB.get().searchDBs, exp, true, false))
+                wSet = submitSubJob(new FormulaWhiteListJob(ApplicationCore.webAPI().getChemDB(), searchDB.get().searchDBs, exp, true, false))
                         .awaitResult();
 
             checkForInterruption();
@@ -19,17 +19,47 @@
 
 package de.unijena.bioinf.ms.frontend.subtools.spectra_search;
 
+import de.unijena.bioinf.ms.frontend.subtools.PreprocessingJob;
 import de.unijena.bioinf.ms.frontend.subtools.Provide;
 import de.unijena.bioinf.ms.frontend.subtools.RootOptions;
 import de.unijena.bioinf.ms.frontend.subtools.StandaloneTool;
 import de.unijena.bioinf.ms.properties.ParameterConfig;
+import de.unijena.bioinf.projectspace.ProjectSpaceManager;
 import picocli.CommandLine;
 
-@CommandLine.Command(name = "spectra-search",  description = "<STANDALONE> Computes the similarity between all compounds/features in the first porject-space (queries) one vs all compounds/features in the second porject-space (library).",  versionProvider = Provide.Versions.class, mixinStandardHelpOptions = true, showDefaultValues = true)
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+@CommandLine.Command(name = "spectra-search",  description = "<STANDALONE> Searches the MS/MS spectra of all compounds/features in the project-space (queries) against a spectral library (MGF, MSP, .ms) using cosine similarity.",  versionProvider = Provide.Versions.class, mixinStandardHelpOptions = true, showDefaultValues = true)
 public class SpectraSearchOption implements StandaloneTool<SpectraSearchWorkflow> {
- // todo we want to implement a spectral library searches bases on cosine and similarity search.
+
+    @CommandLine.Option(names = {"--library", "-l"}, required = true, split = ",", arity = "1..*",
+            description = {"Spectral library files (any format supported by the SIRIUS input parsers, e.g. .mgf, .msp, .ms)."})
+    protected List<Path> libraryFiles;
+
+    @CommandLine.Option(names = {"--output", "-o"}, defaultValue = "spectra_search.tsv",
+            description = {"File to write the search results to."})
+    protected File outputFile;
+
+    @CommandLine.Option(names = "--precursor-ppm", defaultValue = "10",
+            description = {"Allowed precursor m/z deviation (ppm) between query and library spectrum. Negative value -> no precursor filter (analog search)."})
+    protected double precursorPpm;
+
+    @CommandLine.Option(names = "--min-shared-peaks", defaultValue = "3",
+            description = {"Minimum number of shared peaks of a hit."})
+    protected int minSharedPeaks;
+
+    @CommandLine.Option(names = "--min-similarity", defaultValue = "0.5",
+            description = {"Minimum cosine similarity of a hit."})
+    protected double minSimilarity;
+
+    @CommandLine.Option(names = {"--top-k", "-k"}, defaultValue = "5",
+            description = {"Maximum number of hits reported per query."})
+    protected int topK;
+
     @Override
     public SpectraSearchWorkflow makeWorkflow(RootOptions<?, ?, ?, ?> rootOptions, ParameterConfig config) {
-        return null;
+        return new SpectraSearchWorkflow((PreprocessingJob<ProjectSpaceManager<?>>) rootOptions.makeDefaultPreprocessingJob(), this, config);
     }
 }
@@ -17,13 +17,186 @@
  *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
  */
 
+
 package de.unijena.bioinf.ms.frontend.subtools.spectra_search;
 
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ChemistryBase.ms.MS2MassDeviation;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
+import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
+import de.unijena.bioinf.babelms.GenericParser;
+import de.unijena.bioinf.babelms.MsExperimentParser;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobManager;
+import de.unijena.bioinf.ms.frontend.subtools.PreprocessingJob;
 import de.unijena.bioinf.ms.frontend.workflow.Workflow;
+import de.unijena.bioinf.ms.properties.ParameterConfig;
+import de.unijena.bioinf.projectspace.Instance;
+import de.unijena.bioinf.projectspace.ProjectSpaceManager;
+import de.unijena.bionf.spectral_alignment.CosineQuerySpectrum;
+import de.unijena.bionf.spectral_alignment.CosineQueryUtils;
+import de.unijena.bionf.spectral_alignment.IntensityWeightedSpectralAlignment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
+/**
+ * Searches the merged MS/MS spectra of all instances of a project-space against a spectral library that is
+ * indexed by {@link SpectralLibraryIndex}. Queries are processed in parallel in CPU jobs.
+ */
 public class SpectraSearchWorkflow implements Workflow {
+    private static final Logger LOG = LoggerFactory.getLogger(SpectraSearchWorkflow.class);
+    // tolerance used to merge multiple MS/MS spectra of a compound
+    private static final Deviation MERGE_DEVIATION = new Deviation(10, 0.1);
+
+    protected final PreprocessingJob<ProjectSpaceManager<?>> ppj;
+    protected final SpectraSearchOption options;
+    protected final ParameterConfig config;
+
+    public SpectraSearchWorkflow(PreprocessingJob<ProjectSpaceManager<?>> ppj, SpectraSearchOption options, ParameterConfig config) {
+        this.ppj = ppj;
+        this.options = options;
+        this.config = config;
+    }
+
     @Override
     public void run() {
+        final JobManager jobManager = SiriusJobs.getGlobalJobManager();
+        final Deviation peakDeviation = config.createInstanceWithDefaults(MS2MassDeviation.class).allowedMassDeviation.multiply(2);
+        final CosineQueryUtils cosineQueryUtils = new CosineQueryUtils(new IntensityWeightedSpectralAlignment(peakDeviation));
+        try {
+            long time = System.currentTimeMillis();
+            final SpectralLibraryIndex index = new SpectralLibraryIndex(loadLibrary(cosineQueryUtils, jobManager), cosineQueryUtils, peakDeviation, SpectralLibraryIndex.DEFAULT_BIN_WIDTH);
+            LOG.info("Indexed " + index.size() + " library spectra in " + (System.currentTimeMillis() - time) / 1000d + "s.");
+
+            final ProjectSpaceManager<?> ps = jobManager.submitJob(ppj).awaitResult();
+            final List<Instance> queries = new ArrayList<>();
+            ps.forEach(queries::add);
+
+            time = System.currentTimeMillis();
+            final List<List<SpectralLibraryIndex.Hit>> results = search(index, queries, cosineQueryUtils, jobManager);
+            final double seconds = Math.max(1, System.currentTimeMillis() - time) / 1000d;
+            LOG.info("Searched " + queries.size() + " queries in " + seconds + "s (" + Math.round(queries.size() / seconds) + " queries/s).");
+
+            writeResults(queries, results);
+        } catch (ExecutionException e) {
+            LOG.error("Error when parsing project space", e);
+        }
+    }
+
+    private List<SpectralLibraryIndex.Entry> loadLibrary(CosineQueryUtils cosineQueryUtils, JobManager jobManager) {
+        final MsExperimentParser parser = new MsExperimentParser();
+        final List<BasicJJob<List<SpectralLibraryIndex.Entry>>> jobs = new ArrayList<>();
+        for (Path file : options.libraryFiles) {
+            jobs.add(jobManager.submitJob(new BasicJJob<List<SpectralLibraryIndex.Entry>>(JJob.JobType.IO) {
+                @Override
+                protected List<SpectralLibraryIndex.Entry> compute() throws Exception {
+                    final List<SpectralLibraryIndex.Entry> entries = new ArrayList<>();
+                    final GenericParser<Ms2Experiment> p = parser.getParser(file);
+                    if (p == null) {
+                        logWarn("Unknown file format: '" + file + "'. Skipping library file.");
+                        return entries;
+                    }
+                    final Iterator<Ms2Experiment> it = p.parseFromPathIterator(file);
+                    final String source = file.getFileName().toString();
+                    while (it.hasNext()) {
+                        checkForInterruption();
+                        final Ms2Experiment exp = it.next();
+                        if (exp.getMs2Spectra().isEmpty())
+                            continue;
+                        final SimpleSpectrum spec = Spectrums.mergeSpectra(MERGE_DEVIATION, true, false, exp.getMs2Spectra());
+                        if (spec.size() == 0)
+                            continue;
+                        entries.add(new SpectralLibraryIndex.Entry(exp.getName(), source, exp.getIonMass(), spec,
+                                cosineQueryUtils.createQueryWithIntensityTransformationNoLoss(spec, exp.getIonMass(), true)));
+                    }
+                    return entries;
+                }
+            }));
+        }
+        final List<SpectralLibraryIndex.Entry> library = new ArrayList<>();
+        for (BasicJJob<List<SpectralLibraryIndex.Entry>> job : jobs) {
+            try {
+                library.addAll(job.awaitResult());
+            } catch (ExecutionException e) {
+                LOG.error("Error when reading spectral library.", e);
+            }
+        }
+        return library;
+    }
+
+    private List<List<SpectralLibraryIndex.Hit>> search(SpectralLibraryIndex index, List<Instance> queries, CosineQueryUtils cosineQueryUtils, JobManager jobManager) {
+        final Deviation precursorDev = options.precursorPpm < 0 ? null : new Deviation(options.precursorPpm);
+        final List<List<SpectralLibraryIndex.Hit>> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++)
+            results.add(List.of());
+
+        final int chunks = Math.max(1, Math.min(queries.size(), 4 * jobManager.getCPUThreads()));
+        final List<BasicJJob<Boolean>> jobs = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final int from = (int) ((long) queries.size() * c / chunks), to = (int) ((long) queries.size() * (c + 1) / chunks);
+            jobs.add(jobManager.submitJob(new BasicJJob<Boolean>(JJob.JobType.CPU) {
+                @Override
+                protected Boolean compute() throws Exception {
+                    final SpectralLibraryIndex.Workspace ws = index.newWorkspace();
+                    for (int i = from; i < to; i++) {
+                        checkForInterruption();
+                        final Ms2Experiment exp = queries.get(i).getExperiment();
+                        if (exp.getMs2Spectra().isEmpty())
+                            continue;
+                        final SimpleSpectrum spec = Spectrums.mergeSpectra(MERGE_DEVIATION, true, false, exp.getMs2Spectra());
+                        final CosineQuerySpectrum query = cosineQueryUtils.createQueryWithIntensityTransformationNoLoss(spec, exp.getIonMass(), true);
+                        // every job writes its own index range only
+                        results.set(i, index.search(spec, query, exp.getIonMass(), precursorDev, options.minSharedPeaks, options.minSimilarity, options.topK, ws));
+                    }
+                    return true;
+                }
+            }));
+        }
+        jobs.forEach(JJob::takeResult);
+        return results;
+    }
 
+    private void writeResults(List<Instance> queries, List<List<SpectralLibraryIndex.Hit>> results) {
+        try (BufferedWriter bw = FileUtils.getWriter(options.outputFile)) {
+            bw.write("id\tcompoundName\trank\tlibraryName\tlibraryFile\tlibraryPrecursorMz\tsimilarity\tsharedPeaks");
+            bw.newLine();
+            for (int i = 0; i < queries.size(); i++) {
+                final Instance q = queries.get(i);
+                int rank = 0;
+                for (SpectralLibraryIndex.Hit hit : results.get(i)) {
+                    bw.write(q.getID().getDirectoryName());
+                    bw.write('\t');
+                    bw.write(q.getID().getCompoundName());
+                    bw.write('\t');
+                    bw.write(String.valueOf(++rank));
+                    bw.write('\t');
+                    bw.write(String.valueOf(hit.entry.name));
+                    bw.write('\t');
+                    bw.write(hit.entry.source);
+                    bw.write('\t');
+                    bw.write(String.valueOf(hit.entry.precursorMz));
+                    bw.write('\t');
+                    bw.write(String.valueOf(hit.similarity));
+                    bw.write('\t');
+                    bw.write(String.valueOf(hit.sharedPeaks));
+                    bw.newLine();
+                }
+            }
+        } catch (IOException e) {
+            LOG.error(options.outputFile.getAbsolutePath() + " cannot be written due to: " + e.getMessage(), e);
+            System.err.println("Cannot write file '" + options.outputFile + "' due to IO error: " + e.getMessage());
+        }
     }
 }
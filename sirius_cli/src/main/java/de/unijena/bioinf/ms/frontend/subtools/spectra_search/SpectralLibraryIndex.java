@@ -0,0 +1,205 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.ms.frontend.subtools.spectra_search;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bionf.spectral_alignment.CosineQuerySpectrum;
+import de.unijena.bionf.spectral_alignment.CosineQueryUtils;
+import de.unijena.bionf.spectral_alignment.SpectralSimilarity;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * In memory spectral library sorted by precursor m/z with an inverted index from fragment m/z bins to library
+ * spectra. A search first restricts the library to the precursor window, then counts shared peaks via the inverted
+ * index and only computes the exact cosine for spectra with enough shared peaks.
+ * <p>
+ * The index is immutable after construction and can be searched concurrently, each thread needs its own
+ * {@link Workspace}.
+ */
+public class SpectralLibraryIndex {
+    public static final double DEFAULT_BIN_WIDTH = 0.01;
+
+    public static class Entry {
+        public final String name;
+        public final String source;
+        public final double precursorMz;
+        public final SimpleSpectrum spectrum;
+        public final CosineQuerySpectrum query;
+
+        public Entry(String name, String source, double precursorMz, SimpleSpectrum spectrum, CosineQuerySpectrum query) {
+            this.name = name;
+            this.source = source;
+            this.precursorMz = precursorMz;
+            this.spectrum = spectrum;
+            this.query = query;
+        }
+    }
+
+    public static class Hit {
+        public final Entry entry;
+        public final double similarity;
+        public final int sharedPeaks;
+
+        private Hit(Entry entry, double similarity, int sharedPeaks) {
+            this.entry = entry;
+            this.similarity = similarity;
+            this.sharedPeaks = sharedPeaks;
+        }
+    }
+
+    /**
+     * Per thread buffers for shared peak counting.
+     */
+    public class Workspace {
+        private final int[] counts = new int[entries.length];
+        private final int[] lastPeak = new int[entries.length];
+        private final TIntArrayList touched = new TIntArrayList();
+
+        private Workspace() {
+            Arrays.fill(lastPeak, -1);
+        }
+    }
+
+    private final Entry[] entries; // sorted by precursor m/z
+    private final double[] precursors;
+    private final TIntObjectHashMap<int[]> postings;
+    private final double binWidth;
+    private final CosineQueryUtils cosineQueryUtils;
+    private final Deviation peakDeviation;
+
+    public SpectralLibraryIndex(@NotNull List<Entry> library, @NotNull CosineQueryUtils cosineQueryUtils, @NotNull Deviation peakDeviation, double binWidth) {
+        this.cosineQueryUtils = cosineQueryUtils;
+        this.peakDeviation = peakDeviation;
+        this.binWidth = binWidth;
+        this.entries = library.stream().sorted(Comparator.comparingDouble(e -> e.precursorMz)).toArray(Entry[]::new);
+        this.precursors = Arrays.stream(entries).mapToDouble(e -> e.precursorMz).toArray();
+
+        // ordinals are added in ascending order, so all posting lists are sorted by precursor m/z
+        final TIntObjectHashMap<TIntArrayList> lists = new TIntObjectHashMap<>();
+        for (int ord = 0; ord < entries.length; ord++) {
+            final SimpleSpectrum spec = entries[ord].spectrum;
+            int lastBin = Integer.MIN_VALUE;
+            for (int k = 0; k < spec.size(); k++) {
+                final int bin = bin(spec.getMzAt(k));
+                if (bin == lastBin) continue;
+                lastBin = bin;
+                TIntArrayList list = lists.get(bin);
+                if (list == null) {
+                    list = new TIntArrayList();
+                    lists.put(bin, list);
+                }
+                list.add(ord);
+            }
+        }
+        postings = new TIntObjectHashMap<>(lists.size());
+        lists.forEachEntry((bin, list) -> {
+            postings.put(bin, list.toArray());
+            return true;
+        });
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    public Workspace newWorkspace() {
+        return new Workspace();
+    }
+
+    private int bin(double mz) {
+        return (int) Math.floor(mz / binWidth);
+    }
+
+    /**
+     * @param spectrum       (merged) query spectrum, sorted by m/z
+     * @param query          cosine query of the same spectrum
+     * @param precursorMz    precursor m/z of the query
+     * @param precursorDev   allowed precursor deviation, null to search the whole library (analog search).
+     * @param minSharedPeaks minimum number of shared peaks to compute the exact cosine.
+     * @param minSimilarity  minimum cosine of a hit.
+     * @param topK           maximum number of hits.
+     * @return hits sorted by similarity (descending).
+     */
+    public List<Hit> search(@NotNull SimpleSpectrum spectrum, @NotNull CosineQuerySpectrum query, double precursorMz, Deviation precursorDev,
+                            int minSharedPeaks, double minSimilarity, int topK, @NotNull Workspace ws) {
+        final int lo, hi;
+        if (precursorDev != null) {
+            final double tol = precursorDev.absoluteFor(precursorMz);
+            lo = lowerBound(precursorMz - tol);
+            hi = lowerBound(Math.nextUp(precursorMz + tol));
+        } else {
+            lo = 0;
+            hi = entries.length;
+        }
+        if (lo >= hi)
+            return List.of();
+
+        // count shared peaks within the precursor window
+        ws.touched.resetQuick();
+        for (int k = 0; k < spectrum.size(); k++) {
+            final double mz = spectrum.getMzAt(k);
+            final double tol = peakDeviation.absoluteFor(mz);
+            for (int bin = bin(mz - tol), maxBin = bin(mz + tol); bin <= maxBin; bin++) {
+                final int[] list = postings.get(bin);
+                if (list == null) continue;
+                int p = Arrays.binarySearch(list, lo);
+                if (p < 0) p = -p - 1;
+                for (; p < list.length && list[p] < hi; p++) {
+                    final int ord = list[p];
+                    if (ws.lastPeak[ord] == k) continue; // count each query peak only once per entry
+                    if (ws.lastPeak[ord] < 0) ws.touched.add(ord);
+                    ws.lastPeak[ord] = k;
+                    ws.counts[ord]++;
+                }
+            }
+        }
+
+        final List<Hit> hits = new ArrayList<>();
+        for (int t = 0; t < ws.touched.size(); t++) {
+            final int ord = ws.touched.getQuick(t);
+            final int shared = ws.counts[ord];
+            ws.counts[ord] = 0;
+            ws.lastPeak[ord] = -1;
+            if (shared < minSharedPeaks) continue;
+
+            final SpectralSimilarity sim = cosineQueryUtils.cosineProduct(query, entries[ord].query);
+            if (sim.similarity >= minSimilarity && sim.shardPeaks >= minSharedPeaks)
+                hits.add(new Hit(entries[ord], sim.similarity, sim.shardPeaks));
+        }
+        hits.sort(Comparator.comparingDouble((Hit h) -> h.similarity).reversed());
+        return hits.size() > topK ? new ArrayList<>(hits.subList(0, topK)) : hits;
+    }
+
+    private int lowerBound(double mz) {
+        int p = Arrays.binarySearch(precursors, mz);
+        if (p < 0) return -p - 1;
+        while (p > 0 && precursors[p - 1] == mz) p--;
+        return p;
+    }
+}
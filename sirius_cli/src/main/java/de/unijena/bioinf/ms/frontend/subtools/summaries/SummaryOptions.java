@@ -65,6 +65,13 @@ public class SummaryOptions implements PostprocessingTool<SummarySubToolJob>, St
     boolean compress;
 
 
+    @CommandLine.Option(names = {"--incremental"}, description = {"Only re-read compounds that have changed since the last incremental summary run and reuse the cached project wide rows of all other compounds.", "mzTab-M export is skipped in this mode. Compressed summaries are always rebuilt completely."}, defaultValue = "false")
+    boolean incremental;
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
     @CommandLine.ArgGroup(exclusive = false, heading = "Include Predictions Table")
     @Nullable
     protected PredictionsOptions predictionsOptions;
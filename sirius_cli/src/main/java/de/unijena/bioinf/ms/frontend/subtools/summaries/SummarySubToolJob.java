@@ -23,6 +23,7 @@ package de.unijena.bioinf.ms.frontend.subtools.summaries;
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
 import de.unijena.bioinf.ChemistryBase.utils.ZipCompressionMethod;
+import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.JobProgressEventListener;
 import de.unijena.bioinf.ms.frontend.subtools.CLIRootOptions;
 import de.unijena.bioinf.ms.frontend.subtools.PostprocessingJob;
@@ -33,7 +34,8 @@ import de.unijena.bioinf.ms.properties.ParameterConfig;
 import de.unijena.bioinf.projectspace.CompoundContainerId;
 import de.unijena.bioinf.projectspace.Instance;
 import de.unijena.bioinf.projectspace.ProjectSpaceManager;
-import de.unijena.bioinf.projectspace.SiriusProjectSpace;
+import de.unijena.bioinf.projectspace.Summarizer;
+import de.unijena.bioinf.projectspace.summaries.IncrementalSummaryJob;
 import de.unijena.bioinf.projectspace.summaries.SummaryLocations;
 import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
@@ -88,13 +90,14 @@ public class SummarySubToolJob extends PostprocessingJob<Boolean> implements Wor
                 ids = idsTMP;
             }
 
-            SiriusProjectSpace.SummarizerJob job = project.projectSpace()
-                    .makeSummarizerJob(options.location, options.compress, ids, ProjectSpaceManager
-                            .defaultSummarizer(
-                                    options.isTopHitSummary(),
-                                    options.isTopHitWithAdductsSummary(),
-                                    options.isFullSummary()
-                            ));
+            final Summarizer[] summarizers = ProjectSpaceManager.defaultSummarizer(
+                    options.isTopHitSummary(),
+                    options.isTopHitWithAdductsSummary(),
+                    options.isFullSummary()
+            );
+            final BasicJJob<?> job = options.isIncremental()
+                    ? new IncrementalSummaryJob(project, options.location, options.compress, ids, summarizers)
+                    : project.projectSpace().makeSummarizerJob(options.location, options.compress, ids, summarizers);
             job.addJobProgressListener(listener);
             SiriusJobs.getGlobalJobManager().submitJob(job).awaitResult();
             job.removePropertyChangeListener(listener);
@@ -57,7 +57,7 @@ public class WebserviceOptions implements StandaloneTool<WebserviceOptions.WF> {
         public void run() {
             /*if (clearLogin) {
                 try {
-                    ApplicationCore.WEB_API
+                    ApplicationCore.webAPI()
                 } catch (IOException e) {
                     LoggerFactory.getLogger(getClass()).error("Error when clearing refresh token.", e);
                 }
@@ -0,0 +1,195 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.zodiac;
+
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Gibbs sampler on a {@link CompactZodiacGraph}. Each Markov chain runs in its own job and selects one candidate
+ * per compound. A candidate is sampled with probability proportional to its prior times the exponential of the
+ * summed weights of its edges to the currently selected candidates of the other compounds. After the burn-in
+ * period every epoch counts the selected candidates, the ZODIAC score of a candidate is its relative frequency
+ * within its compound summed over all chains.
+ * <p>
+ * If a checkpoint is given, the state of every chain is stored each {@code checkpointInterval} epochs and a run
+ * with the same input continues from there. The random generator of a chain is reseeded at every checkpoint
+ * boundary, so a resumed run yields the same result as an uninterrupted one.
+ */
+public class CheckpointedGibbsSampler {
+    private final CompactZodiacGraph graph;
+    private final int epochsPerChain;
+    private final int burnIn;
+    private final int numberOfChains;
+    private final int checkpointInterval;
+    private final long seed;
+    @Nullable
+    private final ZodiacCheckpoint checkpoint;
+
+    /**
+     * @param iterations         number of epochs of all chains together
+     * @param burnIn             number of epochs per chain that are not counted
+     * @param checkpointInterval number of epochs between two checkpoints, values <= 0 disable checkpointing.
+     */
+    public CheckpointedGibbsSampler(@NotNull CompactZodiacGraph graph, int iterations, int burnIn, int numberOfChains, int checkpointInterval, long seed, @Nullable ZodiacCheckpoint checkpoint) {
+        this.graph = graph;
+        this.numberOfChains = Math.max(1, numberOfChains);
+        this.epochsPerChain = Math.max(1, iterations / this.numberOfChains);
+        this.burnIn = Math.max(0, Math.min(burnIn, epochsPerChain - 1));
+        this.checkpointInterval = checkpointInterval;
+        this.seed = seed;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return job that computes the ZODIAC score of every candidate of the graph.
+     */
+    public BasicJJob<double[]> makeComputeJob() {
+        return new BasicJJob<>(JobType.SCHEDULER) {
+            @Override
+            protected double[] compute() throws Exception {
+                final List<JJob<int[]>> jobs = new ArrayList<>(numberOfChains);
+                try {
+                    for (int chain = 0; chain < numberOfChains; chain++)
+                        jobs.add(submitSubJob(new ChainJob(chain)));
+                    final long[] counts = new long[graph.numberOfCandidates()];
+                    for (JJob<int[]> job : jobs) {
+                        final int[] chainCounts = job.awaitResult();
+                        for (int i = 0; i < counts.length; i++)
+                            counts[i] += chainCounts[i];
+                    }
+                    return toScores(counts);
+                } finally {
+                    jobs.forEach(j -> j.cancel(false));
+                }
+            }
+        };
+    }
+
+    private double[] toScores(long[] counts) {
+        final double[] scores = new double[counts.length];
+        for (int c = 0; c < graph.numberOfCompounds(); c++) {
+            long sum = 0;
+            for (int i = graph.firstCandidate(c); i < graph.endCandidate(c); i++)
+                sum += counts[i];
+            for (int i = graph.firstCandidate(c); i < graph.endCandidate(c); i++)
+                scores[i] = sum > 0 ? (double) counts[i] / sum : Math.exp(graph.logPrior(i));
+        }
+        return scores;
+    }
+
+    private SplittableRandom random(int chain, int epoch) {
+        return new SplittableRandom(seed ^ (0x9E3779B97F4A7C15L * (chain + 1)) ^ (0xC2B2AE3D27D4EB4FL * epoch));
+    }
+
+    private class ChainJob extends BasicJJob<int[]> {
+        private final int chain;
+
+        private ChainJob(int chain) {
+            super(JobType.CPU);
+            this.chain = chain;
+        }
+
+        @Override
+        protected int[] compute() throws Exception {
+            final int compounds = graph.numberOfCompounds();
+            final ZodiacCheckpoint.ChainState state = checkpoint != null ? checkpoint.get(chain) : null;
+
+            int epoch;
+            final int[] selected;
+            final int[] counts;
+            if (state != null) {
+                epoch = state.epoch;
+                selected = state.selected;
+                counts = state.counts;
+                logInfo("Resuming ZODIAC chain " + chain + " at epoch " + epoch + " of " + epochsPerChain + ".");
+            } else {
+                epoch = 0;
+                selected = new int[compounds];
+                counts = new int[graph.numberOfCandidates()];
+                for (int c = 0; c < compounds; c++) {
+                    int best = graph.firstCandidate(c);
+                    for (int i = best + 1; i < graph.endCandidate(c); i++)
+                        if (graph.logPrior(i) > graph.logPrior(best))
+                            best = i;
+                    selected[c] = best;
+                }
+            }
+
+            int maxCandidates = 1;
+            for (int c = 0; c < compounds; c++)
+                maxCandidates = Math.max(maxCandidates, graph.endCandidate(c) - graph.firstCandidate(c));
+            final double[] logProbs = new double[maxCandidates];
+
+            SplittableRandom rng = random(chain, epoch);
+            while (epoch < epochsPerChain) {
+                checkForInterruption();
+                for (int c = 0; c < compounds; c++) {
+                    final int first = graph.firstCandidate(c), end = graph.endCandidate(c);
+                    if (end - first > 1)
+                        selected[c] = sample(first, end, selected, logProbs, rng);
+                }
+                ++epoch;
+                if (epoch > burnIn)
+                    for (int c = 0; c < compounds; c++)
+                        counts[selected[c]]++;
+
+                if (checkpointInterval > 0 && epoch % checkpointInterval == 0 && epoch < epochsPerChain) {
+                    if (checkpoint != null)
+                        checkpoint.save(chain, epoch, selected, counts);
+                    rng = random(chain, epoch);
+                }
+            }
+            return counts;
+        }
+
+        private int sample(int first, int end, int[] selected, double[] logProbs, SplittableRandom rng) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = first; i < end; i++) {
+                double logProb = graph.logPrior(i);
+                for (long e = graph.firstEdge(i), last = graph.endEdge(i); e < last; e++) {
+                    final int target = graph.edgeTarget(e);
+                    if (selected[graph.compoundOf(target)] == target)
+                        logProb += graph.edgeWeight(e);
+                }
+                logProbs[i - first] = logProb;
+                max = Math.max(max, logProb);
+            }
+            double sum = 0;
+            for (int k = 0; k < end - first; k++) {
+                logProbs[k] = Math.exp(logProbs[k] - max);
+                sum += logProbs[k];
+            }
+            double r = rng.nextDouble() * sum;
+            for (int k = 0; k < end - first; k++) {
+                r -= logProbs[k];
+                if (r < 0)
+                    return first + k;
+            }
+            return end - 1;
+        }
+    }
+}
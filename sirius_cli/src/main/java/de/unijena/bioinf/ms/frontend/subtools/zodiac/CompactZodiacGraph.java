@@ -0,0 +1,344 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.zodiac;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Candidate graph of the low memory ZODIAC mode. Candidates are numbered consecutively per compound, node data is
+ * stored in primitive arrays and the edges (target candidate and weight) are stored in a memory mapped temporary
+ * file in compressed sparse row layout. So the heap usage is linear in the number of candidates and the edges are
+ * paged in by the operating system as needed.
+ * <p>
+ * Edges are scored by the number of common fragment and loss formulas. A log-normal distribution is fitted to the
+ * positive scores of a random sample of candidate pairs. Edges whose cumulative probability is below the threshold
+ * are dropped, all other edges are weighted with {@code log(cdf(score) / threshold)}. This is a simplified version
+ * of the ZODIAC edge scoring, hence results are stored as {@link ZodiacLowMemoryScore}.
+ */
+public class CompactZodiacGraph implements Closeable {
+    private static final int EDGE_BYTES = Integer.BYTES + Float.BYTES;
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final int DISTRIBUTION_SAMPLE_SIZE = 100_000;
+    private static final int BLOCK_SIZE = 256;
+
+    private final int[] compoundOffsets;
+    private final int[] compoundOfCandidate;
+    private final double[] logPriors;
+    private final long[] edgeOffsets;
+    private final Path edgeFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+
+    private CompactZodiacGraph(int[] compoundOffsets, int[] compoundOfCandidate, double[] logPriors, long[] edgeOffsets, Path edgeFile, FileChannel channel) throws IOException {
+        this.compoundOffsets = compoundOffsets;
+        this.compoundOfCandidate = compoundOfCandidate;
+        this.logPriors = logPriors;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeFile = edgeFile;
+        this.channel = channel;
+
+        final long bytes = edgeOffsets[edgeOffsets.length - 1] * EDGE_BYTES;
+        final int numberOfSegments = (int) ((bytes + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            final long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_SHIFT, bytes - start));
+            segments[i].order(ByteOrder.nativeOrder());
+        }
+    }
+
+    public int numberOfCompounds() {
+        return compoundOffsets.length - 1;
+    }
+
+    public int numberOfCandidates() {
+        return compoundOfCandidate.length;
+    }
+
+    public long numberOfEdges() {
+        return edgeOffsets[edgeOffsets.length - 1];
+    }
+
+    /**
+     * @return index of the first candidate of the given compound
+     */
+    public int firstCandidate(int compound) {
+        return compoundOffsets[compound];
+    }
+
+    /**
+     * @return index after the last candidate of the given compound
+     */
+    public int endCandidate(int compound) {
+        return compoundOffsets[compound + 1];
+    }
+
+    public int compoundOf(int candidate) {
+        return compoundOfCandidate[candidate];
+    }
+
+    /**
+     * @return log of the candidate probability within its compound, based on the candidate scores only.
+     */
+    public double logPrior(int candidate) {
+        return logPriors[candidate];
+    }
+
+    public long firstEdge(int candidate) {
+        return edgeOffsets[candidate];
+    }
+
+    public long endEdge(int candidate) {
+        return edgeOffsets[candidate + 1];
+    }
+
+    public int edgeTarget(long edge) {
+        final long pos = edge * EDGE_BYTES;
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].getInt((int) (pos & SEGMENT_MASK));
+    }
+
+    public float edgeWeight(long edge) {
+        final long pos = edge * EDGE_BYTES + Integer.BYTES;
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].getFloat((int) (pos & SEGMENT_MASK));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            try {
+                Files.deleteIfExists(edgeFile);
+            } catch (IOException e) {
+                // mapped files cannot be deleted on some platforms before the mapping is released.
+                edgeFile.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @param compounds candidates per compound, compounds without candidates are not allowed
+     * @param threshold minimum cumulative probability of an edge score to keep the edge
+     * @param seed      seed for sampling the score distribution, so that the same input results in the same graph
+     */
+    public static BasicJJob<CompactZodiacGraph> makeBuildJob(@NotNull List<ZodiacCandidateFeatures[]> compounds, double threshold, long seed) {
+        return new BasicJJob<>(JobType.SCHEDULER) {
+            @Override
+            protected CompactZodiacGraph compute() throws Exception {
+                final int[] compoundOffsets = new int[compounds.size() + 1];
+                for (int c = 0; c < compounds.size(); c++)
+                    compoundOffsets[c + 1] = compoundOffsets[c] + compounds.get(c).length;
+                final int n = compoundOffsets[compounds.size()];
+                final ZodiacCandidateFeatures[] candidates = new ZodiacCandidateFeatures[n];
+                final int[] compoundOfCandidate = new int[n];
+                final double[] logPriors = new double[n];
+                for (int c = 0; c < compounds.size(); c++) {
+                    final ZodiacCandidateFeatures[] cs = compounds.get(c);
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (ZodiacCandidateFeatures f : cs)
+                        max = Math.max(max, f.score);
+                    double sum = 0;
+                    for (ZodiacCandidateFeatures f : cs)
+                        sum += Math.exp(f.score - max);
+                    final double logSum = max + Math.log(sum);
+                    for (int k = 0; k < cs.length; k++) {
+                        final int i = compoundOffsets[c] + k;
+                        candidates[i] = cs[k];
+                        compoundOfCandidate[i] = c;
+                        logPriors[i] = cs[k].score - logSum;
+                    }
+                }
+
+                final double[] distribution = estimateLogNormal(candidates, compoundOfCandidate, seed);
+                if (distribution == null)
+                    logWarn("No candidates with common fragments or losses found. ZODIAC graph has no edges.");
+
+                final long[] edgeOffsets = new long[n + 1];
+                final Path edgeFile = Files.createTempFile("zodiac-edges", ".bin");
+                final FileChannel channel = FileChannel.open(edgeFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    if (distribution != null) {
+                        final int window = Math.max(1, 2 * SiriusJobs.getCPUThreads());
+                        final ArrayDeque<JJob<EdgeBlock>> pending = new ArrayDeque<>(window);
+                        try {
+                            for (int from = 0; from < n; from += BLOCK_SIZE) {
+                                checkForInterruption();
+                                pending.add(submitSubJob(new EdgeBlockJob(candidates, compoundOfCandidate, from, Math.min(n, from + BLOCK_SIZE), distribution[0], distribution[1], threshold)));
+                                if (pending.size() >= window)
+                                    pending.poll().awaitResult().writeTo(channel, edgeOffsets);
+                            }
+                            while (!pending.isEmpty())
+                                pending.poll().awaitResult().writeTo(channel, edgeOffsets);
+                        } finally {
+                            pending.forEach(j -> j.cancel(false));
+                        }
+                    }
+                    logInfo("ZODIAC graph with " + n + " candidates of " + compounds.size() + " compounds and " + edgeOffsets[n] + " edges created.");
+                    return new CompactZodiacGraph(compoundOffsets, compoundOfCandidate, logPriors, edgeOffsets, edgeFile, channel);
+                } catch (Throwable e) {
+                    channel.close();
+                    Files.deleteIfExists(edgeFile);
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * @return mean and standard deviation of the log edge scores of a random sample of candidate pairs from
+     * different compounds or null if the sample does not contain a single positive score.
+     */
+    private static double[] estimateLogNormal(ZodiacCandidateFeatures[] candidates, int[] compoundOfCandidate, long seed) {
+        final int n = candidates.length;
+        final SplittableRandom rng = new SplittableRandom(seed);
+        final TDoubleArrayList logScores = new TDoubleArrayList();
+        final long pairs = (long) n * (n - 1) / 2;
+        if (pairs <= DISTRIBUTION_SAMPLE_SIZE) {
+            for (int i = 0; i < n; i++)
+                for (int j = i + 1; j < n; j++)
+                    addLogScore(candidates, compoundOfCandidate, i, j, logScores);
+        } else {
+            for (int s = 0; s < DISTRIBUTION_SAMPLE_SIZE; s++)
+                addLogScore(candidates, compoundOfCandidate, rng.nextInt(n), rng.nextInt(n), logScores);
+        }
+        if (logScores.isEmpty())
+            return null;
+
+        final double mean = logScores.sum() / logScores.size();
+        double var = 0;
+        for (int i = 0; i < logScores.size(); i++)
+            var += (logScores.getQuick(i) - mean) * (logScores.getQuick(i) - mean);
+        final double sd = Math.sqrt(var / logScores.size());
+        // all sampled scores are equal, use a narrow distribution instead of a degenerated one.
+        return new double[]{mean, sd > 0 ? sd : 1e-3};
+    }
+
+    private static void addLogScore(ZodiacCandidateFeatures[] candidates, int[] compoundOfCandidate, int i, int j, TDoubleArrayList logScores) {
+        if (compoundOfCandidate[i] == compoundOfCandidate[j])
+            return;
+        final int score = ZodiacCandidateFeatures.commonFragmentsAndLosses(candidates[i], candidates[j]);
+        if (score > 0)
+            logScores.add(Math.log(score));
+    }
+
+    static double normalCdf(double z) {
+        final double x = Math.abs(z) / Math.sqrt(2);
+        // Abramowitz and Stegun 7.1.26, absolute error below 1.5e-7
+        final double t = 1d / (1d + 0.3275911 * x);
+        final double erf = 1d - (((((1.061405429 * t - 1.453152027) * t) + 1.421413741) * t - 0.284496736) * t + 0.254829592) * t * Math.exp(-x * x);
+        return z >= 0 ? 0.5 * (1d + erf) : 0.5 * (1d - erf);
+    }
+
+    private static class EdgeBlockJob extends BasicJJob<EdgeBlock> {
+        private final ZodiacCandidateFeatures[] candidates;
+        private final int[] compoundOfCandidate;
+        private final int from, to;
+        private final double mean, sd, threshold;
+
+        private EdgeBlockJob(ZodiacCandidateFeatures[] candidates, int[] compoundOfCandidate, int from, int to, double mean, double sd, double threshold) {
+            super(JobType.CPU);
+            this.candidates = candidates;
+            this.compoundOfCandidate = compoundOfCandidate;
+            this.from = from;
+            this.to = to;
+            this.mean = mean;
+            this.sd = sd;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected EdgeBlock compute() throws Exception {
+            final EdgeBlock block = new EdgeBlock(from, to);
+            final double logThreshold = Math.log(Math.max(threshold, Double.MIN_VALUE));
+            for (int i = from; i < to; i++) {
+                checkForInterruption();
+                int edges = 0;
+                for (int j = 0; j < candidates.length; j++) {
+                    if (compoundOfCandidate[i] == compoundOfCandidate[j])
+                        continue;
+                    final int score = ZodiacCandidateFeatures.commonFragmentsAndLosses(candidates[i], candidates[j]);
+                    if (score <= 0)
+                        continue;
+                    final double cdf = normalCdf((Math.log(score) - mean) / sd);
+                    if (cdf < threshold || cdf <= 0)
+                        continue;
+                    block.targets.add(j);
+                    block.weights.add((float) (Math.log(cdf) - logThreshold));
+                    ++edges;
+                }
+                block.edgesPerCandidate[i - from] = edges;
+            }
+            return block;
+        }
+    }
+
+    private static class EdgeBlock {
+        private final int from;
+        private final int[] edgesPerCandidate;
+        private final TIntArrayList targets = new TIntArrayList();
+        private final TFloatArrayList weights = new TFloatArrayList();
+
+        private EdgeBlock(int from, int to) {
+            this.from = from;
+            this.edgesPerCandidate = new int[to - from];
+        }
+
+        private void writeTo(FileChannel channel, long[] edgeOffsets) throws IOException {
+            for (int k = 0; k < edgesPerCandidate.length; k++)
+                edgeOffsets[from + k + 1] = edgeOffsets[from + k] + edgesPerCandidate[k];
+
+            final ByteBuffer buffer = ByteBuffer.allocate(Math.min(targets.size(), 1 << 16) * EDGE_BYTES).order(ByteOrder.nativeOrder());
+            for (int e = 0; e < targets.size(); e++) {
+                if (!buffer.hasRemaining())
+                    flush(channel, buffer);
+                buffer.putInt(targets.getQuick(e));
+                buffer.putFloat(weights.getQuick(e));
+            }
+            flush(channel, buffer);
+        }
+
+        private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.zodiac;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The part of a fragmentation tree candidate that is needed by the low memory ZODIAC mode: its score and the
+ * sorted ids of all fragment and loss formulas. The tree itself does not need to be kept in memory.
+ */
+public final class ZodiacCandidateFeatures {
+    final String resultFileName;
+    final double score;
+    final int[] fragments;
+    final int[] losses;
+
+    /**
+     * @param fragments sorted and unique fragment formula ids
+     * @param losses    sorted and unique loss formula ids
+     */
+    ZodiacCandidateFeatures(String resultFileName, double score, int[] fragments, int[] losses) {
+        this.resultFileName = resultFileName;
+        this.score = score;
+        this.fragments = fragments;
+        this.losses = losses;
+    }
+
+    public static ZodiacCandidateFeatures of(@NotNull String resultFileName, double score, @NotNull FTree tree, @NotNull FormulaDictionary dictionary) {
+        final TIntArrayList fragments = new TIntArrayList(tree.numberOfVertices());
+        for (Fragment f : tree)
+            fragments.add(dictionary.id(f.getFormula()));
+        final TIntArrayList losses = new TIntArrayList(tree.numberOfEdges());
+        for (Loss l : tree.losses())
+            losses.add(dictionary.id(l.getFormula()));
+        return new ZodiacCandidateFeatures(resultFileName, score, sortedUnique(fragments), sortedUnique(losses));
+    }
+
+    private static int[] sortedUnique(TIntArrayList ids) {
+        ids.sort();
+        int n = 0;
+        for (int i = 0; i < ids.size(); i++)
+            if (n == 0 || ids.getQuick(n - 1) != ids.getQuick(i))
+                ids.setQuick(n++, ids.getQuick(i));
+        return ids.toArray(0, n);
+    }
+
+    /**
+     * @return number of fragment and loss formulas both candidates have in common.
+     */
+    static int commonFragmentsAndLosses(ZodiacCandidateFeatures a, ZodiacCandidateFeatures b) {
+        return countCommon(a.fragments, b.fragments) + countCommon(a.losses, b.losses);
+    }
+
+    private static int countCommon(int[] a, int[] b) {
+        int i = 0, j = 0, common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) ++i;
+            else if (a[i] > b[j]) ++j;
+            else {
+                ++common;
+                ++i;
+                ++j;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * Maps molecular formulas to dense int ids. Not thread safe.
+     */
+    public static class FormulaDictionary {
+        private final TObjectIntHashMap<MolecularFormula> ids = new TObjectIntHashMap<>(1024, 0.5f, -1);
+
+        public int id(MolecularFormula formula) {
+            int id = ids.get(formula);
+            if (id < 0) {
+                id = ids.size();
+                ids.put(formula, id);
+            }
+            return id;
+        }
+
+        public int size() {
+            return ids.size();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.zodiac;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gibbs sampling state of all Markov chains of a low memory ZODIAC run, stored next to the compounds of the
+ * project-space. The checkpoint is only valid for the input it was created for, which is identified by a
+ * fingerprint of the candidates and sampling parameters.
+ */
+public class ZodiacCheckpoint {
+    public static final String FILE_NAME = ".zodiac-checkpoint";
+    private static final int MAGIC = 0x5a444350;
+    private static final int VERSION = 1;
+
+    private final Path location;
+    private final long fingerprint;
+    private final int numberOfCompounds;
+    private final int numberOfCandidates;
+    private final ChainState[] chains;
+
+    private ZodiacCheckpoint(Path location, long fingerprint, int numberOfChains, int numberOfCompounds, int numberOfCandidates) {
+        this.location = location;
+        this.fingerprint = fingerprint;
+        this.numberOfCompounds = numberOfCompounds;
+        this.numberOfCandidates = numberOfCandidates;
+        this.chains = new ChainState[numberOfChains];
+    }
+
+    /**
+     * @return location of the checkpoint for a project-space at the given location. Inside the project directory or
+     * next to a compressed project-space.
+     */
+    public static Path location(@NotNull Path projectLocation) {
+        return Files.isDirectory(projectLocation)
+                ? projectLocation.resolve(FILE_NAME)
+                : projectLocation.resolveSibling(projectLocation.getFileName().toString() + FILE_NAME);
+    }
+
+    /**
+     * Loads the checkpoint at the given location. A missing, unreadable or outdated checkpoint results in an empty
+     * checkpoint, so that sampling starts from scratch.
+     */
+    public static ZodiacCheckpoint load(@NotNull Path location, long fingerprint, int numberOfChains, int numberOfCompounds, int numberOfCandidates) {
+        final ZodiacCheckpoint checkpoint = new ZodiacCheckpoint(location, fingerprint, numberOfChains, numberOfCompounds, numberOfCandidates);
+        if (!Files.exists(location))
+            return checkpoint;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(location))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fingerprint
+                    || in.readInt() != numberOfChains || in.readInt() != numberOfCompounds || in.readInt() != numberOfCandidates) {
+                LoggerFactory.getLogger(ZodiacCheckpoint.class).info("ZODIAC checkpoint does not match the current input. Starting from scratch.");
+                return checkpoint;
+            }
+            for (int c = 0; c < numberOfChains; c++) {
+                if (!in.readBoolean())
+                    continue;
+                final int epoch = in.readInt();
+                final int[] selected = readInts(in, numberOfCompounds);
+                final int[] counts = readInts(in, numberOfCandidates);
+                checkpoint.chains[c] = new ChainState(epoch, selected, counts);
+            }
+        } catch (IOException e) {
+            LoggerFactory.getLogger(ZodiacCheckpoint.class).warn("Could not read ZODIAC checkpoint. Starting from scratch.", e);
+            return new ZodiacCheckpoint(location, fingerprint, numberOfChains, numberOfCompounds, numberOfCandidates);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return the stored state of the given chain or null if the chain has to start from scratch.
+     */
+    @Nullable
+    public synchronized ChainState get(int chain) {
+        final ChainState state = chains[chain];
+        return state == null ? null : new ChainState(state.epoch, state.selected.clone(), state.counts.clone());
+    }
+
+    /**
+     * Stores the state of the given chain and writes the state of all chains atomically to disk.
+     */
+    public synchronized void save(int chain, int epoch, int[] selected, int[] counts) throws IOException {
+        chains[chain] = new ChainState(epoch, selected.clone(), counts.clone());
+        final Path tmp = location.resolveSibling(location.getFileName().toString() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(chains.length);
+            out.writeInt(numberOfCompounds);
+            out.writeInt(numberOfCandidates);
+            for (ChainState state : chains) {
+                out.writeBoolean(state != null);
+                if (state == null)
+                    continue;
+                out.writeInt(state.epoch);
+                writeInts(out, state.selected);
+                writeInts(out, state.counts);
+            }
+        }
+        Files.move(tmp, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes the checkpoint after the sampling has been finished.
+     */
+    public synchronized void delete() {
+        try {
+            Files.deleteIfExists(location);
+        } catch (IOException e) {
+            LoggerFactory.getLogger(ZodiacCheckpoint.class).warn("Could not delete ZODIAC checkpoint '" + location + "'.", e);
+        }
+    }
+
+    private static int[] readInts(DataInput in, int length) throws IOException {
+        final int[] values = new int[length];
+        for (int i = 0; i < length; i++)
+            values[i] = in.readInt();
+        return values;
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        for (int v : values)
+            out.writeInt(v);
+    }
+
+    public static class ChainState {
+        public final int epoch;
+        public final int[] selected;
+        public final int[] counts;
+
+        private ChainState(int epoch, int[] selected, int[] counts) {
+            this.epoch = epoch;
+            this.selected = selected;
+            this.counts = counts;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.zodiac;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.FormulaScore;
+
+/**
+ * Score of the low memory ZODIAC mode ({@code --low-memory}). It is stored separately from the {@link de.unijena.bioinf.GibbsSampling.ZodiacScore}
+ * because it is computed with a simplified model on a {@link CompactZodiacGraph}:
+ * <ul>
+ *     <li>edges are weighted by the plain number of common fragment and loss formulas instead of the noise and
+ *     intensity weighted score of ZODIAC,</li>
+ *     <li>the log-normal score distribution is fitted by mean and standard deviation of a random sample of
+ *     candidate pairs and edges are only filtered by the threshold (no minimum number of local connections),</li>
+ *     <li>compound clustering, the two-step approach and library hits (anchors) are not supported.</li>
+ * </ul>
+ * Like the ZodiacScore it is the relative frequency of the candidate within its compound over all sampled epochs.
+ */
+public class ZodiacLowMemoryScore extends FormulaScore {
+
+    public ZodiacLowMemoryScore(double score) {
+        super(score);
+    }
+
+    @Override
+    public ScoreType getScoreType() {
+        return ScoreType.Probabilistic;
+    }
+}
@@ -35,7 +35,6 @@ import picocli.CommandLine;
 import picocli.CommandLine.Option;
 
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -88,8 +87,8 @@ public class ZodiacOptions implements ToolChainOptions<ZodiacSubToolJob, DataSet
 
     @Option(names = "--library-hits",
             description = {"CSV file containing spectral library hits. Library hits are used as anchors to improve ZODIAC scoring."})
-    public void setLibraryHits(String filePath) throws Exception {
-        libraryHitsFile = Paths.get(filePath);
+    public void setLibraryHits(Path filePath) throws Exception {
+        libraryHitsFile = filePath;
     }
 
     ///////////////////////
@@ -143,18 +142,28 @@ public class ZodiacOptions implements ToolChainOptions<ZodiacSubToolJob, DataSet
             defaultConfigOptions.changeOption("ZodiacRunInTwoSteps", "false");
     }
 
+    @Option(names = "--low-memory",
+            description = {"Run ZODIAC on a compact candidate graph that keeps only per candidate features instead of all fragmentation trees and stores the graph edges in a memory mapped file.",
+                    "The Gibbs sampling state is checkpointed to the project-space, so an interrupted run resumes.",
+                    "This mode uses a simplified model (unweighted common fragment and loss counts, no minimum local connections, no clustering, no two-step approach, no library hits). Its results are stored as a separate 'ZodiacLowMemoryScore' and are not comparable to the ZODIAC score."})
+    public boolean lowMemory;
+
+    @Option(names = "--checkpoint-interval", defaultValue = "1000",
+            description = {"Number of epochs after which the Gibbs sampling state is checkpointed in low memory mode. Values <= 0 disable checkpointing."})
+    public int checkpointInterval;
+
     public Path summaryFile;
 
     @Option(names = "--summary", hidden = true, description = {"Write a ZODIAC summary CSV file."})
-    public void setSummaryFile(String filePath) throws Exception {
-        summaryFile = Paths.get(filePath);
+    public void setSummaryFile(Path filePath) throws Exception {
+        summaryFile = filePath;
     }
 
     public Path bestMFSimilarityGraphFile;
     @Option(names = "--graph", hidden = true,
             description = {"Writes the similarity graph based on the top molecular formula annotations of each compound."})
-    public void setSimilarityGraphFile(String filePath) throws Exception {
-        bestMFSimilarityGraphFile = Paths.get(filePath);
+    public void setSimilarityGraphFile(Path filePath) throws Exception {
+        bestMFSimilarityGraphFile = filePath;
     }
 
     @Override
@@ -170,11 +179,13 @@ public class ZodiacOptions implements ToolChainOptions<ZodiacSubToolJob, DataSet
         return inst -> {
             inst.loadFormulaResults(FormulaScoring.class).stream().map(SScored::getCandidate)
                     .forEach(it -> it.getAnnotation(FormulaScoring.class).ifPresent(z -> {
-                        if (z.removeAnnotation(ZodiacScore.class) != null)
+                        final boolean removedZodiac = z.removeAnnotation(ZodiacScore.class) != null;
+                        if (z.removeAnnotation(ZodiacLowMemoryScore.class) != null || removedZodiac)
                             inst.updateFormulaResult(it, FormulaScoring.class); //update only if there was something to remove
                     }));
             if (inst.getExperiment().getAnnotation(FormulaResultRankingScore.class).orElse(FormulaResultRankingScore.AUTO).isAuto()) {
                 inst.getID().getRankingScoreTypes().remove(ZodiacScore.class);
+                inst.getID().getRankingScoreTypes().remove(ZodiacLowMemoryScore.class);
                 inst.updateCompoundID();
             }
         };
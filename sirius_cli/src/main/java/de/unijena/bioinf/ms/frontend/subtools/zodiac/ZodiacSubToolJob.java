@@ -54,6 +54,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 public class ZodiacSubToolJob extends DataSetJob {
@@ -77,11 +78,23 @@ public class ZodiacSubToolJob extends DataSetJob {
 
     @Override
     public boolean isAlreadyComputed(@NotNull Instance inst) {
-        return inst.loadCompoundContainer().hasResults() && inst.loadFormulaResults(FormulaScoring.class).stream().anyMatch(res -> res.getCandidate().getAnnotationOrThrow(FormulaScoring.class).hasAnnotation(ZodiacScore.class));
+        final Class<? extends FormulaScore> scoreType = isLowMemory() ? ZodiacLowMemoryScore.class : ZodiacScore.class;
+        return inst.loadCompoundContainer().hasResults() && inst.loadFormulaResults(FormulaScoring.class).stream().anyMatch(res -> res.getCandidate().getAnnotationOrThrow(FormulaScoring.class).hasAnnotation(scoreType));
+    }
+
+    private boolean isLowMemory() {
+        return cliOptions.lowMemory && cliOptions.libraryHitsFile == null;
     }
 
     @Override
     protected void computeAndAnnotateResult(@NotNull List<Instance> instances) throws Exception {
+        if (isLowMemory()) {
+            computeAndAnnotateResultLowMemory(instances);
+            return;
+        }
+        if (cliOptions.lowMemory)
+            logWarn("Library hits are not supported in low memory mode. Running ZODIAC in memory.");
+
         logInfo("START ZODIAC JOB");
         final Map<Ms2Experiment, List<FormulaResult>> input = instances.stream()
                 .distinct().collect(Collectors.toMap(
@@ -134,19 +147,7 @@ public class ZodiacSubToolJob extends DataSetJob {
             checkForInterruption();
             Ms2Experiment experiment = ms2ExperimentListEntry.getKey();
             List<FTree> treeCandidates = ms2ExperimentListEntry.getValue();
-            boolean isPoorlyExplained = submitSubJob(treeQualityEvaluator.makeIsAllCandidatesPoorlyExplainSpectrumJob(treeCandidates)).awaitResult();
-            if (isPoorlyExplained) {
-                //update if poorly explained
-                CompoundQuality quality = experiment.getAnnotationOrNull(CompoundQuality.class);
-                if (quality == null) {
-                    quality = new CompoundQuality(CompoundQuality.CompoundQualityFlag.PoorlyExplained);
-                } else if (quality.isNot(CompoundQuality.CompoundQualityFlag.PoorlyExplained)) {
-                    quality = quality.updateQuality(CompoundQuality.CompoundQualityFlag.PoorlyExplained);
-                    experiment.removeAnnotation(CompoundQuality.class);
-                }
-                //todo what do we want todo if annotation is present? override or not?
-                experiment.setAnnotation(CompoundQuality.class, quality);
-            }
+            annotatePoorlyExplained(treeQualityEvaluator, experiment, treeCandidates);
             //limit number of candidates
             treeCandidates = applyMaxCandidateThreshold(experiment, treeCandidates);
             ms2ExperimentListEntry.setValue(treeCandidates);
@@ -251,11 +252,7 @@ public class ZodiacSubToolJob extends DataSetJob {
 //                    System.out.println(fr.getId().getFormula().toString() + sTress.get(fr.getAnnotationOrThrow(FTree.class)));
                 });
 
-                // set zodiac as ranking score
-                if (inst.getExperiment().getAnnotation(FormulaResultRankingScore.class).orElse(FormulaResultRankingScore.AUTO).isAuto()) {
-                    inst.getID().setRankingScoreTypes(ZodiacScore.class, SiriusScore.class);
-                    inst.updateCompoundID();
-                }
+                setZodiacRankingScore(inst, ZodiacScore.class);
             } catch (Throwable e) {
                 logError("Error when retrieving Zodiac Results for instance: " + inst.getID().getDirectoryName(), e);
             }
@@ -278,6 +275,165 @@ public class ZodiacSubToolJob extends DataSetJob {
 //        }
     }
 
+    /**
+     * ZODIAC on a {@link CompactZodiacGraph}: trees are loaded one instance at a time and reduced to their
+     * {@link ZodiacCandidateFeatures}, the Gibbs sampling state is checkpointed to the project-space.
+     * This is a simplified model, so the results are stored as {@link ZodiacLowMemoryScore} and not as
+     * {@link ZodiacScore}. See {@link ZodiacLowMemoryScore} for the differences.
+     */
+    private void computeAndAnnotateResultLowMemory(@NotNull List<Instance> instances) throws Exception {
+        logInfo("START ZODIAC JOB (low memory mode)");
+        instances = instances.stream().distinct().collect(Collectors.toList());
+        if (instances.isEmpty())
+            return;
+
+        final Ms2Experiment settings = instances.get(0).getExperiment();
+        maxCandidatesAt300 = settings.getAnnotationOrThrow(ZodiacNumberOfConsideredCandidatesAt300Mz.class).value;
+        maxCandidatesAt800 = settings.getAnnotationOrThrow(ZodiacNumberOfConsideredCandidatesAt800Mz.class).value;
+        forcedCandidatesPerIonizationRatio = settings.getAnnotationOrThrow(ZodiacRatioOfConsideredCandidatesPerIonization.class).value;
+        final ZodiacEpochs zodiacEpochs = settings.getAnnotationOrThrow(ZodiacEpochs.class);
+        final ZodiacEdgeFilterThresholds edgeFilterThresholds = settings.getAnnotationOrThrow(ZodiacEdgeFilterThresholds.class);
+        if (settings.getAnnotationOrThrow(ZodiacRunInTwoSteps.class).value || settings.getAnnotationOrThrow(ZodiacClusterCompounds.class).value)
+            logWarn("Two-step approach and compound clustering are not supported in low memory mode and will be ignored.");
+        if (edgeFilterThresholds.minLocalConnections > 0 || edgeFilterThresholds.minLocalCandidates > 0)
+            logWarn("Minimum number of local connections/candidates is not supported in low memory mode and will be ignored.");
+
+        //extract features and release the trees instance by instance
+        final TreeQualityEvaluator treeQualityEvaluator = new TreeQualityEvaluator(0.8, 5);
+        final ZodiacCandidateFeatures.FormulaDictionary dictionary = new ZodiacCandidateFeatures.FormulaDictionary();
+        final List<Instance> considered = new ArrayList<>();
+        final List<ZodiacCandidateFeatures[]> candidates = new ArrayList<>();
+        int numberOfCandidates = 0;
+        for (Instance inst : instances) {
+            checkForInterruption();
+            try {
+                final List<FormulaResult> results = inst.loadFormulaResults(List.of(SiriusScore.class), FormulaScoring.class, FTree.class)
+                        .stream().map(SScored::getCandidate).collect(Collectors.toList());
+                if (results.isEmpty())
+                    continue;
+                final Map<FTree, FormulaResult> resultByTree = new IdentityHashMap<>();
+                results.forEach(fr -> resultByTree.put(fr.getAnnotationOrThrow(FTree.class), fr));
+
+                final Ms2Experiment experiment = inst.getExperiment();
+                List<FTree> trees = results.stream().map(fr -> fr.getAnnotationOrThrow(FTree.class)).collect(Collectors.toList());
+                annotatePoorlyExplained(treeQualityEvaluator, experiment, trees);
+                trees = applyMaxCandidateThreshold(experiment, trees);
+
+                final ZodiacCandidateFeatures[] features = trees.stream().map(tree -> {
+                    final FormulaResult fr = resultByTree.get(tree);
+                    final double score = fr.getAnnotationOrThrow(FormulaScoring.class).getAnnotation(SiriusScore.class)
+                            .map(FormulaScore::score).orElse(tree.getTreeWeight());
+                    return ZodiacCandidateFeatures.of(fr.getId().fileName(), score, tree, dictionary);
+                }).toArray(ZodiacCandidateFeatures[]::new);
+                candidates.add(features);
+                considered.add(inst);
+                numberOfCandidates += features.length;
+            } finally {
+                inst.clearFormulaResultsCache();
+            }
+        }
+        logInfo("FEATURES OF " + numberOfCandidates + " CANDIDATES EXTRACTED.");
+        updateProgress(Math.round(.04 * maxProgress));
+        if (considered.isEmpty())
+            return;
+
+        final long fingerprint = fingerprint(considered, candidates, zodiacEpochs, edgeFilterThresholds);
+        final ZodiacCheckpoint checkpoint = cliOptions.checkpointInterval > 0
+                ? ZodiacCheckpoint.load(ZodiacCheckpoint.location(considered.get(0).getProjectSpaceManager().projectSpace().getLocation()),
+                fingerprint, zodiacEpochs.numberOfMarkovChains, considered.size(), numberOfCandidates)
+                : null;
+
+        checkForInterruption();
+        updateProgress(Math.round(.05 * maxProgress), "Building ZODIAC graph.");
+        final double[] scores;
+        try (CompactZodiacGraph graph = submitSubJob(CompactZodiacGraph.makeBuildJob(candidates, edgeFilterThresholds.thresholdFilter, fingerprint)).awaitResult()) {
+            checkForInterruption();
+            updateProgress(Math.round(.2 * maxProgress), "RUN ZODIAC");
+            scores = submitSubJob(new CheckpointedGibbsSampler(graph, zodiacEpochs.iterations, zodiacEpochs.burnInPeriod,
+                    zodiacEpochs.numberOfMarkovChains, cliOptions.checkpointInterval, fingerprint, checkpoint).makeComputeJob()).awaitResult();
+        }
+        if (checkpoint != null)
+            checkpoint.delete();
+
+        checkForInterruption();
+        updateProgress(Math.round(.9 * maxProgress));
+
+        //add score and set new Ranking score
+        int offset = 0;
+        for (int c = 0; c < considered.size(); c++) {
+            final Instance inst = considered.get(c);
+            final ZodiacCandidateFeatures[] features = candidates.get(c);
+            final Map<String, Double> scoreByResult = new HashMap<>(features.length);
+            for (int k = 0; k < features.length; k++)
+                scoreByResult.put(features[k].resultFileName, scores[offset + k]);
+            offset += features.length;
+
+            try {
+                inst.loadFormulaResults(FormulaScoring.class).stream().map(SScored::getCandidate).forEach(fr -> {
+                    final Double score = scoreByResult.get(fr.getId().fileName());
+                    fr.getAnnotationOrThrow(FormulaScoring.class).setAnnotation(ZodiacLowMemoryScore.class,
+                            score != null ? new ZodiacLowMemoryScore(score) : FormulaScore.NA(ZodiacLowMemoryScore.class));
+                    inst.updateFormulaResult(fr, FormulaScoring.class);
+                });
+                setZodiacRankingScore(inst, ZodiacLowMemoryScore.class);
+            } catch (Throwable e) {
+                logError("Error when retrieving Zodiac Results for instance: " + inst.getID().getDirectoryName(), e);
+            } finally {
+                inst.clearFormulaResultsCache();
+            }
+        }
+
+        if (cliOptions.summaryFile != null || cliOptions.bestMFSimilarityGraphFile != null)
+            logWarn("ZODIAC summary and similarity graph files are not supported in low memory mode.");
+    }
+
+    /**
+     * @return hash of the candidates and parameters that determine the sampling result. Used to validate checkpoints
+     * and as seed of the sampling.
+     */
+    private long fingerprint(List<Instance> instances, List<ZodiacCandidateFeatures[]> candidates, ZodiacEpochs epochs, ZodiacEdgeFilterThresholds thresholds) {
+        long h = 1125899906842597L;
+        for (int c = 0; c < instances.size(); c++) {
+            h = 31 * h + instances.get(c).getID().getDirectoryName().hashCode();
+            for (ZodiacCandidateFeatures f : candidates.get(c)) {
+                h = 31 * h + f.resultFileName.hashCode();
+                h = 31 * h + Double.hashCode(f.score);
+                h = 31 * h + Arrays.hashCode(f.fragments);
+                h = 31 * h + Arrays.hashCode(f.losses);
+            }
+        }
+        h = 31 * h + epochs.iterations;
+        h = 31 * h + epochs.burnInPeriod;
+        h = 31 * h + epochs.numberOfMarkovChains;
+        h = 31 * h + Double.hashCode(thresholds.thresholdFilter);
+        h = 31 * h + cliOptions.checkpointInterval;
+        return h;
+    }
+
+    private void annotatePoorlyExplained(TreeQualityEvaluator treeQualityEvaluator, Ms2Experiment experiment, List<FTree> treeCandidates) throws ExecutionException {
+        boolean isPoorlyExplained = submitSubJob(treeQualityEvaluator.makeIsAllCandidatesPoorlyExplainSpectrumJob(treeCandidates)).awaitResult();
+        if (isPoorlyExplained) {
+            //update if poorly explained
+            CompoundQuality quality = experiment.getAnnotationOrNull(CompoundQuality.class);
+            if (quality == null) {
+                quality = new CompoundQuality(CompoundQuality.CompoundQualityFlag.PoorlyExplained);
+            } else if (quality.isNot(CompoundQuality.CompoundQualityFlag.PoorlyExplained)) {
+                quality = quality.updateQuality(CompoundQuality.CompoundQualityFlag.PoorlyExplained);
+                experiment.removeAnnotation(CompoundQuality.class);
+            }
+            //todo what do we want todo if annotation is present? override or not?
+            experiment.setAnnotation(CompoundQuality.class, quality);
+        }
+    }
+
+    private void setZodiacRankingScore(Instance inst, Class<? extends FormulaScore> zodiacScoreType) {
+        // set zodiac as ranking score
+        if (inst.getExperiment().getAnnotation(FormulaResultRankingScore.class).orElse(FormulaResultRankingScore.AUTO).isAuto()) {
+            inst.getID().setRankingScoreTypes(zodiacScoreType, SiriusScore.class);
+            inst.updateCompoundID();
+        }
+    }
+
     private List<FTree> applyMaxCandidateThreshold(Ms2Experiment experiment, List<FTree> trees) {
         int numCandidates = numberOfCandidates(experiment.getIonMass());
         if (numCandidates < 0 || numCandidates >= trees.size()) return trees;
@@ -0,0 +1,109 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.webapi;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.canopus.CanopusResult;
+import de.unijena.bioinf.fingerid.CSIPredictor;
+import de.unijena.bioinf.fingerid.FingerIdResult;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.sirius.IdentificationResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * The part of the web service that is used by the prediction tools of the tool chain (fingerprint, CANOPUS and
+ * fingerblast), expressed as multi compound requests. Used by {@link WebBatching} to process batched requests
+ * of many instances at once. The default implementation is {@link WebAPIPredictionBackend}.
+ */
+public interface PredictionBackend {
+
+    /**
+     * @return one list of fingerprint predictions per request, in order of the requests.
+     */
+    List<List<FingerIdResult>> predictFingerprints(@NotNull List<FingerprintRequest> requests) throws Exception;
+
+    /**
+     * @return one CANOPUS prediction per request, in order of the requests.
+     */
+    List<CanopusResult> predictCanopus(@NotNull List<CanopusRequest> requests) throws Exception;
+
+    /**
+     * Searches structure candidates for the given requests. Results are annotated to the
+     * {@link FingerIdResult}s of the requests.
+     *
+     * @return the annotated {@link FingerIdResult}s per request, in order of the requests.
+     */
+    List<List<FingerIdResult>> searchStructures(@NotNull List<FingerblastRequest> requests) throws Exception;
+
+    /**
+     * Submits the jobs that process a request as sub jobs of the requesting job, so that cancelling the requesting
+     * job also cancels its part of a batch.
+     */
+    @FunctionalInterface
+    interface SubJobSubmitter {
+        void submitSubJob(@NotNull JJob<?> job);
+    }
+
+    class FingerprintRequest {
+        public final SubJobSubmitter submitter;
+        public final CSIPredictor predictor;
+        public final Ms2Experiment experiment;
+        public final List<? extends IdentificationResult<?>> idResults;
+
+        public FingerprintRequest(@NotNull SubJobSubmitter submitter, @NotNull CSIPredictor predictor, @NotNull Ms2Experiment experiment, @NotNull List<? extends IdentificationResult<?>> idResults) {
+            this.submitter = submitter;
+            this.predictor = predictor;
+            this.experiment = experiment;
+            this.idResults = idResults;
+        }
+    }
+
+    class CanopusRequest {
+        public final MolecularFormula formula;
+        public final int charge;
+        public final ProbabilityFingerprint fingerprint;
+        public final int specHash;
+
+        public CanopusRequest(@NotNull MolecularFormula formula, int charge, @NotNull ProbabilityFingerprint fingerprint, int specHash) {
+            this.formula = formula;
+            this.charge = charge;
+            this.fingerprint = fingerprint;
+            this.specHash = specHash;
+        }
+    }
+
+    class FingerblastRequest {
+        public final SubJobSubmitter submitter;
+        public final CSIPredictor predictor;
+        public final Ms2Experiment experiment;
+        public final List<FingerIdResult> idResults;
+
+        public FingerblastRequest(@NotNull SubJobSubmitter submitter, @NotNull CSIPredictor predictor, @NotNull Ms2Experiment experiment, @NotNull List<FingerIdResult> idResults) {
+            this.submitter = submitter;
+            this.predictor = predictor;
+            this.experiment = experiment;
+            this.idResults = idResults;
+        }
+    }
+}
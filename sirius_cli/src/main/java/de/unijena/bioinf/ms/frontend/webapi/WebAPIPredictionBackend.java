@@ -0,0 +1,107 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.webapi;
+
+import de.unijena.bioinf.canopus.CanopusResult;
+import de.unijena.bioinf.fingerid.FingerIdResult;
+import de.unijena.bioinf.fingerid.FingerblastJJob;
+import de.unijena.bioinf.fingerid.FingerprintJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
+import de.unijena.bioinf.ms.rest.model.canopus.CanopusJobInput;
+import de.unijena.bioinf.ms.webapi.WebJJob;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PredictionBackend} that uses {@link ApplicationCore#webAPI()}.
+ * <p>
+ * The web API client has no multi compound endpoints, so all requests of a batch are submitted back to back before
+ * any of them is awaited. This way the web jobs of a whole batch are pending on the server at the same time and
+ * are watched together by the web job watcher of the client instead of one instance after another.
+ * Fingerprint and fingerblast jobs are submitted as sub jobs of the requesting instance jobs (see
+ * {@link PredictionBackend.SubJobSubmitter}), so cancelling an instance still cancels its web requests.
+ */
+public class WebAPIPredictionBackend implements PredictionBackend {
+
+    @Override
+    public List<List<FingerIdResult>> predictFingerprints(@NotNull List<FingerprintRequest> requests) throws Exception {
+        final List<FingerprintJJob> jobs = new ArrayList<>(requests.size());
+        for (FingerprintRequest r : requests) {
+            final FingerprintJJob job = FingerprintJJob.of(r.predictor, ApplicationCore.webAPI(), r.experiment, r.idResults);
+            r.submitter.submitSubJob(job);
+            jobs.add(job);
+        }
+
+        return awaitAll(jobs, (i, job) -> job.awaitResult());
+    }
+
+    @Override
+    public List<CanopusResult> predictCanopus(@NotNull List<CanopusRequest> requests) throws Exception {
+        final List<WebJJob<CanopusJobInput, ?, CanopusResult, ?>> jobs = new ArrayList<>(requests.size());
+        for (CanopusRequest r : requests)
+            jobs.add(ApplicationCore.webAPI().submitCanopusJob(r.formula, r.charge, r.fingerprint, r.specHash));
+
+        return awaitAll(jobs, (i, job) -> job.awaitResult());
+    }
+
+    @Override
+    public List<List<FingerIdResult>> searchStructures(@NotNull List<FingerblastRequest> requests) throws Exception {
+        final List<JJob<?>> jobs = new ArrayList<>(requests.size());
+        for (FingerblastRequest r : requests) {
+            final FingerblastJJob job = new FingerblastJJob(r.predictor, ApplicationCore.webAPI(), r.experiment, r.idResults);
+            r.submitter.submitSubJob(job);
+            jobs.add(job);
+        }
+
+        return awaitAll(jobs, (i, job) -> {
+            job.awaitResult();
+            return requests.get(i).idResults;
+        });
+    }
+
+    @FunctionalInterface
+    private interface ResultExtractor<J extends JJob<?>, O> {
+        O extract(int index, J job) throws Exception;
+    }
+
+    /**
+     * Awaits the jobs of all requests of a batch. A failed or cancelled job fails only its own request.
+     */
+    private static <J extends JJob<?>, O> List<O> awaitAll(List<J> jobs, ResultExtractor<J, O> extractor) throws WebRequestBatcher.PartialBatchException {
+        final List<O> results = new ArrayList<>(jobs.size());
+        final Map<Integer, Throwable> failures = new HashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                results.add(extractor.extract(i, jobs.get(i)));
+            } catch (Exception e) {
+                results.add(null);
+                failures.put(i, e);
+            }
+        }
+        if (!failures.isEmpty())
+            throw new WebRequestBatcher.PartialBatchException(results, failures);
+        return results;
+    }
+}
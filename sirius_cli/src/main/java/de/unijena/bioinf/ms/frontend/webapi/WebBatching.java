@@ -0,0 +1,100 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.webapi;
+
+import de.unijena.bioinf.canopus.CanopusResult;
+import de.unijena.bioinf.fingerid.FingerIdResult;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Holds the {@link WebRequestBatcher}s that are shared by all fingerprint, CANOPUS and fingerblast
+ * {@link de.unijena.bioinf.ms.frontend.subtools.InstanceJob}s of the running SIRIUS instance.
+ * <p>
+ * Configuration via properties:
+ * {@code de.unijena.bioinf.sirius.web.batch.enabled}, {@code de.unijena.bioinf.sirius.web.batch.size} and
+ * {@code de.unijena.bioinf.sirius.web.batch.maxWait} (milliseconds).
+ * <p>
+ * Batching is disabled by default: the web API has no multi compound endpoints yet, so a batch is still sent as
+ * single compound requests and waiting for a batch to fill up only adds latency.
+ */
+public final class WebBatching {
+    public static final String PROPERTY_PREFIX = "de.unijena.bioinf.sirius.web.batch";
+
+    private static WebBatching INSTANCE = null;
+
+    public static synchronized WebBatching get() {
+        if (INSTANCE == null)
+            INSTANCE = new WebBatching(new WebAPIPredictionBackend(),
+                    PropertyManager.getInteger(PROPERTY_PREFIX + ".size", 50),
+                    PropertyManager.getInteger(PROPERTY_PREFIX + ".maxWait", 500));
+        return INSTANCE;
+    }
+
+    /**
+     * Replaces the shared batchers, e.g. to use a different {@link PredictionBackend}.
+     * Requests that are already pending are processed by the old batchers.
+     */
+    public static synchronized void set(@NotNull WebBatching batching) {
+        if (INSTANCE != null)
+            INSTANCE.flush();
+        INSTANCE = batching;
+    }
+
+    public static boolean isEnabled() {
+        return PropertyManager.getBoolean(PROPERTY_PREFIX + ".enabled", false);
+    }
+
+    private final PredictionBackend backend;
+    private final WebRequestBatcher<PredictionBackend.FingerprintRequest, List<FingerIdResult>> fingerprints;
+    private final WebRequestBatcher<PredictionBackend.CanopusRequest, CanopusResult> canopus;
+    private final WebRequestBatcher<PredictionBackend.FingerblastRequest, List<FingerIdResult>> fingerblast;
+
+    public WebBatching(@NotNull PredictionBackend backend, int batchSize, long maxWaitMillis) {
+        this.backend = backend;
+        fingerprints = new WebRequestBatcher<>("fingerprint", batchSize, maxWaitMillis, backend::predictFingerprints);
+        canopus = new WebRequestBatcher<>("canopus", batchSize, maxWaitMillis, backend::predictCanopus);
+        fingerblast = new WebRequestBatcher<>("fingerblast", batchSize, maxWaitMillis, backend::searchStructures);
+    }
+
+    public PredictionBackend getBackend() {
+        return backend;
+    }
+
+    public WebRequestBatcher<PredictionBackend.FingerprintRequest, List<FingerIdResult>> fingerprints() {
+        return fingerprints;
+    }
+
+    public WebRequestBatcher<PredictionBackend.CanopusRequest, CanopusResult> canopus() {
+        return canopus;
+    }
+
+    public WebRequestBatcher<PredictionBackend.FingerblastRequest, List<FingerIdResult>> fingerblast() {
+        return fingerblast;
+    }
+
+    public void flush() {
+        fingerprints.flush();
+        canopus.flush();
+        fingerblast.flush();
+    }
+}
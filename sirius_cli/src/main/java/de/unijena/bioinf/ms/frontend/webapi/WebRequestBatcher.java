@@ -0,0 +1,208 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.webapi;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects single requests of many {@link de.unijena.bioinf.ms.frontend.subtools.InstanceJob}s and hands them over
+ * to a {@link BatchHandler} as one batch. A batch is dispatched as soon as {@code batchSize} requests are pending
+ * or the oldest pending request has waited {@code maxWaitMillis}. Responses are split back to the futures of the
+ * single requests.
+ *
+ * @param <I> request type
+ * @param <O> response type
+ */
+public class WebRequestBatcher<I, O> {
+    @FunctionalInterface
+    public interface BatchHandler<I, O> {
+        /**
+         * @param batch requests to process
+         * @return one response per request in the same order as the requests.
+         */
+        List<O> process(@NotNull List<I> batch) throws Exception;
+    }
+
+    /**
+     * Thrown by a {@link BatchHandler} if only some requests of a batch failed, e.g. because the job that
+     * requested them has been cancelled. All other requests of the batch are completed normally.
+     */
+    public static class PartialBatchException extends Exception {
+        private final List<?> responses;
+        private final Map<Integer, Throwable> failures;
+
+        /**
+         * @param responses one response per request in the same order as the requests, failed requests may be null.
+         * @param failures  cause of failure by index of the failed request.
+         */
+        public PartialBatchException(@NotNull List<?> responses, @NotNull Map<Integer, Throwable> failures) {
+            super(failures.size() + " of " + responses.size() + " requests failed.");
+            this.responses = responses;
+            this.failures = failures;
+        }
+    }
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "WebRequestBatcher-Timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String name;
+    private final int batchSize;
+    private final long maxWaitMillis;
+    private final BatchHandler<I, O> handler;
+
+    private final List<Request<I, O>> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    //stats
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong batches = new AtomicLong(0);
+
+    public WebRequestBatcher(@NotNull String name, int batchSize, long maxWaitMillis, @NotNull BatchHandler<I, O> handler) {
+        this.name = name;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+        this.handler = handler;
+    }
+
+    public Future<O> submit(@NotNull I request) {
+        final Request<I, O> r = new Request<>(request);
+        List<Request<I, O>> toDispatch = null;
+        synchronized (pending) {
+            pending.add(r);
+            requests.incrementAndGet();
+            if (pending.size() >= batchSize) {
+                toDispatch = drain();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = TIMER.schedule(this::flush, maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (toDispatch != null)
+            dispatch(toDispatch);
+        return r.future;
+    }
+
+    /**
+     * Dispatches all pending requests immediately.
+     */
+    public void flush() {
+        final List<Request<I, O>> toDispatch;
+        synchronized (pending) {
+            toDispatch = drain();
+        }
+        dispatch(toDispatch);
+    }
+
+    // must be called while holding the pending lock
+    private List<Request<I, O>> drain() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        final List<Request<I, O>> batch = new ArrayList<>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    private void dispatch(List<Request<I, O>> batch) {
+        if (batch.isEmpty())
+            return;
+        batches.incrementAndGet();
+        SiriusJobs.getGlobalJobManager().submitJob(new BatchJob(batch));
+    }
+
+    public long getNumberOfRequests() {
+        return requests.get();
+    }
+
+    public long getNumberOfBatches() {
+        return batches.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private static class Request<I, O> {
+        private final I input;
+        private final CompletableFuture<O> future = new CompletableFuture<>();
+
+        private Request(I input) {
+            this.input = input;
+        }
+    }
+
+    private class BatchJob extends BasicJJob<Integer> {
+        private final List<Request<I, O>> batch;
+
+        private BatchJob(List<Request<I, O>> batch) {
+            super(JobType.SCHEDULER); // only waits for the web jobs submitted by the handler
+            this.batch = batch;
+        }
+
+        @Override
+        protected Integer compute() {
+            // requests that have been cancelled while waiting for the batch do not need to be processed
+            batch.removeIf(r -> r.future.isDone());
+            if (batch.isEmpty())
+                return 0;
+
+            final List<I> inputs = new ArrayList<>(batch.size());
+            batch.forEach(r -> inputs.add(r.input));
+            try {
+                final List<O> outputs = handler.process(inputs);
+                if (outputs == null || outputs.size() != inputs.size())
+                    throw new IllegalStateException("Batch handler of '" + name + "' returned "
+                            + (outputs == null ? "no" : outputs.size()) + " responses for " + inputs.size() + " requests.");
+                for (int i = 0; i < batch.size(); i++)
+                    batch.get(i).future.complete(outputs.get(i));
+            } catch (PartialBatchException e) {
+                LoggerFactory.getLogger(WebRequestBatcher.class).debug(e.failures.size() + " of " + batch.size() + " '" + name + "' requests failed.");
+                for (int i = 0; i < batch.size(); i++) {
+                    final Throwable failure = e.failures.get(i);
+                    if (failure != null)
+                        batch.get(i).future.completeExceptionally(failure);
+                    else
+                        batch.get(i).future.complete(castResponse(e.responses.get(i)));
+                }
+            } catch (Throwable e) {
+                LoggerFactory.getLogger(WebRequestBatcher.class).debug("Batch of " + batch.size() + " '" + name + "' requests failed.", e);
+                batch.forEach(r -> r.future.completeExceptionally(e));
+            }
+            return batch.size();
+        }
+
+        @SuppressWarnings("unchecked")
+        private O castResponse(Object response) {
+            return (O) response;
+        }
+    }
+}
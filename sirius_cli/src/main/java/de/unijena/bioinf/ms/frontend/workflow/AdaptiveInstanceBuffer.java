@@ -0,0 +1,232 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.workflow;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobProgressMerger;
+import de.unijena.bioinf.jjobs.JobStateEvent;
+import de.unijena.bioinf.jjobs.JobSubmitter;
+import de.unijena.bioinf.ms.frontend.subtools.DataSetJob;
+import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
+import de.unijena.bioinf.ms.frontend.subtools.ToolChainJob;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.projectspace.Instance;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Instance buffer that does not use a fixed number of instances in flight, but decides before each submission
+ * whether there is enough heap headroom left and whether the tools of the chain still need more work.
+ * <p>
+ * The given buffer size is used as initial target and the number of instances in flight may grow up to
+ * {@code maxBufferFactor * bufferSize} as long as the heap allows. It never drops below the number of CPU threads
+ * (bounded by the buffer size) except the heap is exhausted. No GC is forced, the buffer just waits until
+ * running instances have finished and memory has been released.
+ * <p>
+ * The heap needed per instance is estimated from the heap usage after garbage collections, minus the usage after
+ * the last collection before the buffer started (baseline), divided by the number of instances in flight.
+ * <p>
+ * The buffer is disabled by default ({@link #ENABLED_KEY}) until its parameters have been calibrated on real
+ * workloads.
+ */
+public class AdaptiveInstanceBuffer extends SimpleInstanceBuffer {
+    public static final String ENABLED_KEY = "de.unijena.bioinf.sirius.instanceBuffer.adaptive";
+    private static final long RECHECK_INTERVAL_MS = 250;
+
+    private final int minInFlight;
+    private final int maxInFlight;
+    private final double heapReserve;
+    private final int maxToolQueueDepth;
+
+    private final Map<String, AtomicInteger> toolQueueDepths = new ConcurrentHashMap<>();
+
+    private final List<MemoryPoolMXBean> heapPools;
+    private final List<GarbageCollectorMXBean> collectors;
+    // heap used after the last gc before the buffer started
+    private final long baselineHeap;
+    private long lastCollectionCount;
+
+    //exponential moving average of heap bytes retained per instance in flight
+    private double bytesPerInstance = -1;
+
+    public AdaptiveInstanceBuffer(int bufferSize, @NotNull Iterator<? extends Instance> instances, @NotNull List<InstanceJob.Factory<?>> tasks, @Nullable DataSetJob.Factory<?> dependJobFactory, @NotNull JobProgressMerger progressSupport, JobSubmitter jobSubmitter) {
+        super(bufferSize, instances, tasks, dependJobFactory, progressSupport, jobSubmitter);
+        final int cpus = Math.max(1, SiriusJobs.getGlobalJobManager().getCPUThreads());
+        final int initialSize = getBufferSize();
+        this.minInFlight = Math.max(1, Math.min(cpus, initialSize));
+        final int factor = Math.max(1, PropertyManager.getInteger(ENABLED_KEY + ".maxBufferFactor", 4));
+        this.maxInFlight = initialSize >= Integer.MAX_VALUE / factor ? Integer.MAX_VALUE : initialSize * factor;
+        this.heapReserve = Math.min(0.9, Math.max(0.01, PropertyManager.getDouble(ENABLED_KEY + ".heapReserve", .15)));
+        this.maxToolQueueDepth = Math.max(1, PropertyManager.getInteger(ENABLED_KEY + ".maxQueueDepthFactor", 2)) * cpus;
+        this.heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(p -> p.getType() == MemoryType.HEAP && p.isValid() && p.getCollectionUsage() != null).toList();
+        this.collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        this.lastCollectionCount = collectionCount();
+        final long afterGc = heapUsedAfterGc();
+        this.baselineHeap = afterGc >= 0 ? afterGc : Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    /**
+     * @return total number of garbage collections so far.
+     */
+    private long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : collectors)
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    /**
+     * @return heap used after the most recent collection of each heap pool or -1 if not supported by the JVM.
+     */
+    private long heapUsedAfterGc() {
+        if (heapPools.isEmpty())
+            return -1;
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            final MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null)
+                used += usage.getUsed();
+        }
+        return used;
+    }
+
+    @Override
+    protected void beforeInstanceSubmission() {
+        //no forced gc, we just wait for memory to become available.
+    }
+
+    @Override
+    protected boolean isBufferFull() {
+        final int running = getNumberOfRunningInstances();
+        if (running >= maxInFlight)
+            return true;
+
+        final Runtime rt = Runtime.getRuntime();
+        final long max = rt.maxMemory();
+        final long used = rt.totalMemory() - rt.freeMemory();
+        final long reserve = (long) (max * heapReserve);
+        final long headroom = max - used - reserve;
+
+        // only sample after a new gc, otherwise the usage contains garbage and the sample would repeat the last one.
+        final long collections = collectionCount();
+        if (collections != lastCollectionCount) {
+            lastCollectionCount = collections;
+            final long afterGc = heapUsedAfterGc();
+            if (running > 0 && afterGc >= 0) {
+                final double current = (double) Math.max(0, afterGc - baselineHeap) / running;
+                bytesPerInstance = bytesPerInstance < 0 ? current : (.8 * bytesPerInstance + .2 * current);
+            }
+        }
+
+        if (headroom <= 0) // heap exhausted, only keep going if nothing is running to ensure progress.
+            return running > 0;
+
+        if (running < minInFlight)
+            return false;
+
+        // every tool already has enough work queued -> more instances just occupy memory
+        if (isEveryToolSaturated())
+            return true;
+
+        return bytesPerInstance > 0 && headroom < bytesPerInstance;
+    }
+
+    private boolean isEveryToolSaturated() {
+        if (toolQueueDepths.isEmpty())
+            return false;
+        for (AtomicInteger depth : toolQueueDepths.values())
+            if (depth.get() < maxToolQueueDepth)
+                return false;
+        return true;
+    }
+
+    @Override
+    protected void awaitFreeSlot() throws InterruptedException {
+        // memory may be released without any instance finishing, so we have to recheck regularly.
+        isFull.await(RECHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The jobs of all tools of an instance are submitted at once, but only jobs whose predecessors have finished
+     * (they left the {@link JJob.JobState#WAITING} state) count towards the queue depth of their tool.
+     */
+    @Override
+    protected void beforeToolJobSubmission(@NotNull JJob<Instance> toolJob) {
+        final String toolName = toolJob instanceof ToolChainJob ? ((ToolChainJob<?>) toolJob).getToolName() : toolJob.getClass().getSimpleName();
+        final AtomicInteger depth = toolQueueDepths.computeIfAbsent(toolName, k -> new AtomicInteger(0));
+        final AtomicBoolean counted = new AtomicBoolean(false);
+        toolJob.addPropertyChangeListener(JobStateEvent.JOB_STATE_EVENT, evt -> {
+            if (!(evt instanceof JobStateEvent))
+                return;
+            final JJob<?> job = (JJob<?>) evt.getSource();
+            if (job.isFinished()) {
+                if (counted.getAndSet(false))
+                    depth.decrementAndGet();
+                lock.lock();
+                try {
+                    isFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } else if (job.getState() != JJob.JobState.WAITING && !counted.getAndSet(true)) {
+                depth.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * @return number of ready (not waiting for predecessors) but not yet finished jobs per tool of the chain.
+     */
+    public Map<String, Integer> getToolQueueDepths() {
+        final Map<String, Integer> depths = new ConcurrentHashMap<>();
+        toolQueueDepths.forEach((k, v) -> depths.put(k, v.get()));
+        return Collections.unmodifiableMap(depths);
+    }
+
+    @Override
+    public void start(boolean invalidate) throws InterruptedException {
+        LoggerFactory.getLogger(getClass()).info("Starting adaptive instance buffer with " + minInFlight + " to " + (maxInFlight == Integer.MAX_VALUE ? "unlimited" : String.valueOf(maxInFlight)) + " instances in flight.");
+        super.start(invalidate);
+    }
+
+    public static class Factory implements InstanceBufferFactory<AdaptiveInstanceBuffer> {
+        @Override
+        public AdaptiveInstanceBuffer create(int bufferSize, @NotNull Iterator<? extends Instance> instances, @NotNull List<InstanceJob.Factory<?>> tasks, @Nullable DataSetJob.Factory<?> dependJobFactory, @NotNull JobProgressMerger progressSupport) {
+            return new AdaptiveInstanceBuffer(bufferSize, instances, tasks, dependJobFactory, progressSupport, SiriusJobs.getGlobalJobManager());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.workflow;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobProgressMerger;
+import de.unijena.bioinf.jjobs.JobSubmitter;
+import de.unijena.bioinf.ms.frontend.subtools.DataSetJob;
+import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
+import de.unijena.bioinf.ms.frontend.subtools.ToolChainJob;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.projectspace.Instance;
+import org.apache.commons.lang3.time.StopWatch;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Instance buffer that runs the tool chain as a staged pipeline instead of one job chain per instance.
+ * <p>
+ * Every tool of the chain is a stage with its own bounded input queue and its own set of workers. The number of
+ * workers is chosen by the {@link JJob.JobType} of the tool job (CPU, WEBSERVICE, IO), so that CPU bound tools
+ * are not blocked by tools waiting for web service responses and vice versa. Full queues throttle the previous
+ * stage, so the number of instances in memory stays bounded by the sum of the queue capacities and workers.
+ */
+public class PipelinedInstanceBuffer implements InstanceBuffer {
+    public static final String ENABLED_KEY = "de.unijena.bioinf.sirius.instanceBuffer.pipeline";
+    private static final long POLL_INTERVAL_MS = 250;
+
+    private final Iterator<? extends Instance> instances;
+    private final List<Stage> stages;
+    private final DataSetJob dependJob;
+    protected final JobSubmitter jobSubmitter;
+    private final JobProgressMerger progressSupport;
+
+    private final AtomicBoolean isCanceled = new AtomicBoolean(false);
+    private final Set<JJob<?>> runningJobs = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicInteger instanceComputed = new AtomicInteger(0);
+    private boolean invalidate = false;
+
+    public PipelinedInstanceBuffer(@NotNull Iterator<? extends Instance> instances, @NotNull List<InstanceJob.Factory<?>> tasks, @Nullable DataSetJob.Factory<?> dependJobFactory, @NotNull JobProgressMerger progressSupport, @NotNull JobSubmitter jobSubmitter) {
+        this.instances = instances;
+        this.jobSubmitter = jobSubmitter;
+        this.progressSupport = progressSupport;
+        this.dependJob = dependJobFactory == null ? null : dependJobFactory.makeJob(this);
+        if (dependJob != null)
+            dependJob.addPropertyChangeListener(this.progressSupport);
+
+        final int queueFactor = Math.max(1, PropertyManager.getInteger(ENABLED_KEY + ".queueFactor", 2));
+        final List<Stage> stages = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            final InstanceJob.Factory<?> task = tasks.get(i);
+            // tool jobs define their type in the constructor, so we create a job just to ask for it.
+            final InstanceJob probe = task.makeJob(SiriusJobs.getGlobalJobManager());
+            final int workers = workersForType(probe.getType());
+            stages.add(new Stage(i, probe.getToolName(), probe.getType(), task, workers, workers * queueFactor));
+        }
+        this.stages = Collections.unmodifiableList(stages);
+    }
+
+    private static int workersForType(JJob.JobType type) {
+        final int cpus = Math.max(1, SiriusJobs.getGlobalJobManager().getCPUThreads());
+        switch (type) {
+            case WEBSERVICE:
+                return Math.max(1, PropertyManager.getInteger(ENABLED_KEY + ".webserviceWorkers", 2 * cpus));
+            case IO:
+                return Math.max(1, SiriusJobs.getGlobalJobManager().getIOThreads());
+            default:
+                return cpus;
+        }
+    }
+
+    @Override
+    public @Nullable DataSetJob getCollectorJob() {
+        return dependJob;
+    }
+
+    @Override
+    public void start(boolean invalidateInstances) throws InterruptedException {
+        this.invalidate = invalidateInstances;
+        final StopWatch w = new StopWatch();
+        w.start();
+
+        if (stages.isEmpty()) {
+            LoggerFactory.getLogger(getClass()).warn("No tools given. Nothing to compute!");
+            return;
+        }
+
+        final List<StageWorker> workers = new ArrayList<>();
+        for (Stage stage : stages) {
+            for (int i = 0; i < stage.numOfWorkers; i++)
+                workers.add(SiriusJobs.getGlobalJobManager().submitJob(new StageWorker(stage)));
+        }
+
+        LoggerFactory.getLogger(getClass()).info("Started instance pipeline with stages: " + stages.stream()
+                .map(s -> s.toolName + "(" + s.type + ", " + s.numOfWorkers + " workers)").collect(Collectors.joining(" -> ")));
+
+        long lastReport = System.currentTimeMillis();
+        try {
+            final Stage first = stages.get(0);
+            while (instances.hasNext()) {
+                checkForCancellation();
+                final Instance instance = instances.next();
+                while (!first.queue.offer(instance, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS))
+                    checkForCancellation();
+
+                if (System.currentTimeMillis() - lastReport > 60000) {
+                    logStageStatus(w);
+                    lastReport = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            LoggerFactory.getLogger(getClass()).info("Pipelined Job Submission Canceled. Awaiting Cancellation of running Jobs...");
+        } finally {
+            stages.get(0).close();
+        }
+
+        workers.forEach(it -> {
+            try {
+                it.awaitResult();
+            } catch (ExecutionException e) {
+                LoggerFactory.getLogger(getClass()).error("Pipeline worker of stage '" + it.stage.toolName + "' FAILED.", e);
+            }
+        });
+
+        LoggerFactory.getLogger(getClass()).info("Computed " + instanceComputed.get() + " instances in " + w + "(" + String.format("%,.2f", (instanceComputed.get() / (w.getTime() / 1000d / 60d))) + " instances/minute).");
+    }
+
+    private void logStageStatus(StopWatch w) {
+        LoggerFactory.getLogger(getClass()).info("Computed " + instanceComputed.get() + " instances ("
+                + String.format("%,.2f", (instanceComputed.get() / (w.getTime() / 1000d / 60d))) + " instances/minute). Queued per stage: "
+                + getStageQueueDepths().entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).collect(Collectors.joining(", ")));
+    }
+
+    /**
+     * @return number of instances waiting in the input queue of each stage, in order of the tool chain.
+     */
+    public Map<String, Integer> getStageQueueDepths() {
+        final Map<String, Integer> depths = new LinkedHashMap<>();
+        stages.forEach(s -> depths.put(s.index + ":" + s.toolName, s.queue.size()));
+        return Collections.unmodifiableMap(depths);
+    }
+
+    @Override
+    public void cancel() {
+        isCanceled.set(true);
+        stages.forEach(s -> s.queue.clear());
+        runningJobs.forEach(JJob::cancel);
+        if (dependJob != null)
+            dependJob.cancel();
+    }
+
+    @Override
+    public <Job extends JJob<Result>, Result> Job submitJob(Job job) {
+        return jobSubmitter.submitJob(job);
+    }
+
+    protected void checkForCancellation() throws InterruptedException {
+        if (isCanceled.get())
+            throw new InterruptedException("Was cancelled by external Thread");
+    }
+
+    private void finishInstance(@NotNull Instance instance) {
+        //cleanup is not really needed for CLI but for everything on top that might keep instances alive.
+        if (invalidate) {
+            instance.clearFormulaResultsCache();
+            instance.clearCompoundCache();
+        }
+        instanceComputed.incrementAndGet();
+    }
+
+    private class Stage {
+        final int index;
+        final String toolName;
+        final JJob.JobType type;
+        final InstanceJob.Factory<?> task;
+        final int numOfWorkers;
+        final BlockingQueue<Instance> queue;
+        final AtomicInteger activeWorkers;
+        volatile boolean closed = false;
+
+        Stage(int index, String toolName, JJob.JobType type, InstanceJob.Factory<?> task, int numOfWorkers, int capacity) {
+            this.index = index;
+            this.toolName = toolName;
+            this.type = type;
+            this.task = task;
+            this.numOfWorkers = numOfWorkers;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.activeWorkers = new AtomicInteger(numOfWorkers);
+        }
+
+        @Nullable Stage next() {
+            return index + 1 < stages.size() ? stages.get(index + 1) : null;
+        }
+
+        boolean isDrained() {
+            return closed && queue.isEmpty();
+        }
+
+        void close() {
+            closed = true;
+        }
+
+        void workerFinished() {
+            if (activeWorkers.decrementAndGet() == 0) {
+                final Stage next = next();
+                if (next != null)
+                    next.close();
+            }
+        }
+    }
+
+    private class StageWorker extends BasicJJob<Integer> {
+        private final Stage stage;
+
+        StageWorker(Stage stage) {
+            super(JobType.SCHEDULER);
+            this.stage = stage;
+        }
+
+        @Override
+        protected Integer compute() throws Exception {
+            int processed = 0;
+            try {
+                while (!stage.isDrained() && !isCanceled.get()) {
+                    final Instance instance = stage.queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (instance == null)
+                        continue;
+
+                    processed++;
+                    final InstanceJob toolJob = stage.task.createToolJob((DymmyExpResultJob) () -> instance);
+                    toolJob.addPropertyChangeListener(progressSupport);
+                    final Stage next = stage.next();
+                    if (next == null && dependJob != null)
+                        dependJob.addRequiredJob(toolJob);
+
+                    runningJobs.add(toolJob);
+                    try {
+                        submitJob(toolJob).awaitResult();
+                    } catch (ExecutionException e) {
+                        logJobFailure(toolJob, instance, e);
+                        // failed instances are passed to the collector so that it can report them.
+                        if (next != null && dependJob != null)
+                            dependJob.addRequiredJob(toolJob);
+                        finishInstance(instance);
+                        continue;
+                    } finally {
+                        runningJobs.remove(toolJob);
+                    }
+
+                    if (next == null) {
+                        finishInstance(instance);
+                    } else {
+                        while (!next.queue.offer(instance, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS))
+                            if (isCanceled.get())
+                                return processed;
+                    }
+                }
+            } finally {
+                stage.workerFinished();
+            }
+            return processed;
+        }
+
+        private void logJobFailure(ToolChainJob<?> j, Instance instance, ExecutionException e) {
+            if (j.getState().equals(JJob.JobState.CANCELED)) {
+                j.logWarn("ToolChain Job canceled on Instance '" + instance.getID() + "' due to: " + e.getMessage());
+            } else if (j.getState().equals(JJob.JobState.FAILED)) {
+                j.logError("ToolChain Job failed on Instance '" + instance.getID() + "' due to: " + e.getMessage());
+                j.logDebug("ToolChain Job failed: ", e);
+            } else {
+                LoggerFactory.getLogger(getClass()).debug("ToolChain Job Exception with state '" + j.getState() + ".", e);
+            }
+        }
+    }
+
+    public static class Factory implements InstanceBufferFactory<PipelinedInstanceBuffer> {
+        @Override
+        public PipelinedInstanceBuffer create(int bufferSize, @NotNull Iterator<? extends Instance> instances, @NotNull List<InstanceJob.Factory<?>> tasks, @Nullable DataSetJob.Factory<?> dependJobFactory, @NotNull JobProgressMerger progressSupport) {
+            return new PipelinedInstanceBuffer(instances, tasks, dependJobFactory, progressSupport, SiriusJobs.getGlobalJobManager());
+        }
+    }
+}
@@ -88,25 +88,18 @@ public class SimpleInstanceBuffer implements InstanceBuffer, JobSubmitter {
                 { // calculate current throughput
                     final int snap = instanceComputed.get();
                     if ((snap - lastCheck) > 10) {
-                        System.out.println("########################################");
-                        System.out.println("## Computed " + snap + " instances. Current throughput: " + String.format("%,.2f", (snap / (w.getTime() / 1000d / 60d))) + " instances/minute");
-                        System.out.println("########################################");
+                        LoggerFactory.getLogger(getClass()).info("Computed " + snap + " instances. Current throughput: " + String.format("%,.2f", (snap / (w.getTime() / 1000d / 60d))) + " instances/minute");
                         lastCheck = snap;
                     }
                 }
 
-                { //gc hint
-                    if (instanceComputed.get() % bufferSize == 0) {
-                        System.gc(); //hint for the gc to collect som trash after computations
-                        System.runFinalization();
-                    }
-                }
+                beforeInstanceSubmission();
 
                 lock.lock();
                 try {
                     //wait for free slot in buffer if it is full
-                    while (runningInstances.size() >= bufferSize) {
-                        isFull.await();
+                    while (isBufferFull()) {
+                        awaitFreeSlot();
                         checkForCancellation();
                     }
 
@@ -118,6 +111,7 @@ public class SimpleInstanceBuffer implements InstanceBuffer, JobSubmitter {
                     for (InstanceJob.Factory<?> task : tasks) {
                         jobToWaitOn = task.createToolJob(jobToWaitOn);
                         jobToWaitOn.addPropertyChangeListener(progressSupport);
+                        beforeToolJobSubmission(jobToWaitOn);
                         submitJob(jobToWaitOn);
                         collector.addRequiredJob(jobToWaitOn);
                     }
@@ -160,9 +154,48 @@ public class SimpleInstanceBuffer implements InstanceBuffer, JobSubmitter {
             }
         });
 
-        System.out.println("########################################");
-        System.out.println("## Computed " + instanceComputed.get() + " instances in " + w + "(" + String.format("%,.2f", (instanceComputed.get() / (w.getTime() / 1000d / 60d))) + " instances/minute).");
-        System.out.println("########################################");
+        LoggerFactory.getLogger(getClass()).info("Computed " + instanceComputed.get() + " instances in " + w + "(" + String.format("%,.2f", (instanceComputed.get() / (w.getTime() / 1000d / 60d))) + " instances/minute).");
+    }
+
+    /**
+     * Called (without holding the buffer lock) before the next instance is requested from the iterator.
+     * Default implementation gives the GC a hint after every {@code bufferSize} computed instances.
+     */
+    protected void beforeInstanceSubmission() {
+        if (instanceComputed.get() % bufferSize == 0) {
+            System.gc(); //hint for the gc to collect som trash after computations
+            System.runFinalization();
+        }
+    }
+
+    /**
+     * Called while holding the buffer lock.
+     * @return true if no further instance may be submitted until a running one has finished.
+     */
+    protected boolean isBufferFull() {
+        return runningInstances.size() >= bufferSize;
+    }
+
+    /**
+     * Called while holding the buffer lock if {@link #isBufferFull()} is true.
+     * Blocks until a running instance signals that it has finished.
+     */
+    protected void awaitFreeSlot() throws InterruptedException {
+        isFull.await();
+    }
+
+    /**
+     * Called for each {@link InstanceJob} of the tool chain right before it is submitted.
+     */
+    protected void beforeToolJobSubmission(@NotNull JJob<Instance> toolJob) {
+    }
+
+    protected int getBufferSize() {
+        return bufferSize;
+    }
+
+    protected int getNumberOfRunningInstances() {
+        return runningInstances.size();
     }
 
     @Override
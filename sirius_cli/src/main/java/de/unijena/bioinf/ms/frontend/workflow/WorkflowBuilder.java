@@ -25,6 +25,7 @@ import de.unijena.bioinf.ms.frontend.subtools.*;
 import de.unijena.bioinf.ms.frontend.subtools.canopus.CanopusOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.custom_db.CustomDBOptions;
+import de.unijena.bioinf.ms.frontend.subtools.daemon.DaemonOptions;
 import de.unijena.bioinf.ms.frontend.subtools.decomp.DecompOptions;
 import de.unijena.bioinf.ms.frontend.subtools.export.mgf.MgfExporterOptions;
 import de.unijena.bioinf.ms.frontend.subtools.export.tables.ExportPredictionsOptions;
@@ -38,17 +39,20 @@ import de.unijena.bioinf.ms.frontend.subtools.passatutto.PassatuttoOptions;
 import de.unijena.bioinf.ms.frontend.subtools.projectspace.ProjecSpaceOptions;
 import de.unijena.bioinf.ms.frontend.subtools.settings.SettingsOptions;
 import de.unijena.bioinf.ms.frontend.subtools.similarity.SimilarityMatrixOptions;
+import de.unijena.bioinf.ms.frontend.subtools.spectra_search.SpectraSearchOption;
 import de.unijena.bioinf.ms.frontend.subtools.sirius.SiriusOptions;
 import de.unijena.bioinf.ms.frontend.subtools.summaries.SummaryOptions;
 import de.unijena.bioinf.ms.frontend.subtools.zodiac.ZodiacOptions;
 import de.unijena.bioinf.ms.frontend.utils.AutoCompletionScript;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -93,9 +97,11 @@ public class WorkflowBuilder<R extends RootOptions<?, ?, ?, ?>> {
     public final CustomDBOptions customDBOptions;
     public final ProjecSpaceOptions projectSpaceOptions; // this is also singleton
     public final SimilarityMatrixOptions similarityMatrixOptions;
+    public final SpectraSearchOption spectraSearchOptions;
     public final DecompOptions decompOptions;
     public final LoginOptions loginOptions;
     public final SettingsOptions settingsOptions;
+    public final DaemonOptions daemonOptions;
 
     public final FingerprinterOptions fingerprinterOptions;
 
@@ -136,6 +142,7 @@ public class WorkflowBuilder<R extends RootOptions<?, ?, ?, ?>> {
         customDBOptions = new CustomDBOptions();
         projectSpaceOptions = new ProjecSpaceOptions();
         similarityMatrixOptions = new SimilarityMatrixOptions();
+        spectraSearchOptions = new SpectraSearchOption();
         decompOptions = new DecompOptions();
         mgfExporterOptions = new MgfExporterOptions();
         ftreeExporterOptions = new FTreeExporterOptions();
@@ -143,44 +150,90 @@ public class WorkflowBuilder<R extends RootOptions<?, ?, ?, ?>> {
         exportPredictions = new ExportPredictionsOptions();
         loginOptions = new LoginOptions();
         settingsOptions = new SettingsOptions();
+        daemonOptions = new DaemonOptions();
         autocompleteOptions = new AutoCompletionScript();
         fingerprinterOptions = new FingerprinterOptions();
     }
 
     public void initRootSpec() {
+        initRootSpec(null);
+    }
+
+    /**
+     * Builds the picocli model of all (sub)tools.
+     *
+     * @param args the command line that will be parsed with this spec. If given, only the specs of
+     *             subcommands whose name (or alias) occurs in the command line are built. Building the specs
+     *             of all tools (and the config tool with one option per default config key) is the dominating part
+     *             of argument parsing. If null, empty, if help is requested or if the command line contains
+     *             an @argfile the full model is built.
+     */
+    public void initRootSpec(@Nullable String[] args) {
         System.setProperty("picocli.color.commands", "bold,blue");
         if (rootSpec != null)
             throw new IllegalStateException("Root spec already initialized");
 
-        final CommandLine.Model.CommandSpec summarySpec = forAnnotatedObjectWithSubCommands(summaryOptions);
+        final Predicate<Class<?>> required = requiredCommands(args);
+
+        final CommandLine.Model.CommandSpec summarySpec = required.test(summaryOptions.getClass())
+                ? forAnnotatedObjectWithSubCommands(summaryOptions) : null;
+        final CommandLine.Model.CommandSpec[] postProcessors = Stream.of(summarySpec).filter(Objects::nonNull)
+                .toArray(CommandLine.Model.CommandSpec[]::new);
 
         // define execution order and dependencies of different Subtools
-        final Map<Class<? extends ToolChainOptions>, CommandLine.Model.CommandSpec> chainToolSpecs = configureChainTools(summarySpec);
+        final Map<Class<? extends ToolChainOptions>, CommandLine.Model.CommandSpec> chainToolSpecs = configureChainTools(required, postProcessors);
 
-        final CommandLine.Model.CommandSpec lcmsAlignSpec = forAnnotatedObjectWithSubCommands(lcmsAlignOptions, chainToolSpecs.get(SiriusOptions.class));
+        final CommandLine.Model.CommandSpec lcmsAlignSpec = required.test(lcmsAlignOptions.getClass())
+                ? forAnnotatedObjectWithSubCommands(lcmsAlignOptions, Stream.of(chainToolSpecs.get(SiriusOptions.class)).filter(Objects::nonNull).toArray())
+                : null;
 
-        Object[] standaloneTools = standaloneTools();
+        Object[] standaloneTools = Arrays.stream(standaloneTools()).filter(t -> required.test(t.getClass())).toArray();
 
-        final CommandLine.Model.CommandSpec configSpec = forAnnotatedObjectWithSubCommands(configOptionLoader.asCommandSpec(),
-                Stream.concat(Stream.concat(Stream.of(lcmsAlignSpec), chainToolSpecs.values().stream()), Stream.concat(Arrays.stream(standaloneTools), Stream.of(summarySpec))).toArray());
+        final CommandLine.Model.CommandSpec configSpec = required.test(DefaultParameterConfigLoader.ConfigOptions.class)
+                ? forAnnotatedObjectWithSubCommands(configOptionLoader.asCommandSpec(),
+                Stream.concat(Stream.concat(Stream.of(lcmsAlignSpec), chainToolSpecs.values().stream()), Stream.concat(Arrays.stream(standaloneTools), Stream.of(summarySpec))).filter(Objects::nonNull).toArray())
+                : null;
 
         rootSpec = forAnnotatedObjectWithSubCommands(this.rootOptions,
-                Stream.concat(Stream.concat(Stream.concat(Stream.of(configSpec), Stream.of(standaloneTools())), Stream.of(summarySpec, lcmsAlignSpec)), chainToolSpecs.values().stream()).toArray()
+                Stream.concat(Stream.concat(Stream.concat(Stream.of(configSpec), Stream.of(standaloneTools)), Stream.of(summarySpec, lcmsAlignSpec)), chainToolSpecs.values().stream()).filter(Objects::nonNull).toArray()
         );
     }
 
+    private static final Set<String> HELP_TOKENS = Set.of("-h", "--help", "-V", "--version", "help");
+
+    /**
+     * @return predicate that decides based on the {@link CommandLine.Command} annotation whether the spec of a
+     * command may be needed to parse the given args. Tools without annotation are always considered as needed.
+     */
+    protected static Predicate<Class<?>> requiredCommands(@Nullable String[] args) {
+        if (args == null || args.length == 0)
+            return c -> true;
+        final Set<String> tokens = new HashSet<>(Arrays.asList(args));
+        if (tokens.stream().anyMatch(HELP_TOKENS::contains))
+            return c -> true;
+        // picocli expands @argfiles during parsing, so the subcommands they contain are not visible here
+        if (tokens.stream().anyMatch(t -> t.startsWith("@")))
+            return c -> true;
+        return commandClass -> {
+            final CommandLine.Command command = commandClass.getAnnotation(CommandLine.Command.class);
+            if (command == null)
+                return true;
+            return tokens.contains(command.name()) || Arrays.stream(command.aliases()).anyMatch(tokens::contains);
+        };
+    }
+
     protected Object[] standaloneTools() {
         return Streams.concat(
-                Stream.of(projectSpaceOptions, customDBOptions, similarityMatrixOptions, decompOptions, mgfExporterOptions, ftreeExporterOptions, exportPredictions, fingerprinterOptions),
-                additionalTools.stream(), Stream.of(loginOptions, settingsOptions, autocompleteOptions)
+                Stream.of(projectSpaceOptions, customDBOptions, similarityMatrixOptions, spectraSearchOptions, decompOptions, mgfExporterOptions, ftreeExporterOptions, exportPredictions, fingerprinterOptions),
+                additionalTools.stream(), Stream.of(loginOptions, settingsOptions, daemonOptions, autocompleteOptions)
         ).toArray(Object[]::new);
 
     }
 
-    protected Map<Class<? extends ToolChainOptions>, CommandLine.Model.CommandSpec> configureChainTools(CommandLine.Model.CommandSpec... postProcessors) {
+    protected Map<Class<? extends ToolChainOptions>, CommandLine.Model.CommandSpec> configureChainTools(Predicate<Class<?>> required, CommandLine.Model.CommandSpec... postProcessors) {
         final Map<Class<? extends ToolChainOptions>, CommandLine.Model.CommandSpec> specs = new LinkedHashMap<>();
         //inti command specs
-        toolChainTools.values().forEach(t -> {
+        toolChainTools.values().stream().filter(t -> required.test(t.getClass())).forEach(t -> {
             final CommandLine.Model.CommandSpec parentSpec = CommandLine.Model.CommandSpec.forAnnotatedObject(t);
             new ArrayList<>(parentSpec.options()).stream().filter(it -> DefaultParameter.class.isAssignableFrom(it.type())).forEach(opt -> {
                 parentSpec.remove(opt);
@@ -191,13 +244,13 @@ public class WorkflowBuilder<R extends RootOptions<?, ?, ?, ?>> {
         });
 
         //add possible subtools
-        toolChainTools.values().forEach(parent -> {
+        toolChainTools.values().stream().filter(parent -> specs.containsKey(parent.getClass())).forEach(parent -> {
             CommandLine.Model.CommandSpec parentSpec = specs.get(parent.getClass());
-            parent.getSubCommands().stream().map(specs::get).forEach(subSpec -> parentSpec.addSubcommand(subSpec.name(), subSpec));
+            parent.getSubCommands().stream().map(specs::get).filter(Objects::nonNull).forEach(subSpec -> parentSpec.addSubcommand(subSpec.name(), subSpec));
         });
 
         //add possible postprocessors
-        toolChainTools.values().forEach(parent -> {
+        toolChainTools.values().stream().filter(parent -> specs.containsKey(parent.getClass())).forEach(parent -> {
             CommandLine.Model.CommandSpec parentSpec = specs.get(parent.getClass());
             for (CommandLine.Model.CommandSpec postCommandSpec : postProcessors)
                 parentSpec.addSubcommand(postCommandSpec.name(), postCommandSpec);
@@ -0,0 +1,757 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.FormulaScore;
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.SScored;
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.chem.RetentionTime;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.GibbsSampling.ZodiacScore;
+import de.unijena.bioinf.chemdb.ChemDBs;
+import de.unijena.bioinf.chemdb.CompoundCandidate;
+import de.unijena.bioinf.elgordo.LipidSpecies;
+import de.unijena.bioinf.fingerid.blast.FBCandidates;
+import de.unijena.bioinf.fingerid.blast.TopCSIScore;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.sirius.scores.SiriusScore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Memory mapped, columnar sidecar index of a project-space that holds the per compound values needed for filtering,
+ * sorting and listing (m/z, RT, ion type, top formulas, top scores, confidence, database flags and lipid class).
+ * Querying the index does not touch the per compound files of the project-space.
+ * <p>
+ * Rows are stored in blocks of {@link #BLOCK_ROWS} rows, each block is organized column-wise. Strings (directory
+ * names, formulas, adducts, lipid classes) are dictionary encoded, the dictionary is written next to the index file.
+ * <p>
+ * Values derived from the compound id are updated immediately, values derived from formula results are marked as
+ * stale on every formula result change and reloaded lazily on the next access (or by {@link #makeRefreshJob()}).
+ * Every row stores a modification stamp of the files of its compound, taken when the index is opened. Compounds that
+ * have been changed while the index was not open (e.g. by a process that could not lock the index) have a different
+ * stamp on the next open and are marked as stale.
+ * If the index is missing, was not closed properly or has an incompatible layout, it is rebuilt from the project-space.
+ */
+public class CompoundIndex implements Closeable {
+    public static final String FILE_NAME = ".compound-index";
+    public static final String DICT_SUFFIX = ".dict";
+    public static final int MAX_DB_CANDIDATES = 10;
+
+    private static final int MAGIC = 0x53434958;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int BLOCK_ROWS = 4096;
+
+    // 8 byte columns
+    private static final int MZ = 0, RT_SECONDS = 1, RT_MIDDLE = 2, CONFIDENCE = 3, SIRIUS_SCORE = 4, ZODIAC_SCORE = 5, CSI_SCORE = 6,
+            STAMP = 7;
+    private static final int DB_FLAGS = 8; // MAX_DB_CANDIDATES columns
+    private static final int NUM_WIDE_COLS = DB_FLAGS + MAX_DB_CANDIDATES;
+    // 4 byte columns
+    private static final int KEY = 0, STATE = 1, ION_TYPE = 2, FORMULA = 3, PRECURSOR_FORMULA = 4, ADDUCT = 5,
+            CSI_FORMULA = 6, CSI_PRECURSOR_FORMULA = 7, CSI_ADDUCT = 8, LIPID_CLASS = 9, DB_CANDIDATES = 10;
+    private static final int NUM_INT_COLS = 11;
+
+    private static final long WIDE_AREA_BYTES = (long) NUM_WIDE_COLS * BLOCK_ROWS * Long.BYTES;
+    private static final long BLOCK_BYTES = WIDE_AREA_BYTES + (long) NUM_INT_COLS * BLOCK_ROWS * Integer.BYTES;
+
+    private static final int EMPTY = 0, VALID = 1, STALE = 2;
+
+    private final SiriusProjectSpace space;
+    private final Path location;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private MappedByteBuffer buffer;
+    private int numRows;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> rowByKey = new HashMap<>();
+    private final ArrayDeque<Integer> freeRows = new ArrayDeque<>();
+    // incremented on every invalidation, to detect changes while stale rows are reloaded
+    private int[] versions = new int[BLOCK_ROWS];
+
+    private final List<String> dict = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final Map<String, Optional<MolecularFormula>> parsedFormulas = new ConcurrentHashMap<>();
+    private final Map<String, Optional<PrecursorIonType>> parsedIonTypes = new ConcurrentHashMap<>();
+
+    private final List<ContainerListener.Defined> listeners = new ArrayList<>();
+
+    /**
+     * Opens the index of the given project-space or creates it if it does not exist. The index is synchronized with
+     * the compounds of the project-space, formula result based values of new or changed compounds are marked as stale.
+     *
+     * @throws IOException if the index cannot be created or is locked by another process.
+     */
+    public static CompoundIndex open(@NotNull SiriusProjectSpace space) throws IOException {
+        return new CompoundIndex(space, sidecarLocation(space.getLocation()));
+    }
+
+    /**
+     * @return location of the index file for a project-space at the given location. Inside the project directory or
+     * next to a compressed project-space.
+     */
+    public static Path sidecarLocation(@NotNull Path projectLocation) {
+        return Files.isDirectory(projectLocation)
+                ? projectLocation.resolve(FILE_NAME)
+                : projectLocation.resolveSibling(projectLocation.getFileName().toString() + FILE_NAME);
+    }
+
+    private CompoundIndex(SiriusProjectSpace space, Path location) throws IOException {
+        this.space = space;
+        this.location = location;
+        this.channel = FileChannel.open(location, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            channel.close();
+            throw new IOException("Compound index '" + location + "' is already opened.", e);
+        }
+        if (fileLock == null) {
+            channel.close();
+            throw new IOException("Compound index '" + location + "' is used by another process.");
+        }
+        try {
+            final boolean clean = readHeaderAndDict();
+            synchronize(clean);
+            writeHeader(false); // marked clean again on close, a crash leads to a rebuild.
+            registerListeners();
+        } catch (IOException | RuntimeException e) {
+            fileLock.release();
+            channel.close();
+            throw e;
+        }
+    }
+
+    private boolean readHeaderAndDict() throws IOException {
+        final long size = channel.size();
+        if (size >= HEADER_BYTES) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            final boolean compatible = buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                    && buffer.getInt(8) == MAX_DB_CANDIDATES && buffer.getInt(12) == BLOCK_ROWS;
+            final int rows = buffer.getInt(16);
+            final boolean clean = buffer.getInt(20) == 1;
+            final Path dictFile = location.resolveSibling(location.getFileName() + DICT_SUFFIX);
+            if (compatible && clean && rows >= 0 && capacity() >= rows && Files.exists(dictFile)) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dictFile)))) {
+                    final int n = in.readInt();
+                    for (int i = 0; i < n; i++)
+                        encode(in.readUTF());
+                    numRows = rows;
+                    return true;
+                } catch (IOException e) {
+                    LoggerFactory.getLogger(getClass()).warn("Could not read compound index dictionary. Rebuilding index.", e);
+                    dict.clear();
+                    codes.clear();
+                }
+            }
+            if (!compatible || rows < 0)
+                LoggerFactory.getLogger(getClass()).info("Compound index '" + location + "' is incompatible. Rebuilding index.");
+            else
+                LoggerFactory.getLogger(getClass()).info("Compound index '" + location + "' is outdated. Rebuilding index.");
+        }
+        // rebuild from scratch
+        numRows = 0;
+        channel.truncate(0);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + BLOCK_BYTES);
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, MAX_DB_CANDIDATES).putInt(12, BLOCK_ROWS);
+        return false;
+    }
+
+    private void writeHeader(boolean clean) {
+        buffer.putInt(16, numRows).putInt(20, clean ? 1 : 0);
+        buffer.force();
+    }
+
+    /**
+     * Removes rows of compounds that do not exist anymore and adds (stale) rows for compounds that are not indexed.
+     * If the index was not closed properly all rows are marked as stale, otherwise the rows of compounds whose files
+     * have been modified since the index has been opened the last time.
+     */
+    private void synchronize(boolean clean) {
+        final Set<String> existing = new HashSet<>();
+        final List<CompoundContainerId> ids = new ArrayList<>();
+        space.forEach(ids::add);
+        ids.forEach(id -> existing.add(id.getDirectoryName()));
+        final Map<String, Long> stamps = readStamps(existing);
+
+        for (int row = 0; row < numRows; row++) {
+            if (getInt(row, STATE) == EMPTY) {
+                freeRows.add(row);
+                continue;
+            }
+            final String key = decode(getInt(row, KEY));
+            if (key == null || !existing.contains(key) || rowByKey.containsKey(key)) {
+                putInt(row, STATE, EMPTY);
+                freeRows.add(row);
+            } else {
+                rowByKey.put(key, row);
+                // unknown stamps (0) never match
+                final long stamp = stamps.getOrDefault(key, 0L);
+                if (!clean || stamp == 0 || getLong(row, STAMP) != stamp)
+                    putInt(row, STATE, STALE);
+            }
+        }
+
+        for (CompoundContainerId id : ids) {
+            final Integer row = rowByKey.get(id.getDirectoryName());
+            final int r = row != null ? row : addRow(id.getDirectoryName());
+            putIdValues(r, id);
+            putLong(r, STAMP, stamps.getOrDefault(id.getDirectoryName(), 0L));
+        }
+        final int stale = (int) rowByKey.values().stream().filter(row -> getInt(row, STATE) == STALE).count();
+        if (stale > 0)
+            LoggerFactory.getLogger(getClass()).info("Compound index: " + stale + " of " + rowByKey.size() + " compounds need to be (re)indexed.");
+    }
+
+    /**
+     * Modification stamps of the files of the given compounds, combined from the latest modification time, the total
+     * size and the number of their files. Compressed project-spaces are read from the archive on disk, i.e. in the
+     * state of the last time the project-space has been closed.
+     *
+     * @return stamp by compound directory name. Compounds whose files could not be read are missing.
+     */
+    private Map<String, Long> readStamps(Set<String> dirNames) {
+        final Path projectLocation = space.getLocation();
+        if (Files.isDirectory(projectLocation))
+            return readStamps(projectLocation, dirNames);
+        try (FileSystem archive = FileSystems.newFileSystem(projectLocation)) {
+            return readStamps(archive.getRootDirectories().iterator().next(), dirNames);
+        } catch (IOException | RuntimeException e) {
+            LoggerFactory.getLogger(getClass()).warn("Could not read modification times of compressed project-space '" + projectLocation + "'. All compounds will be reindexed.", e);
+            return Map.of();
+        }
+    }
+
+    private Map<String, Long> readStamps(Path root, Set<String> dirNames) {
+        final Map<String, Long> stamps = new HashMap<>(dirNames.size());
+        for (String dirName : dirNames) {
+            long lastModified = 0, size = 0, files = 0;
+            try (Stream<Path> walk = Files.walk(root.resolve(dirName))) {
+                for (Path file : (Iterable<Path>) walk::iterator) {
+                    final BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+                    lastModified = Math.max(lastModified, attr.lastModifiedTime().toMillis());
+                    size += attr.isRegularFile() ? attr.size() : 0;
+                    files++;
+                }
+            } catch (IOException | UncheckedIOException e) {
+                LoggerFactory.getLogger(getClass()).debug("Could not read modification time of compound '" + dirName + "'.", e);
+                continue;
+            }
+            stamps.put(dirName, ((lastModified * 31) + size) * 31 + files);
+        }
+        return stamps;
+    }
+
+    private void registerListeners() {
+        listeners.add(space.defineCompoundListener().onCreate().thenDo(event -> {
+            final CompoundContainerId id = event.getAffectedID();
+            lock.writeLock().lock();
+            try {
+                final Integer row = rowByKey.get(id.getDirectoryName());
+                final int r = row != null ? row : addRow(id.getDirectoryName());
+                putIdValues(r, id);
+                // a new compound has no results, copied compounds fire result events afterwards.
+                putResultValues(r, new ResultValues());
+                putInt(r, STATE, VALID);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }).register());
+
+        listeners.add(space.defineCompoundListener().onDelete().thenDo(event -> remove(event.getAffectedID())).register());
+        listeners.add(space.defineFormulaResultListener().onCreate().thenDo(event -> invalidate(event.getAffectedID().getParentId())).register());
+        listeners.add(space.defineFormulaResultListener().onUpdate().thenDo(event -> invalidate(event.getAffectedID().getParentId())).register());
+        listeners.add(space.defineFormulaResultListener().onDelete().thenDo(event -> invalidate(event.getAffectedID().getParentId())).register());
+    }
+
+    //region row access
+    private int capacity() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, (buffer.capacity() - HEADER_BYTES) / BLOCK_BYTES) * BLOCK_ROWS);
+    }
+
+    private static int wideOffset(int row, int col) {
+        final int block = row / BLOCK_ROWS;
+        return (int) (HEADER_BYTES + block * BLOCK_BYTES + ((long) col * BLOCK_ROWS + row % BLOCK_ROWS) * Long.BYTES);
+    }
+
+    private static int intOffset(int row, int col) {
+        final int block = row / BLOCK_ROWS;
+        return (int) (HEADER_BYTES + block * BLOCK_BYTES + WIDE_AREA_BYTES + ((long) col * BLOCK_ROWS + row % BLOCK_ROWS) * Integer.BYTES);
+    }
+
+    private double getDouble(int row, int col) {
+        return buffer.getDouble(wideOffset(row, col));
+    }
+
+    private void putDouble(int row, int col, double value) {
+        buffer.putDouble(wideOffset(row, col), value);
+    }
+
+    private long getLong(int row, int col) {
+        return buffer.getLong(wideOffset(row, col));
+    }
+
+    private void putLong(int row, int col, long value) {
+        buffer.putLong(wideOffset(row, col), value);
+    }
+
+    private int getInt(int row, int col) {
+        return buffer.getInt(intOffset(row, col));
+    }
+
+    private void putInt(int row, int col, int value) {
+        buffer.putInt(intOffset(row, col), value);
+    }
+
+    private int addRow(String key) {
+        final int row;
+        if (!freeRows.isEmpty()) {
+            row = freeRows.poll();
+        } else {
+            row = numRows++;
+            if (row >= capacity())
+                grow();
+        }
+        if (row >= versions.length)
+            versions = Arrays.copyOf(versions, Math.max(row + 1, versions.length * 2));
+        versions[row]++;
+        putInt(row, KEY, encode(key));
+        putInt(row, STATE, STALE);
+        putLong(row, STAMP, 0);
+        rowByKey.put(key, row);
+        return row;
+    }
+
+    private void grow() {
+        final long blocks = (buffer.capacity() - HEADER_BYTES) / BLOCK_BYTES;
+        final long newSize = HEADER_BYTES + (blocks + Math.max(1, blocks / 2)) * BLOCK_BYTES;
+        if (newSize > Integer.MAX_VALUE)
+            throw new IllegalStateException("Compound index exceeds maximum size.");
+        try {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void putIdValues(int row, CompoundContainerId id) {
+        putDouble(row, MZ, id.getIonMass().orElse(Double.NaN));
+        putDouble(row, RT_SECONDS, id.getRt().map(RetentionTime::getRetentionTimeInSeconds).orElse(Double.NaN));
+        putDouble(row, RT_MIDDLE, id.getRt().map(RetentionTime::getMiddleTime).orElse(Double.NaN));
+        putDouble(row, CONFIDENCE, id.getConfidenceScore().orElse(Double.NaN));
+        putInt(row, ION_TYPE, encode(id.getIonType().map(PrecursorIonType::toString).orElse(null)));
+    }
+
+    private void putResultValues(int row, ResultValues v) {
+        putDouble(row, SIRIUS_SCORE, v.siriusScore);
+        putDouble(row, ZODIAC_SCORE, v.zodiacScore);
+        putDouble(row, CSI_SCORE, v.csiScore);
+        putInt(row, FORMULA, encode(v.formula));
+        putInt(row, PRECURSOR_FORMULA, encode(v.precursorFormula));
+        putInt(row, ADDUCT, encode(v.adduct));
+        putInt(row, CSI_FORMULA, encode(v.csiFormula));
+        putInt(row, CSI_PRECURSOR_FORMULA, encode(v.csiPrecursorFormula));
+        putInt(row, CSI_ADDUCT, encode(v.csiAdduct));
+        putInt(row, LIPID_CLASS, encode(v.lipidClass));
+        putInt(row, DB_CANDIDATES, v.dbCandidates);
+        for (int k = 0; k < MAX_DB_CANDIDATES; k++)
+            putLong(row, DB_FLAGS + k, v.dbFlags[k]);
+    }
+    //endregion
+
+    //region dictionary
+    private int encode(@Nullable String value) {
+        if (value == null)
+            return -1;
+        return codes.computeIfAbsent(value, v -> {
+            dict.add(v);
+            return dict.size() - 1;
+        });
+    }
+
+    private String decode(int code) {
+        return code < 0 || code >= dict.size() ? null : dict.get(code);
+    }
+
+    private Optional<MolecularFormula> parseFormula(@Nullable String formula) {
+        if (formula == null)
+            return Optional.empty();
+        return parsedFormulas.computeIfAbsent(formula, f -> Optional.ofNullable(MolecularFormula.parseOrNull(f)));
+    }
+
+    private Optional<PrecursorIonType> parseIonType(@Nullable String ionType) {
+        if (ionType == null)
+            return Optional.empty();
+        return parsedIonTypes.computeIfAbsent(ionType, i -> Optional.ofNullable(PrecursorIonType.fromString(i)));
+    }
+    //endregion
+
+    /**
+     * Marks the formula result based values of the given compound as stale.
+     */
+    public void invalidate(@NotNull CompoundContainerId id) {
+        lock.writeLock().lock();
+        try {
+            final Integer row = rowByKey.get(id.getDirectoryName());
+            if (row != null) {
+                versions[row]++;
+                putInt(row, STATE, STALE);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the values derived from the compound id (m/z, RT, ion type, confidence).
+     */
+    public void update(@NotNull CompoundContainerId id) {
+        lock.writeLock().lock();
+        try {
+            final Integer row = rowByKey.get(id.getDirectoryName());
+            putIdValues(row != null ? row : addRow(id.getDirectoryName()), id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(@NotNull CompoundContainerId id) {
+        lock.writeLock().lock();
+        try {
+            final Integer row = rowByKey.remove(id.getDirectoryName());
+            if (row != null) {
+                versions[row]++;
+                putInt(row, STATE, EMPTY);
+                freeRows.add(row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowByKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int numberOfStaleEntries() {
+        lock.readLock().lock();
+        try {
+            return (int) rowByKey.values().stream().filter(row -> getInt(row, STATE) == STALE).count();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the indexed values of the given compound. Stale values are reloaded from the project-space first.
+     *
+     * @return the index entry or empty if the compound is not part of the index.
+     */
+    public Optional<Entry> get(@NotNull CompoundContainerId id) {
+        final int row, version;
+        lock.readLock().lock();
+        try {
+            final Integer r = rowByKey.get(id.getDirectoryName());
+            if (r == null)
+                return Optional.empty();
+            if (getInt(r, STATE) == VALID)
+                return Optional.of(new Entry(r));
+            row = r;
+            version = versions[r];
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        final ResultValues values;
+        try {
+            values = loadResultValues(id);
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass()).warn("Could not index compound '" + id.getDirectoryName() + "'.", e);
+            return Optional.empty();
+        }
+
+        lock.writeLock().lock();
+        try {
+            final Integer r = rowByKey.get(id.getDirectoryName());
+            if (r == null || r != row)
+                return Optional.empty();
+            putResultValues(row, values);
+            // only valid if nothing changed during loading, otherwise the next access loads again.
+            if (versions[row] == version)
+                putInt(row, STATE, VALID);
+            return Optional.of(new Entry(row));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Job that reloads the values of all stale compounds from the project-space.
+     */
+    public JJob<Integer> makeRefreshJob() {
+        return new BasicJJob<>(JJob.JobType.IO) {
+            @Override
+            protected Integer compute() throws Exception {
+                final List<String> stale = new ArrayList<>();
+                CompoundIndex.this.lock.readLock().lock();
+                try {
+                    rowByKey.forEach((k, row) -> {
+                        if (CompoundIndex.this.getInt(row, STATE) == STALE)
+                            stale.add(k);
+                    });
+                } finally {
+                    CompoundIndex.this.lock.readLock().unlock();
+                }
+                int refreshed = 0;
+                for (String dirName : stale) {
+                    checkForInterruption();
+                    final Optional<CompoundContainerId> id = space.findCompound(dirName);
+                    if (id.isPresent() && CompoundIndex.this.get(id.get()).isPresent())
+                        refreshed++;
+                    updateProgress(0, stale.size(), refreshed, "Indexing compounds...");
+                }
+                return refreshed;
+            }
+        };
+    }
+
+    private ResultValues loadResultValues(CompoundContainerId id) throws IOException {
+        final ResultValues v = new ResultValues();
+        final List<? extends SScored<FormulaResult, ? extends FormulaScore>> results =
+                space.getFormulaResultsOrderedBy(id, List.of(ZodiacScore.class, SiriusScore.class), FormulaScoring.class, FTree.class);
+        if (results.isEmpty())
+            return v;
+
+        final FormulaResult top = results.get(0).getCandidate();
+        v.formula = top.getId().getMolecularFormula().toString();
+        v.precursorFormula = top.getId().getPrecursorFormula().toString();
+        v.adduct = top.getId().getIonType().toString();
+        top.getAnnotation(FormulaScoring.class).ifPresent(s -> {
+            v.siriusScore = score(s, SiriusScore.class);
+            v.zodiacScore = score(s, ZodiacScore.class);
+        });
+        v.lipidClass = results.stream().map(r -> r.getCandidate().getAnnotation(FTree.class)).flatMap(Optional::stream)
+                .map(ft -> ft.getAnnotation(LipidSpecies.class)).flatMap(Optional::stream)
+                .findFirst().map(LipidSpecies::toString).orElse(null);
+
+        final List<? extends SScored<FormulaResult, ? extends FormulaScore>> byCsi = FormulaScoring.reRankBy(results, List.of(TopCSIScore.class), true);
+        final FormulaResult topCsi = byCsi.get(0).getCandidate();
+        v.csiFormula = topCsi.getId().getMolecularFormula().toString();
+        v.csiPrecursorFormula = topCsi.getId().getPrecursorFormula().toString();
+        v.csiAdduct = topCsi.getId().getIonType().toString();
+        v.csiScore = topCsi.getAnnotation(FormulaScoring.class).map(s -> score(s, TopCSIScore.class)).orElse(Double.NaN);
+
+        if (!Double.isNaN(v.csiScore)) {
+            // cumulative database flags of the first k structure candidates of the top k formulas
+            long flags = 0;
+            for (int i = 0; i < byCsi.size() && v.dbCandidates < MAX_DB_CANDIDATES; i++) {
+                final Optional<FBCandidates> candidates = space.getFormulaResult(byCsi.get(i).getCandidate().getId(), FBCandidates.class)
+                        .getAnnotation(FBCandidates.class);
+                if (candidates.isEmpty())
+                    continue;
+                for (Scored<CompoundCandidate> c : candidates.get().getResults()) {
+                    if (v.dbCandidates >= MAX_DB_CANDIDATES)
+                        break;
+                    flags |= c.getCandidate().getBitset();
+                    v.dbFlags[v.dbCandidates++] = flags;
+                }
+            }
+        }
+        return v;
+    }
+
+    private static <S extends FormulaScore> double score(FormulaScoring scoring, Class<S> type) {
+        return scoring.getAnnotation(type).filter(s -> !s.isNa()).map(FormulaScore::score).orElse(Double.NaN);
+    }
+
+    /**
+     * Writes dictionary and header and releases the index file. Listeners are removed from the project-space.
+     */
+    @Override
+    public void close() throws IOException {
+        listeners.forEach(ContainerListener.Defined::unregister);
+        listeners.clear();
+        lock.writeLock().lock();
+        try {
+            final Path dictFile = location.resolveSibling(location.getFileName() + DICT_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dictFile)))) {
+                out.writeInt(dict.size());
+                for (String s : dict)
+                    out.writeUTF(s);
+            }
+            writeHeader(true);
+        } finally {
+            lock.writeLock().unlock();
+            fileLock.release();
+            channel.close();
+        }
+    }
+
+    private static final class ResultValues {
+        double siriusScore = Double.NaN, zodiacScore = Double.NaN, csiScore = Double.NaN;
+        String formula, precursorFormula, adduct, csiFormula, csiPrecursorFormula, csiAdduct, lipidClass;
+        int dbCandidates = 0;
+        final long[] dbFlags = new long[MAX_DB_CANDIDATES];
+    }
+
+    /**
+     * Snapshot of the indexed values of one compound. Missing values are NaN or empty.
+     */
+    public final class Entry {
+        private final double mz, rtSeconds, rtMiddle, confidence, siriusScore, zodiacScore, csiScore;
+        private final String ionType, formula, precursorFormula, adduct, csiFormula, csiPrecursorFormula, csiAdduct, lipidClass;
+        private final long[] dbFlags;
+
+        // must be called while holding the lock
+        private Entry(int row) {
+            mz = getDouble(row, MZ);
+            rtSeconds = getDouble(row, RT_SECONDS);
+            rtMiddle = getDouble(row, RT_MIDDLE);
+            confidence = getDouble(row, CONFIDENCE);
+            siriusScore = getDouble(row, SIRIUS_SCORE);
+            zodiacScore = getDouble(row, ZODIAC_SCORE);
+            csiScore = getDouble(row, CSI_SCORE);
+            ionType = decode(getInt(row, ION_TYPE));
+            formula = decode(getInt(row, FORMULA));
+            precursorFormula = decode(getInt(row, PRECURSOR_FORMULA));
+            adduct = decode(getInt(row, ADDUCT));
+            csiFormula = decode(getInt(row, CSI_FORMULA));
+            csiPrecursorFormula = decode(getInt(row, CSI_PRECURSOR_FORMULA));
+            csiAdduct = decode(getInt(row, CSI_ADDUCT));
+            lipidClass = decode(getInt(row, LIPID_CLASS));
+            dbFlags = new long[getInt(row, DB_CANDIDATES)];
+            for (int k = 0; k < dbFlags.length; k++)
+                dbFlags[k] = getLong(row, DB_FLAGS + k);
+        }
+
+        public double getIonMass() {
+            return mz;
+        }
+
+        public double getRetentionTimeInSeconds() {
+            return rtSeconds;
+        }
+
+        public double getRetentionTimeMiddle() {
+            return rtMiddle;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+
+        public double getSiriusScore() {
+            return siriusScore;
+        }
+
+        public double getZodiacScore() {
+            return zodiacScore;
+        }
+
+        public double getTopCSIScore() {
+            return csiScore;
+        }
+
+        public Optional<PrecursorIonType> getIonType() {
+            return parseIonType(ionType);
+        }
+
+        /**
+         * Top formula ranked by ZODIAC or SIRIUS score.
+         */
+        public Optional<MolecularFormula> getTopFormula() {
+            return parseFormula(formula);
+        }
+
+        public Optional<MolecularFormula> getTopPrecursorFormula() {
+            return parseFormula(precursorFormula);
+        }
+
+        public Optional<PrecursorIonType> getTopAdduct() {
+            return parseIonType(adduct);
+        }
+
+        /**
+         * Top formula ranked by CSI:FingerID score.
+         */
+        public Optional<MolecularFormula> getTopCSIFormula() {
+            return parseFormula(csiFormula);
+        }
+
+        public Optional<MolecularFormula> getTopCSIPrecursorFormula() {
+            return parseFormula(csiPrecursorFormula);
+        }
+
+        public Optional<PrecursorIonType> getTopCSIAdduct() {
+            return parseIonType(csiAdduct);
+        }
+
+        public Optional<String> getLipidClass() {
+            return Optional.ofNullable(lipidClass);
+        }
+
+        public int getNumberOfDbCandidates() {
+            return dbFlags.length;
+        }
+
+        /**
+         * @param k          number of structure candidates to check, at most {@link #MAX_DB_CANDIDATES}
+         * @param filterBits database flags to match, 0 matches every compound with structure candidates.
+         * @return true if any of the first k structure candidates is contained in the given databases.
+         */
+        public boolean anyDbCandidateMatches(int k, long filterBits) {
+            if (k > MAX_DB_CANDIDATES)
+                throw new IllegalArgumentException("Only the first " + MAX_DB_CANDIDATES + " candidates are indexed.");
+            if (k <= 0 || dbFlags.length == 0)
+                return false;
+            if (filterBits == 0)
+                return true;
+            return ChemDBs.inFilter(dbFlags[Math.min(k, dbFlags.length) - 1], filterBits);
+        }
+    }
+}
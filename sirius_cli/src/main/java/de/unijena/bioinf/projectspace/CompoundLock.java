@@ -0,0 +1,40 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks of a single compound, shared by all {@link Instance}s of this compound within a {@link ProjectSpaceManager}.
+ * Instances of the same compound (e.g. created by the REST API, the GUI and compute jobs) work on the same cached
+ * formula results, so they have to be guarded by the same locks. See {@link ProjectSpaceManager#compoundLock}.
+ */
+final class CompoundLock {
+    /**
+     * Cache hits only need the shared read lock. Modifying cached objects needs the write lock.
+     */
+    final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
+    /**
+     * Serializes cache misses and writers. Every modification needs the loadLock, so holding it is sufficient to read
+     * cached data and project-space IO of a cache miss can be done without blocking concurrent cache hits.
+     */
+    final ReentrantLock loadLock = new ReentrantLock();
+}
@@ -0,0 +1,406 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.canopus.CanopusResult;
+import de.unijena.bioinf.fingerid.FingerprintResult;
+import de.unijena.bioinf.fingerid.blast.FBCandidateFingerprints;
+import de.unijena.bioinf.fingerid.blast.FBCandidates;
+import de.unijena.bioinf.ms.annotations.DataAnnotation;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Weight bounded cache for {@link FormulaResult}s shared by all {@link Instance}s of a {@link ProjectSpaceManager}.
+ * <p>
+ * Every large component (annotation) type of a cached result (e.g. trees, candidate lists and fingerprints) has its
+ * own byte budget. If the estimated size of all cached components of one type exceeds its budget, the least recently
+ * used results containing this component are evicted. If the overall budget is exceeded, the least recently used
+ * results are evicted. Evicted results are reloaded from the project-space on the next access.
+ * <p>
+ * Reads do not take a lock, they only update the access stamp of the entry. Modifications and evictions are
+ * serialized. Writers keep the results in access ordered maps (one overall and one per budgeted component type).
+ * Eviction is approximate LRU (second chance): the eldest result is evicted unless it has been read since it was
+ * ordered, in which case it is moved to the tail. If a budget is exceeded, results are evicted until the weight drops
+ * below {@link #LOW_WATERMARK} of the budget, so that not every insertion has to evict.
+ * <p>
+ * Cached results are shared by all {@link Instance}s of a compound and must only be modified while holding the
+ * locks of the compound (see {@link CompoundLock}).
+ * <p>
+ * Sizes are rough estimates of the heap usage and not exact measurements.
+ */
+public class FormulaResultCache {
+    public static final String PROPERTY_PREFIX = "de.unijena.bioinf.sirius.project.formulaResultCache";
+
+    private static final long MB = 1024L * 1024L;
+    private static final long BASE_WEIGHT = 512; // FormulaResult, id and scores
+    private static final long DEFAULT_COMPONENT_WEIGHT = 1024;
+    static final double LOW_WATERMARK = .9;
+
+    private static final Map<Class<? extends DataAnnotation>, ToLongFunction<DataAnnotation>> WEIGHERS = Map.of(
+            FTree.class, a -> 256L + 400L * ((FTree) a).numberOfVertices(),
+            FBCandidates.class, a -> 256L + 300L * ((FBCandidates) a).getResults().size(),
+            FBCandidateFingerprints.class, a -> 256L + 600L * ((FBCandidateFingerprints) a).getFingerprints().size(),
+            FingerprintResult.class, a -> 256L + 8L * ((FingerprintResult) a).fingerprint.getFingerprintVersion().size(),
+            CanopusResult.class, a -> 256L + 8L * ((CanopusResult) a).getCanopusFingerprint().getFingerprintVersion().size()
+    );
+
+    private static final Map<Class<? extends DataAnnotation>, Integer> DEFAULT_BUDGETS_MB = Map.of(
+            FTree.class, 256,
+            FBCandidates.class, 256,
+            FBCandidateFingerprints.class, 128,
+            FingerprintResult.class, 128,
+            CanopusResult.class, 64
+    );
+
+    private static class Entry {
+        final FormulaResult result;
+        // modified by writers only, guarded by the write lock
+        final Map<Class<? extends DataAnnotation>, Long> weights = new HashMap<>();
+        long weight = BASE_WEIGHT;
+        // access stamp when the entry has been moved to the tail of the access orders, guarded by the write lock
+        long orderedAt;
+        volatile long lastAccess;
+
+        Entry(FormulaResult result, long lastAccess) {
+            this.result = result;
+            this.lastAccess = lastAccess;
+            this.orderedAt = lastAccess;
+        }
+    }
+
+    private final ConcurrentHashMap<FormulaResultId, Entry> entries = new ConcurrentHashMap<>(1024);
+    private final AtomicLong clock = new AtomicLong();
+    private final Object writeLock = new Object();
+    // access orders of all results and of the results per budgeted component, guarded by writeLock
+    private final LinkedHashMap<FormulaResultId, Entry> lru = newAccessOrder();
+    private final Map<Class<? extends DataAnnotation>, LinkedHashMap<FormulaResultId, Entry>> componentLru = new HashMap<>();
+
+    // guarded by writeLock, published via concurrent map/volatile for the getters
+    private final Map<Class<? extends DataAnnotation>, Long> componentWeights = new ConcurrentHashMap<>();
+    private final Map<Class<? extends DataAnnotation>, Long> componentBudgets = new ConcurrentHashMap<>();
+    private final long maxWeight;
+    private volatile long weight = 0;
+
+    // metrics
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private volatile long evictions = 0;
+    private final Map<Class<? extends DataAnnotation>, Long> componentEvictions = new ConcurrentHashMap<>();
+
+    private static LinkedHashMap<FormulaResultId, Entry> newAccessOrder() {
+        return new LinkedHashMap<>(1024, .75f, true);
+    }
+
+    public FormulaResultCache() {
+        this(PropertyManager.getInteger(PROPERTY_PREFIX + ".maxMB", 1024) * MB);
+    }
+
+    public FormulaResultCache(long maxBytes) {
+        this(maxBytes, Map.of());
+    }
+
+    /**
+     * @param componentBudgets budgets in bytes per component type that override the configured ones.
+     */
+    FormulaResultCache(long maxBytes, @NotNull Map<Class<? extends DataAnnotation>, Long> componentBudgets) {
+        this.maxWeight = Math.max(MB, maxBytes);
+        this.componentBudgets.putAll(componentBudgets);
+    }
+
+    /**
+     * Budget of the given component type. Defaults can be overridden with the property
+     * {@code PROPERTY_PREFIX.<SimpleClassName>.maxMB}.
+     */
+    private long budget(Class<? extends DataAnnotation> component) {
+        return componentBudgets.computeIfAbsent(component, c -> PropertyManager.getInteger(
+                PROPERTY_PREFIX + "." + c.getSimpleName() + ".maxMB", DEFAULT_BUDGETS_MB.getOrDefault(c, 64)) * MB);
+    }
+
+    public Optional<FormulaResult> get(@NotNull FormulaResultId id) {
+        final Entry e = entries.get(id);
+        if (e == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        e.lastAccess = clock.incrementAndGet();
+        hits.increment();
+        return Optional.of(e.result);
+    }
+
+    public boolean contains(@NotNull FormulaResultId id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * @return all cached results of the given ids or null if at least one of them is not cached.
+     */
+    public List<FormulaResult> getAllOrNull(@NotNull Collection<FormulaResultId> ids) {
+        final List<Entry> found = new ArrayList<>(ids.size());
+        for (FormulaResultId id : ids) {
+            final Entry e = entries.get(id);
+            if (e == null) {
+                misses.increment();
+                return null;
+            }
+            found.add(e);
+        }
+        final long stamp = clock.incrementAndGet();
+        final List<FormulaResult> results = new ArrayList<>(found.size());
+        for (Entry e : found) {
+            e.lastAccess = stamp;
+            results.add(e.result);
+        }
+        hits.add(ids.size());
+        return results;
+    }
+
+    /**
+     * Adds or updates the given result. Needs to be called again whenever components have been added to a cached
+     * result, so that its weight is up-to-date.
+     */
+    public void put(@NotNull FormulaResult result) {
+        synchronized (writeLock) {
+            Entry e = entries.get(result.getId());
+            if (e == null || e.result != result) {
+                if (e != null) removeEntry(result.getId(), e);
+                e = new Entry(result, clock.incrementAndGet());
+                entries.put(result.getId(), e);
+                lru.put(result.getId(), e);
+                weight += e.weight;
+            } else {
+                e.lastAccess = clock.incrementAndGet();
+                touch(result.getId(), e);
+            }
+            reweigh(e);
+            enforceBudgets(result.getId());
+        }
+    }
+
+    public void putAll(@NotNull Collection<FormulaResult> results) {
+        synchronized (writeLock) {
+            results.forEach(this::put);
+        }
+    }
+
+    public void invalidate(@NotNull FormulaResultId id) {
+        synchronized (writeLock) {
+            final Entry e = entries.get(id);
+            if (e != null)
+                removeEntry(id, e);
+        }
+    }
+
+    public void invalidateAll(@NotNull Collection<FormulaResultId> ids) {
+        synchronized (writeLock) {
+            ids.forEach(this::invalidate);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (writeLock) {
+            entries.clear();
+            lru.clear();
+            componentLru.clear();
+            componentWeights.clear();
+            weight = 0;
+        }
+    }
+
+    /**
+     * Removes the given components from a cached result (if cached).
+     */
+    @SafeVarargs
+    public final void removeComponents(@NotNull FormulaResultId id, Class<? extends DataAnnotation>... components) {
+        synchronized (writeLock) {
+            final Entry e = entries.get(id);
+            if (e == null)
+                return;
+            for (Class<? extends DataAnnotation> comp : components)
+                e.result.removeAnnotation(comp);
+            reweigh(e);
+        }
+    }
+
+    private void reweigh(Entry e) {
+        final FormulaResultId id = e.result.getId();
+        final Set<Class<? extends DataAnnotation>> seen = new HashSet<>();
+        e.result.annotations().forEach((comp, value) -> {
+            seen.add(comp);
+            final long w = WEIGHERS.getOrDefault(comp, a -> DEFAULT_COMPONENT_WEIGHT).applyAsLong(value);
+            final Long old = e.weights.put(comp, w);
+            if (old == null && WEIGHERS.containsKey(comp))
+                componentLru.computeIfAbsent(comp, c -> newAccessOrder()).put(id, e);
+            final long delta = w - (old == null ? 0 : old);
+            componentWeights.merge(comp, delta, Long::sum);
+            e.weight += delta;
+            weight += delta;
+        });
+        // components removed from the result since the last weighing
+        for (Iterator<Map.Entry<Class<? extends DataAnnotation>, Long>> it = e.weights.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<Class<? extends DataAnnotation>, Long> cw = it.next();
+            if (!seen.contains(cw.getKey())) {
+                final LinkedHashMap<FormulaResultId, Entry> order = componentLru.get(cw.getKey());
+                if (order != null)
+                    order.remove(id);
+                componentWeights.merge(cw.getKey(), -cw.getValue(), Long::sum);
+                e.weight -= cw.getValue();
+                weight -= cw.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private void removeWeights(Entry e) {
+        e.weights.forEach((comp, w) -> componentWeights.merge(comp, -w, Long::sum));
+        weight -= e.weight;
+    }
+
+    private void removeEntry(FormulaResultId id, Entry e) {
+        entries.remove(id, e);
+        lru.remove(id);
+        for (Class<? extends DataAnnotation> comp : e.weights.keySet()) {
+            final LinkedHashMap<FormulaResultId, Entry> order = componentLru.get(comp);
+            if (order != null)
+                order.remove(id);
+        }
+        removeWeights(e);
+    }
+
+    // moves the entry to the tail of all access orders it is part of
+    private void touch(FormulaResultId id, Entry e) {
+        e.orderedAt = e.lastAccess;
+        lru.get(id);
+        for (Class<? extends DataAnnotation> comp : e.weights.keySet()) {
+            final LinkedHashMap<FormulaResultId, Entry> order = componentLru.get(comp);
+            if (order != null)
+                order.get(id);
+        }
+    }
+
+    /**
+     * @param protectedId result that has just been added and must not be evicted.
+     */
+    private void enforceBudgets(FormulaResultId protectedId) {
+        // only large result components have a budget, small ones like scorings are needed for ranking.
+        for (Class<? extends DataAnnotation> comp : WEIGHERS.keySet()) {
+            final long budget = budget(comp);
+            if (componentWeights.getOrDefault(comp, 0L) <= budget)
+                continue;
+            // evict least recently used results containing this component. Cached objects are never modified here,
+            // because callers might still work with them.
+            final long target = (long) (budget * LOW_WATERMARK);
+            while (componentWeights.getOrDefault(comp, 0L) > target) {
+                final Map.Entry<FormulaResultId, Entry> eldest = evictionCandidate(componentLru.get(comp), protectedId);
+                if (eldest == null)
+                    break;
+                removeEntry(eldest.getKey(), eldest.getValue());
+                componentEvictions.merge(comp, 1L, Long::sum);
+                evictions++;
+            }
+        }
+
+        if (weight > maxWeight) {
+            final long target = (long) (maxWeight * LOW_WATERMARK);
+            while (weight > target) {
+                final Map.Entry<FormulaResultId, Entry> eldest = evictionCandidate(lru, protectedId);
+                if (eldest == null)
+                    break;
+                removeEntry(eldest.getKey(), eldest.getValue());
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Readers only update the access stamp of an entry, so entries that have been read since they were ordered get a
+     * second chance and are moved to the tail instead of being evicted.
+     *
+     * @return the least recently used entry of the given access order that may be evicted, null if there is none.
+     */
+    private Map.Entry<FormulaResultId, Entry> evictionCandidate(LinkedHashMap<FormulaResultId, Entry> order, FormulaResultId protectedId) {
+        if (order == null)
+            return null;
+        for (int i = 0, n = order.size(); i < n; i++) {
+            final Map.Entry<FormulaResultId, Entry> eldest = order.entrySet().iterator().next();
+            final FormulaResultId id = eldest.getKey();
+            final Entry e = eldest.getValue();
+            if (id.equals(protectedId))
+                order.get(id);
+            else if (e.lastAccess > e.orderedAt)
+                touch(id, e);
+            else
+                return Map.entry(id, e);
+        }
+        // all entries have been read recently
+        for (Map.Entry<FormulaResultId, Entry> it : order.entrySet())
+            if (!it.getKey().equals(protectedId))
+                return Map.entry(it.getKey(), it.getValue());
+        return null;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return estimated number of bytes of all cached results.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public Map<Class<? extends DataAnnotation>, Long> getComponentEvictions() {
+        return Map.copyOf(componentEvictions);
+    }
+
+    public Map<Class<? extends DataAnnotation>, Long> getComponentWeights() {
+        return Map.copyOf(componentWeights);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder("FormulaResultCache{size=").append(entries.size())
+                .append(", weightMB=").append(weight / MB).append("/").append(maxWeight / MB)
+                .append(", hits=").append(hits.sum()).append(", misses=").append(misses.sum()).append(", evictions=").append(evictions);
+        componentWeights.forEach((comp, w) -> b.append(", ").append(comp.getSimpleName()).append("MB=").append(w / MB)
+                .append("/").append(WEIGHERS.containsKey(comp) ? String.valueOf(budget(comp) / MB) : "-").append(" (evicted ").append(componentEvictions.getOrDefault(comp, 0L)).append(")"));
+        return b.append('}').toString();
+    }
+}
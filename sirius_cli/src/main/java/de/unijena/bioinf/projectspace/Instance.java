@@ -32,18 +32,31 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 public class Instance {
     @NotNull
     protected final ProjectSpaceManager<?> spaceManager;
-    private CompoundContainer compoundCache;
+    private volatile CompoundContainer compoundCache;
 
-    protected Map<FormulaResultId, FormulaResult> formulaResultCache = new HashMap<>();
+    /*
+     * Cached data (compound container and formula results) is guarded by the cacheLock and the loadLock of the
+     * compound (see CompoundLock). The locks are shared by all instances of the same compound, since the formula
+     * results are cached project-wide. Loaded components are installed under the write lock of the cacheLock.
+     * Lock order is loadLock -> cacheLock. A thread must never acquire the loadLock while holding the read lock.
+     */
+    private final ReentrantReadWriteLock cacheLock;
+    private final ReentrantLock loadLock;
 
     protected Instance(@NotNull CompoundContainer compoundContainer, @NotNull ProjectSpaceManager<?> spaceManager) {
         this.compoundCache = compoundContainer;
         this.spaceManager = spaceManager;
+        final CompoundLock lock = spaceManager.compoundLock(compoundContainer.getId());
+        this.cacheLock = lock.cacheLock;
+        this.loadLock = lock.loadLock;
     }
 
     public final Ms2Experiment getExperiment() {
@@ -67,57 +80,129 @@ public class Instance {
         return spaceManager;
     }
 
+    FormulaResultCache formulaResultCache() {
+        return spaceManager.getFormulaResultCache();
+    }
+
+    /**
+     * Acquires exclusive access to the compound of this instance. Blocks until all running loads and cache hits of all
+     * instances of this compound are finished and blocks all other threads from accessing them until
+     * {@link #unlockExclusive()} is called.
+     * Reentrant, but must not be called from within a cache hit (read access).
+     */
+    protected final void lockExclusive() {
+        loadLock.lock();
+        cacheLock.writeLock().lock();
+    }
+
+    protected final void unlockExclusive() {
+        cacheLock.writeLock().unlock();
+        loadLock.unlock();
+    }
+
+    private void writeLocked(Runnable modification) {
+        cacheLock.writeLock().lock();
+        try {
+            modification.run();
+        } finally {
+            cacheLock.writeLock().unlock();
+        }
+    }
+
+    @SafeVarargs
+    private static Class[] missingComponents(Annotated<DataAnnotation> annotated, Class<? extends DataAnnotation>... components) {
+        return Arrays.stream(components).filter(comp -> !annotated.hasAnnotation(comp)).distinct().toArray(Class[]::new);
+    }
+
 
     //load from projectSpace
-    public final synchronized Optional<ProjectSpaceConfig> loadConfig() {
+    public final Optional<ProjectSpaceConfig> loadConfig() {
         return loadCompoundContainer(ProjectSpaceConfig.class).getAnnotation(ProjectSpaceConfig.class);
     }
 
     @SafeVarargs
-    public final synchronized CompoundContainer loadCompoundContainer(Class<? extends DataAnnotation>... components) {
+    public final CompoundContainer loadCompoundContainer(Class<? extends DataAnnotation>... components) {
+        final Lock read = cacheLock.readLock();
+        read.lock();
         try {
-            Class[] missingComps = Arrays.stream(components).filter(comp -> !compoundCache.hasAnnotation(comp)).distinct().toArray(Class[]::new);
+            final CompoundContainer container = compoundCache;
+            if (missingComponents(container, components).length == 0)
+                return container;
+        } finally {
+            read.unlock();
+        }
+
+        loadLock.lock();
+        try {
+            final CompoundContainer container = compoundCache;
+            //recheck, might have been loaded while waiting for the lock
+            final Class[] missingComps = missingComponents(container, components);
             if (missingComps.length > 0) { //load missing comps
                 final CompoundContainer tmpComp = projectSpace().getCompound(getID(), missingComps);
-                compoundCache.setAnnotationsFrom(tmpComp);
+                writeLocked(() -> container.setAnnotationsFrom(tmpComp));
             }
-            return compoundCache;
+            return container;
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            loadLock.unlock();
         }
     }
 
     @SafeVarargs
-    public final synchronized void reloadCompoundCache(Class<? extends DataAnnotation>... components) {
+    public final void reloadCompoundCache(Class<? extends DataAnnotation>... components) {
+        lockExclusive();
         try {
             compoundCache = projectSpace().getCompound(getID(), components);
         } catch (IOException e) {
             LoggerFactory.getLogger(Instance.class).error("Could not create read Input Experiment from Project Space.");
             throw new RuntimeException("Could not create read Input Experiment from Project Space.", e);
+        } finally {
+            unlockExclusive();
         }
     }
 
     @SafeVarargs
-    public final synchronized Optional<FormulaResult> loadFormulaResult(FormulaResultId fid, Class<? extends DataAnnotation>... components) {
+    public final Optional<FormulaResult> loadFormulaResult(FormulaResultId fid, Class<? extends DataAnnotation>... components) {
+        final Lock read = cacheLock.readLock();
+        read.lock();
+        try {
+            final Optional<FormulaResult> cached = formulaResultCache().get(fid);
+            if (cached.isPresent() && missingComponents(cached.get(), components).length == 0)
+                return cached;
+        } finally {
+            read.unlock();
+        }
+
+        loadLock.lock();
         try {
-            if (!formulaResultCache.containsKey(fid)) {
+            final Optional<FormulaResult> cached = formulaResultCache().get(fid);
+            if (cached.isEmpty()) {
                 if (!compoundCache.containsResult(fid)) { // fid may have been deleted du to this thread waited for the lock
                     LoggerFactory.getLogger(getClass()).debug("FID '" + fid + "' may have been deleted by another thread, or the cached project-space was bypassed.");
                     return Optional.empty();
                 }
+                //new object, not visible to other threads before it is cached.
                 final FormulaResult fr = projectSpace().getFormulaResult(fid, components);
-                formulaResultCache.put(fid, fr);
+                formulaResultCache().put(fr);
                 return Optional.of(fr);
             } else {
-                FormulaResult fr = formulaResultCache.get(fid);
-                final Class[] missing = Arrays.stream(components).filter(comp -> !fr.hasAnnotation(comp)).toArray(Class[]::new);
-                if (missing.length > 0)
-                    fr.setAnnotationsFrom(projectSpace().getFormulaResult(fid, missing));
+                final FormulaResult fr = cached.get();
+                final Class[] missing = missingComponents(fr, components);
+                if (missing.length > 0) {
+                    final FormulaResult loaded = projectSpace().getFormulaResult(fid, missing);
+                    writeLocked(() -> {
+                        fr.setAnnotationsFrom(loaded);
+                        formulaResultCache().put(fr);
+                    });
+                }
 
                 return Optional.of(fr);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            loadLock.unlock();
         }
     }
 
@@ -126,17 +211,17 @@ public class Instance {
      * @return Sorted List of FormulaResults scored by the currently defined RankingScore
      */
     @SafeVarargs
-    public final synchronized List<? extends SScored<FormulaResult, ? extends FormulaScore>> loadFormulaResults(Class<? extends DataAnnotation>... components) {
+    public final List<? extends SScored<FormulaResult, ? extends FormulaScore>> loadFormulaResults(Class<? extends DataAnnotation>... components) {
         return loadFormulaResults(getID().getRankingScoreTypes(), components);
     }
 
     @SafeVarargs
-    public final synchronized Optional<FormulaResult> loadTopFormulaResult(Class<? extends DataAnnotation>... components) {
+    public final Optional<FormulaResult> loadTopFormulaResult(Class<? extends DataAnnotation>... components) {
         return getTop(loadFormulaResults(), components);
     }
 
     @SafeVarargs
-    public final synchronized Optional<FormulaResult> loadTopFormulaResult(List<Class<? extends FormulaScore>> rankingScoreTypes, Class<? extends DataAnnotation>... components) {
+    public final Optional<FormulaResult> loadTopFormulaResult(List<Class<? extends FormulaScore>> rankingScoreTypes, Class<? extends DataAnnotation>... components) {
         return getTop(loadFormulaResults(rankingScoreTypes), components);
     }
 
@@ -151,199 +236,277 @@ public class Instance {
 
 
     @SafeVarargs
-    public final synchronized List<? extends SScored<FormulaResult, ? extends FormulaScore>> loadTopKFormulaResults(int k, List<Class<? extends FormulaScore>> rankingScoreTypes, Class<? extends DataAnnotation>... components) {
+    public final List<? extends SScored<FormulaResult, ? extends FormulaScore>> loadTopKFormulaResults(int k, List<Class<? extends FormulaScore>> rankingScoreTypes, Class<? extends DataAnnotation>... components) {
         return getTopK(k, loadFormulaResults(rankingScoreTypes), components);
     }
 
     @SafeVarargs
     private List<? extends SScored<FormulaResult, ? extends FormulaScore>> getTopK(int k, List<? extends SScored<FormulaResult, ? extends FormulaScore>> sScoreds, Class<? extends DataAnnotation>... components) {
+        // candidates are usually the cached objects themselves, which must not be modified without exclusive access
         return sScoreds.stream().limit(k).peek(ss -> loadFormulaResult(ss.getCandidate().getId(), components)
-                .ifPresent(r -> ss.getCandidate().setAnnotationsFrom(r))).toList();
+                .filter(r -> r != ss.getCandidate()).ifPresent(r -> ss.getCandidate().setAnnotationsFrom(r))).toList();
     }
 
     @SafeVarargs
-    public final synchronized List<? extends SScored<FormulaResult, ? extends FormulaScore>> loadFormulaResults(List<Class<? extends FormulaScore>> rankingScoreTypes, Class<? extends DataAnnotation>... components) {
+    public final List<? extends SScored<FormulaResult, ? extends FormulaScore>> loadFormulaResults(List<Class<? extends FormulaScore>> rankingScoreTypes, Class<? extends DataAnnotation>... components) {
+        final Lock read = cacheLock.readLock();
+        read.lock();
         try {
-            if (!formulaResultCache.keySet().containsAll(compoundCache.getResultsRO().values())) {
+            final List<FormulaResult> cached = formulaResultCache().getAllOrNull(compoundCache.getResultsRO().values());
+            if (cached != null && cached.stream().allMatch(fr -> missingComponents(fr, components).length == 0))
+                return FormulaScoring.rankBy(cached, rankingScoreTypes, true);
+        } finally {
+            read.unlock();
+        }
+
+        loadLock.lock();
+        try {
+            final List<FormulaResult> cached = formulaResultCache().getAllOrNull(compoundCache.getResultsRO().values());
+            if (cached == null) {
                 final List<? extends SScored<FormulaResult, ? extends FormulaScore>> returnList = projectSpace().getFormulaResultsOrderedBy(getID(), rankingScoreTypes, components);
-                formulaResultCache = returnList.stream().collect(Collectors.toMap(r -> r.getCandidate().getId(), SScored::getCandidate));
+                formulaResultCache().putAll(returnList.stream().map(SScored::getCandidate).collect(Collectors.toList()));
                 return returnList;
             } else {
-                final Map<FormulaResultId, Class[]> toRefresh = new HashMap<>();
-                formulaResultCache.forEach((k, v) -> {
-                    Class[] missingComps = Arrays.stream(components).filter(c -> !v.hasAnnotation(c)).distinct().toArray(Class[]::new);
+                final Map<FormulaResult, Class[]> toRefresh = new HashMap<>();
+                cached.forEach(v -> {
+                    Class[] missingComps = missingComponents(v, components);
                     if (missingComps.length > 0)
-                        toRefresh.put(k, missingComps);
+                        toRefresh.put(v, missingComps);
                 });
 
-//                if (!toRefresh.isEmpty())
-//                    System.out.println("######## refreshing components of '" + toRefresh.keySet().toString() + "' #########");
-
-                //refresh annotations
+                //load missing components without blocking cache hits
+                final Map<FormulaResult, FormulaResult> loaded = new HashMap<>();
                 toRefresh.forEach((k, v) -> {
                     try {
-                        final FormulaResult fr = projectSpace().getFormulaResult(k, v);
-                        formulaResultCache.get(k).setAnnotationsFrom(fr);
+                        loaded.put(k, projectSpace().getFormulaResult(k.getId(), v));
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
                 });
 
+                //refresh annotations
+                if (!loaded.isEmpty())
+                    writeLocked(() -> loaded.forEach((k, fr) -> {
+                        k.setAnnotationsFrom(fr);
+                        formulaResultCache().put(k);
+                    }));
+
                 //return updated an sorted formula results
-                return FormulaScoring.rankBy(formulaResultCache.values(), rankingScoreTypes, true);
+                return FormulaScoring.rankBy(cached, rankingScoreTypes, true);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            loadLock.unlock();
         }
     }
 
     //write to projectSpace
     @SafeVarargs
-    public final synchronized void updateCompound(CompoundContainer container, Class<? extends DataAnnotation>... components) {
+    public final void updateCompound(CompoundContainer container, Class<? extends DataAnnotation>... components) {
+        lockExclusive();
         try {
             updateAnnotations(compoundCache, container, components);
             projectSpace().updateCompound(compoundCache, components);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            unlockExclusive();
         }
     }
 
     @SafeVarargs
-    public final synchronized void updateFormulaResult(FormulaResult result, Class<? extends DataAnnotation>... components) {
+    public final void updateFormulaResult(FormulaResult result, Class<? extends DataAnnotation>... components) {
+        lockExclusive();
         try {
-            if (!formulaResultCache.containsKey(result.getId())) {
-                formulaResultCache.put(result.getId(), result);
+            final FormulaResult rs = formulaResultCache().get(result.getId()).orElse(result);
+            if (rs == result)
                 compoundCache.results.put(result.getId().fileName(), result.getId());
-            }
             //refresh cache to actual object state?
-            final FormulaResult rs = formulaResultCache.get(result.getId());
             updateAnnotations(rs, result, components);
+            formulaResultCache().put(rs);
             projectSpace().updateFormulaResult(rs, components);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            unlockExclusive();
         }
     }
 
-    public synchronized void updateExperiment() {
+    public void updateExperiment() {
         updateCompound(compoundCache, Ms2Experiment.class);
     }
 
-    public synchronized void updateConfig() {
-        compoundCache.setAnnotation(ProjectSpaceConfig.class, new ProjectSpaceConfig(compoundCache.getAnnotationOrThrow(FinalConfig.class).config));
-        updateCompound(compoundCache, ProjectSpaceConfig.class);
+    public void updateConfig() {
+        lockExclusive();
+        try {
+            compoundCache.setAnnotation(ProjectSpaceConfig.class, new ProjectSpaceConfig(compoundCache.getAnnotationOrThrow(FinalConfig.class).config));
+            updateCompound(compoundCache, ProjectSpaceConfig.class);
+        } finally {
+            unlockExclusive();
+        }
     }
 
-    public synchronized void updateCompoundID() {
+    public void updateCompoundID() {
+        lockExclusive();
         try {
             projectSpace().updateCompoundContainerID(compoundCache.getId());
+            spaceManager.openedCompoundIndex().ifPresent(index -> index.update(compoundCache.getId()));
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            unlockExclusive();
         }
     }
 
     @SafeVarargs
-    public final synchronized void deleteFromFormulaResults(Class<? extends DataAnnotation>... components) {
+    public final void deleteFromFormulaResults(Class<? extends DataAnnotation>... components) {
         if (components.length == 0)
             return;
-        //remove stuff from memory copy before removing from disk to ensure that is done before property change is
-        //fired by the project space
-        if (List.of(components).contains(FTree.class)) {
-            deleteFormulaResults();
-        } else {
-            //update cache, load data from disc
-            loadCompoundContainer();
-            //remove components from cached formula results
-            formulaResultCache.forEach((k, v) -> List.of(components).forEach(v::removeAnnotation));
-            //remove components from ALL formula results on disc
-            try {
-                projectSpace().deleteFromAllFormulaResults(compoundCache, components);
-            } catch (IOException e) {
-                LoggerFactory.getLogger(getClass()).error("Error when deleting results from '" + getID() + "'.");
+        lockExclusive();
+        try {
+            //remove stuff from memory copy before removing from disk to ensure that is done before property change is
+            //fired by the project space
+            if (List.of(components).contains(FTree.class)) {
+                deleteFormulaResults();
+            } else {
+                //update cache, load data from disc
+                loadCompoundContainer();
+                //remove components from cached formula results
+                compoundCache.getResultsRO().values().forEach(fid -> formulaResultCache().removeComponents(fid, components));
+                //remove components from ALL formula results on disc
+                try {
+                    projectSpace().deleteFromAllFormulaResults(compoundCache, components);
+                } catch (IOException e) {
+                    LoggerFactory.getLogger(getClass()).error("Error when deleting results from '" + getID() + "'.");
+                }
             }
+        } finally {
+            unlockExclusive();
         }
     }
 
-    public synchronized void deleteFormulaResults() {
+    public void deleteFormulaResults() {
+        lockExclusive();
         try {
             clearFormulaResultsCache();
             projectSpace().deleteAllFormulaResults(loadCompoundContainer());
         } catch (IOException e) {
             LoggerFactory.getLogger(getClass()).error("Error when deleting all results from '" + getID() + "'.");
+        } finally {
+            unlockExclusive();
         }
     }
 
-    public synchronized void deleteFormulaResults(@NotNull FormulaResultId... ridToRemove) {
+    public void deleteFormulaResults(@NotNull FormulaResultId... ridToRemove) {
         deleteFormulaResults(Set.of(ridToRemove));
     }
 
-    public synchronized void deleteFormulaResults(@Nullable Collection<FormulaResultId> ridToRemove) {
+    public void deleteFormulaResults(@Nullable Collection<FormulaResultId> ridToRemove) {
         if (ridToRemove == null) {
             deleteFormulaResults();
             return;
         }
-        //load contain methods to ensure that it is available
-        Set<FormulaResultId> rid = new LinkedHashSet<>(loadCompoundContainer().getResultsRO().values());
-        if (ridToRemove.size() == rid.size() && rid.containsAll(ridToRemove)) {
-            deleteFormulaResults();
-            return;
-        }
+        lockExclusive();
+        try {
+            //load contain methods to ensure that it is available
+            Set<FormulaResultId> rid = new LinkedHashSet<>(loadCompoundContainer().getResultsRO().values());
+            if (ridToRemove.size() == rid.size() && rid.containsAll(ridToRemove)) {
+                deleteFormulaResults();
+                return;
+            }
 
-        rid.retainAll(new HashSet<>(ridToRemove));
+            rid.retainAll(new HashSet<>(ridToRemove));
 
-        clearFormulaResultsCache();
+            clearFormulaResultsCache();
 
-        rid.forEach(v -> {
-            try {
-                projectSpace().deleteFormulaResult(compoundCache, v);
-            } catch (IOException e) {
-                LoggerFactory.getLogger(getClass()).error("Error when deleting result '" + v + "' from '" + getID() + "'.");
-            }
-        });
+            rid.forEach(v -> {
+                try {
+                    projectSpace().deleteFormulaResult(compoundCache, v);
+                } catch (IOException e) {
+                    LoggerFactory.getLogger(getClass()).error("Error when deleting result '" + v + "' from '" + getID() + "'.");
+                }
+            });
+        } finally {
+            unlockExclusive();
+        }
     }
 
     //remove from cache
-    public synchronized void clearCompoundCache() {
-        compoundCache.clearAnnotations();
+    public void clearCompoundCache() {
+        lockExclusive();
+        try {
+            compoundCache.clearAnnotations();
+        } finally {
+            unlockExclusive();
+        }
     }
 
     @SafeVarargs
-    public final synchronized void clearCompoundCache(Class<? extends DataAnnotation>... components) {
+    public final void clearCompoundCache(Class<? extends DataAnnotation>... components) {
         if (compoundCache == null)
             return;
-
-        for (Class<? extends DataAnnotation> component : components)
-            compoundCache.removeAnnotation(component);
+        lockExclusive();
+        try {
+            for (Class<? extends DataAnnotation> component : components)
+                compoundCache.removeAnnotation(component);
+        } finally {
+            unlockExclusive();
+        }
     }
 
 
-    public synchronized void clearFormulaResultsCache() {
-        formulaResultCache.clear();
+    public void clearFormulaResultsCache() {
+        lockExclusive();
+        try {
+            formulaResultCache().invalidateAll(compoundCache.getResultsRO().values());
+        } finally {
+            unlockExclusive();
+        }
     }
 
     @SafeVarargs
-    public final synchronized void clearFormulaResultsCache(Class<? extends DataAnnotation>... components) {
-        clearFormulaResultsCache(compoundCache.getResultsRO().values(), components);
+    public final void clearFormulaResultsCache(Class<? extends DataAnnotation>... components) {
+        lockExclusive();
+        try {
+            clearFormulaResultsCache(compoundCache.getResultsRO().values(), components);
+        } finally {
+            unlockExclusive();
+        }
     }
 
     @SafeVarargs
-    public final synchronized void clearFormulaResultsCache(Collection<FormulaResultId> results, Class<? extends DataAnnotation>... components) {
+    public final void clearFormulaResultsCache(Collection<FormulaResultId> results, Class<? extends DataAnnotation>... components) {
         if (components == null || components.length == 0)
             return;
-        for (FormulaResultId result : results)
-            clearFormulaResultCache(result, components);
+        lockExclusive();
+        try {
+            for (FormulaResultId result : results)
+                clearFormulaResultCache(result, components);
+        } finally {
+            unlockExclusive();
+        }
     }
 
     @SafeVarargs
-    public final synchronized void clearFormulaResultCache(FormulaResultId id, Class<? extends DataAnnotation>... components) {
-        if (formulaResultCache.containsKey(id))
-            for (Class<? extends DataAnnotation> comp : components)
-                formulaResultCache.get(id).removeAnnotation(comp);
+    public final void clearFormulaResultCache(FormulaResultId id, Class<? extends DataAnnotation>... components) {
+        lockExclusive();
+        try {
+            formulaResultCache().removeComponents(id, components);
+        } finally {
+            unlockExclusive();
+        }
     }
 
-    public synchronized Optional<FormulaResult> newFormulaResultWithUniqueId(FTree tree) {
-        Optional<FormulaResult> frOpt = projectSpace().newFormulaResultWithUniqueId(compoundCache, tree);
-        frOpt.ifPresent(fr -> formulaResultCache.put(fr.getId(), fr));
-        return frOpt;
+    public Optional<FormulaResult> newFormulaResultWithUniqueId(FTree tree) {
+        lockExclusive();
+        try {
+            Optional<FormulaResult> frOpt = projectSpace().newFormulaResultWithUniqueId(compoundCache, tree);
+            frOpt.ifPresent(fr -> formulaResultCache().put(fr));
+            return frOpt;
+        } finally {
+            unlockExclusive();
+        }
     }
 
 
@@ -60,40 +60,7 @@ class InstanceImportIteratorMS2Exp implements Iterator<Instance> {
             final Ms2Experiment input = ms2ExperimentIterator.next();
             @NotNull Instance inst = spaceManager.newCompoundWithUniqueId(input); //this writers
 
-            // TODO: hacky solution
-            // store LC/MS data into project space
-            // might change in future. Its important that the trace is written after
-            // importing from mzml/mzxml
-            if (input!=null){
-                LCMSPeakInformation lcmsInfo = input.getAnnotation(LCMSPeakInformation.class, LCMSPeakInformation::empty);
-                if (lcmsInfo.isEmpty()) {
-                    // check if there are quantification information
-                    // grab them and remove them
-                    final Quantification quant = input.getAnnotationOrNull(Quantification.class);
-                    if (quant!=null) {
-                        lcmsInfo = new LCMSPeakInformation(quant.asQuantificationTable());
-                        input.removeAnnotation(Quantification.class);
-                    }
-                }
-                if (!lcmsInfo.isEmpty()) {
-                    // store this information into the compound container instead
-                    final CompoundContainer compoundContainer = inst.loadCompoundContainer(LCMSPeakInformation.class);
-                    final Optional<LCMSPeakInformation> annotation = compoundContainer.getAnnotation(LCMSPeakInformation.class);
-                    if (annotation.orElseGet(LCMSPeakInformation::empty).isEmpty()) {
-                        compoundContainer.setAnnotation(LCMSPeakInformation.class, lcmsInfo);
-                        inst.updateCompound(compoundContainer,LCMSPeakInformation.class);
-                    }
-                }
-                // remove annotation from experiment
-                {
-                    final Ms2Experiment exp = inst.getExperiment();
-                    exp.removeAnnotation(LCMSPeakInformation.class);
-                    exp.removeAnnotation(Quantification.class);
-                    inst.updateExperiment();
-                }
-            }
-
-            if (input == null || !filter.test(inst.loadCompoundContainer(Ms2Experiment.class))) {
+            if (!storeLcmsDataAndFilter(inst, input, filter)) {
                 LoggerFactory.getLogger(getClass()).info("Skipping instance " + inst.getID().getDirectoryName() + " because it does not match the Filter criterion.");
                 return hasNext();
             } else {
@@ -104,6 +71,48 @@ class InstanceImportIteratorMS2Exp implements Iterator<Instance> {
         return false;
     }
 
+    /**
+     * Moves LC/MS data of the input experiment into the compound container of the newly created instance.
+     *
+     * @return true if the compound passes the filter
+     */
+    static boolean storeLcmsDataAndFilter(@NotNull Instance inst, Ms2Experiment input, @NotNull Predicate<CompoundContainer> filter) {
+        // TODO: hacky solution
+        // store LC/MS data into project space
+        // might change in future. Its important that the trace is written after
+        // importing from mzml/mzxml
+        if (input!=null){
+            LCMSPeakInformation lcmsInfo = input.getAnnotation(LCMSPeakInformation.class, LCMSPeakInformation::empty);
+            if (lcmsInfo.isEmpty()) {
+                // check if there are quantification information
+                // grab them and remove them
+                final Quantification quant = input.getAnnotationOrNull(Quantification.class);
+                if (quant!=null) {
+                    lcmsInfo = new LCMSPeakInformation(quant.asQuantificationTable());
+                    input.removeAnnotation(Quantification.class);
+                }
+            }
+            if (!lcmsInfo.isEmpty()) {
+                // store this information into the compound container instead
+                final CompoundContainer compoundContainer = inst.loadCompoundContainer(LCMSPeakInformation.class);
+                final Optional<LCMSPeakInformation> annotation = compoundContainer.getAnnotation(LCMSPeakInformation.class);
+                if (annotation.orElseGet(LCMSPeakInformation::empty).isEmpty()) {
+                    compoundContainer.setAnnotation(LCMSPeakInformation.class, lcmsInfo);
+                    inst.updateCompound(compoundContainer,LCMSPeakInformation.class);
+                }
+            }
+            // remove annotation from experiment
+            {
+                final Ms2Experiment exp = inst.getExperiment();
+                exp.removeAnnotation(LCMSPeakInformation.class);
+                exp.removeAnnotation(Quantification.class);
+                inst.updateExperiment();
+            }
+        }
+
+        return input != null && filter.test(inst.loadCompoundContainer(Ms2Experiment.class));
+    }
+
     @Override
     public Instance next() {
         try {
@@ -32,11 +32,13 @@ import de.unijena.bioinf.fingerid.ConfidenceScore;
 import de.unijena.bioinf.fingerid.blast.TopCSIScore;
 import de.unijena.bioinf.fingerid.predictor_types.PredictorType;
 import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.jjobs.JobProgressEvent;
 import de.unijena.bioinf.jjobs.JobProgressEventListener;
 import de.unijena.bioinf.jjobs.JobProgressMerger;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
 import de.unijena.bioinf.ms.frontend.subtools.InputFilesOptions;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusCfData;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
@@ -54,6 +56,7 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -63,6 +66,11 @@ import java.util.stream.Collectors;
 
 public class InstanceImporter {
     protected static final Logger LOG = LoggerFactory.getLogger(InstanceImporter.class);
+    /**
+     * Enables the parallel import of MS input files. Files are parsed concurrently, compound ids are still assigned
+     * in input order, so the resulting ids are the same as in the sequential import.
+     */
+    public static final String PARALLEL_IMPORT_KEY = "de.unijena.bioinf.sirius.import.parallel";
     private final ProjectSpaceManager<?> importTarget;
     private final Predicate<Ms2Experiment> expFilter;
     private final Predicate<CompoundContainerId> cidFilter;
@@ -156,6 +164,14 @@ public class InstanceImporter {
             if (files == null || files.isEmpty())
                 return List.of();
 
+            if (PropertyManager.getBoolean(PARALLEL_IMPORT_KEY, false)) {
+                try {
+                    return importMsParserInputParallel(files);
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException("Error during parallel import of input files!", e);
+                }
+            }
+
             final InstanceImportIteratorMS2Exp it = new MS2ExpInputIterator(files, expFilter, inputFiles.msInput.isIgnoreFormula(), inputFiles.msInput.isAllowMS1Only(), prog)
                     .asInstanceIterator(importTarget, (c) -> cidFilter.test(c.getId()));
             final List<CompoundContainerId> ll = new ArrayList<>();
@@ -175,6 +191,86 @@ public class InstanceImporter {
             return ll;
         }
 
+        /**
+         * Parses the files concurrently into bounded queues and creates the compounds in input order. The remaining
+         * project-space writes (LC/MS data, experiment update) and the compound filter run in batches on a few
+         * writer jobs.
+         */
+        private List<CompoundContainerId> importMsParserInputParallel(List<Path> files) throws InterruptedException, ExecutionException {
+            final int parallelFiles = Math.max(1, PropertyManager.getInteger(PARALLEL_IMPORT_KEY + ".files", SiriusJobs.getCPUThreads()));
+            final int queueSize = Math.max(1, PropertyManager.getInteger(PARALLEL_IMPORT_KEY + ".queueSize", 64));
+            final int writers = Math.max(1, PropertyManager.getInteger(PARALLEL_IMPORT_KEY + ".writers", 4));
+            final int batchSize = Math.max(1, PropertyManager.getInteger(PARALLEL_IMPORT_KEY + ".batchSize", 32));
+
+            // files are read concurrently, so progress events have to be serialized.
+            final JobProgressEventListener syncProg = evt -> {
+                synchronized (prog) {
+                    prog.progressChanged(evt);
+                }
+            };
+            final Predicate<CompoundContainer> compoundFilter = c -> cidFilter.test(c.getId());
+            final List<CompoundContainerId> ll = new ArrayList<>();
+            final ArrayDeque<JJob<List<CompoundContainerId>>> pendingBatches = new ArrayDeque<>(writers);
+
+            synchronized (prog) {
+                if (prog.isDone())
+                    prog.indeterminateProgress(); // just to show something in case only one small file
+            }
+            try (ParallelMS2ExpInputIterator it = new ParallelMS2ExpInputIterator(files, expFilter, inputFiles.msInput.isIgnoreFormula(), inputFiles.msInput.isAllowMS1Only(), syncProg, parallelFiles, queueSize)) {
+                List<Instance> instances = new ArrayList<>(batchSize);
+                List<Ms2Experiment> inputs = new ArrayList<>(batchSize);
+                while (it.hasNext()) {
+                    checkForInterruption();
+                    final Ms2Experiment input = it.next();
+                    instances.add(importTarget.newCompoundWithUniqueId(input)); // ids have to be created in input order
+                    inputs.add(input);
+                    if (instances.size() >= batchSize) {
+                        pendingBatches.add(submitSubJob(makeWriterBatchJob(instances, inputs, compoundFilter)));
+                        instances = new ArrayList<>(batchSize);
+                        inputs = new ArrayList<>(batchSize);
+                        if (pendingBatches.size() >= writers)
+                            collectBatch(pendingBatches.poll(), ll);
+                    }
+                }
+                checkForInterruption();
+                if (!instances.isEmpty())
+                    pendingBatches.add(submitSubJob(makeWriterBatchJob(instances, inputs, compoundFilter)));
+                while (!pendingBatches.isEmpty())
+                    collectBatch(pendingBatches.poll(), ll);
+            } finally {
+                pendingBatches.forEach(j -> j.cancel(false));
+            }
+            return ll;
+        }
+
+        private void collectBatch(JJob<List<CompoundContainerId>> batch, List<CompoundContainerId> ll) throws ExecutionException {
+            for (CompoundContainerId id : batch.awaitResult()) {
+                synchronized (prog) {
+                    if (prog.isDone())
+                        prog.indeterminateProgress(id.getCompoundName());
+                    else
+                        prog.progressMessage(id.getCompoundName());
+                }
+                ll.add(id);
+            }
+        }
+
+        private BasicJJob<List<CompoundContainerId>> makeWriterBatchJob(List<Instance> instances, List<Ms2Experiment> inputs, Predicate<CompoundContainer> compoundFilter) {
+            return new BasicJJob<>(JobType.IO) {
+                @Override
+                protected List<CompoundContainerId> compute() {
+                    final List<CompoundContainerId> ids = new ArrayList<>(instances.size());
+                    for (int i = 0; i < instances.size(); i++) {
+                        final Instance inst = instances.get(i);
+                        if (InstanceImportIteratorMS2Exp.storeLcmsDataAndFilter(inst, inputs.get(i), compoundFilter))
+                            ids.add(inst.getID());
+                        else
+                            LOG.info("Skipping instance " + inst.getID().getDirectoryName() + " because it does not match the Filter criterion.");
+                    }
+                    return ids;
+                }
+            };
+        }
 
         public List<CompoundContainerId> importProjectsInput(List<Path> files) {
             if (files == null || files.isEmpty())
@@ -385,15 +481,15 @@ public class InstanceImporter {
 
             Predicate<String> r;
             r = checkDataCompatibility((fdNeg != null || fdPos != null) ? new FingerIdDataProperty(fdPos, fdNeg) : null,
-                    FingerIdData.class, ApplicationCore.WEB_API::getFingerIdData, importTarget, interrupted);
+                    FingerIdData.class, ApplicationCore.webAPI()::getFingerIdData, importTarget, interrupted);
             if (r != null) return r;
 
             r = checkDataCompatibility((cdNeg != null || cdPos != null) ? new CanopusCfDataProperty(cdPos, cdNeg) : null,
-                    CanopusCfData.class, ApplicationCore.WEB_API::getCanopusCfData, importTarget, interrupted);
+                    CanopusCfData.class, ApplicationCore.webAPI()::getCanopusCfData, importTarget, interrupted);
             if (r != null) return r;
 
             r = checkDataCompatibility((npcNeg != null || npcPos != null) ? new CanopusNpcDataProperty(npcPos, npcNeg) : null,
-                    CanopusNpcData.class, ApplicationCore.WEB_API::getCanopusNpcData, importTarget, interrupted);
+                    CanopusNpcData.class, ApplicationCore.webAPI()::getCanopusNpcData, importTarget, interrupted);
             return r;
         } finally {
             FileUtils.closeIfNotDefaultFS(toImportPath);
@@ -412,13 +508,13 @@ public class InstanceImporter {
     public static Predicate<String> checkDataCompatibility(@NotNull SiriusProjectSpace toImport, @Nullable ProjectSpaceManager<?> importTarget, NetUtils.InterruptionCheck interrupted) {
         Predicate<String> r;
         r = checkDataCompatibility(toImport.getProjectSpaceProperty(FingerIdDataProperty.class).orElse(null),
-                FingerIdData.class, ApplicationCore.WEB_API::getFingerIdData, importTarget, interrupted);
+                FingerIdData.class, ApplicationCore.webAPI()::getFingerIdData, importTarget, interrupted);
         if (r != null) return r;
         r = checkDataCompatibility(toImport.getProjectSpaceProperty(CanopusCfDataProperty.class).orElse(null),
-                CanopusCfData.class, ApplicationCore.WEB_API::getCanopusCfData, importTarget, interrupted);
+                CanopusCfData.class, ApplicationCore.webAPI()::getCanopusCfData, importTarget, interrupted);
         if (r != null) return r;
         r = checkDataCompatibility(toImport.getProjectSpaceProperty(CanopusNpcDataProperty.class).orElse(null),
-                CanopusNpcData.class, ApplicationCore.WEB_API::getCanopusNpcData, importTarget, interrupted);
+                CanopusNpcData.class, ApplicationCore.webAPI()::getCanopusNpcData, importTarget, interrupted);
         return r;
     }
 
@@ -28,7 +28,7 @@ import de.unijena.bioinf.ChemistryBase.ms.Spectrum;
 import de.unijena.bioinf.ChemistryBase.ms.inputValidators.Warning;
 import de.unijena.bioinf.babelms.GenericParser;
 import de.unijena.bioinf.babelms.MsExperimentParser;
-import de.unijena.bioinf.jjobs.JobProgressMerger;
+import de.unijena.bioinf.jjobs.JobProgressEventListener;
 import de.unijena.bioinf.jjobs.ProgressInputStream;
 import de.unijena.bioinf.sirius.Sirius;
 import de.unijena.bioinf.sirius.validation.Ms1Validator;
@@ -58,7 +58,7 @@ public class MS2ExpInputIterator implements InstIterProvider {
     private final boolean allowMS1Only;
 
     @Nullable
-    private final JobProgressMerger progress;
+    private final JobProgressEventListener progress;
 
     Path currentFile;
     Iterator<Ms2Experiment> currentExperimentIterator;
@@ -67,7 +67,11 @@ public class MS2ExpInputIterator implements InstIterProvider {
         this(input, (exp) -> exp.getIonMass() <= maxMz, ignoreFormula, allowMS1Only, null);
     }
 
-    public MS2ExpInputIterator(Collection<Path> input, Predicate<Ms2Experiment> filter, boolean ignoreFormula, boolean allowMS1Only, @Nullable JobProgressMerger progress) {
+    /**
+     * @param progress listener for the reading progress of the files, e.g. a {@link de.unijena.bioinf.jjobs.JobProgressMerger}
+     *                 that has the files preloaded.
+     */
+    public MS2ExpInputIterator(Collection<Path> input, Predicate<Ms2Experiment> filter, boolean ignoreFormula, boolean allowMS1Only, @Nullable JobProgressEventListener progress) {
         this.progress = progress;
         this.fileIter = input.iterator();
         this.filter = filter;
@@ -0,0 +1,176 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JobProgressEventListener;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Parses multiple input files concurrently but returns the {@link Ms2Experiment}s in the same order as a
+ * {@link MS2ExpInputIterator} over the same files would do. Each file is parsed by its own job into a bounded queue,
+ * at most {@code parallelFiles} files are parsed ahead of the file that is currently consumed.
+ * <p>
+ * The progress listener is called from multiple threads and has to be thread safe.
+ */
+class ParallelMS2ExpInputIterator implements Iterator<Ms2Experiment>, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelMS2ExpInputIterator.class);
+    private static final Object END = new Object();
+    private static final long POLL_MS = 100;
+
+    private final Iterator<Path> fileIter;
+    private final Predicate<Ms2Experiment> filter;
+    private final boolean ignoreFormula;
+    private final boolean allowMS1Only;
+    @Nullable
+    private final JobProgressEventListener progress;
+    private final int parallelFiles;
+    private final int queueCapacity;
+
+    private final ArrayDeque<FileParserJob> parsers = new ArrayDeque<>();
+    private Ms2Experiment next = null;
+
+    public ParallelMS2ExpInputIterator(List<Path> input, Predicate<Ms2Experiment> filter, boolean ignoreFormula, boolean allowMS1Only, @Nullable JobProgressEventListener progress, int parallelFiles, int queueCapacity) {
+        this.fileIter = input.iterator();
+        this.filter = filter;
+        this.ignoreFormula = ignoreFormula;
+        this.allowMS1Only = allowMS1Only;
+        this.progress = progress;
+        this.parallelFiles = Math.max(1, parallelFiles);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        fillParsers();
+    }
+
+    private void fillParsers() {
+        while (parsers.size() < parallelFiles && fileIter.hasNext()) {
+            final FileParserJob parser = new FileParserJob(fileIter.next());
+            SiriusJobs.getGlobalJobManager().submitJob(parser);
+            parsers.add(parser);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !parsers.isEmpty()) {
+                next = parsers.peek().take();
+                if (next == null) {
+                    parsers.poll();
+                    fillParsers();
+                }
+            }
+            return next != null;
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public Ms2Experiment next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        try {
+            return next;
+        } finally {
+            next = null;
+        }
+    }
+
+    /**
+     * Cancels all parsers that are still running.
+     */
+    @Override
+    public void close() {
+        parsers.forEach(p -> p.cancel(true));
+        parsers.clear();
+    }
+
+    private class FileParserJob extends BasicJJob<Boolean> {
+        private final Path file;
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        private FileParserJob(Path file) {
+            super(JobType.CPU);
+            this.file = file;
+        }
+
+        @Override
+        protected Boolean compute() throws Exception {
+            try {
+                final MS2ExpInputIterator it = new MS2ExpInputIterator(List.of(file), filter, ignoreFormula, allowMS1Only, progress);
+                while (it.hasNext())
+                    put(it.next());
+            } finally {
+                put(END);
+            }
+            return true;
+        }
+
+        private void put(Object element) throws InterruptedException {
+            while (!queue.offer(element, POLL_MS, TimeUnit.MILLISECONDS))
+                checkForInterruption();
+        }
+
+        /**
+         * @return next experiment of the file or null if the file has been parsed completely or parsing failed.
+         * Like in {@link MS2ExpInputIterator}, a file that cannot be parsed is logged and skipped.
+         */
+        private Ms2Experiment take() throws InterruptedException {
+            while (true) {
+                final Object element = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (element == END)
+                    return endOfFile();
+                if (element != null)
+                    return (Ms2Experiment) element;
+                if (isFinished() && queue.isEmpty())
+                    return endOfFile(); // parser failed or was cancelled before the end marker could be added
+            }
+        }
+
+        private Ms2Experiment endOfFile() {
+            try {
+                awaitResult(); // the end marker is added before the job is finished
+            } catch (ExecutionException e) {
+                if (getState() == JobState.CANCELED)
+                    LOG.debug("Parsing of file '" + file + "' has been cancelled.", e);
+                else
+                    LOG.error("Cannot parse file '" + file + "':\n", e.getCause() != null ? e.getCause() : e);
+            }
+            return null;
+        }
+    }
+}
@@ -51,7 +51,9 @@ import de.unijena.bioinf.projectspace.canopus.CanopusSerializer;
 import de.unijena.bioinf.projectspace.fingerid.*;
 import de.unijena.bioinf.projectspace.summaries.CanopusSummaryWriter;
 import de.unijena.bioinf.projectspace.summaries.FormulaSummaryWriter;
+import de.unijena.bioinf.projectspace.summaries.IncrementalSummaryCache;
 import de.unijena.bioinf.projectspace.summaries.StructureSummaryWriter;
+import de.unijena.bioinf.projectspace.summaries.SummaryDirtyTracker;
 import de.unijena.bioinf.projectspace.summaries.mztab.MztabMExporter;
 import de.unijena.bioinf.rest.NetUtils;
 import de.unijena.bioinf.sirius.scores.IsotopeScore;
@@ -65,6 +67,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
@@ -119,6 +122,10 @@ public class ProjectSpaceManager<I extends Instance> implements IterableWithSize
     public final BiFunction<Integer, String, String> namingScheme;
     private Predicate<CompoundContainerId> compoundIdFilter;
     protected final InstanceFactory<I> instFac;
+    private final FormulaResultCache formulaResultCache = new FormulaResultCache();
+    private CompoundIndex compoundIndex;
+    private boolean compoundIndexFailed = false;
+    private SummaryDirtyTracker summaryDirtyTracker;
 
 
     public ProjectSpaceManager(@NotNull SiriusProjectSpace space, @NotNull InstanceFactory<I> factory, @Nullable Function<Ms2Experiment, String> formatter) {
@@ -133,12 +140,60 @@ public class ProjectSpaceManager<I extends Instance> implements IterableWithSize
                     return f;
                 });
         this.namingScheme = (idx, name) -> idx + "_" + name;
+        // keep an existing index up to date, new indices are only created on request.
+        if (Files.exists(CompoundIndex.sidecarLocation(space.getLocation())))
+            getCompoundIndex();
+        // changes have to be tracked as soon as incremental summaries have been written once.
+        if (Files.exists(IncrementalSummaryCache.sidecarLocation(space.getLocation(), IncrementalSummaryCache.FILE_NAME)))
+            getSummaryDirtyTracker();
     }
 
     public SiriusProjectSpace projectSpace() {
         return space;
     }
 
+    /**
+     * @return cache for the formula results of all instances of this project-space.
+     */
+    public FormulaResultCache getFormulaResultCache() {
+        return formulaResultCache;
+    }
+
+
+    /**
+     * Opens (or creates) the columnar compound index of this project-space.
+     *
+     * @return the index or empty if it cannot be opened, e.g. because it is used by another process.
+     */
+    public synchronized Optional<CompoundIndex> getCompoundIndex() {
+        if (compoundIndex == null && !compoundIndexFailed) {
+            try {
+                compoundIndex = CompoundIndex.open(space);
+            } catch (IOException | RuntimeException e) {
+                // changes made without the index are detected by their modification stamps when it is opened again
+                compoundIndexFailed = true;
+                LoggerFactory.getLogger(getClass()).warn("Could not open compound index. Falling back to loading data from the project-space. Cause: " + e.getMessage());
+            }
+        }
+        return Optional.ofNullable(compoundIndex);
+    }
+
+    /**
+     * @return the compound index if it has already been opened, without opening it.
+     */
+    synchronized Optional<CompoundIndex> openedCompoundIndex() {
+        return Optional.ofNullable(compoundIndex);
+    }
+
+    /**
+     * @return tracker that records the compounds changed since the last incremental summary run. Tracking starts
+     * with the first call.
+     */
+    public synchronized SummaryDirtyTracker getSummaryDirtyTracker() {
+        if (summaryDirtyTracker == null)
+            summaryDirtyTracker = SummaryDirtyTracker.start(space);
+        return summaryDirtyTracker;
+    }
 
     @NotNull
     public I newCompoundWithUniqueId(Ms2Experiment inputExperiment) {
@@ -166,6 +221,19 @@ public class ProjectSpaceManager<I extends Instance> implements IterableWithSize
         }
     }
 
+    // weak values, a lock is kept as long as any instance of its compound exists
+    private final ReferenceMap compoundLocks = new ReferenceMap(AbstractReferenceMap.HARD, AbstractReferenceMap.WEAK, true);
+
+    /**
+     * @return locks of the given compound that are shared by all {@link Instance}s of this compound, since they
+     * share the cached formula results.
+     */
+    CompoundLock compoundLock(@NotNull CompoundContainerId id) {
+        synchronized (compoundLocks) {
+            return (CompoundLock) compoundLocks.computeIfAbsent(id.getDirectoryName(), k -> new CompoundLock());
+        }
+    }
+
     private static final ReferenceMap instanceCache = new ReferenceMap(AbstractReferenceMap.HARD, AbstractReferenceMap.WEAK, true);
 
     @SafeVarargs
@@ -280,11 +348,38 @@ public class ProjectSpaceManager<I extends Instance> implements IterableWithSize
     }
 
     public void close() throws IOException {
+        LoggerFactory.getLogger(getClass()).debug("Closing project-space. " + formulaResultCache);
+        formulaResultCache.invalidateAll();
+        synchronized (this) {
+            if (compoundIndex != null) {
+                try {
+                    compoundIndex.close();
+                } catch (IOException e) {
+                    LoggerFactory.getLogger(getClass()).warn("Could not close compound index.", e);
+                }
+                compoundIndex = null;
+            }
+            if (summaryDirtyTracker != null) {
+                try {
+                    summaryDirtyTracker.close();
+                } catch (IOException e) {
+                    LoggerFactory.getLogger(getClass()).warn("Could not close summary change tracker.", e);
+                }
+                summaryDirtyTracker = null;
+            }
+        }
         space.close();
     }
 
     private final Map<Class<? extends PosNegFpProperty<?, ?>>, Boolean> dataCompatibilityCache = new HashMap<>();
 
+    /**
+     * If true, fingerprint data retrieved from the server for the compatibility check is kept for the lifetime of
+     * the JVM instead of being requested again for every project (e.g. for long-running daemons).
+     */
+    public static final String CACHE_SERVER_DATA_KEY = "de.unijena.bioinf.sirius.project-check.cacheServerData";
+    private static final Map<String, FingerprintData<?>> serverDataCache = new HashMap<>();
+
     /**
      * This checks whether the data files are compatible with them on the server. Since have had versions of the PS with
      * incomplete data files it also loads missing files from the server but only if the existing ones are compatible.
@@ -303,9 +398,9 @@ public class ProjectSpaceManager<I extends Instance> implements IterableWithSize
         synchronized (dataCompatibilityCache) {
             try {
 
-                checkFingerprintData(FingerIdDataProperty.class, FingerIdData.class, ApplicationCore.WEB_API::getFingerIdData, interrupted);
-                checkFingerprintData(CanopusCfDataProperty.class, CanopusCfData.class, ApplicationCore.WEB_API::getCanopusCfData, interrupted);
-                checkFingerprintData(CanopusNpcDataProperty.class, CanopusNpcData.class, ApplicationCore.WEB_API::getCanopusNpcData, interrupted);
+                checkFingerprintData(FingerIdDataProperty.class, FingerIdData.class, ApplicationCore.webAPI()::getFingerIdData, interrupted);
+                checkFingerprintData(CanopusCfDataProperty.class, CanopusCfData.class, ApplicationCore.webAPI()::getCanopusCfData, interrupted);
+                checkFingerprintData(CanopusNpcDataProperty.class, CanopusNpcData.class, ApplicationCore.webAPI()::getCanopusNpcData, interrupted);
 
                 return dataCompatibilityCache.values().stream().reduce((a, b) -> a && b).orElse(true);
             } catch (Exception e) {
@@ -316,9 +411,25 @@ public class ProjectSpaceManager<I extends Instance> implements IterableWithSize
         }
     }
 
+    private static <D extends FingerprintData<?>> D cachedServerData(Class<D> dataClz, PredictorType type, IOFunctions.IOFunction<PredictorType, D> loader) throws IOException {
+        final String key = dataClz.getName() + "_" + type;
+        synchronized (serverDataCache) {
+            D data = dataClz.cast(serverDataCache.get(key));
+            if (data == null) {
+                data = loader.apply(type);
+                if (data != null)
+                    serverDataCache.put(key, data);
+            }
+            return data;
+        }
+    }
+
     private <F extends FingerprintVersion, D extends FingerprintData<F>, P extends PosNegFpProperty<F, D>> void checkFingerprintData(
-            Class<P> propClz, Class<D> propDataClz, IOFunctions.IOFunction<PredictorType, D> dataLoader, NetUtils.InterruptionCheck interrupted)
+            Class<P> propClz, Class<D> propDataClz, IOFunctions.IOFunction<PredictorType, D> serverDataLoader, NetUtils.InterruptionCheck interrupted)
             throws InterruptedException, TimeoutException {
+        final IOFunctions.IOFunction<PredictorType, D> dataLoader = PropertyManager.getBoolean(CACHE_SERVER_DATA_KEY, null, false)
+                ? type -> cachedServerData(propDataClz, type, serverDataLoader)
+                : serverDataLoader;
         try {
             if (!dataCompatibilityCache.containsKey(propClz)) {
                 final P cd = getProjectSpaceProperty(propClz).orElse(null);
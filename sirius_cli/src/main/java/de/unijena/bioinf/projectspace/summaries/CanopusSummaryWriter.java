@@ -39,12 +39,13 @@ import de.unijena.bioinf.util.Iterators;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
-public class CanopusSummaryWriter extends CandidateSummarizer {
+public class CanopusSummaryWriter extends CandidateSummarizer implements IncrementalSummarizer {
 
     protected static class CanopusSummaryRow {
         private final ProbabilityFingerprint[] cfClassifications;
@@ -129,17 +130,11 @@ public class CanopusSummaryWriter extends CandidateSummarizer {
         }
     }
 
-    private final List<CanopusSummaryRow> rowsBySiriusScoreAll;
-    private final List<CanopusSummaryRow> rowsBySiriusScore;
-    private final List<CanopusSummaryRow> rowsByCSIScore;
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    private final AtomicInteger numStructureResults = new AtomicInteger(0);
+    // rendered project wide rows by compound directory name
+    private final ShardedRowBuffer<CompoundRows> compoundRows = new ShardedRowBuffer<>();
 
     public CanopusSummaryWriter(boolean writeTopHitGlobal, boolean writeTopHitWithAdductsGlobal, boolean writeFullGlobal) {
         super(writeTopHitGlobal, writeTopHitWithAdductsGlobal, writeFullGlobal);
-        rowsByCSIScore = writeTopHitGlobal || writeTopHitWithAdductsGlobal ? new ArrayList<>() : null;
-        rowsBySiriusScore = writeTopHitGlobal || writeTopHitWithAdductsGlobal ? new ArrayList<>() : null;
-        rowsBySiriusScoreAll = writeFullGlobal ? new ArrayList<>() : null;
     }
 
     @Override
@@ -150,19 +145,33 @@ public class CanopusSummaryWriter extends CandidateSummarizer {
     @Override
     public void addWriteCompoundSummary(ProjectWriter writer, @NotNull CompoundContainer exp, List<? extends SScored<FormulaResult, ? extends FormulaScore>> results) throws IOException {
         if (!results.isEmpty()) {
-            if (rowsBySiriusScore != null)
-                addToRows(rowsBySiriusScore, FormulaScoring.reRankBy(results, List.of(ZodiacScore.class, SiriusScore.class, TreeScore.class, IsotopeScore.class), true), false);
-            if (rowsByCSIScore != null) {
-                if (results.stream().anyMatch(it -> it.getCandidate().hasAnnotation(FBCandidates.class)))
-                    numStructureResults.incrementAndGet();
-                addToRows(rowsByCSIScore, FormulaScoring.reRankBy(results, List.of(TopCSIScore.class, ZodiacScore.class, SiriusScore.class, TreeScore.class, IsotopeScore.class), true), false);
+            final CompoundRows rows = new CompoundRows();
+            if (writeTopHitGlobal || writeTopHitWithAdductsGlobal) {
+                final CanopusSummaryRow row = toRow(FormulaScoring.reRankBy(results, List.of(ZodiacScore.class, SiriusScore.class, TreeScore.class, IsotopeScore.class), true), false);
+                if (row != null) {
+                    if (writeTopHitGlobal)
+                        rows.bySiriusScore = render(new IterateOverFormulas(List.of(row)));
+                    if (writeTopHitWithAdductsGlobal)
+                        rows.bySiriusScoreAdducts = render(new IterateOverAdducts(List.of(row)));
+                }
+            }
+            if (writeTopHitGlobal) {
+                rows.hasStructureResults = results.stream().anyMatch(it -> it.getCandidate().hasAnnotation(FBCandidates.class));
+                final CanopusSummaryRow csiRow = toRow(FormulaScoring.reRankBy(results, List.of(TopCSIScore.class, ZodiacScore.class, SiriusScore.class, TreeScore.class, IsotopeScore.class), true), false);
+                if (csiRow != null)
+                    rows.byCSIScore = render(new IterateOverFormulas(List.of(csiRow)));
             }
-            if (rowsBySiriusScoreAll != null)
-                addToRows(rowsBySiriusScoreAll, FormulaScoring.reRankBy(results, List.of(ZodiacScore.class, SiriusScore.class, TreeScore.class, IsotopeScore.class), true), true);
+            if (writeFullGlobal) {
+                final CanopusSummaryRow row = toRow(FormulaScoring.reRankBy(results, List.of(ZodiacScore.class, SiriusScore.class, TreeScore.class, IsotopeScore.class), true), true);
+                if (row != null)
+                    rows.bySiriusScoreAll = render(new IterateOverAdducts(List.of(row)));
+            }
+
+            compoundRows.put(exp.getId().getDirectoryName(), rows);
         }
     }
 
-    private void addToRows(List<CanopusSummaryRow> rows, List<? extends SScored<FormulaResult, ? extends FormulaScore>> results, boolean all) {
+    private CanopusSummaryRow toRow(List<? extends SScored<FormulaResult, ? extends FormulaScore>> results, boolean all) {
         // sometimes we have multiple results with same score (adducts!). In this case, we list all of them in
         // a separate summary file
         int i = 0;
@@ -186,48 +195,121 @@ public class CanopusSummaryWriter extends CandidateSummarizer {
             });
             ++i;
         } while (i < results.size() && (results.get(i).getCandidate().getId().getPrecursorFormula().equals(results.get(0).getCandidate().getId().getPrecursorFormula()) || all));
-        if (cfFingerprints.size() > 0) {
-            lock.writeLock().lock();
-            try {
-                rows.add(new CanopusSummaryRow(
-                        cfFingerprints.toArray(ProbabilityFingerprint[]::new),
-                        npcFingerprints.toArray(ProbabilityFingerprint[]::new),
-                        formulas.toArray(MolecularFormula[]::new),
-                        preForms.toArray(MolecularFormula[]::new),
-                        ionTypes.toArray(PrecursorIonType[]::new),
-                        id.getParentId().getDirectoryName(),
-                        id.getParentId().getFeatureId().orElse("N/A")
-                ));
-            } finally {
-                lock.writeLock().unlock();
-            }
-        }
+        if (cfFingerprints.isEmpty())
+            return null;
+
+        return new CanopusSummaryRow(
+                cfFingerprints.toArray(ProbabilityFingerprint[]::new),
+                npcFingerprints.toArray(ProbabilityFingerprint[]::new),
+                formulas.toArray(MolecularFormula[]::new),
+                preForms.toArray(MolecularFormula[]::new),
+                ionTypes.toArray(PrecursorIonType[]::new),
+                id.getParentId().getDirectoryName(),
+                id.getParentId().getFeatureId().orElse("N/A")
+        );
+    }
+
+    /**
+     * Renders the rows once, so that only the table cells (and not the fingerprints) have to be kept until the
+     * project wide summary is written.
+     */
+    private static List<String[]> render(Iterator<String[]> rows) {
+        final List<String[]> cells = new ArrayList<>();
+        while (rows.hasNext())
+            cells.add(rows.next().clone()); // iterators reuse their column array
+        return cells;
     }
 
     @Override
     public void writeProjectSpaceSummary(ProjectWriter writer) throws IOException {
-        lock.readLock().lock();
-        try {
-            if (rowsBySiriusScore != null && (writeTopHitGlobal || writeTopHitWithAdductsGlobal)) {
-                rowsBySiriusScore.sort(Comparator.comparing(c -> c.id, Utils.ALPHANUMERIC_COMPARATOR));
-                if (writeTopHitGlobal)
-                    writer.table(SummaryLocations.CANOPUS_FORMULA_SUMMARY, HEADER, Iterators.capture(new IterateOverFormulas(rowsBySiriusScore)));
-                if (writeTopHitWithAdductsGlobal)
-                    writer.table(SummaryLocations.CANOPUS_FOMRULA_SUMMARY_ADDUCTS, HEADER, Iterators.capture(new IterateOverAdducts(rowsBySiriusScore)));
-            }
-            if (writeTopHitGlobal && rowsByCSIScore != null && numStructureResults.get() > 0) {
-                rowsByCSIScore.sort(Comparator.comparing(c -> c.id, Utils.ALPHANUMERIC_COMPARATOR));
-                writer.table(SummaryLocations.CANOPUS_COMPOUND_SUMMARY, HEADER, Iterators.capture(new IterateOverFormulas(rowsByCSIScore)));
-            }
-            if (writeFullGlobal && rowsBySiriusScoreAll != null) {
-                rowsBySiriusScoreAll.sort(Comparator.comparing(c -> c.id, Utils.ALPHANUMERIC_COMPARATOR));
-                writer.table(SummaryLocations.CANOPUS_FOMRULA_SUMMARY_ALL, HEADER, Iterators.capture(new IterateOverAdducts(rowsBySiriusScoreAll)));
+        final List<CompoundRows> rows = compoundRows.merge().entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(Utils.ALPHANUMERIC_COMPARATOR))
+                .map(Map.Entry::getValue).toList();
+
+        if (writeTopHitGlobal)
+            writer.table(SummaryLocations.CANOPUS_FORMULA_SUMMARY, HEADER, Iterators.capture(cells(rows, r -> r.bySiriusScore)));
+        if (writeTopHitWithAdductsGlobal)
+            writer.table(SummaryLocations.CANOPUS_FOMRULA_SUMMARY_ADDUCTS, HEADER, Iterators.capture(cells(rows, r -> r.bySiriusScoreAdducts)));
+        if (writeTopHitGlobal && rows.stream().anyMatch(r -> r.hasStructureResults))
+            writer.table(SummaryLocations.CANOPUS_COMPOUND_SUMMARY, HEADER, Iterators.capture(cells(rows, r -> r.byCSIScore)));
+        if (writeFullGlobal)
+            writer.table(SummaryLocations.CANOPUS_FOMRULA_SUMMARY_ALL, HEADER, Iterators.capture(cells(rows, r -> r.bySiriusScoreAll)));
+    }
+
+    private static Iterator<String[]> cells(List<CompoundRows> rows, Function<CompoundRows, List<String[]>> table) {
+        return rows.stream().map(table).filter(Objects::nonNull).flatMap(List::stream).iterator();
+    }
+
+    //region incremental summaries
+    @Override
+    public @NotNull String getCacheKey() {
+        return "canopus:" + writeTopHitGlobal + ":" + writeTopHitWithAdductsGlobal + ":" + writeFullGlobal;
+    }
+
+    @Override
+    public void exportCompoundRows(@NotNull String dirName, @NotNull DataOutput out) throws IOException {
+        final CompoundRows rows = compoundRows.get(dirName);
+
+        out.writeBoolean(rows != null);
+        if (rows == null)
+            return;
+
+        out.writeBoolean(rows.hasStructureResults);
+        writeCells(out, rows.bySiriusScore);
+        writeCells(out, rows.bySiriusScoreAdducts);
+        writeCells(out, rows.byCSIScore);
+        writeCells(out, rows.bySiriusScoreAll);
+    }
+
+    @Override
+    public void importCompoundRows(@NotNull String dirName, @NotNull DataInput in) throws IOException {
+        if (!in.readBoolean())
+            return;
+
+        final CompoundRows rows = new CompoundRows();
+        rows.hasStructureResults = in.readBoolean();
+        rows.bySiriusScore = readCells(in);
+        rows.bySiriusScoreAdducts = readCells(in);
+        rows.byCSIScore = readCells(in);
+        rows.bySiriusScoreAll = readCells(in);
+
+        compoundRows.put(dirName, rows);
+    }
+
+    private static void writeCells(DataOutput out, List<String[]> cells) throws IOException {
+        out.writeInt(cells == null ? -1 : cells.size());
+        if (cells != null) {
+            for (String[] row : cells) {
+                out.writeInt(row.length);
+                for (String cell : row)
+                    IncrementalSummaryCache.writeString(out, cell == null ? "" : cell);
             }
-        } finally {
-            lock.readLock().unlock();
         }
     }
 
+    private static List<String[]> readCells(DataInput in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0)
+            return null;
+        final List<String[]> cells = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final String[] row = new String[in.readInt()];
+            for (int j = 0; j < row.length; j++)
+                row[j] = IncrementalSummaryCache.readString(in);
+            cells.add(row);
+        }
+        return cells;
+    }
+    //endregion
+
+    private static class CompoundRows {
+        List<String[]> bySiriusScore;
+        List<String[]> bySiriusScoreAdducts;
+        List<String[]> byCSIScore;
+        List<String[]> bySiriusScoreAll;
+        boolean hasStructureResults;
+    }
+
     private final static String[]
             HEADER = new String[]{"id", "molecularFormula", "adduct", "precursorFormula",
             "NPC#pathway", "NPC#pathway Probability", "NPC#superclass", "NPC#superclass Probability",
@@ -39,33 +39,25 @@ import de.unijena.bioinf.sirius.scores.SiriusScore;
 import de.unijena.bioinf.sirius.scores.TreeScore;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
-public class FormulaSummaryWriter extends CandidateSummarizer {
+public class FormulaSummaryWriter extends CandidateSummarizer implements IncrementalSummarizer {
 
     final static List<Class<? extends FormulaScore>> RANKING_SCORES = List.of(ZodiacScore.class, SiriusScore.class, TreeScore.class, IsotopeScore.class, TopCSIScore.class);
     final static List<Class<? extends FormulaScore>> RANKING_SCORES_SELECTING_TOP1 = List.of(ZodiacScore.class, SiriusScore.class, TreeScore.class, IsotopeScore.class);
 
-    private final Lock lock = new ReentrantLock();
-
-    final LinkedHashMap<Class<? extends FormulaScore>, String> globalTypes = new LinkedHashMap<>();
-    final Set<ResultEntry> globalResults;
-    final Set<ResultEntry> globalResultsWithAdducts;
-    final Map<ResultEntry, List<SScored<ResultEntry, ? extends FormulaScore>>> globalResultsAll;
+    // project wide rows by compound directory name
+    final ShardedRowBuffer<CompoundRows> globalRows = new ShardedRowBuffer<>();
 
     public FormulaSummaryWriter(boolean writeTopHitGlobal, boolean writeTopHitWithAdductsGlobal, boolean writeFullGlobal) {
         super(writeTopHitGlobal, writeTopHitWithAdductsGlobal, writeFullGlobal);
-        globalResults = writeTopHitGlobal ? new HashSet<>() : null;
-        globalResultsWithAdducts = writeTopHitWithAdductsGlobal ? new HashSet<>() : null;
-        globalResultsAll = writeFullGlobal ? new HashMap<>() : null;
     }
 
     @Override
@@ -100,29 +92,22 @@ public class FormulaSummaryWriter extends CandidateSummarizer {
         }
         List<? extends SScored<ResultEntry, ? extends FormulaScore>> topResultWithAdducts = extractAllTopScoringResults(results, RANKING_SCORES_SELECTING_TOP1);
 
+        final LinkedHashMap<Class<? extends FormulaScore>, String> types = new LinkedHashMap<>();
+        results.forEach(r -> r.getCandidate().getScoring().annotations().forEach((key, value) -> {
+            if (value != null && !value.isNa())
+                types.putIfAbsent(value.getClass(), value.name());
+        }));
+
+        final CompoundRows rows = new CompoundRows(new LinkedHashMap<>(types));
+        if (writeTopHitGlobal)
+            rows.top = /*topResultWithAdducts.size() > 1 ? resolveIonizationOnly(r.getCandidate()) :*/ results.get(0).getCandidate();
+        if (writeTopHitWithAdductsGlobal)
+            rows.topWithAdducts = topResultWithAdducts.stream().map(SScored::getCandidate).toList();
+        if (writeFullGlobal)
+            rows.all = results.stream().map(SScored::getCandidate).toList();
 
         writer.inDirectory(exp.getId().getDirectoryName(), () -> {
             writer.textFile(SummaryLocations.FORMULA_CANDIDATES, w -> {
-                LinkedHashMap<Class<? extends FormulaScore>, String> types = new LinkedHashMap<>();
-
-                final AtomicBoolean first = new AtomicBoolean(true);
-
-                results.forEach(r -> {
-                    FormulaScoring s = r.getCandidate().getScoring();
-                    if (first.getAndSet(false)) {
-                        if (globalResults != null) {
-                            ResultEntry bestResult = /*topResultWithAdducts.size() > 1 ? resolveIonizationOnly(r.getCandidate()) :*/ r.getCandidate();
-                            withLock(() -> this.globalResults.add(bestResult));
-                        }
-                    }
-                    s.annotations().forEach((key, value) -> {
-                        if (value != null && !value.isNa()) {
-                            types.putIfAbsent(value.getClass(), value.name());
-                            withLock(() -> this.globalTypes.putIfAbsent(value.getClass(), value.name()));
-                        }
-                    });
-                });
-
                 //writing stuff
                 types.remove(TopCSIScore.class);
                 types.remove(ConfidenceScore.class);
@@ -139,13 +124,7 @@ public class FormulaSummaryWriter extends CandidateSummarizer {
             return true;
         });
 
-        if (globalResultsWithAdducts != null || globalResultsAll != null)
-            withLock(() -> {
-                if (globalResultsWithAdducts != null)
-                    topResultWithAdducts.forEach(r -> this.globalResultsWithAdducts.add(r.getCandidate()));
-                if (globalResultsAll != null)
-                    globalResultsAll.put(results.get(0).getCandidate(), new ArrayList<>(results));
-            });
+        globalRows.put(exp.getId().getDirectoryName(), rows);
     }
 
     private List<SScored<ResultEntry, ? extends FormulaScore>> extractAllTopScoringResults(List<? extends SScored<ResultEntry, ? extends FormulaScore>> sortedResults, List<Class<? extends FormulaScore>> rankingScores) {
@@ -164,34 +143,105 @@ public class FormulaSummaryWriter extends CandidateSummarizer {
 
     @Override
     public void writeProjectSpaceSummary(ProjectWriter writer) throws IOException {
-        lock.lock();
-        try {
-            globalTypes.remove(ConfidenceScore.class);
-            globalTypes.remove(TopCSIScore.class);
+        final List<CompoundRows> rows = globalRows.merge().entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(Utils.ALPHANUMERIC_COMPARATOR))
+                .map(Map.Entry::getValue).toList();
+
+        final LinkedHashMap<Class<? extends FormulaScore>, String> globalTypes = new LinkedHashMap<>();
+        rows.forEach(r -> r.types.forEach(globalTypes::putIfAbsent));
+        globalTypes.remove(ConfidenceScore.class);
+        globalTypes.remove(TopCSIScore.class);
+
+        if (writeTopHitGlobal) {
+            final List<ResultEntry> r = rows.stream().map(c -> c.top).filter(Objects::nonNull).toList();
+            writer.textFile(SummaryLocations.FORMULA_SUMMARY, w -> writeCSV(w, globalTypes, r, true));
+        }
 
-            if (globalResults != null) {
-                final List<ResultEntry> r = globalResults.stream()
-                        .sorted(Comparator.comparing(s -> s.dirName, Utils.ALPHANUMERIC_COMPARATOR)).toList();
-                writer.textFile(SummaryLocations.FORMULA_SUMMARY, w -> writeCSV(w, globalTypes, r, true));
-            }
+        if (writeTopHitWithAdductsGlobal) {
+            final List<ResultEntry> rAdducts = rows.stream().flatMap(c -> c.topWithAdducts.stream()).toList();
+            writer.textFile(SummaryLocations.FORMULA_SUMMARY_ADDUCTS, w -> writeCSV(w, globalTypes, rAdducts, true));
+        }
 
-            if (globalResultsWithAdducts != null) {
-                final List<ResultEntry> rAdducts = globalResultsWithAdducts.stream()
-                        .sorted(Comparator.comparing(s -> s.dirName, Utils.ALPHANUMERIC_COMPARATOR)).toList();
-                writer.textFile(SummaryLocations.FORMULA_SUMMARY_ADDUCTS, w -> writeCSV(w, globalTypes, rAdducts, true));
-            }
+        if (writeFullGlobal) {
+            final List<ResultEntry> all = rows.stream().flatMap(c -> c.all.stream()).toList();
+            writer.textFile(SummaryLocations.FORMULA_SUMMARY_ALL, w -> writeCSV(w, globalTypes, all, true));
+        }
+    }
 
-            if (globalResultsAll != null) {
-                List<ResultEntry> all = globalResultsAll.keySet().stream()
-                        .sorted(Comparator.comparing(s -> s.dirName, Utils.ALPHANUMERIC_COMPARATOR))
-                        .flatMap(s -> globalResultsAll.get(s).stream().map(SScored::getCandidate)).toList();
-                writer.textFile(SummaryLocations.FORMULA_SUMMARY_ALL, w -> writeCSV(w, globalTypes, all, true));
-            }
-        } finally {
-            lock.unlock();
+    //region incremental summaries
+    @Override
+    public @NotNull String getCacheKey() {
+        return "formulas:" + writeTopHitGlobal + ":" + writeTopHitWithAdductsGlobal + ":" + writeFullGlobal;
+    }
+
+    @Override
+    public void exportCompoundRows(@NotNull String dirName, @NotNull DataOutput out) throws IOException {
+        final CompoundRows rows = globalRows.get(dirName);
+
+        out.writeBoolean(rows != null);
+        if (rows == null)
+            return;
+
+        out.writeInt(rows.types.size());
+        for (Map.Entry<Class<? extends FormulaScore>, String> e : rows.types.entrySet()) {
+            IncrementalSummaryCache.writeString(out, e.getKey().getName());
+            IncrementalSummaryCache.writeString(out, e.getValue());
         }
+        out.writeBoolean(rows.top != null);
+        if (rows.top != null)
+            rows.top.write(out);
+        writeEntries(out, rows.topWithAdducts);
+        writeEntries(out, rows.all);
+    }
+
+    @Override
+    public void importCompoundRows(@NotNull String dirName, @NotNull DataInput in) throws IOException {
+        if (!in.readBoolean())
+            return;
+
+        final int numTypes = in.readInt();
+        final LinkedHashMap<Class<? extends FormulaScore>, String> types = new LinkedHashMap<>(numTypes);
+        for (int i = 0; i < numTypes; i++)
+            types.put(scoreClass(IncrementalSummaryCache.readString(in)), IncrementalSummaryCache.readString(in));
+
+        final CompoundRows rows = new CompoundRows(types);
+        if (in.readBoolean())
+            rows.top = new ResultEntry(in);
+        rows.topWithAdducts = readEntries(in);
+        rows.all = readEntries(in);
+
+        if ((writeTopHitGlobal && rows.top == null) || (writeTopHitWithAdductsGlobal && rows.topWithAdducts == null) || (writeFullGlobal && rows.all == null))
+            throw new IOException("Cached rows of '" + dirName + "' do not match the summary configuration.");
+
+        globalRows.put(dirName, rows);
     }
 
+    private static void writeEntries(DataOutput out, List<ResultEntry> entries) throws IOException {
+        out.writeInt(entries == null ? -1 : entries.size());
+        if (entries != null)
+            for (ResultEntry e : entries)
+                e.write(out);
+    }
+
+    private static List<ResultEntry> readEntries(DataInput in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0)
+            return null;
+        final List<ResultEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            entries.add(new ResultEntry(in));
+        return entries;
+    }
+
+    private static Class<? extends FormulaScore> scoreClass(String className) throws IOException {
+        try {
+            return Class.forName(className).asSubclass(FormulaScore.class);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unknown score type '" + className + "'.", e);
+        }
+    }
+    //endregion
+
     private String makeHeader(String scorings) {
         final StringBuilder headerBuilder = new StringBuilder("molecularFormula\tadduct\tprecursorFormula");/*	rankingScore*/
         if (scorings != null && !scorings.isEmpty())
@@ -211,20 +261,18 @@ public class FormulaSummaryWriter extends CandidateSummarizer {
         w.write("formulaRank\t" + header + "\n");
 
         for (ResultEntry r : results) {
-            FormulaScoring scores = r.scoring;
-
             w.write(String.valueOf(r.formulaRank));
             w.write('\t');
-            w.write(r.molecularFormula.toString());
+            w.write(r.molecularFormula);
             w.write('\t');
             w.write(r.ion);
             w.write('\t');
 
-            w.write(r.preFormula.toString());
+            w.write(r.preFormula);
             w.write('\t');
 
             for (Class<? extends FormulaScore> k : scoreOrder) {
-                w.write(scores.getAnnotationOr(k, FormulaScore::NA).toString());
+                w.write(r.getScore(k));
                 w.write('\t');
             }
             w.write(r.treeNumVertices);
@@ -253,11 +301,24 @@ public class FormulaSummaryWriter extends CandidateSummarizer {
         }
     }
 
+    private static class CompoundRows {
+        final LinkedHashMap<Class<? extends FormulaScore>, String> types;
+        ResultEntry top;
+        List<ResultEntry> topWithAdducts;
+        List<ResultEntry> all;
+
+        private CompoundRows(LinkedHashMap<Class<? extends FormulaScore>, String> types) {
+            this.types = types;
+        }
+    }
+
     private static class ResultEntry {
-        private int formulaRank;
+        private final int formulaRank;
+        // only available for entries that have not been restored from the row cache
         public final FormulaScoring scoring;
-        public final MolecularFormula molecularFormula;
-        public final MolecularFormula preFormula;
+        private final Map<Class<? extends FormulaScore>, String> scores;
+        public final String molecularFormula;
+        public final String preFormula;
         public final String ion;
         private final String ionMass;
         private final String retentionTimeSeconds;
@@ -276,8 +337,13 @@ public class FormulaSummaryWriter extends CandidateSummarizer {
         public ResultEntry(FormulaResult r, CompoundContainer exp, int formulaRank) {
             this.formulaRank = formulaRank;
             scoring = r.getAnnotationOrThrow(FormulaScoring.class);
-            molecularFormula = r.getId().getMolecularFormula();
-            preFormula = r.getId().getPrecursorFormula();
+            scores = new HashMap<>();
+            scoring.annotations().forEach((key, value) -> {
+                if (value != null)
+                    scores.put(value.getClass(), value.toString());
+            });
+            molecularFormula = r.getId().getMolecularFormula().toString();
+            preFormula = r.getId().getPrecursorFormula().toString();
             ion = Optional.ofNullable(r.getId().getIonType()).map(PrecursorIonType::toString).orElse("N/A");
 
             //tree stuff
@@ -296,22 +362,61 @@ public class FormulaSummaryWriter extends CandidateSummarizer {
             featureId = exp.getId().getFeatureId().orElse("N/A");
         }
 
+        private ResultEntry(DataInput in) throws IOException {
+            formulaRank = in.readInt();
+            scoring = null;
+            final int numScores = in.readInt();
+            scores = new HashMap<>(numScores);
+            for (int i = 0; i < numScores; i++)
+                scores.put(scoreClass(IncrementalSummaryCache.readString(in)), IncrementalSummaryCache.readString(in));
+            molecularFormula = IncrementalSummaryCache.readString(in);
+            preFormula = IncrementalSummaryCache.readString(in);
+            ion = IncrementalSummaryCache.readString(in);
+            ionMass = IncrementalSummaryCache.readString(in);
+            retentionTimeSeconds = IncrementalSummaryCache.readString(in);
+            dirName = IncrementalSummaryCache.readString(in);
+            treeNumVertices = IncrementalSummaryCache.readString(in);
+            treeExplInt = IncrementalSummaryCache.readString(in);
+            medianMassDev = IncrementalSummaryCache.readString(in);
+            medianAbsMassDev = IncrementalSummaryCache.readString(in);
+            massErrorPrecursor = IncrementalSummaryCache.readString(in);
+            lipidClass = IncrementalSummaryCache.readString(in);
+            featureId = IncrementalSummaryCache.readString(in);
+        }
+
+        private void write(DataOutput out) throws IOException {
+            out.writeInt(formulaRank);
+            out.writeInt(scores.size());
+            for (Map.Entry<Class<? extends FormulaScore>, String> e : scores.entrySet()) {
+                IncrementalSummaryCache.writeString(out, e.getKey().getName());
+                IncrementalSummaryCache.writeString(out, e.getValue());
+            }
+            IncrementalSummaryCache.writeString(out, molecularFormula);
+            IncrementalSummaryCache.writeString(out, preFormula);
+            IncrementalSummaryCache.writeString(out, ion);
+            IncrementalSummaryCache.writeString(out, ionMass);
+            IncrementalSummaryCache.writeString(out, retentionTimeSeconds);
+            IncrementalSummaryCache.writeString(out, dirName);
+            IncrementalSummaryCache.writeString(out, treeNumVertices);
+            IncrementalSummaryCache.writeString(out, treeExplInt);
+            IncrementalSummaryCache.writeString(out, medianMassDev);
+            IncrementalSummaryCache.writeString(out, medianAbsMassDev);
+            IncrementalSummaryCache.writeString(out, massErrorPrecursor);
+            IncrementalSummaryCache.writeString(out, lipidClass);
+            IncrementalSummaryCache.writeString(out, featureId);
+        }
+
         public FormulaScoring getScoring() {
             return scoring;
         }
 
-        public static ResultEntry of(@NotNull FormulaResult r, @NotNull CompoundContainer exp, int formulaRank) {
-            return new ResultEntry(r, exp, formulaRank);
+        public String getScore(Class<? extends FormulaScore> scoreType) {
+            final String score = scores.get(scoreType);
+            return score != null ? score : FormulaScore.NA(scoreType).toString();
         }
-    }
 
-    private void withLock(Runnable withLock) {
-        lock.lock();
-        try {
-            withLock.run();
-        } finally {
-            lock.unlock();
+        public static ResultEntry of(@NotNull FormulaResult r, @NotNull CompoundContainer exp, int formulaRank) {
+            return new ResultEntry(r, exp, formulaRank);
         }
     }
 }
-
@@ -0,0 +1,55 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import de.unijena.bioinf.projectspace.Summarizer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A {@link Summarizer} whose project wide tables consist of independent rows per compound. After a summary run these
+ * rows can be exported in a compact binary form and imported again in a later run, so that only compounds that have
+ * changed in between have to be read from the project-space.
+ */
+public interface IncrementalSummarizer extends Summarizer {
+
+    /**
+     * @return key identifying the type and configuration of this summarizer. Exported rows are only imported by
+     * summarizers with the same key.
+     */
+    @NotNull
+    String getCacheKey();
+
+    /**
+     * Writes the project wide rows of the given compound. Must only be called for compounds that have been added via
+     * {@link #addWriteCompoundSummary} or {@link #importCompoundRows} before. Compounds without rows are exported
+     * as empty entry.
+     */
+    void exportCompoundRows(@NotNull String dirName, @NotNull DataOutput out) throws IOException;
+
+    /**
+     * Adds rows that have been exported via {@link #exportCompoundRows} before to the project wide tables, instead of
+     * processing the compound. If an {@link IOException} is thrown, nothing has been added.
+     */
+    void importCompoundRows(@NotNull String dirName, @NotNull DataInput in) throws IOException;
+}
@@ -0,0 +1,179 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persisted per compound rows of {@link IncrementalSummarizer}s, stored as gzipped binary sidecar file of the
+ * project-space. The rows of one compound are stored as a single blob that contains the exported rows of all
+ * summarizers in the order of the summarizer configuration the cache has been written with.
+ * A cache is only valid for the configuration (summary location, compression and summarizer keys) it has been
+ * written with.
+ */
+public class IncrementalSummaryCache {
+    public static final String FILE_NAME = ".summary-cache";
+
+    private static final int MAGIC = 0x53534d43;
+    private static final int VERSION = 2;
+
+    private final Path location;
+    private final String configuration;
+    private final Map<String, byte[]> rows;
+
+    private IncrementalSummaryCache(@NotNull Path location, @NotNull String configuration, @NotNull Map<String, byte[]> rows) {
+        this.location = location;
+        this.configuration = configuration;
+        this.rows = rows;
+    }
+
+    /**
+     * @return location of a sidecar file of the project-space. For project directories the file is stored inside
+     * the project, for compressed projects next to it.
+     */
+    public static Path sidecarLocation(@NotNull Path projectLocation, @NotNull String fileName) {
+        return Files.isDirectory(projectLocation)
+                ? projectLocation.resolve(fileName)
+                : projectLocation.resolveSibling(projectLocation.getFileName().toString() + fileName);
+    }
+
+    /**
+     * Deletes the given cache so that the next incremental summary run rebuilds all rows.
+     */
+    public static void invalidate(@NotNull Path location) {
+        try {
+            Files.deleteIfExists(location);
+        } catch (IOException e) {
+            LoggerFactory.getLogger(IncrementalSummaryCache.class).warn("Could not delete summary cache '" + location + "'.", e);
+        }
+    }
+
+    /**
+     * Loads the cache from the given location.
+     *
+     * @return the cached rows or an empty cache if the file does not exist, cannot be read or has been written with
+     * a different configuration.
+     */
+    public static IncrementalSummaryCache load(@NotNull Path location, @NotNull String configuration) {
+        if (Files.exists(location)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(location))))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && configuration.equals(readString(in))) {
+                    final int size = in.readInt();
+                    final Map<String, byte[]> rows = new HashMap<>(size);
+                    for (int i = 0; i < size; i++) {
+                        final String dirName = readString(in);
+                        final byte[] blob = new byte[in.readInt()];
+                        in.readFully(blob);
+                        rows.put(dirName, blob);
+                    }
+                    return new IncrementalSummaryCache(location, configuration, rows);
+                }
+                LoggerFactory.getLogger(IncrementalSummaryCache.class).info("Summary cache has been written with a different configuration. Rebuilding all rows.");
+            } catch (IOException e) {
+                LoggerFactory.getLogger(IncrementalSummaryCache.class).warn("Could not read summary cache. Rebuilding all rows. Cause: " + e.getMessage());
+            }
+        }
+        return new IncrementalSummaryCache(location, configuration, new HashMap<>());
+    }
+
+    @Nullable
+    public byte[] get(@NotNull String dirName) {
+        return rows.get(dirName);
+    }
+
+    public void put(@NotNull String dirName, @NotNull byte[] compoundRows) {
+        rows.put(dirName, compoundRows);
+    }
+
+    public void remove(@NotNull String dirName) {
+        rows.remove(dirName);
+    }
+
+    /**
+     * @return the compounds with cached rows. Removing elements removes the rows from the cache.
+     */
+    public Set<String> compounds() {
+        return rows.keySet();
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Writes the cache to a temporary file that replaces the existing cache afterwards, so that an interrupted write
+     * never leaves a corrupted cache behind.
+     */
+    public void save() throws IOException {
+        final Path tmp = location.resolveSibling(location.getFileName().toString() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, configuration);
+            out.writeInt(rows.size());
+            for (Map.Entry<String, byte[]> e : rows.entrySet()) {
+                writeString(out, e.getKey());
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+        }
+        Files.move(tmp, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a (nullable) string as length prefixed UTF-8. Used instead of {@link DataOutput#writeUTF(String)} for
+     * cached rows, since the latter is limited to 64 KB per string.
+     */
+    public static void writeString(@NotNull DataOutput out, @Nullable String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     */
+    @Nullable
+    public static String readString(@NotNull DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0)
+            return null;
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
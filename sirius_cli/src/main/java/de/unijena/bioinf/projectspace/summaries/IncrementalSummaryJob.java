@@ -0,0 +1,138 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JobProgressEventListener;
+import de.unijena.bioinf.projectspace.CompoundContainerId;
+import de.unijena.bioinf.projectspace.ProjectSpaceManager;
+import de.unijena.bioinf.projectspace.SiriusProjectSpace;
+import de.unijena.bioinf.projectspace.Summarizer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the summaries of a project-space incrementally. Only compounds that have been changed since the last
+ * incremental run (see {@link SummaryDirtyTracker}) or that have no cached rows are read from the project-space.
+ * The project wide tables are rebuilt by merging the cached rows of all other compounds with the recomputed ones.
+ * <p>
+ * Only {@link IncrementalSummarizer}s can be used incrementally, all other summarizers are skipped.
+ * Writing compressed summaries always recomputes all compounds, since the archive is recreated from scratch.
+ */
+public class IncrementalSummaryJob extends BasicJJob<Boolean> {
+    private final ProjectSpaceManager<?> project;
+    @Nullable
+    private final Path location;
+    private final boolean compress;
+    @Nullable
+    private final List<CompoundContainerId> inclusionList;
+    private final List<IncrementalSummarizer> summarizers;
+
+    public IncrementalSummaryJob(@NotNull ProjectSpaceManager<?> project, @Nullable Path location, boolean compress, @Nullable List<CompoundContainerId> inclusionList, @NotNull Summarizer... summarizers) {
+        super(JobType.SCHEDULER);
+        this.project = project;
+        this.location = location;
+        this.compress = compress;
+        this.inclusionList = inclusionList;
+        this.summarizers = new ArrayList<>(summarizers.length);
+        for (Summarizer summarizer : summarizers) {
+            if (summarizer instanceof IncrementalSummarizer)
+                this.summarizers.add((IncrementalSummarizer) summarizer);
+            else
+                logInfo("Summarizer '" + summarizer.getClass().getSimpleName() + "' does not support incremental summaries and is skipped.");
+        }
+    }
+
+    @Override
+    protected Boolean compute() throws Exception {
+        final SiriusProjectSpace space = project.projectSpace();
+        final SummaryDirtyTracker tracker = project.getSummaryDirtyTracker();
+        final Set<String> dirty = tracker.drain();
+        try {
+            final IncrementalSummaryCache cache = IncrementalSummaryCache.load(
+                    IncrementalSummaryCache.sidecarLocation(space.getLocation(), IncrementalSummaryCache.FILE_NAME), configuration());
+
+            final List<CompoundContainerId> ids = new ArrayList<>();
+            if (inclusionList != null)
+                ids.addAll(inclusionList);
+            else
+                space.forEach(ids::add);
+
+            final List<CompoundContainerId> recompute = new ArrayList<>();
+            for (CompoundContainerId id : ids) {
+                final byte[] rows = dirty.contains(id.getDirectoryName()) || compress ? null : cache.get(id.getDirectoryName());
+                if (rows == null || !importRows(id.getDirectoryName(), rows))
+                    recompute.add(id);
+            }
+            checkForInterruption();
+            logInfo("Reusing cached summary rows of " + (ids.size() - recompute.size()) + " compounds. Recomputing " + recompute.size() + " compounds.");
+
+            final SiriusProjectSpace.SummarizerJob job = space.makeSummarizerJob(location, compress, recompute, summarizers.toArray(Summarizer[]::new));
+            final JobProgressEventListener listener = this::updateProgress;
+            job.addJobProgressListener(listener);
+            SiriusJobs.getGlobalJobManager().submitJob(job).awaitResult();
+            job.removePropertyChangeListener(listener);
+
+            for (CompoundContainerId id : recompute)
+                cache.put(id.getDirectoryName(), exportRows(id.getDirectoryName()));
+            // dirty compounds that have not been part of this run are recomputed next time
+            final Set<String> processed = ids.stream().map(CompoundContainerId::getDirectoryName).collect(Collectors.toSet());
+            dirty.stream().filter(d -> !processed.contains(d)).forEach(cache::remove);
+            cache.compounds().removeIf(d -> !space.containsCompound(d));
+            cache.save();
+            return true;
+        } catch (Exception e) {
+            tracker.markDirty(dirty);
+            throw e;
+        }
+    }
+
+    private String configuration() {
+        return (location == null ? "" : location.toAbsolutePath().normalize().toString()) + "|" + compress + "|"
+                + summarizers.stream().map(IncrementalSummarizer::getCacheKey).collect(Collectors.joining(","));
+    }
+
+    private boolean importRows(String dirName, byte[] rows) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(rows))) {
+            for (IncrementalSummarizer summarizer : summarizers)
+                summarizer.importCompoundRows(dirName, in);
+            return true;
+        } catch (IOException e) {
+            // already imported rows are replaced when the compound is recomputed
+            logDebug("Could not import cached summary rows of '" + dirName + "'. Recomputing. Cause: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private byte[] exportRows(String dirName) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (IncrementalSummarizer summarizer : summarizers)
+                summarizer.exportCompoundRows(dirName, out);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the project wide rows of a summarizer per compound without locking. Every thread that writes compound
+ * summaries adds its rows to its own shard, the shards are merged once when the project wide summary is written.
+ * <p>
+ * Merging must not run concurrently to {@link #put}, which is given since project wide summaries are written after
+ * all compound summaries have been finished. If rows of the same compound are added more than once, the rows added
+ * last win.
+ *
+ * @param <R> rows of a single compound
+ */
+public class ShardedRowBuffer<R> {
+    private final Queue<Map<String, Stamped<R>>> shards = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Map<String, Stamped<R>>> shard = ThreadLocal.withInitial(() -> {
+        final Map<String, Stamped<R>> s = new HashMap<>();
+        shards.add(s);
+        return s;
+    });
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<String, Stamped<R>> merged = new HashMap<>();
+
+    public void put(@NotNull String dirName, @NotNull R rows) {
+        shard.get().put(dirName, new Stamped<>(sequence.incrementAndGet(), rows));
+    }
+
+    /**
+     * Moves the rows of all shards into the merged view.
+     *
+     * @return all rows by compound directory name
+     */
+    public synchronized Map<String, R> merge() {
+        drainShards();
+        final Map<String, R> rows = new HashMap<>(merged.size());
+        merged.forEach((k, v) -> rows.put(k, v.rows));
+        return Collections.unmodifiableMap(rows);
+    }
+
+    @Nullable
+    public synchronized R get(@NotNull String dirName) {
+        drainShards();
+        final Stamped<R> rows = merged.get(dirName);
+        return rows == null ? null : rows.rows;
+    }
+
+    private void drainShards() {
+        for (Map<String, Stamped<R>> s : shards) {
+            if (s.isEmpty())
+                continue;
+            s.forEach((dirName, rows) -> merged.merge(dirName, rows, (a, b) -> a.stamp > b.stamp ? a : b));
+            s.clear();
+        }
+    }
+
+    private static final class Stamped<R> {
+        private final long stamp;
+        private final R rows;
+
+        private Stamped(long stamp, R rows) {
+            this.stamp = stamp;
+            this.rows = rows;
+        }
+    }
+}
@@ -36,26 +36,21 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
-public class StructureSummaryWriter extends CandidateSummarizer {
-    private final Lock lock = new ReentrantLock();
-    private final List<Hit> compoundTopHits;
-    private final Map<Hit, List<Hit>> compoundTopHitsAdducts;
-    private final Map<Hit, List<Hit>> compoundAllHits;
+public class StructureSummaryWriter extends CandidateSummarizer implements IncrementalSummarizer {
+    // project wide hits by compound directory name
+    private final ShardedRowBuffer<CompoundHits> compoundHits = new ShardedRowBuffer<>();
 
 
     public StructureSummaryWriter(boolean writeTopHitGlobal, boolean writeTopHitWithAdductsGlobal, boolean writeFullGlobal) {
         super(writeTopHitGlobal, writeTopHitWithAdductsGlobal, writeFullGlobal);
-        compoundTopHits = writeTopHitGlobal ? new ArrayList<>() : null;
-        compoundTopHitsAdducts = writeTopHitWithAdductsGlobal ? new HashMap<>() : null;
-        compoundAllHits = writeFullGlobal ? new HashMap<>() : null;
     }
 
     @Override
@@ -141,7 +136,7 @@ public class StructureSummaryWriter extends CandidateSummarizer {
                                         final Hit topHit = toHit(exp.getId(), result, lines.get(0), confidence, csiScore.score(), formulaRank);
                                         topHits.add(topHit);
 
-                                        if (compoundAllHits != null) {
+                                        if (writeFullGlobal) {
                                             int finalFormulaRank = formulaRank;
                                             Iterator<List<String>> linesIt = lines.iterator();
                                             linesIt.next();
@@ -174,17 +169,11 @@ public class StructureSummaryWriter extends CandidateSummarizer {
                 final int topRank = topHits.stream().mapToInt(h -> h.formulaRank).min().getAsInt();
                 List<Hit> toadd = topHits.stream().filter(hit -> hit.formulaRank == topRank).collect(Collectors.toList());
                 toadd.forEach(h -> h.numberOfAdducts = toadd.size());
-                lock.lock();
-                try {
-                    if (compoundTopHits != null)
-                        compoundTopHits.add(topHits.get(0));
-                    if (compoundTopHitsAdducts != null)
-                        compoundTopHitsAdducts.put(topHits.get(0), toadd);
-                    if (compoundAllHits != null)
-                        compoundAllHits.put(allHits.get(0), allHits);
-                } finally {
-                    lock.unlock();
-                }
+                final CompoundHits hits = new CompoundHits(topHits.get(0),
+                        writeTopHitWithAdductsGlobal ? toadd : null,
+                        writeFullGlobal ? allHits.get(0) : null,
+                        writeFullGlobal ? allHits : null);
+                compoundHits.put(exp.getId().getDirectoryName(), hits);
             }
 
 
@@ -196,41 +185,95 @@ public class StructureSummaryWriter extends CandidateSummarizer {
 
     @Override
     public void writeProjectSpaceSummary(ProjectWriter writer) throws IOException {
-        lock.lock();
-        try {
-            if (compoundTopHits != null && !compoundTopHits.isEmpty()) {
-                compoundTopHits.sort(Hit.compareByConfidence().reversed());
-                writer.textFile(SummaryLocations.COMPOUND_SUMMARY, w -> write(w, compoundTopHits));
-            }
+        final Collection<CompoundHits> hitsByCompound = compoundHits.merge().values();
+        if (hitsByCompound.isEmpty())
+            return;
+
+        if (writeTopHitGlobal) {
+            final List<Hit> compoundTopHits = hitsByCompound.stream().map(h -> h.top)
+                    .sorted(Hit.compareByConfidence().reversed()).toList();
+            writer.textFile(SummaryLocations.COMPOUND_SUMMARY, w -> write(w, compoundTopHits));
+        }
 
 
-            if (compoundTopHitsAdducts != null && !compoundTopHitsAdducts.isEmpty()) {
-                final List<Hit> topHitList = new ArrayList<>();
-                compoundTopHitsAdducts.keySet().stream().sorted(Hit.compareByConfidence().reversed()).forEach(leadHit -> {
-                    List<Hit> hits = compoundTopHitsAdducts.get(leadHit);
-                    hits.sort(Hit.compareByConfidence().reversed());
-                    topHitList.addAll(hits);
-                });
+        if (writeTopHitWithAdductsGlobal) {
+            final List<Hit> topHitList = new ArrayList<>();
+            hitsByCompound.stream().sorted(Comparator.comparing((CompoundHits h) -> h.top, Hit.compareByConfidence()).reversed()).forEach(h -> {
+                List<Hit> hits = new ArrayList<>(h.topWithAdducts);
+                hits.sort(Hit.compareByConfidence().reversed());
+                topHitList.addAll(hits);
+            });
 
-                writer.textFile(SummaryLocations.COMPOUND_SUMMARY_ADDUCTS, w -> write(w, topHitList));
-            }
+            writer.textFile(SummaryLocations.COMPOUND_SUMMARY_ADDUCTS, w -> write(w, topHitList));
+        }
 
-            if (compoundAllHits != null && !compoundAllHits.isEmpty()) {
-                final List<Hit> topHitList = new ArrayList<>();
-                compoundAllHits.keySet().stream().sorted(Hit.compareByConfidence().reversed()).forEach(leadHit -> {
-                    List<Hit> hits = compoundAllHits.get(leadHit);
-                    hits.sort(Hit.compareByConfidence().reversed());
-                    topHitList.addAll(hits);
-                });
+        if (writeFullGlobal) {
+            final List<Hit> topHitList = new ArrayList<>();
+            hitsByCompound.stream().sorted(Comparator.comparing((CompoundHits h) -> h.allLead, Hit.compareByConfidence()).reversed()).forEach(h -> {
+                List<Hit> hits = new ArrayList<>(h.all);
+                hits.sort(Hit.compareByConfidence().reversed());
+                topHitList.addAll(hits);
+            });
 
-                writer.textFile(SummaryLocations.COMPOUND_SUMMARY_ALL, w -> write(w, topHitList));
-            }
+            writer.textFile(SummaryLocations.COMPOUND_SUMMARY_ALL, w -> write(w, topHitList));
+        }
+    }
+
+    //region incremental summaries
+    @Override
+    public @NotNull String getCacheKey() {
+        return "structures:" + writeTopHitGlobal + ":" + writeTopHitWithAdductsGlobal + ":" + writeFullGlobal;
+    }
 
+    @Override
+    public void exportCompoundRows(@NotNull String dirName, @NotNull DataOutput out) throws IOException {
+        final CompoundHits hits = compoundHits.get(dirName);
+
+        out.writeBoolean(hits != null);
+        if (hits == null)
+            return;
+
+        hits.top.write(out);
+        writeHits(out, hits.topWithAdducts);
+        out.writeBoolean(hits.allLead != null);
+        if (hits.allLead != null)
+            hits.allLead.write(out);
+        writeHits(out, hits.all);
+    }
 
-        } finally {
-            lock.unlock();
-        }
+    @Override
+    public void importCompoundRows(@NotNull String dirName, @NotNull DataInput in) throws IOException {
+        if (!in.readBoolean())
+            return;
+
+        final Hit top = new Hit(in);
+        final List<Hit> topWithAdducts = readHits(in);
+        final Hit allLead = in.readBoolean() ? new Hit(in) : null;
+        final List<Hit> all = readHits(in);
+
+        if ((writeTopHitWithAdductsGlobal && topWithAdducts == null) || (writeFullGlobal && (allLead == null || all == null)))
+            throw new IOException("Cached hits of '" + dirName + "' do not match the summary configuration.");
+
+        compoundHits.put(dirName, new CompoundHits(top, topWithAdducts, allLead, all));
+    }
+
+    private static void writeHits(DataOutput out, List<Hit> hits) throws IOException {
+        out.writeInt(hits == null ? -1 : hits.size());
+        if (hits != null)
+            for (Hit hit : hits)
+                hit.write(out);
+    }
+
+    private static List<Hit> readHits(DataInput in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0)
+            return null;
+        final List<Hit> hits = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            hits.add(new Hit(in));
+        return hits;
     }
+    //endregion
 
     static Hit toHit(CompoundContainerId id, SScored<FormulaResult, ? extends FormulaScore> result, List<String> line, ConfidenceScore confidence, double csiScore, int formulaRank) {
         final SiriusScore siriusScore = result.getCandidate().getAnnotation(FormulaScoring.class).
@@ -275,6 +318,21 @@ public class StructureSummaryWriter extends CandidateSummarizer {
         }
     }
 
+    private static class CompoundHits {
+        @NotNull
+        final Hit top;
+        final List<Hit> topWithAdducts;
+        final Hit allLead;
+        final List<Hit> all;
+
+        private CompoundHits(@NotNull Hit top, List<Hit> topWithAdducts, Hit allLead, List<Hit> all) {
+            this.top = top;
+            this.topWithAdducts = topWithAdducts;
+            this.allLead = allLead;
+            this.all = all;
+        }
+    }
+
     static class Hit {
         final String line;
         final ConfidenceScore confidenceScore;
@@ -295,6 +353,30 @@ public class StructureSummaryWriter extends CandidateSummarizer {
             this.featureId = featureId;
         }
 
+        private Hit(DataInput in) throws IOException {
+            line = IncrementalSummaryCache.readString(in);
+            confidenceScore = in.readBoolean() ? new ConfidenceScore(in.readDouble()) : FormulaScore.NA(ConfidenceScore.class);
+            csiScore = in.readDouble();
+            formulaRank = in.readInt();
+            numberOfAdducts = in.readInt();
+            numberOfFps = in.readInt();
+            dirname = IncrementalSummaryCache.readString(in);
+            featureId = IncrementalSummaryCache.readString(in);
+        }
+
+        private void write(DataOutput out) throws IOException {
+            IncrementalSummaryCache.writeString(out, line);
+            out.writeBoolean(!confidenceScore.isNa());
+            if (!confidenceScore.isNa())
+                out.writeDouble(confidenceScore.score());
+            out.writeDouble(csiScore);
+            out.writeInt(formulaRank);
+            out.writeInt(numberOfAdducts);
+            out.writeInt(numberOfFps);
+            IncrementalSummaryCache.writeString(out, dirname);
+            IncrementalSummaryCache.writeString(out, featureId);
+        }
+
         static Comparator<Hit> compareByConfidence() {
             return Comparator.comparing(o -> o.confidenceScore);
         }
@@ -0,0 +1,121 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import de.unijena.bioinf.projectspace.ContainerListener;
+import de.unijena.bioinf.projectspace.SiriusProjectSpace;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Records the compounds of a project-space that have been created, changed or deleted since the last incremental
+ * summary run. Affected compounds are appended to a journal next to the {@link IncrementalSummaryCache}, so that
+ * changes made in previous sessions are not lost.
+ */
+public class SummaryDirtyTracker implements Closeable {
+    public static final String FILE_NAME = ".summary-cache.dirty";
+
+    private final Path journal;
+    private final Path cache;
+    private final Set<String> recorded = new HashSet<>();
+    private final List<ContainerListener.Defined> listeners = new ArrayList<>();
+    private BufferedWriter journalWriter;
+
+    private SummaryDirtyTracker(@NotNull Path journal, @NotNull Path cache) {
+        this.journal = journal;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts tracking changes of the given project-space until {@link #close()} is called.
+     */
+    public static SummaryDirtyTracker start(@NotNull SiriusProjectSpace space) {
+        final SummaryDirtyTracker tracker = new SummaryDirtyTracker(
+                IncrementalSummaryCache.sidecarLocation(space.getLocation(), FILE_NAME),
+                IncrementalSummaryCache.sidecarLocation(space.getLocation(), IncrementalSummaryCache.FILE_NAME));
+        tracker.listeners.add(space.defineCompoundListener().onCreate().thenDo(event -> tracker.markDirty(event.getAffectedID().getDirectoryName())).register());
+        tracker.listeners.add(space.defineCompoundListener().onUpdate().thenDo(event -> tracker.markDirty(event.getAffectedID().getDirectoryName())).register());
+        tracker.listeners.add(space.defineCompoundListener().onDelete().thenDo(event -> tracker.markDirty(event.getAffectedID().getDirectoryName())).register());
+        tracker.listeners.add(space.defineFormulaResultListener().onCreate().thenDo(event -> tracker.markDirty(event.getAffectedID().getParentId().getDirectoryName())).register());
+        tracker.listeners.add(space.defineFormulaResultListener().onUpdate().thenDo(event -> tracker.markDirty(event.getAffectedID().getParentId().getDirectoryName())).register());
+        tracker.listeners.add(space.defineFormulaResultListener().onDelete().thenDo(event -> tracker.markDirty(event.getAffectedID().getParentId().getDirectoryName())).register());
+        return tracker;
+    }
+
+    public synchronized void markDirty(@NotNull String dirName) {
+        if (!recorded.add(dirName))
+            return;
+        try {
+            if (journalWriter == null)
+                journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            journalWriter.write(dirName);
+            journalWriter.newLine();
+            journalWriter.flush();
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass()).warn("Could not record change of '" + dirName + "' for incremental summaries. Next summary will be rebuilt completely.", e);
+            IncrementalSummaryCache.invalidate(cache);
+        }
+    }
+
+    public synchronized void markDirty(@NotNull Collection<String> dirNames) {
+        dirNames.forEach(this::markDirty);
+    }
+
+    /**
+     * @return all compounds that have been marked dirty since the last call, including those recorded by previous
+     * sessions. The journal is reset.
+     */
+    public synchronized Set<String> drain() throws IOException {
+        closeJournalWriter();
+        final Set<String> dirty = new HashSet<>(recorded);
+        if (Files.exists(journal)) {
+            Files.readAllLines(journal, StandardCharsets.UTF_8).stream().filter(l -> !l.isBlank()).forEach(dirty::add);
+            Files.delete(journal);
+        }
+        recorded.clear();
+        return dirty;
+    }
+
+    private void closeJournalWriter() throws IOException {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } finally {
+                journalWriter = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        listeners.forEach(ContainerListener.Defined::unregister);
+        listeners.clear();
+        closeJournalWriter();
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries.mztab;
+
+import de.isas.mztab2.io.SiriusMZTabParameter;
+import de.isas.mztab2.model.*;
+import de.unijena.bioinf.ChemistryBase.utils.Utils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the small molecule sections of an mzTab-M file without keeping the rows in memory.
+ * <p>
+ * The rows of a compound are formatted when they are added and spilled to temporary files, every thread spills to
+ * its own file, so that adding rows needs no synchronization. Only the location of each compound's record is kept
+ * in memory. Ids and spectra references are not part of the spilled rows: when the file is written, compounds are
+ * visited in the order of their keys (the compound directory names), ids are assigned in this order and ms runs are
+ * resolved in this order. The output is therefore identical to the in memory {@link MztabMExporter} path,
+ * independent of which thread processed which compound.
+ * <p>
+ * Since the set of optional columns is only known after all rows have been added, the section headers are written
+ * at the end, followed by the spilled rows of each section. The metadata section is written once, using the regular
+ * mzTab writer on a metadata-only {@link MzTab}.
+ * <p>
+ * Only the columns that can be filled without assays and study variables are supported (no abundance columns).
+ * Temporary files are deleted on {@link #close()}, or when the writer becomes unreachable or the JVM exits without
+ * the writer being closed.
+ */
+public class MzTabStreamWriter implements Closeable {
+    private static final String NULL = "null";
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    enum Section {
+        SML("SMH", List.of("SML_ID", "SMF_ID_REFS", "database_identifier", "chemical_formula", "smiles", "inchi",
+                "chemical_name", "uri", "theoretical_neutral_mass", "adduct_ions", "reliability",
+                "best_id_confidence_measure", "best_id_confidence_value")),
+        SMF("SFH", List.of("SMF_ID", "SME_ID_REFS", "SME_ID_REF_ambiguity_code", "adduct_ion", "isotopomer",
+                "exp_mass_to_charge", "charge", "retention_time_in_seconds", "retention_time_in_seconds_start",
+                "retention_time_in_seconds_end")),
+        // id_confidence_measure[n] columns are inserted before rank
+        SME("SEH", List.of("SME_ID", "evidence_input_id", "database_identifier", "chemical_formula", "smiles",
+                "inchi", "chemical_name", "uri", "derivatized_form", "adduct_ion", "exp_mass_to_charge", "charge",
+                "theoretical_mass_to_charge", "spectra_ref", "identification_method", "ms_level"));
+
+        final String headerPrefix;
+        final List<String> columns;
+
+        Section(String headerPrefix, List<String> columns) {
+            this.headerPrefix = headerPrefix;
+            this.columns = columns;
+        }
+    }
+
+    private final Path spillDir;
+    private final Queue<Spill> spills = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Spill> spill = new ThreadLocal<>();
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+    private final EnumMap<Section, Set<String>> optColumns = new EnumMap<>(Section.class);
+    private final Set<Integer> idConfidenceColumns = ConcurrentHashMap.newKeySet();
+    private final Cleaner.Cleanable cleanable;
+    private volatile boolean closed = false;
+
+    public MzTabStreamWriter() throws IOException {
+        this.spillDir = Files.createTempDirectory("sirius-mztab-");
+        spillDir.toFile().deleteOnExit();
+        for (Section section : Section.values())
+            optColumns.put(section, ConcurrentHashMap.newKeySet());
+        cleanable = CLEANER.register(this, new Cleanup(spillDir, spills));
+    }
+
+    /**
+     * Adds the rows of one compound. Ids, id references and spectra references of the given items are ignored,
+     * they are assigned by {@link #write}. If rows are added more than once for the same key, the rows added last
+     * win. Can be called concurrently.
+     *
+     * @param key         compound directory name, defines the order of the compounds in the output.
+     * @param spectraRefs spectra references of the compound, resolved to ms runs by {@link #write}.
+     */
+    public void add(@NotNull String key, @NotNull SmallMoleculeSummary sml, @NotNull SmallMoleculeFeature smf,
+                    @NotNull List<SmallMoleculeEvidence> smes, @NotNull List<MztabMExporter.PendingSpectraRef> spectraRefs) throws IOException {
+        if (closed)
+            throw new IllegalStateException("Writer has already been closed.");
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeCells(out, cells(sml));
+            writeCells(out, cells(smf));
+            out.writeInt(smes.size());
+            for (SmallMoleculeEvidence sme : smes)
+                writeCells(out, cells(sme));
+            out.writeInt(spectraRefs.size());
+            for (MztabMExporter.PendingSpectraRef ref : spectraRefs)
+                writeSpectraRef(out, ref);
+        }
+
+        final Spill s = spill();
+        final byte[] record = bytes.toByteArray();
+        records.put(key, new Record(s, s.append(record), record.length, smes.size()));
+    }
+
+    Path getSpillDir() {
+        return spillDir;
+    }
+
+    /**
+     * @return number of compounds that have been added.
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Writes the mzTab-M file. No rows may be added concurrently.
+     *
+     * @param resolveRuns resolves spectra references to ms runs. It is called for every compound in output order
+     *                    before the metadata is requested and must return the same runs when called again with the
+     *                    same references.
+     * @param metadata    metadata section, requested after all spectra references have been resolved.
+     */
+    public void write(@NotNull Writer writer, @NotNull Function<List<MztabMExporter.PendingSpectraRef>, List<SpectraRef>> resolveRuns,
+                      @NotNull Supplier<Metadata> metadata) throws IOException {
+        for (Spill s : spills)
+            s.flush();
+
+        final List<String> keys = new ArrayList<>(records.keySet());
+        keys.sort(Utils.ALPHANUMERIC_COMPARATOR);
+
+        // resolve ms runs in compound order, so that run ids do not depend on the processing order
+        final int[] firstSmeIds = new int[keys.size()];
+        int nextSmeId = 1;
+        for (int i = 0; i < keys.size(); i++) {
+            final Record r = records.get(keys.get(i));
+            firstSmeIds[i] = nextSmeId;
+            nextSmeId += r.numberOfSmes;
+            resolveRuns.apply(read(r).spectraRefs);
+        }
+
+        final MzTab metadataOnly = new MzTab();
+        metadataOnly.setMetadata(metadata.get());
+        MztabMExporter.write(writer, metadataOnly, false);
+
+        for (Section section : Section.values()) {
+            final List<String> header = header(section);
+            writer.write('\n');
+            writer.write(section.headerPrefix);
+            for (String column : header) {
+                writer.write('\t');
+                writer.write(column);
+            }
+            writer.write('\n');
+
+            for (int i = 0; i < keys.size(); i++) {
+                final Rows rows = read(records.get(keys.get(i)));
+                final int id = i + 1;
+                final List<Integer> smeIds = new ArrayList<>(rows.smes.size());
+                for (int j = 0; j < rows.smes.size(); j++)
+                    smeIds.add(firstSmeIds[i] + j);
+
+                switch (section) {
+                    case SML -> {
+                        put(rows.sml, "SML_ID", id);
+                        put(rows.sml, "SMF_ID_REFS", List.of(id));
+                        writeRow(writer, section, header, rows.sml);
+                    }
+                    case SMF -> {
+                        put(rows.smf, "SMF_ID", id);
+                        put(rows.smf, "SME_ID_REFS", smeIds);
+                        writeRow(writer, section, header, rows.smf);
+                    }
+                    case SME -> {
+                        final List<SpectraRef> spectraRefs = rows.spectraRefs.isEmpty() ? List.of() : resolveRuns.apply(rows.spectraRefs);
+                        for (int j = 0; j < rows.smes.size(); j++) {
+                            final Map<String, String> sme = rows.smes.get(j);
+                            put(sme, "SME_ID", smeIds.get(j));
+                            if (!spectraRefs.isEmpty())
+                                sme.put("spectra_ref", formatSpectraRefs(spectraRefs));
+                            writeRow(writer, section, header, sme);
+                        }
+                    }
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    private static void writeRow(Writer writer, Section section, List<String> header, Map<String, String> cells) throws IOException {
+        writer.write(section.name());
+        for (String column : header) {
+            writer.write('\t');
+            writer.write(cells.getOrDefault(column, NULL));
+        }
+        writer.write('\n');
+    }
+
+    private List<String> header(Section section) {
+        final List<String> header = new ArrayList<>(section.columns);
+        if (section == Section.SME) {
+            idConfidenceColumns.stream().sorted().forEach(i -> header.add("id_confidence_measure[" + i + "]"));
+            header.add("rank");
+        }
+        optColumns.get(section).stream().sorted().forEach(header::add);
+        return header;
+    }
+
+    private Spill spill() throws IOException {
+        Spill s = spill.get();
+        if (s == null) {
+            s = new Spill(spillDir);
+            spills.add(s);
+            spill.set(s);
+        }
+        return s;
+    }
+
+    //region formatting
+    private Map<String, String> cells(SmallMoleculeSummary sml) {
+        final Map<String, String> cells = new LinkedHashMap<>();
+        put(cells, "database_identifier", sml.getDatabaseIdentifier());
+        put(cells, "chemical_formula", sml.getChemicalFormula());
+        put(cells, "smiles", sml.getSmiles());
+        put(cells, "inchi", sml.getInchi());
+        put(cells, "chemical_name", sml.getChemicalName());
+        put(cells, "uri", sml.getUri());
+        put(cells, "theoretical_neutral_mass", sml.getTheoreticalNeutralMass());
+        put(cells, "adduct_ions", sml.getAdductIons());
+        put(cells, "reliability", sml.getReliability());
+        put(cells, "best_id_confidence_measure", sml.getBestIdConfidenceMeasure());
+        put(cells, "best_id_confidence_value", sml.getBestIdConfidenceValue());
+        putOpt(Section.SML, cells, sml.getOpt());
+        return cells;
+    }
+
+    private Map<String, String> cells(SmallMoleculeFeature smf) {
+        final Map<String, String> cells = new LinkedHashMap<>();
+        put(cells, "SME_ID_REF_ambiguity_code", smf.getSmeIdRefAmbiguityCode());
+        put(cells, "adduct_ion", smf.getAdductIon());
+        put(cells, "isotopomer", smf.getIsotopomer());
+        put(cells, "exp_mass_to_charge", smf.getExpMassToCharge());
+        put(cells, "charge", smf.getCharge());
+        put(cells, "retention_time_in_seconds", smf.getRetentionTimeInSeconds());
+        put(cells, "retention_time_in_seconds_start", smf.getRetentionTimeInSecondsStart());
+        put(cells, "retention_time_in_seconds_end", smf.getRetentionTimeInSecondsEnd());
+        putOpt(Section.SMF, cells, smf.getOpt());
+        return cells;
+    }
+
+    private Map<String, String> cells(SmallMoleculeEvidence sme) {
+        final Map<String, String> cells = new LinkedHashMap<>();
+        put(cells, "evidence_input_id", sme.getEvidenceInputId());
+        put(cells, "database_identifier", sme.getDatabaseIdentifier());
+        put(cells, "chemical_formula", sme.getChemicalFormula());
+        put(cells, "smiles", sme.getSmiles());
+        put(cells, "inchi", sme.getInchi());
+        put(cells, "chemical_name", sme.getChemicalName());
+        put(cells, "uri", sme.getUri());
+        put(cells, "derivatized_form", sme.getDerivatizedForm());
+        put(cells, "adduct_ion", sme.getAdductIon());
+        put(cells, "exp_mass_to_charge", sme.getExpMassToCharge());
+        put(cells, "charge", sme.getCharge());
+        put(cells, "theoretical_mass_to_charge", sme.getTheoreticalMassToCharge());
+        put(cells, "identification_method", sme.getIdentificationMethod());
+        put(cells, "ms_level", sme.getMsLevel());
+        if (sme.getIdConfidenceMeasure() != null) {
+            for (int i = 0; i < sme.getIdConfidenceMeasure().size(); i++) {
+                idConfidenceColumns.add(i + 1);
+                put(cells, "id_confidence_measure[" + (i + 1) + "]", sme.getIdConfidenceMeasure().get(i));
+            }
+        }
+        put(cells, "rank", sme.getRank());
+        putOpt(Section.SME, cells, sme.getOpt());
+        return cells;
+    }
+
+    private static String formatSpectraRefs(List<SpectraRef> spectraRefs) {
+        return spectraRefs.stream()
+                .map(ref -> "ms_run[" + ref.getMsRun().getId() + "]:" + ref.getReference())
+                .collect(Collectors.joining("|"));
+    }
+
+    private void putOpt(Section section, Map<String, String> cells, @Nullable List<OptColumnMapping> opt) {
+        if (opt == null)
+            return;
+        for (OptColumnMapping o : opt) {
+            final StringBuilder column = new StringBuilder("opt_").append(o.getIdentifier());
+            if (o.getParam() != null)
+                column.append("_cv_").append(o.getParam().getCvAccession()).append('_').append(o.getParam().getName().replace(' ', '_'));
+            final String name = column.toString();
+            optColumns.get(section).add(name);
+            cells.put(name, o.getValue() == null ? NULL : o.getValue());
+        }
+    }
+
+    private static void put(Map<String, String> cells, String column, @Nullable Object value) {
+        if (value != null)
+            cells.put(column, format(value));
+    }
+
+    private static String format(@NotNull Object value) {
+        if (value instanceof Collection<?> c)
+            return c.isEmpty() ? NULL : c.stream().map(v -> v == null ? NULL : format(v)).collect(Collectors.joining("|"));
+        if (value instanceof Parameter p)
+            return "[" + Objects.toString(p.getCvLabel(), "") + ", " + Objects.toString(p.getCvAccession(), "") + ", "
+                    + quote(Objects.toString(p.getName(), "")) + ", " + quote(Objects.toString(p.getValue(), "")) + "]";
+        return String.valueOf(value).replace('\t', ' ').replace('\n', ' ');
+    }
+
+    private static String quote(String s) {
+        return s.contains(",") ? "\"" + s + "\"" : s;
+    }
+    //endregion
+
+    //region spill format
+    // strings are written as length prefixed UTF-8, DataOutput#writeUTF is limited to 64 KB per string
+    static void writeString(DataOutput out, @Nullable String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    static String readString(DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0)
+            return null;
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeCells(DataOutput out, Map<String, String> cells) throws IOException {
+        out.writeInt(cells.size());
+        for (Map.Entry<String, String> e : cells.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+    }
+
+    private static Map<String, String> readCells(DataInput in) throws IOException {
+        final int size = in.readInt();
+        final Map<String, String> cells = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++)
+            cells.put(readString(in), readString(in));
+        return cells;
+    }
+
+    private static void writeSpectraRef(DataOutput out, MztabMExporter.PendingSpectraRef ref) throws IOException {
+        writeString(out, ref.reference);
+        out.writeInt(ref.runID == null ? -1 : ref.runID);
+        writeString(out, ref.source);
+        writeString(out, ref.sourceFileFormat);
+        writeString(out, ref.spectrumIdFormat);
+        out.writeByte(ref.polarity == null ? 0 : ref.polarity == SiriusMZTabParameter.SCAN_POLARITY_ITEM_NEGATIVE ? -1 : 1);
+    }
+
+    private static MztabMExporter.PendingSpectraRef readSpectraRef(DataInput in) throws IOException {
+        final String reference = readString(in);
+        final int runID = in.readInt();
+        final String source = readString(in);
+        final String sourceFileFormat = readString(in);
+        final String spectrumIdFormat = readString(in);
+        final byte polarity = in.readByte();
+        return new MztabMExporter.PendingSpectraRef(reference, runID < 0 ? null : runID, source, sourceFileFormat, spectrumIdFormat,
+                polarity == 0 ? null : polarity < 0 ? SiriusMZTabParameter.SCAN_POLARITY_ITEM_NEGATIVE : SiriusMZTabParameter.SCAN_POLARITY_ITEM_POSITIVE);
+    }
+
+    private static Rows read(Record r) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(r.spill.read(r.offset, r.length)))) {
+            final Map<String, String> sml = readCells(in);
+            final Map<String, String> smf = readCells(in);
+            final int numberOfSmes = in.readInt();
+            final List<Map<String, String>> smes = new ArrayList<>(numberOfSmes);
+            for (int i = 0; i < numberOfSmes; i++)
+                smes.add(readCells(in));
+            final int numberOfRefs = in.readInt();
+            final List<MztabMExporter.PendingSpectraRef> spectraRefs = new ArrayList<>(numberOfRefs);
+            for (int i = 0; i < numberOfRefs; i++)
+                spectraRefs.add(readSpectraRef(in));
+            return new Rows(sml, smf, smes, spectraRefs);
+        }
+    }
+    //endregion
+
+    /**
+     * Deletes all temporary files.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        records.clear();
+        cleanable.clean();
+    }
+
+    private static final class Record {
+        private final Spill spill;
+        private final long offset;
+        private final int length;
+        private final int numberOfSmes;
+
+        private Record(Spill spill, long offset, int length, int numberOfSmes) {
+            this.spill = spill;
+            this.offset = offset;
+            this.length = length;
+            this.numberOfSmes = numberOfSmes;
+        }
+    }
+
+    private static final class Rows {
+        private final Map<String, String> sml;
+        private final Map<String, String> smf;
+        private final List<Map<String, String>> smes;
+        private final List<MztabMExporter.PendingSpectraRef> spectraRefs;
+
+        private Rows(Map<String, String> sml, Map<String, String> smf, List<Map<String, String>> smes, List<MztabMExporter.PendingSpectraRef> spectraRefs) {
+            this.sml = sml;
+            this.smf = smf;
+            this.smes = smes;
+            this.spectraRefs = spectraRefs;
+        }
+    }
+
+    private static class Spill implements Closeable {
+        private final Path file;
+        private final DataOutputStream out;
+        private long size = 0;
+        private FileChannel in = null;
+
+        private Spill(Path dir) throws IOException {
+            file = Files.createTempFile(dir, "rows-", ".bin");
+            file.toFile().deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        }
+
+        // only called by the owning thread
+        private long append(byte[] record) throws IOException {
+            final long offset = size;
+            out.write(record);
+            size += record.length;
+            return offset;
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+
+        private byte[] read(long offset, int length) throws IOException {
+            if (in == null)
+                in = FileChannel.open(file, StandardOpenOption.READ);
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, offset + buffer.position()) < 0)
+                    throw new EOFException("Unexpected end of temporary mzTab file '" + file + "'.");
+            }
+            return buffer.array();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (in != null)
+                    in.close();
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the spill files. Must not reference the writer, so that it can be run by the {@link Cleaner}.
+     */
+    private static final class Cleanup implements Runnable {
+        private final Path spillDir;
+        private final Queue<Spill> spills;
+
+        private Cleanup(Path spillDir, Queue<Spill> spills) {
+            this.spillDir = spillDir;
+            this.spills = spills;
+        }
+
+        @Override
+        public void run() {
+            for (Spill s : spills) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    LoggerFactory.getLogger(MzTabStreamWriter.class).warn("Could not close temporary mzTab file '" + s.file + "'.");
+                }
+            }
+            spills.clear();
+            try (var files = Files.list(spillDir)) {
+                files.forEach(f -> {
+                    try {
+                        Files.deleteIfExists(f);
+                    } catch (IOException e) {
+                        LoggerFactory.getLogger(MzTabStreamWriter.class).warn("Could not delete temporary mzTab file '" + f + "'.");
+                    }
+                });
+                Files.deleteIfExists(spillDir);
+            } catch (IOException e) {
+                LoggerFactory.getLogger(MzTabStreamWriter.class).warn("Could not delete temporary mzTab directory '" + spillDir + "'.");
+            }
+        }
+    }
+}
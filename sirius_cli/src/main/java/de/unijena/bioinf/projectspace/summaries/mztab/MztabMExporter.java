@@ -34,6 +34,7 @@ import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.ChemistryBase.ms.Spectrum;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.TreeStatistics;
+import de.unijena.bioinf.ChemistryBase.utils.Utils;
 import de.unijena.bioinf.GibbsSampling.ZodiacScore;
 import de.unijena.bioinf.chemdb.CompoundCandidate;
 import de.unijena.bioinf.chemdb.DataSource;
@@ -41,6 +42,7 @@ import de.unijena.bioinf.fingerid.ConfidenceScore;
 import de.unijena.bioinf.fingerid.blast.FBCandidates;
 import de.unijena.bioinf.fingerid.blast.TopCSIScore;
 import de.unijena.bioinf.ms.annotations.DataAnnotation;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 import de.unijena.bioinf.projectspace.FormulaScoring;
 import de.unijena.bioinf.projectspace.ProjectWriter;
 import de.unijena.bioinf.projectspace.Summarizer;
@@ -60,6 +62,8 @@ import uk.ac.ebi.pride.jmztab2.model.MZTabUtils;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import static de.unijena.bioinf.projectspace.SiriusLocations.SPECTRA;
@@ -67,15 +71,24 @@ import static de.unijena.bioinf.projectspace.SiriusLocations.TREES;
 import static de.unijena.bioinf.projectspace.summaries.mztab.JenaMSAdditionalKeys.*;
 
 public class MztabMExporter implements Summarizer {
-    private int smlID = 0;
-    private int smfID = 0;
-    private int smeID = 0;
+    /**
+     * Keep all rows in memory and validate the mzTab before writing it. Otherwise, rows are streamed to temporary
+     * files and the summary is written without validation.
+     */
+    public static final String VALIDATE_KEY = "de.unijena.bioinf.sirius.mztab.validate";
+
     private final MzTab mztab;
 
-    private boolean fingerID = false;
+    private final AtomicBoolean fingerID = new AtomicBoolean(false);
+    private boolean fingerIDMetadata = false;
 
     private final Map<String, MsRun> pathToRun = new HashMap<>();
 
+    private final boolean validate = PropertyManager.getBoolean(VALIDATE_KEY, false);
+    // mzTab items by compound directory name, only used if the mzTab is validated
+    private final Map<String, CompoundItems> compoundItems = new ConcurrentHashMap<>();
+    private volatile MzTabStreamWriter stream;
+
 
     public MztabMExporter() {
         mztab = new MzTab();
@@ -115,7 +128,7 @@ public class MztabMExporter implements Summarizer {
     }
 
     @Override
-    public synchronized void addWriteCompoundSummary(ProjectWriter writer, @NotNull CompoundContainer c, List<? extends SScored<FormulaResult, ? extends FormulaScore>> results) throws IOException {
+    public void addWriteCompoundSummary(ProjectWriter writer, @NotNull CompoundContainer c, List<? extends SScored<FormulaResult, ? extends FormulaScore>> results) throws IOException {
         final @NotNull Ms2Experiment exp = c.getAnnotationOrThrow(Ms2Experiment.class);
         if (results != null && !results.isEmpty()) {
             FormulaResult bestHitSource = results.get(0).getCandidate();
@@ -143,22 +156,14 @@ public class MztabMExporter implements Summarizer {
             }
 
             final SmallMoleculeSummary smlItem = buildSMLItem(exp, bestHitSource, bestHit);
-            mztab.addSmallMoleculeSummaryItem(smlItem);
-
-            final SmallMoleculeFeature smfItem = buildSMFItem(exp, bestHitSource, smlItem);
-            mztab.addSmallMoleculeFeatureItem(smfItem);
-
-            final List<SpectraRef> spectraRefs = extractReferencesAndRuns(exp);
-
-            final SmallMoleculeEvidence smeSiriusItem = buildSiriusFormulaIDSMEItem(exp, bestHitSource, bestHitSourceRank, smfItem);
-            smeSiriusItem.setSpectraRef(spectraRefs);
-            mztab.addSmallMoleculeEvidenceItem(smeSiriusItem);
+            final SmallMoleculeFeature smfItem = buildSMFItem(exp, bestHitSource);
+            final List<SmallMoleculeEvidence> smeItems = new ArrayList<>(2);
 
+            smeItems.add(buildSiriusFormulaIDSMEItem(exp, bestHitSource, bestHitSourceRank));
 
             if (bestHit != null) {
-                final SmallMoleculeEvidence smeFingerIDItem = buildFingerIDSMEItem(exp, bestHitSource, bestHit, smfItem);
-                smeFingerIDItem.setSpectraRef(spectraRefs);
-                mztab.addSmallMoleculeEvidenceItem(smeFingerIDItem);
+                final SmallMoleculeEvidence smeFingerIDItem = buildFingerIDSMEItem(exp, bestHitSource, bestHit);
+                smeItems.add(smeFingerIDItem);
                 smlItem.setReliability("2");
 
                 smlItem.setBestIdConfidenceMeasure(SiriusMZTabParameter.CSI_FINGERID_CONFIDENCE_SCORE);
@@ -177,28 +182,91 @@ public class MztabMExporter implements Summarizer {
                         ids.stream().map(DataSource.PUBCHEM::getLink)
                                 .collect(Collectors.toList())
                 );
-
-                if (!fingerID) {
-                    fingerID = true;
-                    mztab.getMetadata().addSoftwareItem(new Software().id(2)
-                            .parameter(SiriusMZTabParameter.SOFTWARE_FINGER_ID)
-                    );
-
-                    mztab.getMetadata().addIdConfidenceMeasureItem(SiriusMZTabParameter.CSI_FINGERID_CONFIDENCE_SCORE);
-                }
+                fingerID.set(true);
             } else {
                 smlItem.setReliability("4");
             }
             //todo add zodiac spectral library hits at some time
-//        final SmallMoleculeEvidence smeSpectralHitItem = buildSpectralLibSMEItem(bestHitSource, bestHit, smfItem);
+//        final SmallMoleculeEvidence smeSpectralHitItem = buildSpectralLibSMEItem(bestHitSource, bestHit);
 //        mztab.addSmallMoleculeEvidenceItem(smeSpectralHitItem);
-            mztab.getMetadata().setMsRun(new ArrayList<>(pathToRun.values()));
+
+            // ids and ms runs are assigned in compound order when the summary is written
+            final String key = c.getId().getDirectoryName();
+            final List<PendingSpectraRef> spectraRefs = extractReferences(exp);
+            if (validate)
+                compoundItems.put(key, new CompoundItems(smlItem, smfItem, smeItems, spectraRefs));
+            else
+                stream().add(key, smlItem, smfItem, smeItems, spectraRefs);
+        }
+    }
+
+    private MzTabStreamWriter stream() throws IOException {
+        MzTabStreamWriter s = stream;
+        if (s == null) {
+            synchronized (this) {
+                s = stream;
+                if (s == null)
+                    stream = s = new MzTabStreamWriter();
+            }
         }
+        return s;
     }
 
     @Override
     public synchronized void writeProjectSpaceSummary(ProjectWriter writer) throws IOException {
-        writer.textFile(SummaryLocations.MZTAB_SUMMARY, this::write);
+        final MzTabStreamWriter s = stream;
+        if (s == null) {
+            final List<CompoundItems> items = compoundItems.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey(Utils.ALPHANUMERIC_COMPARATOR))
+                    .map(Map.Entry::getValue).toList();
+            mztab.setSmallMoleculeSummary(new ArrayList<>());
+            mztab.setSmallMoleculeFeature(new ArrayList<>());
+            mztab.setSmallMoleculeEvidence(new ArrayList<>());
+
+            int smlID = 0, smfID = 0, smeID = 0;
+            for (CompoundItems item : items) {
+                item.smlItem.setSmlId(++smlID);
+                item.smlItem.setSmfIdRefs(new ArrayList<>(List.of(++smfID)));
+                item.smfItem.setSmfId(smfID);
+                item.smfItem.setSmeIdRefs(new ArrayList<>());
+                mztab.addSmallMoleculeSummaryItem(item.smlItem);
+                mztab.addSmallMoleculeFeatureItem(item.smfItem);
+
+                final List<SpectraRef> spectraRefs = resolveRuns(item.spectraRefs);
+                for (SmallMoleculeEvidence smeItem : item.smeItems) {
+                    smeItem.setSmeId(++smeID);
+                    item.smfItem.addSmeIdRefsItem(smeItem.getSmeId());
+                    smeItem.setSpectraRef(spectraRefs);
+                    mztab.addSmallMoleculeEvidenceItem(smeItem);
+                }
+            }
+            updateMetadata();
+            writer.textFile(SummaryLocations.MZTAB_SUMMARY, w -> write(w, validate));
+        } else {
+            try {
+                writer.textFile(SummaryLocations.MZTAB_SUMMARY, w -> s.write(w, this::resolveRuns, this::updateMetadata));
+            } finally {
+                stream = null;
+                s.close();
+            }
+        }
+    }
+
+    Metadata updateMetadata() {
+        if (fingerID.get() && !fingerIDMetadata) {
+            fingerIDMetadata = true;
+            mztab.getMetadata().addSoftwareItem(new Software().id(2)
+                    .parameter(SiriusMZTabParameter.SOFTWARE_FINGER_ID)
+            );
+
+            mztab.getMetadata().addIdConfidenceMeasureItem(SiriusMZTabParameter.CSI_FINGERID_CONFIDENCE_SCORE);
+        }
+        synchronized (pathToRun) {
+            if (!pathToRun.isEmpty())
+                mztab.getMetadata().setMsRun(pathToRun.values().stream()
+                        .sorted(Comparator.comparing(MsRun::getId)).collect(Collectors.toCollection(ArrayList::new)));
+        }
+        return mztab.getMetadata();
     }
 
     @Override
@@ -208,8 +276,8 @@ public class MztabMExporter implements Summarizer {
 
 
 
-    private SmallMoleculeEvidence buildSiriusSMEItem(@NotNull final Ms2Experiment er, @NotNull final FormulaResult bestHitSource, @NotNull final SmallMoleculeFeature smfItem) {
-        SmallMoleculeEvidence smeItem = buildSMEItem(smfItem);
+    private SmallMoleculeEvidence buildSiriusSMEItem(@NotNull final Ms2Experiment er, @NotNull final FormulaResult bestHitSource) {
+        SmallMoleculeEvidence smeItem = buildSMEItem();
 
         smeItem.setMsLevel(MZTabParameter.newInstance(MZTabParameter.MS_LEVEL).value("2"));
         smeItem.setCharge(bestHitSource.getId().getIonType().getCharge());
@@ -221,8 +289,8 @@ public class MztabMExporter implements Summarizer {
         return smeItem;
     }
 
-    private SmallMoleculeEvidence buildSiriusFormulaIDSMEItem(@NotNull final Ms2Experiment er, @NotNull final FormulaResult bestHitSource, final int bestHitSourceRank, @NotNull final SmallMoleculeFeature smfItem) {
-        SmallMoleculeEvidence smeItem = buildSiriusSMEItem(er, bestHitSource, smfItem);
+    private SmallMoleculeEvidence buildSiriusFormulaIDSMEItem(@NotNull final Ms2Experiment er, @NotNull final FormulaResult bestHitSource, final int bestHitSourceRank) {
+        SmallMoleculeEvidence smeItem = buildSiriusSMEItem(er, bestHitSource);
 
         smeItem.setIdentificationMethod(SiriusMZTabParameter.SOFTWARE_SIRIUS);
         smeItem.setRank(bestHitSourceRank);
@@ -247,8 +315,8 @@ public class MztabMExporter implements Summarizer {
         return smeItem;
     }
 
-    private SmallMoleculeEvidence buildFingerIDSMEItem(@NotNull final Ms2Experiment er, @NotNull final FormulaResult bestHitSource, @NotNull final Scored<? extends CompoundCandidate> bestHit, @NotNull final SmallMoleculeFeature smfItem) {
-        SmallMoleculeEvidence smeItem = buildSiriusSMEItem(er, bestHitSource, smfItem);
+    private SmallMoleculeEvidence buildFingerIDSMEItem(@NotNull final Ms2Experiment er, @NotNull final FormulaResult bestHitSource, @NotNull final Scored<? extends CompoundCandidate> bestHit) {
+        SmallMoleculeEvidence smeItem = buildSiriusSMEItem(er, bestHitSource);
         smeItem.setIdentificationMethod(SiriusMZTabParameter.SOFTWARE_FINGER_ID);
         smeItem.setRank(1); //todo make exported result user definable in gui
         smeItem.setEvidenceInputId(makeFormulaIdentifier(er, bestHitSource));
@@ -272,25 +340,21 @@ public class MztabMExporter implements Summarizer {
         return smeItem;
     }
 
-    private SmallMoleculeEvidence buildSpectralLibSMEItem(@NotNull Ms2Experiment er, final FormulaResult bestHitSource, final Scored<CompoundCandidate> bestHit, final SmallMoleculeFeature smfItem) {
-        SmallMoleculeEvidence smeItem = buildSMEItem(smfItem);
+    private SmallMoleculeEvidence buildSpectralLibSMEItem(@NotNull Ms2Experiment er, final FormulaResult bestHitSource, final Scored<CompoundCandidate> bestHit) {
+        SmallMoleculeEvidence smeItem = buildSMEItem();
         //todo implement if available through zodiac?
         return smeItem;
     }
 
-    private SmallMoleculeEvidence buildSMEItem(final SmallMoleculeFeature smfItem) {
+    private SmallMoleculeEvidence buildSMEItem() {
         SmallMoleculeEvidence smeItem = new SmallMoleculeEvidence();
-        smeItem.setSmeId(++smeID);
-        smfItem.addSmeIdRefsItem(smeItem.getSmeId());
 //        smeItem.setEvidenceInputId(); //todo maybe we can use this for openms mapping stuff
         return smeItem;
     }
 
-    private SmallMoleculeFeature buildSMFItem(@NotNull Ms2Experiment er, @NotNull final FormulaResult bestHitSource, @NotNull final SmallMoleculeSummary smlItem) {
+    private SmallMoleculeFeature buildSMFItem(@NotNull Ms2Experiment er, @NotNull final FormulaResult bestHitSource) {
         final SmallMoleculeFeature smfItem = new SmallMoleculeFeature();
-        smfItem.setSmfId(++smfID);
         smfItem.smeIdRefAmbiguityCode(2); //todo 3 is needed if we also want to add multiple candidates
-        smlItem.addSmfIdRefsItem(smfItem.getSmfId());
 
         smfItem.setAdductIon(bestHitSource.getId().getIonType().toString());
         smfItem.setCharge(bestHitSource.getId().getIonType().getCharge());
@@ -321,7 +385,6 @@ public class MztabMExporter implements Summarizer {
 
     private SmallMoleculeSummary buildSMLItem(@NotNull Ms2Experiment er, @NotNull FormulaResult bestHitSource, @Nullable Scored<? extends CompoundCandidate> bestHit) {
         final SmallMoleculeSummary smlItem = new SmallMoleculeSummary();
-        smlItem.setSmlId(++smlID);
         smlItem.adductIons(Collections.singletonList(bestHitSource.getId().getIonType().toString()));
         smlItem.addChemicalFormulaItem(bestHitSource.getId().getMolecularFormula().toString());
         smlItem.addTheoreticalNeutralMassItem(bestHitSource.getId().getMolecularFormula().getMass());
@@ -365,6 +428,14 @@ public class MztabMExporter implements Summarizer {
     }
 
     public List<SpectraRef> extractReferencesAndRuns(@NotNull Ms2Experiment exp) {
+        return resolveRuns(extractReferences(exp));
+    }
+
+    /**
+     * Extracts the spectra references of the given experiment without touching the shared ms runs, so that it can
+     * be called concurrently.
+     */
+    static List<PendingSpectraRef> extractReferences(@NotNull Ms2Experiment exp) {
         List<Spectrum<?>> specs = new ArrayList<>(exp.getMs2Spectra().size() + exp.getMs1Spectra().size() + 1);
         specs.add(exp.getMergedMs1Spectrum());
         specs.addAll(exp.getMs1Spectra());
@@ -373,6 +444,7 @@ public class MztabMExporter implements Summarizer {
         final AdditionalFields global = exp.getAnnotation(AdditionalFields.class).orElse(new AdditionalFields());
 
         final String globalSource = global.getOrDefault(SOURCE_FILE, Optional.ofNullable(exp.getSourceString()).orElse(null));
+        final Parameter polarity = SiriusMZTabParameter.getScanPolarity(exp.getPrecursorIonType());
 
         return specs.stream().map((it) -> {
             if (it instanceof AnnotatedSpectrum)
@@ -380,7 +452,6 @@ public class MztabMExporter implements Summarizer {
 
             return null;
         }).filter(Objects::nonNull).map((it) -> {
-            SpectraRef ref = new SpectraRef();
             String specref = it.get(SPECTRUM_ID);
             Integer runID = null;
 //            String scanNumber =  it.get(SCAN_NUMBER);
@@ -399,34 +470,47 @@ public class MztabMExporter implements Summarizer {
                     runID = null;
                 }
             }
-            ref.setReference(specref);
 
             String source = it.getOrDefault(SOURCE_FILE, globalSource);
             if (source == null)
                 return null;
 
-            MsRun run = pathToRun.get(source);
+            return new PendingSpectraRef(specref, runID, source, it.get(SOURCE_FILE_FORMAT), it.get(SPECTRUM_ID_FORMAT), polarity);
+        }).filter(Objects::nonNull).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    List<SpectraRef> resolveRuns(@NotNull List<PendingSpectraRef> pendingRefs) {
+        synchronized (pathToRun) {
+            return resolveRunsLocked(pendingRefs);
+        }
+    }
+
+    private List<SpectraRef> resolveRunsLocked(@NotNull List<PendingSpectraRef> pendingRefs) {
+        return pendingRefs.stream().map(it -> {
+            SpectraRef ref = new SpectraRef();
+            ref.setReference(it.reference);
+
+            MsRun run = pathToRun.get(it.source);
             if (run == null) {
                 run = new MsRun()
-                        .id(runID != null ? runID : pathToRun.size() + 1)
-                        .location(source);
-                pathToRun.put(source, run);
+                        .id(it.runID != null ? it.runID : pathToRun.size() + 1)
+                        .location(it.source);
+                pathToRun.put(it.source, run);
             }
 
-            if (run.getFormat() == null && it.containsKey(SOURCE_FILE_FORMAT))
-                run.setFormat(MZTabUtils.parseParam(it.get(SOURCE_FILE_FORMAT)));
-            if (run.getIdFormat() == null && it.containsKey(SPECTRUM_ID_FORMAT))
-                run.setIdFormat(MZTabUtils.parseParam(it.get(SPECTRUM_ID_FORMAT)));
+            if (run.getFormat() == null && it.sourceFileFormat != null)
+                run.setFormat(MZTabUtils.parseParam(it.sourceFileFormat));
+            if (run.getIdFormat() == null && it.spectrumIdFormat != null)
+                run.setIdFormat(MZTabUtils.parseParam(it.spectrumIdFormat));
 
-            final Parameter polarity = SiriusMZTabParameter.getScanPolarity(exp.getPrecursorIonType());
-            if (polarity != null && (run.getScanPolarity() == null || !run.getScanPolarity().contains(polarity)))
-                run.addScanPolarityItem(polarity);
+            if (it.polarity != null && (run.getScanPolarity() == null || !run.getScanPolarity().contains(it.polarity)))
+                run.addScanPolarityItem(it.polarity);
 
             ref.setMsRun(run);
 
 
             return ref;
-        }).filter(Objects::nonNull).collect(Collectors.toCollection(ArrayList::new));
+        }).collect(Collectors.toCollection(ArrayList::new));
     }
 
     protected static String makeFormulaIdentifier(Ms2Experiment ex, FormulaResult result) {
@@ -441,4 +525,39 @@ public class MztabMExporter implements Summarizer {
             throw e;
         }
     }
+
+    private static class CompoundItems {
+        private final SmallMoleculeSummary smlItem;
+        private final SmallMoleculeFeature smfItem;
+        private final List<SmallMoleculeEvidence> smeItems;
+        private final List<PendingSpectraRef> spectraRefs;
+
+        private CompoundItems(SmallMoleculeSummary smlItem, SmallMoleculeFeature smfItem, List<SmallMoleculeEvidence> smeItems, List<PendingSpectraRef> spectraRefs) {
+            this.smlItem = smlItem;
+            this.smfItem = smfItem;
+            this.smeItems = smeItems;
+            this.spectraRefs = spectraRefs;
+        }
+    }
+
+    /**
+     * Spectra reference of a compound whose ms run has not been resolved yet.
+     */
+    static class PendingSpectraRef {
+        final String reference;
+        final Integer runID;
+        final String source;
+        final String sourceFileFormat;
+        final String spectrumIdFormat;
+        final Parameter polarity;
+
+        PendingSpectraRef(String reference, Integer runID, String source, String sourceFileFormat, String spectrumIdFormat, Parameter polarity) {
+            this.reference = reference;
+            this.runID = runID;
+            this.source = source;
+            this.sourceFileFormat = sourceFileFormat;
+            this.spectrumIdFormat = spectrumIdFormat;
+            this.polarity = polarity;
+        }
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.daemon;
+
+import de.unijena.bioinf.ms.frontend.Run;
+import org.junit.Test;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DaemonPathResolutionTest {
+    private static final Path CLIENT_DIR = Path.of("client", "working", "dir").toAbsolutePath();
+
+    @CommandLine.Command(name = "root", subcommands = Tool.class)
+    static class Root {
+        @CommandLine.Option(names = {"--output", "-o"})
+        Path output;
+
+        @CommandLine.Option(names = {"--input", "-i"}, split = ",")
+        List<Path> input;
+
+        @CommandLine.Option(names = "--quant-table")
+        File quantTable;
+
+        @CommandLine.Option(names = "-p")
+        String profile;
+    }
+
+    @CommandLine.Command(name = "formula")
+    static class Tool {
+        @CommandLine.Option(names = "--summary")
+        Path summary;
+    }
+
+    private static CommandLine.ParseResult parse(String... args) {
+        final CommandLine commandline = new CommandLine(new Root());
+        Run.registerPathConverters(commandline, CLIENT_DIR);
+        return commandline.parseArgs(args);
+    }
+
+    @Test
+    public void relativePathsAreResolvedAgainstClientDirectory() {
+        final CommandLine.ParseResult result = parse("-i", "a.ms,dir/b.mgf", "-o", "project", "--quant-table", "quant.csv",
+                "-p", "orbitrap", "formula", "--summary", "summary.csv");
+        final Root root = result.commandSpec().commandLine().getCommand();
+        assertEquals(List.of(CLIENT_DIR.resolve("a.ms"), CLIENT_DIR.resolve("dir/b.mgf")), root.input);
+        assertEquals(CLIENT_DIR.resolve("project"), root.output);
+        assertEquals(CLIENT_DIR.resolve("quant.csv").toFile(), root.quantTable);
+        assertEquals("orbitrap", root.profile);
+
+        assertTrue(result.hasSubcommand());
+        final Tool tool = result.subcommand().commandSpec().commandLine().getCommand();
+        assertEquals(CLIENT_DIR.resolve("summary.csv"), tool.summary);
+    }
+
+    @Test
+    public void absolutePathsAreKept() {
+        final Path absolute = Path.of("elsewhere", "in.ms").toAbsolutePath();
+        final Root root = parse("--input=" + absolute, "--output=" + absolute).commandSpec().commandLine().getCommand();
+        assertEquals(List.of(absolute), root.input);
+        assertEquals(absolute, root.output);
+    }
+}
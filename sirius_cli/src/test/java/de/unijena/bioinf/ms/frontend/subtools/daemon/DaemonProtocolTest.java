@@ -0,0 +1,87 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.daemon;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class DaemonProtocolTest {
+
+    @Test
+    public void runRequestRoundTrip() throws Exception {
+        final String[] args = {"-i", "/data/äöü input.ms", "", "formula", "x".repeat(100_000)};
+        final Path workingDirectory = Path.of("/data/äöü project").toAbsolutePath();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DaemonProtocol.writeRun(new DataOutputStream(bytes), workingDirectory, args);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(DaemonProtocol.OP_RUN, in.readByte());
+        assertEquals(workingDirectory, DaemonProtocol.readWorkingDirectory(in));
+        assertArrayEquals(args, DaemonProtocol.readArgs(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void outputIsFramedAndTerminatedByExit() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try (PrintStream stdout = new PrintStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.FRAME_STDOUT), true, StandardCharsets.UTF_8);
+             PrintStream stderr = new PrintStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.FRAME_STDERR), true, StandardCharsets.UTF_8)) {
+            stdout.print("hello");
+            stdout.flush();
+            stderr.print("error");
+            stderr.flush();
+        }
+        DaemonProtocol.writeExit(out, DaemonProtocol.EXIT_ERROR);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(DaemonProtocol.FRAME_STDOUT, in.readByte());
+        assertEquals("hello", readPayload(in));
+        assertEquals(DaemonProtocol.FRAME_STDERR, in.readByte());
+        assertEquals("error", readPayload(in));
+        assertEquals(DaemonProtocol.FRAME_EXIT, in.readByte());
+        assertEquals(DaemonProtocol.EXIT_ERROR, in.readInt());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void emptyWritesProduceNoFrames() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.FRAME_STDOUT).write(new byte[0], 0, 0);
+        out.flush();
+        assertEquals(0, bytes.size());
+    }
+
+    private static String readPayload(DataInputStream in) throws Exception {
+        final byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
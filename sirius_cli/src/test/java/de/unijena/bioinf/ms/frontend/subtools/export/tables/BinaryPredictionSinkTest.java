@@ -0,0 +1,95 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.export.tables;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class BinaryPredictionSinkTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static double[] values(int length, double offset) {
+        final double[] values = new double[length];
+        for (int i = 0; i < length; i++)
+            values[i] = offset + i / (double) length;
+        return values;
+    }
+
+    private static void assertRow(ByteBuffer matrix, double[] expected) {
+        for (double v : expected)
+            assertEquals((float) v, matrix.getFloat(), 0f);
+    }
+
+    @Test
+    public void rowMajorLittleEndianFloats() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("predictions.bin");
+        final double[] first = {0.25, 1d, 0d}, second = {Double.NaN, 0.5, 1e-3};
+        try (BinaryPredictionSink sink = new BinaryPredictionSink(file)) {
+            sink.open(List.of("id", "formula"), List.of("a", "b", "c"));
+            sink.write(sink.encode(new String[]{"1_x", "C6H12O6"}, first));
+            sink.write(sink.encode(new String[]{"2_y", "C7H8"}, second));
+        }
+
+        final byte[] bytes = Files.readAllBytes(file);
+        // headerless, 2 rows x 3 columns
+        assertEquals(2 * 3 * Float.BYTES, bytes.length);
+        final ByteBuffer matrix = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertRow(matrix, first);
+        assertTrue(Float.isNaN(matrix.getFloat()));
+        assertEquals(0.5f, matrix.getFloat(), 0f);
+        assertEquals(1e-3f, matrix.getFloat(), 0f);
+        // first value of the first row in little endian byte order
+        assertArrayEquals(new byte[]{0, 0, (byte) 0x80, 0x3e}, new byte[]{bytes[0], bytes[1], bytes[2], bytes[3]});
+
+        assertEquals(List.of("id\tformula", "1_x\tC6H12O6", "2_y\tC7H8"), Files.readAllLines(BinaryPredictionSink.rowIndexFile(file)));
+        assertEquals(List.of("name", "a", "b", "c"), Files.readAllLines(BinaryPredictionSink.columnIndexFile(file)));
+    }
+
+    @Test
+    public void rowsLargerThanTheBufferKeepTheirOrder() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("large.bin");
+        // 1 MB buffer, 300k columns of 4 bytes
+        final int columns = 300_000;
+        final double[][] rows = {values(columns, 0), values(columns, 1), values(columns, 2)};
+        try (BinaryPredictionSink sink = new BinaryPredictionSink(file)) {
+            sink.open(List.of("id"), IntStream.range(0, columns).mapToObj(String::valueOf).toList());
+            for (int i = 0; i < rows.length; i++)
+                sink.write(sink.encode(new String[]{String.valueOf(i)}, rows[i]));
+        }
+
+        final ByteBuffer matrix = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals((long) rows.length * columns * Float.BYTES, matrix.capacity());
+        for (double[] row : rows)
+            assertRow(matrix, row);
+        assertEquals(List.of("id", "0", "1", "2"), Files.readAllLines(BinaryPredictionSink.rowIndexFile(file)));
+    }
+}
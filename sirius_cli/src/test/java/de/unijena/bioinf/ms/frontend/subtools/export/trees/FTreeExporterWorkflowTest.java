@@ -0,0 +1,161 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.export.trees;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.SScored;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Spectrum;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.ms.frontend.subtools.PreprocessingJob;
+import de.unijena.bioinf.projectspace.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class FTreeExporterWorkflowTest {
+    // more compounds than jobs in flight, so that the archive is written while jobs are still running
+    private static final int NUM_COMPOUNDS = 40;
+    private static final String[] FORMULAS = {"C6H12O6", "C7H16O5", "C5H8N4O3"};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ProjectSpaceManager<Instance> psm;
+    private final List<Instance> instances = new ArrayList<>();
+    // tree names in input order
+    private final List<String> names = new ArrayList<>();
+
+    @Before
+    public void createProject() throws IOException {
+        psm = new ProjectSpaceManagerFactory.Default().create(new ProjectSpaceIO(ProjectSpaceManager.newDefaultConfig())
+                .createNewProjectSpace(tmp.getRoot().toPath().resolve("project"), false));
+        final PrecursorIonType ionType = PrecursorIonType.getPrecursorIonType("[M+H]+");
+        for (int i = 0; i < NUM_COMPOUNDS; i++) {
+            final double ionMass = 181.0707 + i;
+            final MutableMs2Experiment exp = new MutableMs2Experiment();
+            exp.setName("compound" + i);
+            exp.setPrecursorIonType(ionType);
+            exp.setIonMass(ionMass);
+            exp.setMs2Spectra(List.of(new MutableMs2Spectrum(new SimpleSpectrum(
+                    new double[]{85.0284, 97.0284, 127.0390, 145.0495, 163.0601},
+                    new double[]{0.3, 0.2, 0.5, 0.8, 1.0}), ionMass, CollisionEnergy.none(), 2)));
+            final Instance instance = psm.newCompoundWithUniqueId(exp);
+            for (int k = 0; k < FORMULAS.length; k++) {
+                final FTree tree = new FTree(MolecularFormula.parseOrThrow(FORMULAS[k]), ionType.getIonization());
+                tree.setTreeWeight(-k);
+                instance.newFormulaResultWithUniqueId(tree);
+            }
+            instances.add(instance);
+            // same order as exported, all trees of a compound are exported by one job
+            instance.loadFormulaResults(FTree.class).stream().map(SScored::getCandidate)
+                    .map(r -> instance.getID().getDirectoryName() + "_" + r.getId().fileName()).forEach(names::add);
+            instance.clearFormulaResultsCache();
+        }
+    }
+
+    @After
+    public void closeProject() throws IOException {
+        psm.close();
+    }
+
+    private void export(FTreeArchive.Format format, Path output) {
+        final FTreeExporterOptions options = new FTreeExporterOptions();
+        options.exportJson = true;
+        options.exportDot = true;
+        options.exportAllTrees = true;
+        options.archive = format;
+        options.output = output;
+        new FTreeExporterWorkflow(new PreprocessingJob<Iterable<Instance>>() {
+            @Override
+            protected Iterable<Instance> compute() {
+                return instances;
+            }
+        }, options, null).run();
+    }
+
+    @Test
+    public void ndJsonLinesAreFoundByIndexOffset() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("trees" + FTreeArchive.Format.NDJSON.extension);
+        export(FTreeArchive.Format.NDJSON, file);
+
+        final List<String> index = Files.readAllLines(file.resolveSibling(file.getFileName() + FTreeArchive.INDEX_SUFFIX));
+        assertEquals("name\toffset\tlength", index.get(0));
+        assertEquals(NUM_COMPOUNDS * FORMULAS.length, index.size() - 1);
+
+        long expectedOffset = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 1; i < index.size(); i++) {
+                final String[] fields = index.get(i).split("\t");
+                assertEquals(names.get(i - 1), fields[0]);
+                final long offset = Long.parseLong(fields[1]);
+                final int length = Integer.parseInt(fields[2]);
+                // trees are written back to back in input order
+                assertEquals(expectedOffset, offset);
+                expectedOffset += length;
+
+                final ByteBuffer bytes = ByteBuffer.allocate(length);
+                channel.read(bytes, offset);
+                assertFalse(bytes.hasRemaining());
+                final String line = new String(bytes.array(), StandardCharsets.UTF_8);
+                assertTrue(line.startsWith("{\"name\":\"" + fields[0] + "\",\"tree\":"));
+                assertTrue(line.contains(",\"dot\":\""));
+                assertTrue(line.endsWith("}\n"));
+                assertEquals(line.length() - 1, line.indexOf('\n'));
+            }
+            assertEquals(channel.size(), expectedOffset);
+        }
+    }
+
+    @Test
+    public void zipContainsOneEntryPerTreeAndFormat() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("trees" + FTreeArchive.Format.ZIP.extension);
+        export(FTreeArchive.Format.ZIP, file);
+
+        final List<String> expected = names.stream().flatMap(n -> List.of(n + ".json", n + ".dot").stream()).collect(Collectors.toList());
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            assertEquals(expected, zip.stream().map(ZipEntry::getName).collect(Collectors.toList()));
+            for (String name : names) {
+                final String json = new String(zip.getInputStream(zip.getEntry(name + ".json")).readAllBytes(), StandardCharsets.UTF_8);
+                assertTrue(json.trim().startsWith("{"));
+                assertFalse(new String(zip.getInputStream(zip.getEntry(name + ".dot")).readAllBytes(), StandardCharsets.UTF_8).isBlank());
+            }
+        }
+    }
+}
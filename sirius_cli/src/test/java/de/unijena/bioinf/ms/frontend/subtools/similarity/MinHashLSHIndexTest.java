@@ -0,0 +1,125 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.similarity;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class MinHashLSHIndexTest {
+
+    private static int[][] candidates(MinHashLSHIndex index, int[][] tokenSets) {
+        return index.candidates(tokenSets, SiriusJobs.getGlobalJobManager());
+    }
+
+    private static int[] range(int from, int to) {
+        return IntStream.range(from, to).toArray();
+    }
+
+    @Test
+    public void candidatesAreSymmetricAndSorted() {
+        final Random r = new Random(1);
+        final int[][] tokenSets = new int[200][];
+        for (int i = 0; i < tokenSets.length; i++)
+            tokenSets[i] = r.ints(40, 0, 300).distinct().toArray();
+        // duplicates of the first sets
+        for (int i = 100; i < tokenSets.length; i++)
+            tokenSets[i] = tokenSets[i - 100].clone();
+
+        final int[][] candidates = candidates(new MinHashLSHIndex(16, 4, 1000, 42), tokenSets);
+        assertEquals(tokenSets.length, candidates.length);
+        for (int i = 0; i < candidates.length; i++) {
+            final int[] sorted = candidates[i].clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(sorted, candidates[i]);
+            assertTrue(Arrays.binarySearch(candidates[i], i) < 0);
+            for (int j : candidates[i])
+                assertTrue(Arrays.binarySearch(candidates[j], i) >= 0);
+            // identical sets always share all bands
+            final int twin = i < 100 ? i + 100 : i - 100;
+            assertTrue(Arrays.binarySearch(candidates[i], twin) >= 0);
+        }
+    }
+
+    @Test
+    public void emptyAndDisjointSetsHaveNoCandidates() {
+        final int[][] tokenSets = {range(0, 50), range(1000, 1050), new int[0], new int[0], range(2000, 2050)};
+        final int[][] candidates = candidates(new MinHashLSHIndex(8, 4, 1000, 42), tokenSets);
+        for (int[] c : candidates)
+            assertEquals(0, c.length);
+    }
+
+    @Test
+    public void similarSetsAreFound() {
+        final MinHashLSHIndex index = new MinHashLSHIndex(20, 4, 1000, 7);
+        // jaccard 0.8 -> candidate probability > 0.9999
+        assertTrue(index.candidateProbability(0.8) > 0.9999);
+        final int[][] tokenSets = new int[100][];
+        for (int p = 0; p < 50; p++) {
+            tokenSets[2 * p] = range(1000 * p, 1000 * p + 90);
+            tokenSets[2 * p + 1] = range(1000 * p + 10, 1000 * p + 100);
+        }
+        final int[][] candidates = candidates(index, tokenSets);
+        for (int p = 0; p < 50; p++) {
+            assertTrue(Arrays.binarySearch(candidates[2 * p], 2 * p + 1) >= 0);
+            assertTrue(Arrays.binarySearch(candidates[2 * p + 1], 2 * p) >= 0);
+        }
+    }
+
+    @Test
+    public void largeBucketsAreSplit() {
+        final int maxBucketSize = 4;
+        final int[][] tokenSets = new int[10][];
+        for (int i = 0; i < tokenSets.length; i++)
+            tokenSets[i] = range(0, 20);
+        final int[][] candidates = candidates(new MinHashLSHIndex(4, 2, maxBucketSize, 42), tokenSets);
+        for (int[] c : candidates) {
+            assertTrue(c.length > 0);
+            assertTrue(c.length < maxBucketSize);
+        }
+    }
+
+    @Test
+    public void candidateProbability() {
+        final MinHashLSHIndex index = new MinHashLSHIndex(10, 3, 1000, 42);
+        assertEquals(0d, index.candidateProbability(0d), 1e-12);
+        assertEquals(1d, index.candidateProbability(1d), 1e-12);
+        assertEquals(1d - Math.pow(1d - Math.pow(0.5, 3), 10), index.candidateProbability(0.5), 1e-12);
+    }
+
+    @Test
+    public void spectrumTokensOfPeaksAndLosses() {
+        final SimpleSpectrum spectrum = new SimpleSpectrum(new double[]{50.0, 100.0, 150.2}, new double[]{0.1, 1.0, 0.5});
+        // two most intense peaks: 100.0 and 150.2, losses to 200.0
+        final int[] tokens = MinHashLSHIndex.spectrumTokens(spectrum, 200.0, 1.0, 2);
+        Arrays.sort(tokens);
+        assertArrayEquals(new int[]{2 * 50 + 1, 2 * 100, 2 * 100 + 1, 2 * 150}, tokens);
+
+        // losses smaller than 0.5 are ignored
+        final int[] precursorOnly = MinHashLSHIndex.spectrumTokens(new SimpleSpectrum(new double[]{200.0}, new double[]{1.0}), 200.2, 1.0, 10);
+        assertArrayEquals(new int[]{400}, precursorOnly);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.zodiac;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CheckpointedGibbsSamplerTest {
+    private static final double THRESHOLD = 0.5;
+
+    /**
+     * Four compounds with three candidates each. The first candidate of every compound shares most fragments and
+     * losses with the first candidates of the other compounds, the others are decoys with higher prior for the
+     * last compound.
+     */
+    static List<ZodiacCandidateFeatures[]> dataset() {
+        final List<ZodiacCandidateFeatures[]> compounds = new ArrayList<>();
+        for (int c = 0; c < 4; c++) {
+            final int shift = 100 * (c + 1);
+            compounds.add(new ZodiacCandidateFeatures[]{
+                    new ZodiacCandidateFeatures(c + "-true", c == 3 ? -1 : 0, new int[]{0, 1, 2, 3, 4, 5 + c}, new int[]{50, 51, 52, 53}),
+                    new ZodiacCandidateFeatures(c + "-decoy1", -0.5, new int[]{0, shift + 1, shift + 2}, new int[]{50, shift + 3}),
+                    new ZodiacCandidateFeatures(c + "-decoy2", c == 3 ? 0 : -1, new int[]{1, shift + 4, shift + 5}, new int[]{shift + 6})
+            });
+        }
+        return compounds;
+    }
+
+    @Test
+    public void samplingMatchesExactMarginals() throws Exception {
+        try (CompactZodiacGraph graph = SiriusJobs.getGlobalJobManager().submitJob(CompactZodiacGraph.makeBuildJob(dataset(), THRESHOLD, 42)).awaitResult()) {
+            assertEquals(4, graph.numberOfCompounds());
+            assertEquals(12, graph.numberOfCandidates());
+            assertTrue(graph.numberOfEdges() > 0);
+
+            final double[] sampled = SiriusJobs.getGlobalJobManager().submitJob(
+                    new CheckpointedGibbsSampler(graph, 40000, 200, 4, 0, 42, null).makeComputeJob()).awaitResult();
+            final double[] exact = exactMarginals(graph);
+
+            for (int i = 0; i < exact.length; i++)
+                assertEquals("candidate " + i, exact[i], sampled[i], 0.03);
+            for (int c = 0; c < graph.numberOfCompounds(); c++) {
+                double sum = 0;
+                for (int i = graph.firstCandidate(c); i < graph.endCandidate(c); i++)
+                    sum += sampled[i];
+                assertEquals(1d, sum, 1e-9);
+            }
+            // the graph has to move the consistent candidate of the last compound above the decoy with higher prior
+            assertTrue(sampled[graph.firstCandidate(3)] > sampled[graph.firstCandidate(3) + 2]);
+        }
+    }
+
+    @Test
+    public void sameSeedYieldsSameScores() throws Exception {
+        try (CompactZodiacGraph graph = SiriusJobs.getGlobalJobManager().submitJob(CompactZodiacGraph.makeBuildJob(dataset(), THRESHOLD, 7)).awaitResult()) {
+            final double[] first = SiriusJobs.getGlobalJobManager().submitJob(
+                    new CheckpointedGibbsSampler(graph, 2000, 100, 2, 0, 7, null).makeComputeJob()).awaitResult();
+            final double[] second = SiriusJobs.getGlobalJobManager().submitJob(
+                    new CheckpointedGibbsSampler(graph, 2000, 100, 2, 0, 7, null).makeComputeJob()).awaitResult();
+            assertArrayEquals(first, second, 0d);
+        }
+    }
+
+    /**
+     * Marginal candidate probabilities of the joint distribution the sampler draws from: sum of the log priors of
+     * the selected candidates plus the weights of all edges between them.
+     */
+    static double[] exactMarginals(CompactZodiacGraph graph) {
+        final int compounds = graph.numberOfCompounds();
+        final int[] selected = new int[compounds];
+        for (int c = 0; c < compounds; c++)
+            selected[c] = graph.firstCandidate(c);
+
+        final double[] marginals = new double[graph.numberOfCandidates()];
+        double total = 0;
+        while (true) {
+            double logP = 0;
+            for (int c = 0; c < compounds; c++) {
+                logP += graph.logPrior(selected[c]);
+                for (int d = c + 1; d < compounds; d++)
+                    logP += weight(graph, selected[c], selected[d]);
+            }
+            final double p = Math.exp(logP);
+            total += p;
+            for (int s : selected)
+                marginals[s] += p;
+
+            int c = 0;
+            while (c < compounds && ++selected[c] == graph.endCandidate(c)) {
+                selected[c] = graph.firstCandidate(c);
+                ++c;
+            }
+            if (c == compounds)
+                break;
+        }
+        for (int i = 0; i < marginals.length; i++)
+            marginals[i] /= total;
+        return marginals;
+    }
+
+    private static double weight(CompactZodiacGraph graph, int from, int to) {
+        for (long e = graph.firstEdge(from); e < graph.endEdge(from); e++)
+            if (graph.edgeTarget(e) == to)
+                return graph.edgeWeight(e);
+        return 0;
+    }
+}
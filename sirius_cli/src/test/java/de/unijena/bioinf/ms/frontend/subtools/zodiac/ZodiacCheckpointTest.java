@@ -0,0 +1,96 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.zodiac;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class ZodiacCheckpointTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void savedStateIsRestored() throws Exception {
+        final Path location = ZodiacCheckpoint.location(tmp.getRoot().toPath());
+        final ZodiacCheckpoint checkpoint = ZodiacCheckpoint.load(location, 42, 2, 3, 7);
+        assertNull(checkpoint.get(0));
+        checkpoint.save(1, 500, new int[]{0, 3, 5}, new int[]{1, 2, 3, 4, 5, 6, 7});
+        assertTrue(Files.exists(location));
+
+        final ZodiacCheckpoint restored = ZodiacCheckpoint.load(location, 42, 2, 3, 7);
+        assertNull(restored.get(0));
+        final ZodiacCheckpoint.ChainState state = restored.get(1);
+        assertNotNull(state);
+        assertEquals(500, state.epoch);
+        assertArrayEquals(new int[]{0, 3, 5}, state.selected);
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6, 7}, state.counts);
+
+        restored.delete();
+        assertFalse(Files.exists(location));
+    }
+
+    @Test
+    public void mismatchingInputStartsFromScratch() throws Exception {
+        final Path location = ZodiacCheckpoint.location(tmp.getRoot().toPath());
+        ZodiacCheckpoint.load(location, 42, 2, 3, 7).save(0, 100, new int[]{0, 3, 5}, new int[7]);
+
+        assertNull(ZodiacCheckpoint.load(location, 43, 2, 3, 7).get(0));
+        assertNull(ZodiacCheckpoint.load(location, 42, 3, 3, 7).get(0));
+        assertNull(ZodiacCheckpoint.load(location, 42, 2, 3, 8).get(0));
+        assertNotNull(ZodiacCheckpoint.load(location, 42, 2, 3, 7).get(0));
+    }
+
+    @Test
+    public void corruptCheckpointStartsFromScratch() throws Exception {
+        final Path location = ZodiacCheckpoint.location(tmp.getRoot().toPath());
+        Files.write(location, new byte[]{1, 2, 3});
+        assertNull(ZodiacCheckpoint.load(location, 42, 2, 3, 7).get(0));
+    }
+
+    @Test
+    public void resumedRunYieldsSameScores() throws Exception {
+        final Path location = ZodiacCheckpoint.location(tmp.getRoot().toPath());
+        try (CompactZodiacGraph graph = SiriusJobs.getGlobalJobManager().submitJob(
+                CompactZodiacGraph.makeBuildJob(CheckpointedGibbsSamplerTest.dataset(), 0.5, 42)).awaitResult()) {
+            final double[] uninterrupted = SiriusJobs.getGlobalJobManager().submitJob(
+                    new CheckpointedGibbsSampler(graph, 2000, 100, 2, 300, 42, null).makeComputeJob()).awaitResult();
+
+            // the checkpointed run leaves the state of epoch 900 of each chain behind, resuming from it has to
+            // reproduce the uninterrupted result.
+            final double[] checkpointed = SiriusJobs.getGlobalJobManager().submitJob(
+                    new CheckpointedGibbsSampler(graph, 2000, 100, 2, 300, 42,
+                            ZodiacCheckpoint.load(location, 42, 2, graph.numberOfCompounds(), graph.numberOfCandidates())).makeComputeJob()).awaitResult();
+            final ZodiacCheckpoint resumeFrom = ZodiacCheckpoint.load(location, 42, 2, graph.numberOfCompounds(), graph.numberOfCandidates());
+            assertEquals(900, resumeFrom.get(0).epoch);
+            final double[] resumed = SiriusJobs.getGlobalJobManager().submitJob(
+                    new CheckpointedGibbsSampler(graph, 2000, 100, 2, 300, 42, resumeFrom).makeComputeJob()).awaitResult();
+
+            assertArrayEquals(uninterrupted, checkpointed, 0d);
+            assertArrayEquals(uninterrupted, resumed, 0d);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.webapi;
+
+import de.unijena.bioinf.canopus.CanopusResult;
+import de.unijena.bioinf.fingerid.FingerIdResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Offline {@link PredictionBackend} that does not contact any server. It records the size of every batch it
+ * receives and answers with empty predictions.
+ */
+public class LocalStubPredictionBackend implements PredictionBackend {
+    public final List<Integer> fingerprintBatches = Collections.synchronizedList(new ArrayList<>());
+    public final List<Integer> canopusBatches = Collections.synchronizedList(new ArrayList<>());
+    public final List<Integer> fingerblastBatches = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public List<List<FingerIdResult>> predictFingerprints(@NotNull List<FingerprintRequest> requests) {
+        fingerprintBatches.add(requests.size());
+        final List<List<FingerIdResult>> results = new ArrayList<>(requests.size());
+        requests.forEach(r -> results.add(List.of()));
+        return results;
+    }
+
+    @Override
+    public List<CanopusResult> predictCanopus(@NotNull List<CanopusRequest> requests) {
+        canopusBatches.add(requests.size());
+        return new ArrayList<>(Collections.nCopies(requests.size(), null));
+    }
+
+    @Override
+    public List<List<FingerIdResult>> searchStructures(@NotNull List<FingerblastRequest> requests) {
+        fingerblastBatches.add(requests.size());
+        final List<List<FingerIdResult>> results = new ArrayList<>(requests.size());
+        requests.forEach(r -> results.add(r.idResults));
+        return results;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.webapi;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import de.unijena.bioinf.canopus.CanopusResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WebRequestBatcherTest {
+
+    @Test
+    public void fullBatchesAreDispatchedImmediately() throws Exception {
+        final List<Integer> batchSizes = new ArrayList<>();
+        final WebRequestBatcher<Integer, Integer> batcher = new WebRequestBatcher<>("test", 10, 60000, batch -> {
+            synchronized (batchSizes) {
+                batchSizes.add(batch.size());
+            }
+            final List<Integer> out = new ArrayList<>(batch.size());
+            batch.forEach(i -> out.add(i * 2));
+            return out;
+        });
+
+        final List<Future<Integer>> responses = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+            responses.add(batcher.submit(i));
+
+        for (int i = 0; i < 30; i++)
+            assertEquals(Integer.valueOf(i * 2), responses.get(i).get(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of(10, 10, 10), batchSizes);
+        assertEquals(30, batcher.getNumberOfRequests());
+        assertEquals(3, batcher.getNumberOfBatches());
+    }
+
+    @Test
+    public void partialBatchIsDispatchedAfterMaxWait() throws Exception {
+        final LocalStubPredictionBackend backend = new LocalStubPredictionBackend();
+        final WebBatching batching = new WebBatching(backend, 100, 50);
+
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getDefault();
+        final List<Future<CanopusResult>> responses = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            final double[] probs = new double[version.size()];
+            Arrays.fill(probs, i / 7d);
+            responses.add(batching.canopus().submit(new PredictionBackend.CanopusRequest(
+                    MolecularFormula.parseOrThrow("C6H12O6"), 1, new ProbabilityFingerprint(version, probs), i)));
+        }
+
+        for (Future<CanopusResult> r : responses) {
+            r.get(10, TimeUnit.SECONDS);
+            assertTrue(r.isDone());
+            assertFalse(r.isCompletedExceptionally());
+        }
+
+        assertEquals(List.of(7), backend.canopusBatches);
+        assertTrue(backend.fingerprintBatches.isEmpty());
+        assertTrue(backend.fingerblastBatches.isEmpty());
+    }
+
+    @Test
+    public void partialFailureOnlyFailsAffectedRequests() throws Exception {
+        final WebRequestBatcher<Integer, Integer> batcher = new WebRequestBatcher<>("partial", 3, 60000, batch -> {
+            final List<Integer> out = new ArrayList<>(batch.size());
+            batch.forEach(i -> out.add(i < 0 ? null : i));
+            final Map<Integer, Throwable> failures = new HashMap<>();
+            for (int i = 0; i < batch.size(); i++)
+                if (batch.get(i) < 0)
+                    failures.put(i, new CancellationException("cancelled"));
+            if (!failures.isEmpty())
+                throw new WebRequestBatcher.PartialBatchException(out, failures);
+            return out;
+        });
+        final Future<Integer> r1 = batcher.submit(1);
+        final Future<Integer> r2 = batcher.submit(-1);
+        final Future<Integer> r3 = batcher.submit(3);
+
+        assertEquals(Integer.valueOf(1), r1.get(10, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(3), r3.get(10, TimeUnit.SECONDS));
+        try {
+            r2.get(10, TimeUnit.SECONDS);
+            fail("Exception expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+        }
+    }
+
+    @Test
+    public void cancelledRequestsAreNotDispatched() throws Exception {
+        final List<Integer> processed = new ArrayList<>();
+        final WebRequestBatcher<Integer, Integer> batcher = new WebRequestBatcher<>("cancel", 100, 60000, batch -> {
+            synchronized (processed) {
+                processed.addAll(batch);
+            }
+            return new ArrayList<>(batch);
+        });
+        final Future<Integer> r1 = batcher.submit(1);
+        final Future<Integer> r2 = batcher.submit(2);
+        r1.cancel(false);
+        batcher.flush();
+
+        assertEquals(Integer.valueOf(2), r2.get(10, TimeUnit.SECONDS));
+        synchronized (processed) {
+            assertEquals(List.of(2), processed);
+        }
+    }
+
+    @Test
+    public void batchingIsDisabledByDefault() {
+        assertFalse(WebBatching.isEnabled());
+    }
+
+    @Test
+    public void failingBatchFailsAllRequests() throws Exception {
+        final WebRequestBatcher<Integer, Integer> batcher = new WebRequestBatcher<>("fail", 2, 60000, batch -> {
+            throw new IllegalStateException("server unavailable");
+        });
+        final Future<Integer> r1 = batcher.submit(1);
+        final Future<Integer> r2 = batcher.submit(2);
+
+        for (Future<Integer> r : List.of(r1, r2)) {
+            try {
+                r.get(10, TimeUnit.SECONDS);
+                fail("Exception expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Spectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompoundIndexTest {
+    private static final int NUM_COMPOUNDS = 3;
+    // more than one block of the index
+    private static final int NUM_SYNTHETIC_ROWS = 5000;
+    private static final int VERSION_OFFSET = 4, CLEAN_OFFSET = 20;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ProjectSpaceManager<Instance> psm;
+    private final List<CompoundContainerId> ids = new ArrayList<>();
+
+    @Before
+    public void createProject() throws IOException {
+        psm = new ProjectSpaceManagerFactory.Default().create(new ProjectSpaceIO(ProjectSpaceManager.newDefaultConfig())
+                .createNewProjectSpace(tmp.getRoot().toPath().resolve("project"), false));
+        for (int i = 0; i < NUM_COMPOUNDS; i++) {
+            final double ionMass = 181.0707 + i;
+            final MutableMs2Experiment exp = new MutableMs2Experiment();
+            exp.setName("compound" + i);
+            exp.setPrecursorIonType(PrecursorIonType.getPrecursorIonType("[M+H]+"));
+            exp.setIonMass(ionMass);
+            exp.setMs2Spectra(List.of(new MutableMs2Spectrum(new SimpleSpectrum(
+                    new double[]{85.0284, 97.0284, 127.0390, 145.0495, 163.0601},
+                    new double[]{0.3, 0.2, 0.5, 0.8, 1.0}), ionMass, CollisionEnergy.none(), 2)));
+            ids.add(psm.newCompoundWithUniqueId(exp).getID());
+        }
+    }
+
+    @After
+    public void closeProject() throws IOException {
+        psm.close();
+    }
+
+    private Path indexLocation() {
+        return CompoundIndex.sidecarLocation(psm.projectSpace().getLocation());
+    }
+
+    private void putHeaderInt(int offset, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexLocation(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), offset);
+        }
+    }
+
+    private int getHeaderInt(int offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexLocation(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(buffer, offset);
+            return buffer.getInt(0);
+        }
+    }
+
+    // loads all compounds, so that their rows are valid
+    private void assertIndexed(CompoundIndex index) {
+        for (CompoundContainerId id : ids) {
+            final CompoundIndex.Entry entry = index.get(id).orElseThrow();
+            assertEquals(id.getIonMass().orElseThrow(), entry.getIonMass(), 1e-9);
+            assertFalse(entry.getTopFormula().isPresent());
+        }
+    }
+
+    @Test
+    public void growKeepsIndexedRows() throws IOException {
+        try (CompoundIndex index = CompoundIndex.open(psm.projectSpace())) {
+            assertEquals(NUM_COMPOUNDS, index.size());
+            assertIndexed(index);
+            assertEquals(0, index.numberOfStaleEntries());
+            final long initialSize = Files.size(indexLocation());
+
+            for (int i = 0; i < NUM_SYNTHETIC_ROWS; i++) {
+                final CompoundContainerId synthetic = new CompoundContainerId((NUM_COMPOUNDS + i + 1) + "_synthetic", "synthetic", NUM_COMPOUNDS + i + 1);
+                synthetic.setIonMass(100d + i);
+                index.update(synthetic);
+            }
+            assertTrue(Files.size(indexLocation()) > initialSize);
+            assertEquals(NUM_COMPOUNDS + NUM_SYNTHETIC_ROWS, index.size());
+            assertEquals(NUM_SYNTHETIC_ROWS, index.numberOfStaleEntries());
+
+            // rows written before the index has been remapped are still valid
+            for (CompoundContainerId id : ids)
+                assertEquals(id.getIonMass().orElseThrow(), index.get(id).orElseThrow().getIonMass(), 1e-9);
+        }
+
+        // rows of compounds that are not part of the project are dropped, the others are kept as valid rows
+        try (CompoundIndex index = CompoundIndex.open(psm.projectSpace())) {
+            assertEquals(NUM_COMPOUNDS, index.size());
+            assertEquals(0, index.numberOfStaleEntries());
+            assertIndexed(index);
+        }
+    }
+
+    @Test
+    public void incompatibleVersionIsRebuilt() throws IOException {
+        try (CompoundIndex index = CompoundIndex.open(psm.projectSpace())) {
+            assertIndexed(index);
+        }
+        final int version = getHeaderInt(VERSION_OFFSET);
+        putHeaderInt(VERSION_OFFSET, version + 1);
+
+        try (CompoundIndex index = CompoundIndex.open(psm.projectSpace())) {
+            assertEquals(version, getHeaderInt(VERSION_OFFSET));
+            assertEquals(NUM_COMPOUNDS, index.size());
+            // nothing is taken over from the incompatible file
+            assertEquals(NUM_COMPOUNDS, index.numberOfStaleEntries());
+            assertIndexed(index);
+        }
+    }
+
+    @Test
+    public void compoundsChangedWhileClosedAreReloaded() throws IOException {
+        try (CompoundIndex index = CompoundIndex.open(psm.projectSpace())) {
+            assertIndexed(index);
+        }
+        // as if another process without the index has written a result
+        final Path compoundDir = psm.projectSpace().getLocation().resolve(ids.get(1).getDirectoryName());
+        Files.writeString(compoundDir.resolve("changed-while-closed.info"), "changed");
+
+        try (CompoundIndex index = CompoundIndex.open(psm.projectSpace())) {
+            assertEquals(NUM_COMPOUNDS, index.size());
+            assertEquals(1, index.numberOfStaleEntries());
+            assertIndexed(index);
+            assertEquals(0, index.numberOfStaleEntries());
+        }
+    }
+
+    @Test
+    public void uncleanIndexIsReloaded() throws IOException {
+        try (CompoundIndex index = CompoundIndex.open(psm.projectSpace())) {
+            assertIndexed(index);
+        }
+        assertEquals(1, getHeaderInt(CLEAN_OFFSET));
+        // as if the index has not been closed
+        putHeaderInt(CLEAN_OFFSET, 0);
+
+        try (CompoundIndex index = CompoundIndex.open(psm.projectSpace())) {
+            assertEquals(0, getHeaderInt(CLEAN_OFFSET));
+            assertEquals(NUM_COMPOUNDS, index.size());
+            assertEquals(NUM_COMPOUNDS, index.numberOfStaleEntries());
+            assertIndexed(index);
+            assertEquals(0, index.numberOfStaleEntries());
+        }
+    }
+}
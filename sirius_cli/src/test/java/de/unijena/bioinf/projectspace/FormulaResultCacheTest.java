@@ -0,0 +1,180 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FormulaResultCacheTest {
+    private static final long MB = 1024L * 1024L;
+    // BASE_WEIGHT + DEFAULT_COMPONENT_WEIGHT
+    private static final long SCORED_RESULT_WEIGHT = 512 + 1024;
+    // BASE_WEIGHT + weight of a tree with a single vertex
+    private static final long TREE_RESULT_WEIGHT = 512 + 256 + 400;
+
+    private static final CompoundContainerId COMPOUND = new CompoundContainerId("1_test", "test", 1);
+    private static final PrecursorIonType ION_TYPE = PrecursorIonType.getPrecursorIonType("[M+H]+");
+
+    private static FormulaResult scoredResult(int i) {
+        final FormulaResult r = new FormulaResult(new FormulaResultId(COMPOUND, MolecularFormula.parseOrThrow("C" + (i + 1) + "H12O6"), ION_TYPE));
+        r.setAnnotation(FormulaScoring.class, new FormulaScoring());
+        return r;
+    }
+
+    private static FormulaResult treeResult(int i) {
+        final MolecularFormula formula = MolecularFormula.parseOrThrow("C" + (i + 1) + "H12O6");
+        final FormulaResult r = new FormulaResult(new FormulaResultId(COMPOUND, formula, ION_TYPE));
+        r.setAnnotation(FTree.class, new FTree(formula, ION_TYPE.getIonization()));
+        return r;
+    }
+
+    @Test
+    public void weightsAreAccounted() {
+        final FormulaResultCache cache = new FormulaResultCache(MB);
+        final List<FormulaResult> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            results.add(scoredResult(i));
+        cache.putAll(results);
+        assertEquals(10, cache.size());
+        assertEquals(10 * SCORED_RESULT_WEIGHT, cache.getWeight());
+        assertEquals(Long.valueOf(10 * 1024L), cache.getComponentWeights().get(FormulaScoring.class));
+
+        // re-putting the same object does not count twice
+        cache.put(results.get(0));
+        assertEquals(10 * SCORED_RESULT_WEIGHT, cache.getWeight());
+
+        cache.invalidate(results.get(0).getId());
+        assertFalse(cache.contains(results.get(0).getId()));
+        assertEquals(9 * SCORED_RESULT_WEIGHT, cache.getWeight());
+
+        cache.removeComponents(results.get(1).getId(), FormulaScoring.class);
+        assertEquals(8 * SCORED_RESULT_WEIGHT + 512, cache.getWeight());
+        assertEquals(Long.valueOf(8 * 1024L), cache.getComponentWeights().get(FormulaScoring.class));
+
+        // replacing a cached result by a new object removes the weight of the old one
+        cache.put(scoredResult(2));
+        assertEquals(8 * SCORED_RESULT_WEIGHT + 512, cache.getWeight());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void leastRecentlyUsedResultsAreEvicted() {
+        final FormulaResultCache cache = new FormulaResultCache(MB);
+        final int capacity = (int) (MB / SCORED_RESULT_WEIGHT);
+        final List<FormulaResult> results = new ArrayList<>();
+        for (int i = 0; i < capacity; i++) {
+            results.add(scoredResult(i));
+            cache.put(results.get(i));
+        }
+        assertEquals(capacity, cache.size());
+        assertEquals(0, cache.getEvictions());
+
+        // touch the first result, so that the second one is the least recently used
+        assertTrue(cache.get(results.get(0).getId()).isPresent());
+        final FormulaResult overflow = scoredResult(capacity);
+        cache.put(overflow);
+
+        assertTrue(cache.getWeight() <= FormulaResultCache.LOW_WATERMARK * MB);
+        assertTrue(cache.getEvictions() > 0);
+        assertEquals(capacity + 1 - cache.getEvictions(), cache.size());
+        assertEquals(cache.size() * SCORED_RESULT_WEIGHT, cache.getWeight());
+        assertTrue(cache.contains(overflow.getId()));
+        assertTrue(cache.contains(results.get(0).getId()));
+        assertFalse(cache.contains(results.get(1).getId()));
+        assertTrue(cache.contains(results.get(capacity - 1).getId()));
+    }
+
+    @Test
+    public void componentBudgetOnlyEvictsResultsWithComponent() {
+        final FormulaResultCache cache = new FormulaResultCache(64 * MB, Map.of(FTree.class, 10 * (256L + 400L)));
+        final FormulaResult scored = scoredResult(1000);
+        cache.put(scored);
+        for (int i = 0; i < 10; i++)
+            cache.put(treeResult(i));
+        assertEquals(0, cache.getEvictions());
+
+        cache.put(treeResult(10));
+        assertEquals(Long.valueOf(2), cache.getComponentEvictions().get(FTree.class));
+        assertEquals(Long.valueOf(9 * (256L + 400L)), cache.getComponentWeights().get(FTree.class));
+        assertEquals(9 * TREE_RESULT_WEIGHT + SCORED_RESULT_WEIGHT, cache.getWeight());
+        assertTrue(cache.contains(scored.getId()));
+        assertFalse(cache.contains(treeResult(0).getId()));
+        assertFalse(cache.contains(treeResult(1).getId()));
+        assertTrue(cache.contains(treeResult(10).getId()));
+    }
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        final FormulaResultCache cache = new FormulaResultCache(MB);
+        final FormulaResult a = scoredResult(0), b = scoredResult(1);
+        cache.put(a);
+        assertTrue(cache.get(a.getId()).isPresent());
+        assertFalse(cache.get(b.getId()).isPresent());
+        assertNull(cache.getAllOrNull(List.of(a.getId(), b.getId())));
+        cache.put(b);
+        assertEquals(List.of(a, b), cache.getAllOrNull(List.of(a.getId(), b.getId())));
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void concurrentAccessKeepsAccountingConsistent() throws Exception {
+        final FormulaResultCache cache = new FormulaResultCache(MB);
+        final int n = (int) (2 * MB / SCORED_RESULT_WEIGHT);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = offset; i < n; i += 8) {
+                        final FormulaResult r = scoredResult(i);
+                        cache.put(r);
+                        cache.get(r.getId());
+                        cache.get(scoredResult(i / 2).getId());
+                    }
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(cache.getWeight() <= MB);
+        assertEquals(cache.size() * SCORED_RESULT_WEIGHT, cache.getWeight());
+        assertEquals(Long.valueOf(cache.size() * 1024L), cache.getComponentWeights().get(FormulaScoring.class));
+        assertEquals(n - cache.getEvictions(), cache.size());
+    }
+}
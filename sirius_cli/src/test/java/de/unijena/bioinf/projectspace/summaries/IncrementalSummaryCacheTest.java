@@ -0,0 +1,110 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IncrementalSummaryCacheTest {
+    private static final String CONFIGURATION = "summaries|false|formula,structure";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path location() {
+        return tmp.getRoot().toPath().resolve(IncrementalSummaryCache.FILE_NAME);
+    }
+
+    private static String longString(int length) {
+        final StringBuilder buf = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            buf.append(i % 2 == 0 ? 'C' : 'ö');
+        return buf.toString();
+    }
+
+    @Test
+    public void rowsAreRestored() throws IOException {
+        final IncrementalSummaryCache cache = IncrementalSummaryCache.load(location(), CONFIGURATION);
+        assertEquals(0, cache.size());
+        cache.put("1_a", new byte[]{1, 2, 3});
+        cache.put("2_b", new byte[0]);
+        cache.put("3_c", new byte[]{4});
+        cache.remove("3_c");
+        cache.save();
+        assertFalse(Files.exists(location().resolveSibling(IncrementalSummaryCache.FILE_NAME + ".tmp")));
+
+        final IncrementalSummaryCache loaded = IncrementalSummaryCache.load(location(), CONFIGURATION);
+        assertEquals(Set.of("1_a", "2_b"), loaded.compounds());
+        assertArrayEquals(new byte[]{1, 2, 3}, loaded.get("1_a"));
+        assertArrayEquals(new byte[0], loaded.get("2_b"));
+        assertNull(loaded.get("3_c"));
+    }
+
+    @Test
+    public void differentConfigurationIsDiscarded() throws IOException {
+        final IncrementalSummaryCache cache = IncrementalSummaryCache.load(location(), CONFIGURATION);
+        cache.put("1_a", new byte[]{1});
+        cache.save();
+        assertEquals(0, IncrementalSummaryCache.load(location(), CONFIGURATION + ",canopus").size());
+        assertEquals(1, IncrementalSummaryCache.load(location(), CONFIGURATION).size());
+    }
+
+    @Test
+    public void corruptCacheIsDiscarded() throws IOException {
+        Files.write(location(), new byte[]{0x1f, (byte) 0x8b, 42, 42});
+        assertEquals(0, IncrementalSummaryCache.load(location(), CONFIGURATION).size());
+
+        IncrementalSummaryCache.invalidate(location());
+        assertFalse(Files.exists(location()));
+        assertEquals(0, IncrementalSummaryCache.load(location(), CONFIGURATION).size());
+    }
+
+    @Test
+    public void stringsLargerThan64KB() throws IOException {
+        final String cell = longString(100_000);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            IncrementalSummaryCache.writeString(out, cell);
+            IncrementalSummaryCache.writeString(out, null);
+            IncrementalSummaryCache.writeString(out, "");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(cell, IncrementalSummaryCache.readString(in));
+            assertNull(IncrementalSummaryCache.readString(in));
+            assertEquals("", IncrementalSummaryCache.readString(in));
+        }
+
+        // keys and configuration are written the same way
+        final String configuration = longString(70_000);
+        final IncrementalSummaryCache cache = IncrementalSummaryCache.load(location(), configuration);
+        cache.put(cell, bytes.toByteArray());
+        cache.save();
+        final IncrementalSummaryCache loaded = IncrementalSummaryCache.load(location(), configuration);
+        assertArrayEquals(bytes.toByteArray(), loaded.get(cell));
+    }
+}
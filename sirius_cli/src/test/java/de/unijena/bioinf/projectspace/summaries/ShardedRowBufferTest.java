@@ -0,0 +1,103 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShardedRowBufferTest {
+
+    @Test
+    public void concurrentPutsAreMerged() throws Exception {
+        final ShardedRowBuffer<Integer> buffer = new ShardedRowBuffer<>();
+        final int threads = 8, perThread = 1000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++)
+                        buffer.put(thread + "_" + i, thread * perThread + i);
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Map<String, Integer> merged = buffer.merge();
+        assertEquals(threads * perThread, merged.size());
+        for (int t = 0; t < threads; t++)
+            for (int i = 0; i < perThread; i++)
+                assertEquals(Integer.valueOf(t * perThread + i), merged.get(t + "_" + i));
+    }
+
+    @Test
+    public void lastPutWinsAcrossThreads() throws Exception {
+        final ShardedRowBuffer<String> buffer = new ShardedRowBuffer<>();
+        buffer.put("1_a", "main");
+        final Thread other = new Thread(() -> buffer.put("1_a", "other"));
+        other.start();
+        other.join();
+        assertEquals("other", buffer.get("1_a"));
+
+        // the older row of this thread's shard must not replace the newer merged one
+        buffer.put("2_b", "main");
+        assertEquals("other", buffer.merge().get("1_a"));
+
+        buffer.put("1_a", "main again");
+        assertEquals("main again", buffer.merge().get("1_a"));
+        assertEquals("main", buffer.get("2_b"));
+        assertNull(buffer.get("3_c"));
+    }
+
+    @Test
+    public void mergeKeepsRows() {
+        final ShardedRowBuffer<String> buffer = new ShardedRowBuffer<>();
+        buffer.put("1_a", "a");
+        buffer.put("2_b", "b");
+        final Map<String, String> first = buffer.merge();
+        assertEquals(Map.of("1_a", "a", "2_b", "b"), first);
+        assertEquals(first, buffer.merge());
+
+        buffer.put("3_c", "c");
+        assertEquals(Map.of("1_a", "a", "2_b", "b", "3_c", "c"), buffer.merge());
+        // previously returned views are snapshots
+        assertEquals(2, first.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mergedRowsAreUnmodifiable() {
+        final ShardedRowBuffer<String> buffer = new ShardedRowBuffer<>();
+        buffer.put("1_a", "a");
+        buffer.merge().put("2_b", "b");
+    }
+}
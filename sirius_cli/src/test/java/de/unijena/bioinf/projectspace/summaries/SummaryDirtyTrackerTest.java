@@ -0,0 +1,108 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries;
+
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.projectspace.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SummaryDirtyTrackerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ProjectSpaceManager<Instance> psm;
+    private Path journal;
+
+    @Before
+    public void createProject() throws IOException {
+        psm = new ProjectSpaceManagerFactory.Default().create(new ProjectSpaceIO(ProjectSpaceManager.newDefaultConfig())
+                .createNewProjectSpace(tmp.getRoot().toPath().resolve("project"), false));
+        journal = IncrementalSummaryCache.sidecarLocation(psm.projectSpace().getLocation(), SummaryDirtyTracker.FILE_NAME);
+    }
+
+    @After
+    public void closeProject() throws IOException {
+        psm.close();
+    }
+
+    private static MutableMs2Experiment experiment(String name) {
+        final MutableMs2Experiment exp = new MutableMs2Experiment();
+        exp.setName(name);
+        exp.setPrecursorIonType(PrecursorIonType.getPrecursorIonType("[M+H]+"));
+        exp.setIonMass(181.0707);
+        return exp;
+    }
+
+    @Test
+    public void journalContainsOneCompoundPerLine() throws IOException {
+        try (SummaryDirtyTracker tracker = SummaryDirtyTracker.start(psm.projectSpace())) {
+            tracker.markDirty("1_a");
+            tracker.markDirty(List.of("2_b", "1_a", "3_ä"));
+            assertEquals(List.of("1_a", "2_b", "3_ä"), Files.readAllLines(journal, StandardCharsets.UTF_8));
+
+            assertEquals(Set.of("1_a", "2_b", "3_ä"), tracker.drain());
+            assertFalse(Files.exists(journal));
+            assertEquals(Set.of(), tracker.drain());
+
+            // recorded again after draining
+            tracker.markDirty("1_a");
+            assertEquals(List.of("1_a"), Files.readAllLines(journal, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void journalOfPreviousSessionIsDrained() throws IOException {
+        Files.write(journal, List.of("1_a", "", "2_b"), StandardCharsets.UTF_8);
+        try (SummaryDirtyTracker tracker = SummaryDirtyTracker.start(psm.projectSpace())) {
+            tracker.markDirty("3_c");
+            assertEquals(Set.of("1_a", "2_b", "3_c"), tracker.drain());
+        }
+        assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    public void changesOfTheProjectAreRecorded() throws IOException {
+        final Set<String> dirty;
+        final Instance instance;
+        try (SummaryDirtyTracker tracker = SummaryDirtyTracker.start(psm.projectSpace())) {
+            instance = psm.newCompoundWithUniqueId(experiment("tracked"));
+            dirty = tracker.drain();
+        }
+        assertEquals(Set.of(instance.getID().getDirectoryName()), dirty);
+
+        // no listeners after close
+        psm.newCompoundWithUniqueId(experiment("untracked"));
+        assertFalse(Files.exists(journal));
+    }
+}
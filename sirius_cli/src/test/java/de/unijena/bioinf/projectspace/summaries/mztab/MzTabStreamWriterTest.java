@@ -0,0 +1,224 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.summaries.mztab;
+
+import de.isas.mztab2.io.MZTabParameter;
+import de.isas.mztab2.io.SiriusMZTabParameter;
+import de.isas.mztab2.model.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class MzTabStreamWriterTest {
+
+    private static class Compound {
+        final String key;
+        final SmallMoleculeSummary sml;
+        final SmallMoleculeFeature smf;
+        final List<SmallMoleculeEvidence> smes;
+        final List<MztabMExporter.PendingSpectraRef> spectraRefs;
+
+        Compound(String key, SmallMoleculeSummary sml, SmallMoleculeFeature smf, List<SmallMoleculeEvidence> smes, List<MztabMExporter.PendingSpectraRef> spectraRefs) {
+            this.key = key;
+            this.sml = sml;
+            this.smf = smf;
+            this.smes = smes;
+            this.spectraRefs = spectraRefs;
+        }
+    }
+
+    private static Compound compound(int index, boolean fingerID, String chemicalName) {
+        final String key = index + "_compound" + index;
+        final double mz = 100d + index * 10.5;
+
+        final SmallMoleculeSummary sml = new SmallMoleculeSummary();
+        sml.adductIons(List.of("[M+H]+"));
+        sml.addChemicalFormulaItem("C" + (6 + index) + "H12O6");
+        sml.addTheoreticalNeutralMassItem(mz - 1.007276);
+        sml.addOptItem(SiriusMZTabParameter.newOptColumn(SiriusMZTabParameter.OPENMS_FEATURE_ID, "feature_" + index));
+
+        final SmallMoleculeFeature smf = new SmallMoleculeFeature();
+        smf.smeIdRefAmbiguityCode(2);
+        smf.setAdductIon("[M+H]+");
+        smf.setCharge(1);
+        smf.setExpMassToCharge(mz);
+        smf.setRetentionTimeInSeconds(60d + index);
+
+        final List<SmallMoleculeEvidence> smes = new ArrayList<>();
+        final SmallMoleculeEvidence sirius = new SmallMoleculeEvidence();
+        sirius.setMsLevel(MZTabParameter.newInstance(MZTabParameter.MS_LEVEL).value("2"));
+        sirius.setCharge(1);
+        sirius.setAdductIon("[M+H]+");
+        sirius.setChemicalFormula(sml.getChemicalFormula().get(0));
+        sirius.setTheoreticalMassToCharge(mz);
+        sirius.setExpMassToCharge(mz);
+        sirius.setIdentificationMethod(SiriusMZTabParameter.SOFTWARE_SIRIUS);
+        sirius.setRank(1);
+        sirius.setEvidenceInputId(key + ":" + mz + ":M+H");
+        sirius.addOptItem(SiriusMZTabParameter.newOptColumn(SiriusMZTabParameter.SIRIUS_SCORE, String.valueOf(-index * 1.5)));
+        smes.add(sirius);
+
+        if (fingerID) {
+            sml.setReliability("2");
+            sml.setBestIdConfidenceMeasure(SiriusMZTabParameter.CSI_FINGERID_CONFIDENCE_SCORE);
+            sml.setBestIdConfidenceValue(0.25 * index);
+            sml.addChemicalNameItem(chemicalName);
+            sml.setDatabaseIdentifier(List.of("CID:" + index, "CID:" + (index + 100)));
+
+            final SmallMoleculeEvidence csi = new SmallMoleculeEvidence();
+            csi.setMsLevel(MZTabParameter.newInstance(MZTabParameter.MS_LEVEL).value("2"));
+            csi.setCharge(1);
+            csi.setAdductIon("[M+H]+");
+            csi.setChemicalFormula(sml.getChemicalFormula().get(0));
+            csi.setChemicalName(chemicalName);
+            csi.setIdentificationMethod(SiriusMZTabParameter.SOFTWARE_FINGER_ID);
+            csi.setRank(1);
+            csi.addIdConfidenceMeasureItem(0.25 * index);
+            csi.addOptItem(SiriusMZTabParameter.newOptColumn(SiriusMZTabParameter.FINGERID_CONFIDENCE, String.valueOf(0.25 * index)));
+            smes.add(csi);
+        } else {
+            sml.setReliability("4");
+        }
+
+        final List<MztabMExporter.PendingSpectraRef> refs = List.of(
+                new MztabMExporter.PendingSpectraRef("index=" + index, null, "run" + (index % 3) + ".mzML", null, null,
+                        SiriusMZTabParameter.SCAN_POLARITY_ITEM_POSITIVE));
+        return new Compound(key, sml, smf, smes, refs);
+    }
+
+    private static List<Compound> compounds(int n) {
+        final List<Compound> compounds = new ArrayList<>();
+        for (int i = 1; i <= n; i++)
+            compounds.add(compound(i, i % 2 == 0, "name, with comma " + i));
+        return compounds;
+    }
+
+    /**
+     * Writes the compounds with the in memory jmzTab writer, ids and runs are assigned in key order.
+     */
+    private static String writeInMemory(List<Compound> compounds) throws IOException {
+        final MztabMExporter exporter = new MztabMExporter("test", "test-id");
+        final MzTab mztab = new MzTab();
+        int smeID = 0;
+        for (int i = 0; i < compounds.size(); i++) {
+            final Compound c = compounds.get(i);
+            c.sml.setSmlId(i + 1);
+            c.sml.setSmfIdRefs(new ArrayList<>(List.of(i + 1)));
+            c.smf.setSmfId(i + 1);
+            c.smf.setSmeIdRefs(new ArrayList<>());
+            mztab.addSmallMoleculeSummaryItem(c.sml);
+            mztab.addSmallMoleculeFeatureItem(c.smf);
+            final List<SpectraRef> refs = exporter.resolveRuns(c.spectraRefs);
+            for (SmallMoleculeEvidence sme : c.smes) {
+                sme.setSmeId(++smeID);
+                c.smf.addSmeIdRefsItem(smeID);
+                sme.setSpectraRef(refs);
+                mztab.addSmallMoleculeEvidenceItem(sme);
+            }
+        }
+        mztab.setMetadata(exporter.updateMetadata());
+        final StringWriter w = new StringWriter();
+        MztabMExporter.write(w, mztab, false);
+        return w.toString();
+    }
+
+    private static String writeStreamed(List<Compound> compounds, int threads) throws Exception {
+        final MztabMExporter exporter = new MztabMExporter("test", "test-id");
+        final List<Compound> reversed = new ArrayList<>(compounds);
+        Collections.reverse(reversed);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (MzTabStreamWriter stream = new MzTabStreamWriter()) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (Compound c : reversed)
+                futures.add(executor.submit(() -> {
+                    stream.add(c.key, c.sml, c.smf, c.smes, c.spectraRefs);
+                    return null;
+                }));
+            for (Future<?> f : futures)
+                f.get();
+
+            final StringWriter w = new StringWriter();
+            stream.write(w, exporter::resolveRuns, exporter::updateMetadata);
+            return w.toString();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<String> lines(String mztab) {
+        return Arrays.stream(mztab.split("\\r?\\n")).map(String::strip).filter(l -> !l.isEmpty()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void streamedOutputMatchesJmzTabWriter() throws Exception {
+        final String streamed = writeStreamed(compounds(12), 4);
+        final String golden = writeInMemory(compounds(12));
+        assertEquals(lines(golden), lines(streamed));
+    }
+
+    @Test
+    public void outputDoesNotDependOnThreads() throws Exception {
+        assertEquals(writeStreamed(compounds(20), 1), writeStreamed(compounds(20), 8));
+    }
+
+    @Test
+    public void idsAreAssignedInCompoundOrder() throws Exception {
+        final List<String> sml = lines(writeStreamed(compounds(11), 4)).stream()
+                .filter(l -> l.startsWith("SML\t")).collect(Collectors.toList());
+        assertEquals(11, sml.size());
+        for (int i = 0; i < sml.size(); i++) {
+            final String[] cells = sml.get(i).split("\t");
+            assertEquals(String.valueOf(i + 1), cells[1]);
+            assertEquals("C" + (6 + i + 1) + "H12O6", cells[4]);
+        }
+    }
+
+    @Test
+    public void cellsLargerThan64KBAreWritten() throws Exception {
+        final String longName = "x".repeat(100_000);
+        final String streamed = writeStreamed(List.of(compound(1, true, longName), compound(2, false, "short")), 2);
+        assertTrue(streamed.contains(longName));
+    }
+
+    @Test
+    public void closeDeletesTemporaryFiles() throws Exception {
+        final MzTabStreamWriter stream = new MzTabStreamWriter();
+        final Compound c = compound(1, false, "name");
+        stream.add(c.key, c.sml, c.smf, c.smes, c.spectraRefs);
+        final Path dir = stream.getSpillDir();
+        assertTrue(Files.isDirectory(dir));
+        stream.close();
+        assertFalse(Files.exists(dir));
+    }
+}
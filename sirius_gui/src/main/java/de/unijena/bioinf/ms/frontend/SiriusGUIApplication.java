@@ -111,9 +111,6 @@ public class SiriusGUIApplication extends SiriusCLIApplication {
                 return config;
             };
 
-            if (TIME)
-                t1 = System.currentTimeMillis();
-
             try {
                 final String[] finalArgs = args;
                 TinyBackgroundJJob<Object> j = new TinyBackgroundJJob<>() {
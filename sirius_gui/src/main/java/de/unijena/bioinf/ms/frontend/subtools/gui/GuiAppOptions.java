@@ -147,7 +147,7 @@ public class GuiAppOptions implements StandaloneTool<GuiAppOptions.Flow> {
                         if (cc.isConnected() || cc.hasOnlyWarning()) {
                             try {
                                 ApplicationCore.DEFAULT_LOGGER.info("Checking for Update... ");
-                                @Nullable VersionsInfo versionInfo = ApplicationCore.WEB_API.getVersionInfo(true);
+                                @Nullable VersionsInfo versionInfo = ApplicationCore.webAPI().getVersionInfo(true);
                                 if (versionInfo != null){
                                     ApplicationCore.DEFAULT_LOGGER.info("Latest Release: " + versionInfo.getLatestSiriusVersion() + " (Installed: " + ApplicationCore.VERSION() + ")");
 
@@ -26,9 +26,11 @@ import de.unijena.bioinf.jjobs.ProgressJJob;
 import de.unijena.bioinf.ms.frontend.subtools.DataSetJob;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainJob;
+import de.unijena.bioinf.ms.frontend.workflow.AdaptiveInstanceBuffer;
 import de.unijena.bioinf.ms.frontend.workflow.InstanceBufferFactory;
 import de.unijena.bioinf.ms.frontend.workflow.SimpleInstanceBuffer;
 import de.unijena.bioinf.ms.gui.compute.jjobs.Jobs;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 import de.unijena.bioinf.projectspace.Instance;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -49,7 +51,7 @@ public class GuiInstanceBufferFactory implements InstanceBufferFactory<SimpleIns
 
     @Override
     public SimpleInstanceBuffer create(int bufferSize, @NotNull Iterator<? extends Instance> instances, @NotNull List<InstanceJob.Factory<?>> tasks, @Nullable DataSetJob.Factory<?> dependJob, @NotNull JobProgressMerger progressSupport) {
-        return new SimpleInstanceBuffer(bufferSize, instances, tasks, dependJob, progressSupport, new JobSubmitter() {
+        final JobSubmitter submitter = new JobSubmitter() {
             @Override
             public <Job extends JJob<Result>, Result> Job submitJob(Job j) { //todo what do we want to show here?
                 if (j instanceof ToolChainJob) {
@@ -60,6 +62,10 @@ public class GuiInstanceBufferFactory implements InstanceBufferFactory<SimpleIns
                     return Jobs.MANAGER().submitJob(j);
                 }
             }
-        });
+        };
+
+        if (PropertyManager.getBoolean(AdaptiveInstanceBuffer.ENABLED_KEY, false))
+            return new AdaptiveInstanceBuffer(bufferSize, instances, tasks, dependJob, progressSupport, submitter);
+        return new SimpleInstanceBuffer(bufferSize, instances, tasks, dependJob, progressSupport, submitter);
     }
 }
@@ -43,7 +43,7 @@ public class AcceptTermsAction extends AbstractAction {
     public synchronized void actionPerformed(ActionEvent e) {
         Jobs.runInBackgroundAndLoad(MF, "Accepting and Refreshing...", () -> {
             try {
-                ApplicationCore.WEB_API.acceptTermsAndRefreshToken();
+                ApplicationCore.webAPI().acceptTermsAndRefreshToken();
                 return true;
             } catch (IOException ex) {
                 LoggerFactory.getLogger(getClass()).warn("Error when accepting terms.", ex);
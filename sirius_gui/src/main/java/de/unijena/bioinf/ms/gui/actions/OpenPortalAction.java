@@ -40,7 +40,7 @@ public class OpenPortalAction extends AbstractUserPortalAction {
 
     @Override
     URI path() {
-        return Jobs.runInBackgroundAndLoad(MF, () -> ApplicationCore.WEB_API.getAuthService().getToken()
+        return Jobs.runInBackgroundAndLoad(MF, () -> ApplicationCore.webAPI().getAuthService().getToken()
                 .flatMap(Tokens::getUsername)
                 .map(UserPortal::signInURL).orElse(UserPortal.signInURL())).getResult();
     }
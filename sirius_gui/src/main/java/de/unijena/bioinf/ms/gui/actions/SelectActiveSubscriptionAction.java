@@ -41,8 +41,8 @@ public class SelectActiveSubscriptionAction extends AbstractAction {
 
     @Override
     public synchronized void actionPerformed(ActionEvent e) {
-        boolean r = new SubscriptionDialog(MF, true, ApplicationCore.WEB_API.getAuthService().getToken().map(Tokens::getSubscriptions).orElse(List.of())).hasPerformedChange();
+        boolean r = new SubscriptionDialog(MF, true, ApplicationCore.webAPI().getAuthService().getToken().map(Tokens::getSubscriptions).orElse(List.of())).hasPerformedChange();
         if (r)
-            firePropertyChange("change-sub", null, ApplicationCore.WEB_API.getActiveSubscription());
+            firePropertyChange("change-sub", null, ApplicationCore.webAPI().getActiveSubscription());
     }
 }
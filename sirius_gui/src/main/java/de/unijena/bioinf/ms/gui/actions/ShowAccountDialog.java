@@ -58,7 +58,7 @@ public class ShowAccountDialog extends AbstractAction {
     protected synchronized void setIcon(final @Nullable ConnectionMonitor.ConnectionCheck check) {
         if (check != null) {
             if (check.isLoggedIn()) {
-                URI imageURI = ApplicationCore.WEB_API.getAuthService().getToken()
+                URI imageURI = ApplicationCore.webAPI().getAuthService().getToken()
                         .flatMap(Tokens::getUserImage).orElse(null);
 
                 if (imageURI == null) {
@@ -83,6 +83,6 @@ public class ShowAccountDialog extends AbstractAction {
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        new AccountDialog(MF, ApplicationCore.WEB_API.getAuthService());
+        new AccountDialog(MF, ApplicationCore.webAPI().getAuthService());
     }
 }
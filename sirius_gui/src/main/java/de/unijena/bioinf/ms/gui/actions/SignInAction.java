@@ -39,7 +39,7 @@ public class SignInAction extends AbstractAction {
 
     @Override
     public synchronized void actionPerformed(ActionEvent e) {
-        boolean r = new UserLoginDialog(MF, ApplicationCore.WEB_API.getAuthService()).hasPerformedLogin();
+        boolean r = new UserLoginDialog(MF, ApplicationCore.webAPI().getAuthService()).hasPerformedLogin();
         firePropertyChange("login", null, r);
     }
 }
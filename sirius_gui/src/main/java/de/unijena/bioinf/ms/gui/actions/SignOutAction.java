@@ -47,8 +47,8 @@ public class SignOutAction extends AbstractAction {
         boolean r = Jobs.runInBackgroundAndLoad(MF, "Logging out...", () -> {
             try {
                 ProxyManager.withConnectionLock((ExFunctions.Runnable) () -> {
-                    ApplicationCore.WEB_API.changeActiveSubscription(null);
-                    AuthServices.clearRefreshToken(ApplicationCore.WEB_API.getAuthService(), ApplicationCore.TOKEN_FILE);
+                    ApplicationCore.webAPI().changeActiveSubscription(null);
+                    AuthServices.clearRefreshToken(ApplicationCore.webAPI().getAuthService(), ApplicationCore.TOKEN_FILE);
                     ProxyManager.reconnect();
                 });
                 return true;
@@ -75,7 +75,7 @@ public class SettingsDialog extends JDialog implements ActionListener {
         proxSettings = new NetworkSettingsPanel(nuProps);
         settingsPane.add(proxSettings.name(), proxSettings);
 
-//        accountSettings = new AccountSettingsPanel(nuProps, ApplicationCore.WEB_API.getAuthService());
+//        accountSettings = new AccountSettingsPanel(nuProps, ApplicationCore.webAPI().getAuthService());
 //        settingsPane.add(accountSettings.name(), accountSettings);
 
         if (activeTab >= 0 && activeTab < settingsPane.getTabCount())
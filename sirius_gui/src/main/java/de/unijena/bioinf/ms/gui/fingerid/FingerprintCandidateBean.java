@@ -145,7 +145,7 @@ public class FingerprintCandidateBean implements SiriusPCS, Comparable<Fingerpri
     }
 
    /* protected CSIPredictor getCorrespondingCSIPredictor() throws IOException {
-        return (CSIPredictor) ApplicationCore.WEB_API.getStructurePredictor(adduct.getCharge() > 0 ? PredictorType.CSI_FINGERID_POSITIVE : PredictorType.CSI_FINGERID_POSITIVE);
+        return (CSIPredictor) ApplicationCore.webAPI().getStructurePredictor(adduct.getCharge() > 0 ? PredictorType.CSI_FINGERID_POSITIVE : PredictorType.CSI_FINGERID_POSITIVE);
     }*/
 
     public DatabaseLabel[] getLabels() {
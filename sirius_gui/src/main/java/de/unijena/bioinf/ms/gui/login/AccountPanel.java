@@ -67,9 +67,9 @@ public class AccountPanel extends JPanel {
                 Jobs.runInBackgroundAndLoad(MF, () -> {
                     try {
                         ProxyManager.withConnectionLock((ExFunctions.Runnable) () ->{
-                            ApplicationCore.WEB_API.changeActiveSubscription(null);
-                            AuthService.Token t = ApplicationCore.WEB_API.getAuthService().refreshIfNeeded(true);
-                            ApplicationCore.WEB_API.changeActiveSubscription(Tokens.getActiveSubscription(t));
+                            ApplicationCore.webAPI().changeActiveSubscription(null);
+                            AuthService.Token t = ApplicationCore.webAPI().getAuthService().refreshIfNeeded(true);
+                            ApplicationCore.webAPI().changeActiveSubscription(Tokens.getActiveSubscription(t));
                             ProxyManager.reconnect();
                         });
                     } catch (LoginException ex) {
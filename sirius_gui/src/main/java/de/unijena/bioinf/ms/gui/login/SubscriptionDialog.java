@@ -123,7 +123,7 @@ public class SubscriptionDialog extends JDialog {
                         ProxyManager.withConnectionLock((ExFunctions.Runnable) () -> {
                             Subscription sub = (Subscription) comboBox.getSelectedItem();
                             SiriusProperties.SIRIUS_PROPERTIES_FILE().setProperty(Tokens.ACTIVE_SUBSCRIPTION_KEY, sub.getSid());
-                            ApplicationCore.WEB_API.changeActiveSubscription(sub);
+                            ApplicationCore.webAPI().changeActiveSubscription(sub);
                             ProxyManager.reconnect();
                         });
                         performedChange = true;
@@ -98,13 +98,13 @@ public class UserLoginDialog extends JDialog {
                         ProxyManager.withConnectionLock((ExFunctions.Runnable) () -> {
                             service.login(username.getText(), new String(password.getPassword()));
                             AuthServices.writeRefreshToken(service, ApplicationCore.TOKEN_FILE);
-                            ApplicationCore.WEB_API.changeActiveSubscription(Tokens.getActiveSubscription(service.getToken().orElse(null)));
+                            ApplicationCore.webAPI().changeActiveSubscription(Tokens.getActiveSubscription(service.getToken().orElse(null)));
                             ProxyManager.reconnect();
                         });
                         performedLogin = true;
                         Jobs.runEDTLater(UserLoginDialog.this::dispose);
                         if (boxAcceptTerms.isSelected())
-                            ApplicationCore.WEB_API.acceptTermsAndRefreshToken();
+                            ApplicationCore.webAPI().acceptTermsAndRefreshToken();
                     } catch (Throwable ex) {
                         LoggerFactory.getLogger(getClass()).error("Error during Login.", ex);
                         new ExceptionDialog(UserLoginDialog.this, (ex instanceof OAuth2AccessTokenErrorResponse) ? ((OAuth2AccessTokenErrorResponse) ex).getErrorDescription() : ex.getMessage(), "Login failed!");
@@ -173,7 +173,7 @@ public class UserLoginDialog extends JDialog {
     }
 
     public void addTermsPanel(@NotNull TwoColumnPanel center) {
-        List<Term> terms = ApplicationCore.WEB_API.getAuthService().getToken()
+        List<Term> terms = ApplicationCore.webAPI().getAuthService().getToken()
                 .map(Tokens::getActiveSubscriptionTerms).orElse(List.of());
 
         if (!terms.isEmpty()) {
@@ -147,16 +147,16 @@ public class ConnectionMonitor extends AbstractBean implements Closeable, AutoCl
             @Nullable WorkerList wl = null;
 
             // offline data
-            ApplicationCore.WEB_API.getAuthService().getToken().ifPresent(token -> {
+            ApplicationCore.webAPI().getAuthService().getToken().ifPresent(token -> {
                 Tokens.getUserEmail(token).ifPresent(ll::setUserEmail);
                 Tokens.getUserId(token).ifPresent(ll::setUserId);
             });
-            ll.setSubscription(ApplicationCore.WEB_API.getActiveSubscription());
+            ll.setSubscription(ApplicationCore.webAPI().getActiveSubscription());
 
             checkForInterruption();
             try {
                 //online connection check
-                wl = ApplicationCore.WEB_API.getWorkerInfo();
+                wl = ApplicationCore.webAPI().getWorkerInfo();
                 if (wl == null || !wl.supportsAllPredictorTypes(neededTypes)) {
                     errors.put(ConnectionError.Klass.WORKER, new ConnectionError(10,
                             "No all supported Worker Types are available.", ConnectionError.Klass.WORKER,
@@ -167,19 +167,19 @@ public class ConnectionMonitor extends AbstractBean implements Closeable, AutoCl
                 try {
                     //enrich license info with consumables
                     if (ll.subscription().map(Subscription::getCountQueries).orElse(false))
-                        ll.setConsumables(ApplicationCore.WEB_API.getConsumables(!ll.subscription().get().hasCompoundLimit())); //yearly if there is compound limit
+                        ll.setConsumables(ApplicationCore.webAPI().getConsumables(!ll.subscription().get().hasCompoundLimit())); //yearly if there is compound limit
                 } catch (Exception e) {
                     errors.put(ConnectionError.Klass.APP_SERVER, new ConnectionError(93,
                             "Error when requesting computation limits.",
                             ConnectionError.Klass.APP_SERVER, e));
-                    errors.putAll(ApplicationCore.WEB_API.checkConnection());
+                    errors.putAll(ApplicationCore.webAPI().checkConnection());
                 }
 
             } catch (Exception e) {
                 errors.put(ConnectionError.Klass.APP_SERVER, new ConnectionError(94,
                         "Error when requesting worker information.",
                         ConnectionError.Klass.APP_SERVER, e));
-                errors.putAll(ApplicationCore.WEB_API.checkConnection());
+                errors.putAll(ApplicationCore.webAPI().checkConnection());
             }
 
             checkForInterruption();
@@ -67,7 +67,7 @@ public class NetworkSettingsPanel extends TwoColumnPanel implements ActionListen
     }
 
     private void buildPanel() {
-        webserverURL = new JTextField(Optional.ofNullable(ApplicationCore.WEB_API.getActiveSubscription()).map(Subscription::getServiceUrl).orElse("<No subscription active>"));
+        webserverURL = new JTextField(Optional.ofNullable(ApplicationCore.webAPI().getActiveSubscription()).map(Subscription::getServiceUrl).orElse("<No subscription active>"));
         addNamed("Web service URL", webserverURL);
         webserverURL.setEditable(false);
         webserverURL.setToolTipText(GuiUtils.formatToolTip("URL is provided via your active subscription and cannot be changed manually. You need to be logged in to see the URL."));
@@ -158,18 +158,18 @@ public class NetworkSettingsPanel extends TwoColumnPanel implements ActionListen
     public void reloadChanges() {
         try {
             ProxyManager.withConnectionLock((ExFunctions.Runnable) () -> {
-                ApplicationCore.WEB_API.changeActiveSubscription(null);
+                ApplicationCore.webAPI().changeActiveSubscription(null);
 
                 URI host = URI.create(PropertyManager.getProperty("de.unijena.bioinf.sirius.security.audience"));
                 ProxyManager.reconnect();
 
-                ProxyManager.consumeClient(c -> ApplicationCore.WEB_API.getAuthService()
+                ProxyManager.consumeClient(c -> ApplicationCore.webAPI().getAuthService()
                         .reconnectService(AuthServices.createDefaultApi(host), c)); //load new proxy data from service.
 
                 ProxyManager.enforceGlobalProxySetting(); //update global proxy stuff for Webview.
 
-                ApplicationCore.WEB_API.changeActiveSubscription(
-                        ApplicationCore.WEB_API.getAuthService().getToken()
+                ApplicationCore.webAPI().changeActiveSubscription(
+                        ApplicationCore.webAPI().getAuthService().getToken()
                                 .map(Tokens::getActiveSubscription).orElse(null));
             });
 
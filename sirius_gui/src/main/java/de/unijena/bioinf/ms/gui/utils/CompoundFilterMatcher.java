@@ -22,6 +22,7 @@ import ca.odell.glazedlists.matchers.Matcher;
 import de.unijena.bioinf.ChemistryBase.algorithm.scoring.SScored;
 import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
 import de.unijena.bioinf.ChemistryBase.chem.FormulaConstraints;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
 import de.unijena.bioinf.ChemistryBase.chem.RetentionTime;
 import de.unijena.bioinf.ChemistryBase.ms.lcms.CoelutingTraceSet;
@@ -34,6 +35,7 @@ import de.unijena.bioinf.fingerid.blast.FBCandidates;
 import de.unijena.bioinf.fingerid.blast.TopCSIScore;
 import de.unijena.bioinf.lcms.LCMSCompoundSummary;
 import de.unijena.bioinf.projectspace.CompoundContainer;
+import de.unijena.bioinf.projectspace.CompoundIndex;
 import de.unijena.bioinf.projectspace.FormulaResult;
 import de.unijena.bioinf.projectspace.FormulaResultBean;
 import de.unijena.bioinf.projectspace.InstanceBean;
@@ -84,17 +86,29 @@ public class CompoundFilterMatcher implements Matcher<InstanceBean> {
     }
 
     private boolean anyIOIntenseFilterMatches(InstanceBean item, CompoundFilterModel filterModel) {
+        // values of the compound index do not require loading results from the project-space
+        final Optional<CompoundIndex.Entry> indexed = (filterModel.isElementFilterEnabled() || filterModel.isLipidFilterEnabled() || filterModel.isDbFilterEnabled())
+                ? item.getProjectSpaceManager().getCompoundIndex().flatMap(index -> index.get(item.getID()))
+                : Optional.empty();
+
         if (filterModel.isElementFilterEnabled())
-            if (!matchesElementFilter(item, filterModel)) return false;
+            if (!(indexed.isPresent() ? matchesElementFilter(indexed.get(), filterModel) : matchesElementFilter(item, filterModel)))
+                return false;
 
         if (filterModel.isPeakShapeFilterEnabled())
             if (!filterByPeakShape(item, filterModel)) return false;
 
         if (filterModel.isLipidFilterEnabled())
-            if (!matchesLipidFilter(item, filterModel)) return false;
+            if (!(indexed.isPresent() ? matchesLipidFilter(indexed.get().getLipidClass().isPresent(), filterModel) : matchesLipidFilter(item, filterModel)))
+                return false;
 
-        if (filterModel.isDbFilterEnabled())
-            if (!matchesDBFilter(item, filterModel)) return false;
+        if (filterModel.isDbFilterEnabled()) {
+            final int k = filterModel.getDbFilter().getNumOfCandidates();
+            if (!(indexed.isPresent() && k <= CompoundIndex.MAX_DB_CANDIDATES
+                    ? indexed.get().anyDbCandidateMatches(k, filterModel.getDbFilter().getDbFilterBits())
+                    : matchesDBFilter(item, filterModel)))
+                return false;
+        }
 
         return true;
     }
@@ -122,6 +136,10 @@ public class CompoundFilterMatcher implements Matcher<InstanceBean> {
                 .map(FormulaResultBean::getFragTree).flatMap(Optional::stream)
                 .map(ft -> ft.getAnnotation(LipidSpecies.class)).flatMap(Optional::stream)
                 .findAny().isPresent();
+        return matchesLipidFilter(hasAnyLipidHit, filterModel);
+    }
+
+    private boolean matchesLipidFilter(boolean hasAnyLipidHit, CompoundFilterModel filterModel) {
         return (filterModel.getLipidFilter() == CompoundFilterModel.LipidFilter.ANY_LIPID_CLASS_DETECTED && hasAnyLipidHit) || (filterModel.getLipidFilter() == CompoundFilterModel.LipidFilter.NO_LIPID_CLASS_DETECTED && !hasAnyLipidHit);
     }
 
@@ -178,4 +196,18 @@ public class CompoundFilterMatcher implements Matcher<InstanceBean> {
 
         return r1 || r2;
     }
+
+    private boolean matchesElementFilter(CompoundIndex.Entry entry, CompoundFilterModel filterModel) {
+        CompoundFilterModel.ElementFilter filter = filterModel.getElementFilter();
+        return matchesElementFilter(filter, entry.getTopCSIFormula(), entry.getTopCSIPrecursorFormula(), entry.getTopCSIAdduct())
+                || matchesElementFilter(filter, entry.getTopFormula(), entry.getTopPrecursorFormula(), entry.getTopAdduct());
+    }
+
+    private boolean matchesElementFilter(CompoundFilterModel.ElementFilter filter, Optional<MolecularFormula> formula, Optional<MolecularFormula> precursorFormula, Optional<PrecursorIonType> adduct) {
+        if (adduct.isEmpty())
+            return false;
+        @NotNull FormulaConstraints constraints = filter.constraints;
+        return (filter.matchFormula && formula.map(f -> constraints.isSatisfied(f, adduct.get().getIonization())).orElse(false))
+                || (filter.matchPrecursorFormula && precursorFormula.map(f -> constraints.isSatisfied(f, adduct.get().getIonization())).orElse(false));
+    }
 }
@@ -20,6 +20,7 @@
 package de.unijena.bioinf.projectspace;
 
 import ca.odell.glazedlists.BasicEventList;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.jjobs.TinyBackgroundJJob;
 import de.unijena.bioinf.ms.frontend.subtools.InputFilesOptions;
@@ -102,6 +103,10 @@ public class GuiProjectSpaceManager extends ProjectSpaceManager<InstanceBean> {
             Set<InstanceBean> upt = INSTANCE_LIST.stream().filter(i -> eff.contains(i.getID())).collect(Collectors.toSet());
             Jobs.runEDTLater(() -> SiriusGlazedLists.multiUpdate(MainFrame.MF.getCompoundList().getCompoundList(), upt));
         }).register();
+
+        // index compounds for fast filtering in the background.
+        getCompoundIndex().filter(index -> index.numberOfStaleEntries() > 0)
+                .ifPresent(index -> SiriusJobs.getGlobalJobManager().submitJob(index.makeRefreshJob()));
     }
 
 
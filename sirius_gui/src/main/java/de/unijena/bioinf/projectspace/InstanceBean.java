@@ -104,8 +104,9 @@ public class InstanceBean extends Instance implements SiriusPCS {
 
 
     @Override
-    public synchronized void deleteFormulaResults(@Nullable Collection<FormulaResultId> ridToRemove) {
+    public void deleteFormulaResults(@Nullable Collection<FormulaResultId> ridToRemove) {
         List<ContainerListener.Defined> changed = List.of();
+        lockExclusive();
         try {
             changed = unregisterProjectSpaceListeners();
             //load contain methods to ensure that it is available
@@ -132,6 +133,7 @@ public class InstanceBean extends Instance implements SiriusPCS {
                 }
             });
         } finally {
+            unlockExclusive();
             changed.forEach(ContainerListener.Defined::register);
         }
     }
@@ -79,7 +79,7 @@ public class SiriusContext implements DisposableBean {
         }
 
         try {
-            ApplicationCore.WEB_API.shutdown();
+            ApplicationCore.webAPI().shutdown();
         } catch (IOException e) {
             LoggerFactory.getLogger(SiriusCLIApplication.class).warn("Could not clean up Server data! " + e.getMessage());
             LoggerFactory.getLogger(SiriusCLIApplication.class).debug("Could not clean up Server data!", e);
@@ -103,9 +103,9 @@ public class SiriusContext implements DisposableBean {
             e.printStackTrace();
         } finally {
             try {
-                AuthService as = ApplicationCore.WEB_API.getAuthService();
+                AuthService as = ApplicationCore.webAPI().getAuthService();
                 if (as.isLoggedIn())
-                    AuthServices.writeRefreshToken(ApplicationCore.WEB_API.getAuthService(), ApplicationCore.TOKEN_FILE, true);
+                    AuthServices.writeRefreshToken(ApplicationCore.webAPI().getAuthService(), ApplicationCore.TOKEN_FILE, true);
                 else
                     Files.deleteIfExists(ApplicationCore.TOKEN_FILE);
             } catch (IOException e) {
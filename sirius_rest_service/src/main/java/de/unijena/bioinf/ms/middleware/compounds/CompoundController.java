@@ -19,6 +19,9 @@
 
 package de.unijena.bioinf.ms.middleware.compounds;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.*;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.babelms.CloseableIterator;
@@ -27,10 +30,14 @@ import de.unijena.bioinf.babelms.MsExperimentParser;
 import de.unijena.bioinf.canopus.CanopusResult;
 import de.unijena.bioinf.fingerid.blast.FBCandidates;
 import de.unijena.bioinf.fingerid.blast.TopCSIScore;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobManager;
 import de.unijena.bioinf.ms.frontend.subtools.InputFilesOptions;
 import de.unijena.bioinf.ms.middleware.BaseApiController;
 import de.unijena.bioinf.ms.middleware.compounds.model.CompoundAnnotation;
 import de.unijena.bioinf.ms.middleware.compounds.model.CompoundId;
+import de.unijena.bioinf.ms.middleware.compounds.model.CompoundOptField;
 import de.unijena.bioinf.ms.middleware.compounds.model.MsData;
 import de.unijena.bioinf.ms.middleware.compute.model.ComputeContext;
 import de.unijena.bioinf.ms.middleware.compute.model.JobId;
@@ -49,18 +56,19 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.EnumSet;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -69,33 +77,106 @@ import java.util.stream.Collectors;
 @Tag(name = "Compounds", description = "Access compounds (aka features) of a specified project-space.")
 public class CompoundController extends BaseApiController {
 
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int LOAD_CHUNK_SIZE = 64;
+    private static final Comparator<CompoundContainerId> COMPOUND_ORDER =
+            Comparator.comparingLong(CompoundContainerId::getCompoundIndex).thenComparing(CompoundContainerId::getDirectoryName);
+
     private final ComputeContext computeContext;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public CompoundController(ComputeContext context) {
+    public CompoundController(ComputeContext context, ObjectMapper objectMapper) {
         super(context.siriusContext);
         this.computeContext = context;
+        this.objectMapper = objectMapper;
     }
 
 
     /**
      * Get all available compounds/features in the given project-space.
+     * <p>
+     * Compounds are ordered by their index. Results can be paged either by offset or by cursor ({@code after}), the
+     * cursor for the next page is returned in the {@value #NEXT_CURSOR_HEADER} header and the total number of
+     * compounds in the {@value #TOTAL_COUNT_HEADER} header.
      *
      * @param projectId     project-space to read from.
      * @param topAnnotation include the top annotation of this feature into the output (if available).
      * @param msData        include corresponding source data (MS and MS/MS) into the output.
+     * @param msQuality     include the quality flags of this feature into the output.
+     * @param fields        optional fields to include into the output, alternative to the boolean flags.
+     * @param offset        number of compounds to skip (after the cursor if given).
+     * @param limit         maximum number of compounds to return. 0 or negative returns all compounds.
+     * @param after         cursor: only return compounds after the compound with this id.
      * @return CompoundIds with additional annotations and MS/MS data (if specified).
      */
     @GetMapping(value = "/compounds", produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<CompoundId> getCompounds(@PathVariable String projectId, @RequestParam(required = false, defaultValue = "false") boolean topAnnotation, @RequestParam(required = false, defaultValue = "false") boolean msData, @RequestParam(required = false,defaultValue = "false") boolean msQuality) {
+    public ResponseEntity<List<CompoundId>> getCompounds(@PathVariable String projectId,
+                                                         @RequestParam(required = false, defaultValue = "false") boolean topAnnotation,
+                                                         @RequestParam(required = false, defaultValue = "false") boolean msData,
+                                                         @RequestParam(required = false, defaultValue = "false") boolean msQuality,
+                                                         @RequestParam(required = false) EnumSet<CompoundOptField> fields,
+                                                         @RequestParam(required = false, defaultValue = "0") int offset,
+                                                         @RequestParam(required = false, defaultValue = "0") int limit,
+                                                         @RequestParam(required = false) String after) {
         LoggerFactory.getLogger(CompoundController.class).info("Started collecting compounds...");
         final ProjectSpaceManager<?> space = projectSpace(projectId);
+        final List<CompoundContainerId> all = sortedCompoundIds(space);
+        final List<CompoundContainerId> page = page(space, all, offset, limit, after);
 
-        final ArrayList<CompoundId> compoundIds = new ArrayList<>();
-        space.projectSpace().forEach(ccid -> compoundIds.add(asCompoundId(ccid, space, topAnnotation, msData,msQuality)));
+        final ArrayList<CompoundId> compoundIds = new ArrayList<>(page.size());
+        loadCompoundIds(page, space, asFields(fields, topAnnotation, msData, msQuality), compoundIds::add);
 
         LoggerFactory.getLogger(CompoundController.class).info("Finished parsing compounds...");
-        return compoundIds;
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().header(TOTAL_COUNT_HEADER, String.valueOf(all.size()));
+        if (!page.isEmpty() && page.get(page.size() - 1) != all.get(all.size() - 1))
+            response.header(NEXT_CURSOR_HEADER, page.get(page.size() - 1).getDirectoryName());
+        return response.body(compoundIds);
+    }
+
+    /**
+     * Stream all available compounds/features in the given project-space as newline delimited JSON (one CompoundId
+     * per line). Compounds are written while they are read, optional fields are loaded in parallel. Supports the same
+     * ordering and paging as the non-streaming endpoint.
+     *
+     * @param projectId project-space to read from.
+     * @param fields    optional fields to include into the output.
+     * @param offset    number of compounds to skip (after the cursor if given).
+     * @param limit     maximum number of compounds to return. 0 or negative returns all compounds.
+     * @param after     cursor: only return compounds after the compound with this id.
+     * @return NDJSON stream of CompoundIds.
+     */
+    @GetMapping(value = "/compounds/stream", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCompounds(@PathVariable String projectId,
+                                                                 @RequestParam(required = false) EnumSet<CompoundOptField> fields,
+                                                                 @RequestParam(required = false, defaultValue = "0") int offset,
+                                                                 @RequestParam(required = false, defaultValue = "0") int limit,
+                                                                 @RequestParam(required = false) String after) {
+        final ProjectSpaceManager<?> space = projectSpace(projectId);
+        final List<CompoundContainerId> all = sortedCompoundIds(space);
+        final List<CompoundContainerId> page = page(space, all, offset, limit, after);
+        final EnumSet<CompoundOptField> f = asFields(fields, false, false, false);
+
+        final StreamingResponseBody body = out -> {
+            final ObjectWriter writer = objectMapper.writerFor(CompoundId.class);
+            try {
+                loadCompoundIds(page, space, f, cid -> {
+                    try {
+                        out.write(writer.writeValueAsBytes(cid));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.flush();
+        };
+        return ResponseEntity.ok().header(TOTAL_COUNT_HEADER, String.valueOf(all.size()))
+                .contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
     }
 
     /**
@@ -252,19 +333,83 @@ public class CompoundController extends BaseApiController {
 
 
     private CompoundId asCompoundId(CompoundContainerId cid, ProjectSpaceManager<?> ps, boolean includeSummary, boolean includeMsData, boolean includeMsQuality) {
+        return asCompoundId(cid, ps, asFields(null, includeSummary, includeMsData, includeMsQuality));
+    }
+
+    private CompoundId asCompoundId(CompoundContainerId cid, ProjectSpaceManager<?> ps, EnumSet<CompoundOptField> fields) {
         final CompoundId compoundId = CompoundId.of(cid);
-        if (includeSummary || includeMsData) {
+        if (!fields.isEmpty()) {
             Instance instance = ps.getInstanceFromCompound(cid);
-            if (includeSummary)
+            if (fields.contains(CompoundOptField.topAnnotation))
                 compoundId.setTopAnnotation(asCompoundSummary(instance));
-            if (includeMsData)
+            if (fields.contains(CompoundOptField.msData))
                 compoundId.setMsData(asCompoundMsData(instance));
-            if (includeMsQuality)
+            if (fields.contains(CompoundOptField.qualityFlags))
                 compoundId.setQualityFlags(asCompoundQualityData(instance));
         }
         return compoundId;
     }
 
+    private static EnumSet<CompoundOptField> asFields(EnumSet<CompoundOptField> fields, boolean topAnnotation, boolean msData, boolean msQuality) {
+        final EnumSet<CompoundOptField> f = fields == null ? EnumSet.noneOf(CompoundOptField.class) : EnumSet.copyOf(fields);
+        if (topAnnotation) f.add(CompoundOptField.topAnnotation);
+        if (msData) f.add(CompoundOptField.msData);
+        if (msQuality) f.add(CompoundOptField.qualityFlags);
+        return f;
+    }
+
+    private static List<CompoundContainerId> sortedCompoundIds(ProjectSpaceManager<?> space) {
+        final ArrayList<CompoundContainerId> ids = new ArrayList<>();
+        space.projectSpace().forEach(ids::add);
+        ids.sort(COMPOUND_ORDER);
+        return ids;
+    }
+
+    private List<CompoundContainerId> page(ProjectSpaceManager<?> space, List<CompoundContainerId> sorted, int offset, int limit, String after) {
+        int from = 0;
+        if (after != null && !after.isBlank()) {
+            final CompoundContainerId cursor = parseCID(space, after);
+            int p = Collections.binarySearch(sorted, cursor, COMPOUND_ORDER);
+            from = p < 0 ? -p - 1 : p + 1;
+        }
+        from = (int) Math.min(sorted.size(), (long) from + Math.max(0, offset));
+        final int to = limit > 0 ? (int) Math.min(sorted.size(), (long) from + limit) : sorted.size();
+        return sorted.subList(from, to);
+    }
+
+    /**
+     * Converts the given ids in order. If optional fields are requested they are loaded in parallel in chunks, at most
+     * a bounded number of chunks is loaded ahead of the consumer.
+     */
+    private void loadCompoundIds(List<CompoundContainerId> ids, ProjectSpaceManager<?> space, EnumSet<CompoundOptField> fields, Consumer<CompoundId> consumer) {
+        if (fields.isEmpty()) {
+            ids.forEach(cid -> consumer.accept(CompoundId.of(cid)));
+            return;
+        }
+
+        final JobManager jobManager = SiriusJobs.getGlobalJobManager();
+        final int maxInFlight = Math.max(2, 2 * jobManager.getIOThreads());
+        final ArrayDeque<BasicJJob<List<CompoundId>>> inFlight = new ArrayDeque<>(maxInFlight);
+        for (int from = 0; from < ids.size(); from += LOAD_CHUNK_SIZE) {
+            final List<CompoundContainerId> chunk = ids.subList(from, Math.min(ids.size(), from + LOAD_CHUNK_SIZE));
+            inFlight.add(jobManager.submitJob(new BasicJJob<List<CompoundId>>(JJob.JobType.IO) {
+                @Override
+                protected List<CompoundId> compute() throws Exception {
+                    final List<CompoundId> loaded = new ArrayList<>(chunk.size());
+                    for (CompoundContainerId cid : chunk) {
+                        checkForInterruption();
+                        loaded.add(asCompoundId(cid, space, fields));
+                    }
+                    return loaded;
+                }
+            }));
+            if (inFlight.size() >= maxInFlight)
+                inFlight.poll().takeResult().forEach(consumer);
+        }
+        while (!inFlight.isEmpty())
+            inFlight.poll().takeResult().forEach(consumer);
+    }
+
     private <S, T> Optional<T> opt(S input, Function<S, T> convert) {
         return Optional.ofNullable(input).map(convert);
     }
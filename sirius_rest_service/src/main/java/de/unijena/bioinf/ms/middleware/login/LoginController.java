@@ -61,7 +61,7 @@ public class LoginController {
                              @RequestParam(required = false, defaultValue = "false") boolean failWhenLoggedIn,
                              @RequestParam(required = false, defaultValue = "false") boolean includeSubs
     ) throws IOException, ExecutionException, InterruptedException {
-        AuthService as = ApplicationCore.WEB_API.getAuthService();
+        AuthService as = ApplicationCore.webAPI().getAuthService();
         if (!as.needsLogin()) {
             if (failWhenLoggedIn)
                 throw new ResponseStatusException(HttpStatus.METHOD_NOT_ALLOWED, "Already logged in. Please logout first or use 'failWhenLoggedIn=false'.");
@@ -70,7 +70,7 @@ public class LoginController {
         }
         as.login(credentials.getUsername(), credentials.getPassword());
         if (acceptTerms)
-            ApplicationCore.WEB_API.acceptTermsAndRefreshToken();
+            ApplicationCore.webAPI().acceptTermsAndRefreshToken();
         return getAccountInfo(includeSubs);
     }
 
@@ -79,7 +79,7 @@ public class LoginController {
      */
     @PostMapping(value = "/logout", produces = MediaType.APPLICATION_JSON_VALUE)
     public void logout() {
-        ApplicationCore.WEB_API.getAuthService().logout();
+        ApplicationCore.webAPI().getAuthService().logout();
     }
 
     /**
@@ -90,8 +90,8 @@ public class LoginController {
      */
     @GetMapping(value = "/", produces = MediaType.APPLICATION_JSON_VALUE)
     public AccountInfo getAccountInfo(@RequestParam(required = false, defaultValue = "false") boolean includeSubs) {
-        return ApplicationCore.WEB_API.getAuthService()
-                .getToken().map(t -> AccountInfo.of(t, ApplicationCore.WEB_API.getActiveSubscription(), includeSubs))
+        return ApplicationCore.webAPI().getAuthService()
+                .getToken().map(t -> AccountInfo.of(t, ApplicationCore.webAPI().getActiveSubscription(), includeSubs))
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Not Logged in. Please log in to retrieve account information."));
     }
 
@@ -102,7 +102,7 @@ public class LoginController {
      */
     @GetMapping(value = "/isLoggedIn", produces = MediaType.APPLICATION_JSON_VALUE)
     public boolean isLoggedIn() {
-        return ApplicationCore.WEB_API.getAuthService().isLoggedIn();
+        return ApplicationCore.webAPI().getAuthService().isLoggedIn();
     }
 
     /**
@@ -110,7 +110,7 @@ public class LoginController {
      */
     @GetMapping(value = "/subscriptions", produces = MediaType.APPLICATION_JSON_VALUE)
     public List<Subscription> getSubscriptions() {
-        return ApplicationCore.WEB_API.getAuthService()
+        return ApplicationCore.webAPI().getAuthService()
                 .getToken().map(Tokens::getSubscriptions)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Not Logged in. Please log in to retrieve subscriptions."));
     }